@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Random;
+
+/**
+ * RetryPolicy with a short delay before the first attempt, exponentially growing delays
+ * before further attempts and a total deadline. A random part of each retry delay is
+ * subtracted, so retries of many devices after an access point restarted are spread out.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+	/** Clock */
+	private final Clock clock;
+
+	/** Random used for jitter */
+	private final Random random;
+
+	/** Delay before the first attempt in milliseconds */
+	private final long firstDelay;
+
+	/** Delay before the second attempt in milliseconds, doubled for each further attempt */
+	private final long baseDelay;
+
+	/** Maximum delay in milliseconds */
+	private final long maxDelay;
+
+	/** Fraction of each retry delay that may randomly be subtracted, between 0 and 1 */
+	private final double jitter;
+
+	/** Time in milliseconds after the start after which no attempt is started anymore */
+	private final long deadline;
+
+	/** Maximum number of attempts */
+	private final int maxAttempts;
+
+	/** Time of the start */
+	private long start;
+
+	/**
+	 * Creates an instance with the given parameters.
+	 * @param clock clock
+	 * @param random random used for jitter
+	 * @param firstDelay delay before the first attempt in milliseconds
+	 * @param baseDelay delay before the second attempt in milliseconds, doubled for each further attempt
+	 * @param maxDelay maximum delay in milliseconds
+	 * @param jitter fraction of each retry delay that may randomly be subtracted, between 0 and 1
+	 * @param deadline time in milliseconds after the start after which no attempt is started anymore
+	 * @param maxAttempts maximum number of attempts
+	 */
+	public BackoffRetryPolicy(final Clock clock, final Random random,
+			final long firstDelay, final long baseDelay, final long maxDelay, final double jitter,
+			final long deadline, final int maxAttempts) {
+		this.clock = clock;
+		this.random = random;
+		this.firstDelay = firstDelay;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.jitter = Math.max(0, Math.min(1, jitter));
+		this.deadline = deadline;
+		this.maxAttempts = maxAttempts;
+		this.start = clock.now();
+	}
+
+	/**
+	 * Remembers the current time as start of the deadline.
+	 */
+	public void start() {
+		this.start = clock.now();
+	}
+
+	/**
+	 * Returns firstDelay before the first attempt, and baseDelay * 2^(attempt - 1), but not more
+	 * than maxDelay, minus a random jitter before further attempts. Returns -1 if maxAttempts
+	 * were made or if the attempt would start after the deadline.
+	 * @param attempt attempt, starting with 0
+	 * @return long delay in milliseconds or -1
+	 */
+	public long nextDelay(final int attempt) {
+		if(attempt >= maxAttempts) {
+			return -1;
+		}
+		if(attempt == 0) {
+			return firstDelay;
+		}
+
+		long delay = maxDelay;
+		if(attempt - 1 < 62 && baseDelay <= maxDelay >> (attempt - 1)) {
+			delay = baseDelay << (attempt - 1);
+		}
+		delay -= (long)(delay * jitter * random.nextDouble());
+
+		if(clock.now() - start + delay > deadline) {
+			return -1;
+		}
+		return delay;
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * Interface for a clock, so time dependent behaviour can be tested with a fake clock.
+ * 
+ * @author torsten.roemer@luniks.net
+ */
+public interface Clock {
+
+	/**
+	 * Returns the current time in milliseconds. Only the difference between
+	 * two values is meaningful.
+	 * @return long current time in milliseconds
+	 */
+	long now();
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import android.os.SystemClock;
+
+/**
+ * Clock implementation using the time since boot, which does not jump when
+ * the wall clock is changed.
+ * 
+ * @author torsten.roemer@luniks.net
+ */
+public class ClockImpl implements Clock {
+
+	/**
+	 * Returns the milliseconds since boot, including time spent in sleep.
+	 * @return long current time in milliseconds
+	 */
+	public long now() {
+		return SystemClock.elapsedRealtime();
+	}
+
+}
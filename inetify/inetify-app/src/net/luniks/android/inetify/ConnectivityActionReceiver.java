@@ -18,17 +18,17 @@ package net.luniks.android.inetify;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
 import android.os.PowerManager;
-import android.preference.PreferenceManager;
 
 /**
  * BroadcastReceiver that receives android.net.conn.CONNECTIVITY_CHANGE and
  * android.net.wifi.STATE_CHANGE intents and starts the InetifyIntentService when
- * Wifi connects or disconnects.
+ * Wifi connects or disconnects. Events coming in while a start of the service is
+ * still pending are collapsed into that start, so roaming between access points
+ * does not restart the test for each event.
  * 
  * @author torsten.roemer@luniks.net
  */
@@ -36,6 +36,9 @@ public class ConnectivityActionReceiver extends BroadcastReceiver {
 	
 	/** Lookup key for a boolean that provides extra information if wifi is connected or not */
 	public static final String EXTRA_IS_WIFI_CONNECTED = "isWifiConnected";
+	
+	/** Lookup key for a long that provides the generation of the network state, see ProbeScheduler */
+	public static final String EXTRA_GENERATION = "generation";
 
 	/**
 	 * Checks if Wifi connected or disconnected and then starts InetifyIntentService,
@@ -44,8 +47,7 @@ public class ConnectivityActionReceiver extends BroadcastReceiver {
 	@Override
 	public void onReceive(final Context context, final Intent intent) {
 		
-		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-		boolean enabled  = sharedPreferences.getBoolean(Settings.INTERNET_CHECK, false);
+		boolean enabled = SettingsSnapshot.getInstance(context).isInternetCheck();
 		
 		if(intent != null && intent.getAction() != null && enabled) {
 			String action = intent.getAction();
@@ -63,6 +65,7 @@ public class ConnectivityActionReceiver extends BroadcastReceiver {
 				NetworkInfo networkInfo = intent.getParcelableExtra(ConnectivityManager.EXTRA_NETWORK_INFO);
 				if(networkInfo.getType() == ConnectivityManager.TYPE_WIFI && ! networkInfo.isConnected()) {
 					// Log.d(Inetify.LOG_TAG, String.format("Wifi disconnected: %s", String.valueOf(networkInfo)));
+					ProbeTransport.getInstance().flush();
 					startService(context, false);
 				}
 			}
@@ -70,11 +73,18 @@ public class ConnectivityActionReceiver extends BroadcastReceiver {
 	}
 	
 	/**
-	 * Starts InetifyIntentService, passing an intent with EXTRA_IS_WIFI_CONNECTED
+	 * Starts InetifyIntentService, passing an intent with EXTRA_IS_WIFI_CONNECTED and
+	 * the new EXTRA_GENERATION, unless a start is pending, in which case the service will
+	 * test the latest state.
 	 * @param isWifiConnected
 	 */
 	private void startService(final Context context, final boolean isWifiConnected) {
 		
+		boolean serviceBusy = InetifyIntentService.wakeLock != null && InetifyIntentService.wakeLock.isHeld();
+		if(! InetifyIntentService.eventCoalescer.offer(isWifiConnected, serviceBusy)) {
+			return;
+		}
+		
 		if(InetifyIntentService.wakeLock == null) {
 			PowerManager powerManager = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
 			InetifyIntentService.wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, 
@@ -82,12 +92,18 @@ public class ConnectivityActionReceiver extends BroadcastReceiver {
 		}
 		if(! InetifyIntentService.wakeLock.isHeld()) {
 			InetifyIntentService.wakeLock.acquire();
+			WakeLockStats.getInstance(context).acquired(InetifyIntentService.WAKE_LOCK_TAG, 
+					isWifiConnected ? WakeLockStats.CAUSE_WIFI_CONNECTED : WakeLockStats.CAUSE_WIFI_DISCONNECTED);
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Acquired wake lock"));
 		}
 		
+		// Drops the tests of the previous network state that are still queued
+		long generation = ProbeScheduler.getInstance(context).newGeneration();
+		
 		Intent serviceIntent = new Intent(context, InetifyIntentService.class);
 		serviceIntent.putExtra(EXTRA_IS_WIFI_CONNECTED, isWifiConnected);
+		serviceIntent.putExtra(EXTRA_GENERATION, generation);
 		context.startService(serviceIntent);
 	}
 
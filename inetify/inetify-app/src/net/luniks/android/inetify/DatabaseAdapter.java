@@ -15,6 +15,9 @@
  */
 package net.luniks.android.inetify;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import android.database.Cursor;
 import android.location.Location;
 
@@ -28,6 +31,8 @@ public interface DatabaseAdapter {
 	/**
 	 * Adds the given BSSID and SSID as ignored Wifi network to the database.
 	 * If an entry with the same BSSID exists it will be replaced.
+	 * An SSID containing the wildcard '*' is a rule ignoring all matching SSIDs,
+	 * see IgnoreMatcher.
 	 * @param bssid
 	 * @param ssid
 	 * @return boolean true if successfully added, false otherwise
@@ -35,7 +40,18 @@ public interface DatabaseAdapter {
 	boolean addIgnoredWifi(String bssid, String ssid);
 	
 	/**
-	 * Returns true if the given SSID is an ignored Wifi network, false otherwise. 
+	 * Adds the first count of the given BSSIDs and SSIDs as ignored Wifi networks
+	 * in one transaction, replacing entries with the same BSSID.
+	 * @param bssids
+	 * @param ssids
+	 * @param count
+	 * @return int number of entries added
+	 */
+	int addIgnoredWifis(String[] bssids, String[] ssids, int count);
+	
+	/**
+	 * Returns true if the given SSID is an ignored Wifi network or matches a rule
+	 * of the ignore list, false otherwise. 
 	 * @param ssid
 	 * @return boolean true if ignored, false otherwise
 	 */
@@ -54,6 +70,37 @@ public interface DatabaseAdapter {
 	 */
 	Cursor fetchIgnoredWifis();
 	
+	/**
+	 * Returns a cursor to up to limit ignored Wifi networks from the given offset, in the
+	 * order of fetchIgnoredWifis(), whose SSID contains the given filter, ignoring the
+	 * case of ASCII letters. Contains all ignored Wifi networks if the filter is null or empty.
+	 * @param filter
+	 * @param offset
+	 * @param limit
+	 * @return Cursor ignored Wifi networks
+	 */
+	Cursor fetchIgnoredWifis(String filter, int offset, int limit);
+	
+	/**
+	 * Returns a cursor to up to limit ignored Wifi networks following the one with the
+	 * given SSID and BSSID, in the order of fetchIgnoredWifis(), whose SSID contains the
+	 * given filter, like fetchIgnoredWifis(String, int, int).
+	 * @param filter
+	 * @param afterSSID
+	 * @param afterBSSID
+	 * @param limit
+	 * @return Cursor ignored Wifi networks
+	 */
+	Cursor fetchIgnoredWifis(String filter, String afterSSID, String afterBSSID, int limit);
+	
+	/**
+	 * Returns the number of ignored Wifi networks whose SSID contains the given filter,
+	 * like fetchIgnoredWifis(String, int, int).
+	 * @param filter
+	 * @return int number of ignored Wifi networks
+	 */
+	int countIgnoredWifis(String filter);
+	
     /**
      * Adds the given Wifi identified by the given BSSID together with its SSID and location
      * to the database.
@@ -65,6 +112,15 @@ public interface DatabaseAdapter {
      */
 	boolean addLocation(final String bssid, final String ssid, final String name, final Location location);
 
+	/**
+	 * Adds the first count of the given Wifi locations in one transaction,
+	 * replacing locations with the same BSSID.
+	 * @param locations
+	 * @param count
+	 * @return int number of locations added
+	 */
+	int addLocations(WifiLocation[] locations, int count);
+	
 	/**
 	 * Deletes the location of the Wifi identified by the given BSSID.
 	 * @param bssid
@@ -88,6 +144,37 @@ public interface DatabaseAdapter {
 	 */
 	public Cursor fetchLocations();
 	
+	/**
+	 * Returns a cursor to up to limit Wifi locations from the given offset, in the
+	 * order of fetchLocations(), whose name or SSID contains the given filter, ignoring
+	 * the case of ASCII letters. Contains all Wifi locations if the filter is null or empty.
+	 * @param filter
+	 * @param offset
+	 * @param limit
+	 * @return Cursor Wifi locations
+	 */
+	public Cursor fetchLocations(String filter, int offset, int limit);
+	
+	/**
+	 * Returns a cursor to up to limit Wifi locations following the one with the given
+	 * name and BSSID, in the order of fetchLocations(), whose name or SSID contains the
+	 * given filter, like fetchLocations(String, int, int).
+	 * @param filter
+	 * @param afterName
+	 * @param afterBSSID
+	 * @param limit
+	 * @return Cursor Wifi locations
+	 */
+	public Cursor fetchLocations(String filter, String afterName, String afterBSSID, int limit);
+	
+	/**
+	 * Returns the number of Wifi locations whose name or SSID contains the given filter,
+	 * like fetchLocations(String, int, int).
+	 * @param filter
+	 * @return int number of Wifi locations
+	 */
+	public int countLocations(String filter);
+	
 	/**
 	 * Returns true if there is at least one Wifi location in the database,
 	 * false otherwise.
@@ -119,6 +206,91 @@ public interface DatabaseAdapter {
 	 */
 	public TestInfo fetchTestResult();
 	
+	/**
+	 * Appends the given test result details to the test history.
+	 * @param timestamp
+	 * @param type
+	 * @param subtype
+	 * @param bssid
+	 * @param status
+	 * @param latency
+	 * @return boolean true if successfully added, false otherwise
+	 */
+	public boolean addTestHistory(long timestamp, int type, String subtype, String bssid, boolean status, long latency);
+	
+	/**
+	 * Appends the given test result details with the time of each phase of the probe
+	 * to the test history.
+	 * @param timestamp
+	 * @param type
+	 * @param subtype
+	 * @param bssid
+	 * @param status
+	 * @param latency
+	 * @param phaseTimes indexed by the ProbeTimings.PHASE_ constants, -1 or null if unknown
+	 * @return boolean true if successfully added, false otherwise
+	 */
+	public boolean addTestHistory(long timestamp, int type, String subtype, String bssid, boolean status, long latency, long[] phaseTimes);
+	
+	/**
+	 * Returns the given percentile of the time of each phase over the test history,
+	 * indexed by the ProbeTimings.PHASE_ constants, or -1 for a phase without any
+	 * time in the test history.
+	 * @param percentile between 1 and 100
+	 * @return long[] times in milliseconds
+	 */
+	public long[] fetchPhasePercentiles(int percentile);
+	
+	/**
+	 * Returns a cursor to the test history from the given time inclusive to the given
+	 * time exclusive, latest first.
+	 * @param from
+	 * @param to
+	 * @return Cursor test history
+	 */
+	public Cursor fetchTestHistory(long from, long to);
+	
+	/**
+	 * Returns a cursor to the test history of the Wifi network with the given BSSID
+	 * from the given time inclusive to the given time exclusive, latest first.
+	 * @param bssid
+	 * @param from
+	 * @param to
+	 * @return Cursor test history
+	 */
+	public Cursor fetchTestHistory(String bssid, long from, long to);
+	
+	/**
+	 * Inserts or replaces the given test result as cached test result with the given key.
+	 * @param key
+	 * @param info
+	 * @return boolean true if successfully inserted, false otherwise
+	 */
+	public boolean updateCachedTestResult(String key, TestInfo info);
+	
+	/**
+	 * Returns the cached test result with the given key, or null if there is none.
+	 * @param key
+	 * @return TestInfo
+	 */
+	public TestInfo fetchCachedTestResult(String key);
+	
+	/**
+	 * Deletes the cached test result with the given key.
+	 * @param key
+	 * @return boolean true if an entry was deleted, false otherwise
+	 */
+	public boolean deleteCachedTestResult(String key);
+	
+	/**
+	 * Runs the given write in the background and returns its result as future.
+	 * The given listener, if not null, is notified when the write was committed.
+	 * @param write
+	 * @param listener may be null
+	 * @return Future result of the write
+	 */
+	<T> Future<T> submit(Callable<T> write, DatabaseWriter.Listener<T> listener);
+	
 	/**
 	 * Effectively closes the database.
 	 */
@@ -15,9 +15,17 @@
  */
 package net.luniks.android.inetify;
 
-import android.content.ContentValues;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -34,6 +42,14 @@ import android.location.Location;
  * For the locationlist, the BSSID is used to identify a Wifi network, 
  * since the same SSID can exist at different locations, like
  * commercial hotspots.
+ * The test history is append only and capped by row count and age. It is
+ * pruned only every HISTORY_PRUNE_INTERVAL inserts, deleting the rows over
+ * the caps by their row id and timestamp index, so the cost of an insert
+ * does not grow with the size of the history.
+ * All writes are run on the single writer thread of the DatabaseWriter, batched
+ * with the writes queued up meanwhile. The synchronous write methods wait for
+ * their write to be committed, so callers not needing the result, and Activities,
+ * should submit() them instead.
  * 
  * @author torsten.roemer@luniks.net
  */
@@ -72,6 +88,46 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 	/** Status of the connection */
 	public static final String COLUMN_STATUS = "status";
 	
+	/** Key of a cached test result */
+	public static final String COLUMN_KEY = "key";
+	
+	/** Type name of a connection */
+	public static final String COLUMN_TYPENAME = "typename";
+	
+	/** Internet site tested */
+	public static final String COLUMN_SITE = "site";
+	
+	/** Expected title */
+	public static final String COLUMN_TITLE = "title";
+	
+	/** Page title of the internet site */
+	public static final String COLUMN_PAGETITLE = "pagetitle";
+	
+	/** Time a test took in milliseconds */
+	public static final String COLUMN_LATENCY = "latency";
+	
+	/** Time connecting of a test took in milliseconds, including the DNS lookup and the TLS handshake */
+	public static final String COLUMN_CONNECT = "connect";
+	
+	/** Time to the first byte of the response of a test in milliseconds */
+	public static final String COLUMN_FIRSTBYTE = "firstbyte";
+	
+	/** Time parsing the page of a test took in milliseconds */
+	public static final String COLUMN_PARSE = "parse";
+	
+	/** Columns of the phase times, indexed by the ProbeTimings.PHASE_ constants */
+	public static final String[] PHASE_COLUMNS = {
+		COLUMN_CONNECT, COLUMN_FIRSTBYTE, COLUMN_PARSE};
+	
+	/** Grid cell of the latitude of a location */
+	public static final String COLUMN_CELLLAT = "celllat";
+	
+	/** Grid cell of the longitude of a location */
+	public static final String COLUMN_CELLLON = "celllon";
+	
+	/** Value of a counter */
+	public static final String COLUMN_VALUE = "value";
+	
 	/** Table used for the ignore list */
 	public static final String IGNORELIST_TABLE_NAME = "ignorelist";
 	
@@ -81,14 +137,65 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 	/** Table used for the test results */
 	public static final String TESTRESULTS_TABLE_NAME = "testresults";
 	
+	/** Table used for the cached test results */
+	public static final String TESTCACHE_TABLE_NAME = "testcache";
+	
+	/** Table used for the test history */
+	public static final String TESTHISTORY_TABLE_NAME = "testhistory";
+	
+	/** Table used for counters, like the version of the ignore list */
+	public static final String COUNTERS_TABLE_NAME = "counters";
+	
+	/** Default maximum number of rows in the test history */
+	public static final int HISTORY_MAX_ROWS = 20000;
+	
+	/** Default maximum age of rows in the test history in milliseconds */
+	public static final long HISTORY_MAX_AGE = 90L * 24 * 60 * 60 * 1000;
+	
+	/** The test history is pruned every this many inserts */
+	public static final int HISTORY_PRUNE_INTERVAL = 100;
+	
+	/** Size of the grid cells used to find the nearest location, in degrees */
+	public static final double CELL_DEG = 0.1;
+	
+	/** Maximum number of rings of grid cells around a location to look at */
+	public static final int NEAREST_MAX_RINGS = 64;
+	
+	/** Smallest radius of curvature of the WGS84 ellipsoid, meridional at the equator */
+	private static final double MIN_RADIUS = 6335439;
+	
 	/** Database name */
 	public static final String DATABASE_NAME = "inetifydb";
 	
 	/** Max length of a name */
-	private static final int NAME_MAX_LENGTH = 32;
+	public static final int NAME_MAX_LENGTH = 32;
 	
 	/** Database version */
-	private static final int DATABASE_VERSION = 3;
+	private static final int DATABASE_VERSION = 10;
+	
+	/** Cached test results older than this are deleted, in milliseconds */
+	private static final long TESTCACHE_MAX_AGE = 24 * 60 * 60 * 1000;
+	
+	/** SQL matching a column with a LIKE pattern escaped by getFilterArgs() */
+	private static final String LIKE = " LIKE ? ESCAPE '\\'";
+	
+	/** SQL selecting the Wifi locations whose name or SSID matches a filter */
+	private static final String LOCATIONLIST_FILTER =
+		"(" + COLUMN_NAME + LIKE + " OR " + COLUMN_SSID + LIKE + ")";
+	
+	/** Order of the ignored Wifi networks, by SSID and then by the unique BSSID */
+	private static final String IGNORELIST_ORDER = COLUMN_SSID + " COLLATE UNICODE, " + COLUMN_BSSID;
+	
+	/** Order of the Wifi locations, by name and then by the unique BSSID */
+	private static final String LOCATIONLIST_ORDER = COLUMN_NAME + " COLLATE UNICODE, " + COLUMN_BSSID;
+	
+	/** SQL selecting the ignored Wifi networks following an SSID and a BSSID in IGNORELIST_ORDER */
+	private static final String IGNORELIST_AFTER =
+		COLUMN_SSID + " COLLATE UNICODE >= ? AND (" + COLUMN_SSID + " COLLATE UNICODE > ? OR " + COLUMN_BSSID + " > ?)";
+	
+	/** SQL selecting the Wifi locations following a name and a BSSID in LOCATIONLIST_ORDER */
+	private static final String LOCATIONLIST_AFTER =
+		COLUMN_NAME + " COLLATE UNICODE >= ? AND (" + COLUMN_NAME + " COLLATE UNICODE > ? OR " + COLUMN_BSSID + " > ?)";
 	
 	/** SQL to create the inital database */
 	private static final String IGNORELIST_TABLE_CREATE =
@@ -106,7 +213,12 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		COLUMN_LAT + " NUMBER NOT NULL, " +
 		COLUMN_LON + " NUMBER NOT NULL, " +
 		COLUMN_ACC + " NUMBER NOT NULL, " +
+		COLUMN_CELLLAT + " INTEGER, " +
+		COLUMN_CELLLON + " INTEGER, " +
 		"UNIQUE (" + COLUMN_BSSID + ") ON CONFLICT REPLACE)";
+	private static final String LOCATIONLIST_CELL_INDEX_CREATE =
+		"CREATE INDEX " + LOCATIONLIST_TABLE_NAME + "_cell ON " +
+		LOCATIONLIST_TABLE_NAME + " (" + COLUMN_CELLLAT + ", " + COLUMN_CELLLON + ")";
 	private static final String TESTRESULTS_TABLE_CREATE =
 		"CREATE TABLE " + TESTRESULTS_TABLE_NAME + " (" +
 		COLUMN_ROWID + " INTEGER PRIMARY KEY, " +
@@ -114,12 +226,91 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		COLUMN_TYPE + " INTEGER, " +
 		COLUMN_SUBTYPE + " TEXT, " +
 		COLUMN_STATUS + " INTEGER)";
+	private static final String TESTCACHE_TABLE_CREATE =
+		"CREATE TABLE " + TESTCACHE_TABLE_NAME + " (" +
+		COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		COLUMN_KEY + " TEXT NOT NULL, " +
+		COLUMN_TIMESTAMP + " LONG, " +
+		COLUMN_TYPE + " INTEGER, " +
+		COLUMN_TYPENAME + " TEXT, " +
+		COLUMN_SSID + " TEXT, " +
+		COLUMN_BSSID + " TEXT, " +
+		COLUMN_SITE + " TEXT, " +
+		COLUMN_TITLE + " TEXT, " +
+		COLUMN_PAGETITLE + " TEXT, " +
+		COLUMN_STATUS + " INTEGER, " +
+		"UNIQUE (" + COLUMN_KEY + ") ON CONFLICT REPLACE)";
+	private static final String TESTHISTORY_TABLE_CREATE =
+		"CREATE TABLE " + TESTHISTORY_TABLE_NAME + " (" +
+		COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+		COLUMN_TYPE + " INTEGER, " +
+		COLUMN_SUBTYPE + " TEXT, " +
+		COLUMN_BSSID + " TEXT, " +
+		COLUMN_STATUS + " INTEGER, " +
+		COLUMN_LATENCY + " INTEGER, " +
+		COLUMN_CONNECT + " INTEGER DEFAULT -1, " +
+		COLUMN_FIRSTBYTE + " INTEGER DEFAULT -1, " +
+		COLUMN_PARSE + " INTEGER DEFAULT -1)";
+	private static final String TESTHISTORY_TIMESTAMP_INDEX_CREATE =
+		"CREATE INDEX " + TESTHISTORY_TABLE_NAME + "_" + COLUMN_TIMESTAMP + " ON " +
+		TESTHISTORY_TABLE_NAME + " (" + COLUMN_TIMESTAMP + ")";
+	private static final String TESTHISTORY_BSSID_INDEX_CREATE =
+		"CREATE INDEX " + TESTHISTORY_TABLE_NAME + "_" + COLUMN_BSSID + " ON " +
+		TESTHISTORY_TABLE_NAME + " (" + COLUMN_BSSID + ", " + COLUMN_TIMESTAMP + ")";
+	private static final String IGNORELIST_SSID_INDEX_CREATE =
+		"CREATE INDEX " + IGNORELIST_TABLE_NAME + "_" + COLUMN_SSID + " ON " +
+		IGNORELIST_TABLE_NAME + " (" + COLUMN_SSID + ")";
+	private static final String IGNORELIST_ORDER_INDEX_CREATE =
+		"CREATE INDEX " + IGNORELIST_TABLE_NAME + "_order ON " +
+		IGNORELIST_TABLE_NAME + " (" + IGNORELIST_ORDER + ")";
+	private static final String LOCATIONLIST_ORDER_INDEX_CREATE =
+		"CREATE INDEX " + LOCATIONLIST_TABLE_NAME + "_order ON " +
+		LOCATIONLIST_TABLE_NAME + " (" + LOCATIONLIST_ORDER + ")";
+	private static final String COUNTERS_TABLE_CREATE =
+		"CREATE TABLE " + COUNTERS_TABLE_NAME + " (" +
+		COLUMN_NAME + " TEXT PRIMARY KEY, " +
+		COLUMN_VALUE + " INTEGER NOT NULL)";
+	private static final String COUNTERS_IGNORELIST_INSERT =
+		"INSERT INTO " + COUNTERS_TABLE_NAME + " VALUES ('" + IGNORELIST_TABLE_NAME + "', 0)";
+	private static final String[] IGNORELIST_TRIGGERS_CREATE = {
+		ignoreListTrigger("INSERT"), ignoreListTrigger("UPDATE"), ignoreListTrigger("DELETE")};
 	
 	/** Extended DatabaseOpenHelper */
 	private final DatabaseOpenHelper helper;
 	
+	/** Maximum number of rows in the test history */
+	private final int historyMaxRows;
+	
+	/** Maximum age of rows in the test history in milliseconds */
+	private final long historyMaxAge;
+	
+	/** Compiled statements of the database used by writes, while running writes */
+	private final StatementCache statements = new StatementCache();
+	
+	/** Compiled statements of the database used by reads, on any thread */
+	private final StatementCache readStatements = new StatementCache();
+	
+	/** Runs the writes on its writer thread */
+	private final DatabaseWriter writer;
+	
+	/** If the copies in memory should be discarded after the current transaction, while running writes */
+	private boolean snapshotsStale = false;
+	
+	/** Updates of the copies in memory to apply once the current transaction is committed, while running writes */
+	private final List<Runnable> snapshotUpdates = new ArrayList<Runnable>();
+	
+	/** If this is the instance shared by the whole process */
+	private final boolean shared;
+	
+	/** If the version of the ignore list in memory was checked since the database was opened */
+	private volatile boolean ignoreListValidated = false;
+	
 	/** The SQLite database */
-	private SQLiteDatabase database;
+	private volatile SQLiteDatabase database;
+	
+	/** The instance shared by the whole process */
+	private static DatabaseAdapterImpl instance = null;
 	
 	/**
 	 * Implementation of DatabaseOpenHelper.
@@ -136,7 +327,32 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		public void onCreate(final SQLiteDatabase database) {
 			database.execSQL(IGNORELIST_TABLE_CREATE);
 			database.execSQL(LOCATIONLIST_TABLE_CREATE);
+			database.execSQL(LOCATIONLIST_CELL_INDEX_CREATE);
 			database.execSQL(TESTRESULTS_TABLE_CREATE);
+			database.execSQL(TESTCACHE_TABLE_CREATE);
+			database.execSQL(TESTHISTORY_TABLE_CREATE);
+			database.execSQL(TESTHISTORY_TIMESTAMP_INDEX_CREATE);
+			database.execSQL(TESTHISTORY_BSSID_INDEX_CREATE);
+			createIgnoreListVersion(database);
+			database.execSQL(IGNORELIST_ORDER_INDEX_CREATE);
+			database.execSQL(LOCATIONLIST_ORDER_INDEX_CREATE);
+			
+			// The database was deleted, so the locations in memory are gone too
+			LocationSnapshot.getInstance().invalidate();
+			IgnoreListSnapshot.getInstance().invalidate();
+		}
+	
+		/**
+		 * Enables write-ahead logging if available, so reads are not blocked by writes.
+		 * SQLiteDatabase.enableWriteAheadLogging() is not available before API level 11.
+		 */
+		@Override
+		public void onOpen(final SQLiteDatabase database) {
+			try {
+				SQLiteDatabase.class.getMethod("enableWriteAheadLogging").invoke(database);
+			} catch(Exception e) {
+				// Log.d(Inetify.LOG_TAG, String.format("Write-ahead logging not available: %s", e.getMessage()));
+			}
 		}
 	
 		@Override
@@ -160,6 +376,185 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 					database.endTransaction();
 				}
 			}
+			
+			if(oldVersion < 4 && newVersion >= 4) {
+				database.beginTransaction();
+				try {
+					database.execSQL(TESTCACHE_TABLE_CREATE);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 5 && newVersion >= 5) {
+				database.beginTransaction();
+				try {
+					database.execSQL(TESTHISTORY_TABLE_CREATE);
+					database.execSQL(TESTHISTORY_TIMESTAMP_INDEX_CREATE);
+					database.execSQL(TESTHISTORY_BSSID_INDEX_CREATE);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 6 && newVersion >= 6) {
+				database.beginTransaction();
+				try {
+					// A table created with version 2 to 5 doesn't have the grid cell columns yet
+					if(oldVersion >= 2) {
+						database.execSQL("ALTER TABLE " + LOCATIONLIST_TABLE_NAME + 
+								" ADD COLUMN " + COLUMN_CELLLAT + " INTEGER");
+						database.execSQL("ALTER TABLE " + LOCATIONLIST_TABLE_NAME + 
+								" ADD COLUMN " + COLUMN_CELLLON + " INTEGER");
+						database.execSQL("UPDATE " + LOCATIONLIST_TABLE_NAME + " SET " + 
+								COLUMN_CELLLAT + " = " + floor(COLUMN_LAT + " / " + CELL_DEG) + ", " + 
+								COLUMN_CELLLON + " = " + floor(COLUMN_LON + " / " + CELL_DEG));
+					}
+					database.execSQL(LOCATIONLIST_CELL_INDEX_CREATE);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 7 && newVersion >= 7) {
+				database.beginTransaction();
+				try {
+					createIgnoreListVersion(database);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 8 && newVersion >= 8) {
+				database.beginTransaction();
+				try {
+					// A table created with version 5 to 7 doesn't have the phase time columns yet
+					if(oldVersion >= 5) {
+						for(String column : PHASE_COLUMNS) {
+							database.execSQL("ALTER TABLE " + TESTHISTORY_TABLE_NAME + 
+									" ADD COLUMN " + column + " INTEGER DEFAULT -1");
+						}
+					}
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 9 && newVersion >= 9) {
+				database.beginTransaction();
+				try {
+					database.execSQL(IGNORELIST_ORDER_INDEX_CREATE);
+					database.execSQL(LOCATIONLIST_ORDER_INDEX_CREATE);
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			if(oldVersion < 10 && newVersion >= 10) {
+				database.beginTransaction();
+				try {
+					// A table created with version 8 or 9 has columns for the DNS lookup and the TLS handshake, never timed separately
+					if(oldVersion >= 8) {
+						String columns = COLUMN_ROWID + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_TYPE + ", " + 
+								COLUMN_SUBTYPE + ", " + COLUMN_BSSID + ", " + COLUMN_STATUS + ", " + COLUMN_LATENCY + ", " + 
+								COLUMN_CONNECT + ", " + COLUMN_FIRSTBYTE + ", " + COLUMN_PARSE;
+						database.execSQL("ALTER TABLE " + TESTHISTORY_TABLE_NAME + " RENAME TO " + TESTHISTORY_TABLE_NAME + "_old");
+						database.execSQL(TESTHISTORY_TABLE_CREATE);
+						database.execSQL("INSERT INTO " + TESTHISTORY_TABLE_NAME + " (" + columns + ") " + 
+								"SELECT " + columns + " FROM " + TESTHISTORY_TABLE_NAME + "_old");
+						// Drops the indexes too, so they can be created on the new table
+						database.execSQL("DROP TABLE " + TESTHISTORY_TABLE_NAME + "_old");
+						database.execSQL(TESTHISTORY_TIMESTAMP_INDEX_CREATE);
+						database.execSQL(TESTHISTORY_BSSID_INDEX_CREATE);
+					}
+					database.setTransactionSuccessful();
+				} finally {
+					database.endTransaction();
+				}
+			}
+			
+			LocationSnapshot.getInstance().invalidate();
+			IgnoreListSnapshot.getInstance().invalidate();
+		}
+		
+		/**
+		 * Creates the index on the SSIDs of the ignore list, the counter of its version
+		 * and the triggers incrementing it.
+		 * @param database
+		 */
+		private static void createIgnoreListVersion(final SQLiteDatabase database) {
+			database.execSQL(IGNORELIST_SSID_INDEX_CREATE);
+			database.execSQL(COUNTERS_TABLE_CREATE);
+			database.execSQL(COUNTERS_IGNORELIST_INSERT);
+			for(String trigger : IGNORELIST_TRIGGERS_CREATE) {
+				database.execSQL(trigger);
+			}
+		}
+		
+		/**
+		 * Returns an SQL expression rounding the given expression down to an integer,
+		 * as SQLite has no floor() function.
+		 * @param expression
+		 * @return String SQL expression
+		 */
+		private static String floor(final String expression) {
+			return String.format("(CAST(%1$s AS INTEGER) - (%1$s < CAST(%1$s AS INTEGER)))", expression);
+		}
+	}
+	
+	/**
+	 * Cache of the statements compiled for a database, keyed by their SQL,
+	 * so they are not compiled again on every call. The statements are closed
+	 * when the adapter is closed or the database is opened again.
+	 * Not thread safe.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class StatementCache {
+		
+		/** The statements */
+		private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+		
+		/** Database the statements are compiled for */
+		private SQLiteDatabase database = null;
+		
+		/**
+		 * Returns the statement with the given SQL compiled for the given database,
+		 * with its bindings cleared. Closes the statements compiled for another
+		 * database, which was closed in the meantime.
+		 * @param database
+		 * @param sql
+		 * @return SQLiteStatement statement
+		 */
+		public SQLiteStatement get(final SQLiteDatabase database, final String sql) {
+			if(database != this.database) {
+				close();
+				this.database = database;
+			}
+			SQLiteStatement stmt = statements.get(sql);
+			if(stmt == null) {
+				stmt = database.compileStatement(sql);
+				statements.put(sql, stmt);
+			} else {
+				stmt.clearBindings();
+			}
+			return stmt;
+		}
+		
+		/**
+		 * Closes all statements.
+		 */
+		public void close() {
+			for(SQLiteStatement stmt : statements.values()) {
+				stmt.close();
+			}
+			statements.clear();
 		}
 	}
 	
@@ -168,16 +563,111 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 	 * @param context
 	 */
 	public DatabaseAdapterImpl(final Context context) {
+		this(context, HISTORY_MAX_ROWS, HISTORY_MAX_AGE);
+	}
+	
+	/**
+	 * Initializes the adapter with the given context, capping the test history
+	 * to the given number of rows and age.
+	 * @param context
+	 * @param historyMaxRows maximum number of rows in the test history
+	 * @param historyMaxAge maximum age of rows in the test history in milliseconds
+	 */
+	public DatabaseAdapterImpl(final Context context, final int historyMaxRows, final long historyMaxAge) {
+		this(context, historyMaxRows, historyMaxAge, false);
+	}
+	
+	/**
+	 * Initializes the adapter with the given context, capping the test history
+	 * to the given number of rows and age.
+	 * @param context
+	 * @param historyMaxRows maximum number of rows in the test history
+	 * @param historyMaxAge maximum age of rows in the test history in milliseconds
+	 * @param shared true if this is the instance shared by the whole process
+	 */
+	private DatabaseAdapterImpl(final Context context, final int historyMaxRows, final long historyMaxAge, 
+			final boolean shared) {
 		this.helper = new DatabaseOpenHelper(context);
+		this.historyMaxRows = historyMaxRows;
+		this.historyMaxAge = historyMaxAge;
+		this.shared = shared;
+		this.writer = new DatabaseWriter(DATABASE_NAME, new DatabaseWriter.Transaction() {
+			private boolean successful = false;
+			public void begin() {
+				openIfNeeded();
+				database.beginTransaction();
+				successful = false;
+				snapshotUpdates.clear();
+			}
+			public void setSuccessful() {
+				database.setTransactionSuccessful();
+				successful = true;
+			}
+			public void end() {
+				boolean committed = false;
+				try {
+					database.endTransaction();
+					committed = successful;
+				} finally {
+					// Only committed writes are applied to the copies in memory
+					if(committed && ! snapshotsStale) {
+						for(Runnable update : snapshotUpdates) {
+							update.run();
+						}
+					} else if(snapshotsStale) {
+						LocationSnapshot.getInstance().invalidate();
+						IgnoreListSnapshot.getInstance().invalidate();
+					}
+					snapshotUpdates.clear();
+					snapshotsStale = false;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the instance shared by the whole process, which keeps its database open
+	 * and serializes all writes of the process. Closing it has no effect.
+	 * @param context
+	 * @return DatabaseAdapterImpl shared instance
+	 */
+	public static synchronized DatabaseAdapterImpl getInstance(final Context context) {
+		if(instance == null) {
+			instance = new DatabaseAdapterImpl(context.getApplicationContext(), HISTORY_MAX_ROWS, HISTORY_MAX_AGE, true);
+		}
+		return instance;
 	}
 	
 	/**
-	 * Effectively closes the database.
+	 * Effectively closes the database, unless this is the shared instance,
+	 * after the writes submitted so far are written and the writer thread stopped.
 	 */
 	public void close() {
+		if(shared) {
+			return;
+		}
+		writer.close();
+		synchronized(statements) {
+			statements.close();
+		}
+		synchronized(readStatements) {
+			readStatements.close();
+		}
 		helper.close();
 	}
 	
+	/**
+	 * Runs the given write on the writer thread, batched into one transaction with the
+	 * writes queued up meanwhile, and returns its result as future. The given listener,
+	 * if not null, is notified on the writer thread when the write was committed.
+	 * @param write
+	 * @param listener may be null
+	 * @return Future result of the write
+	 */
+	public <T> Future<T> submit(final Callable<T> write, final DatabaseWriter.Listener<T> listener) {
+		return writer.submit(write, listener);
+	}
+	
 	/**
 	 * Returns true if the database is open, false otherwise.
 	 * @return boolean true if the database is open, false otherwise
@@ -201,17 +691,79 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 			return false;
 		}
 		
-		openIfNeeded();
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"INSERT INTO " + IGNORELIST_TABLE_NAME + " (" + COLUMN_BSSID + ", " + COLUMN_SSID + ") VALUES (?, ?)");
+					stmt.bindString(1, bssid);
+					stmt.bindString(2, ssid);
+					long rowId = executeInsert(stmt);
+			
+					if(rowId == -1) {
+						return false;
+					}
+			
+					final long version = getIgnoreListVersion(statements);
+					afterCommit(new Runnable() {
+						public void run() {
+							IgnoreListSnapshot.getInstance().add(bssid, ssid, version);
+						}
+					});
+			
+					return true;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the first count of the given BSSIDs and SSIDs as ignored Wifi networks
+	 * to the database in one transaction, replacing entries with the same BSSID.
+	 * Entries with a BSSID or SSID that is null are skipped.
+	 * @param bssids
+	 * @param ssids
+	 * @param count
+	 * @return int number of entries added
+	 */
+	public int addIgnoredWifis(final String[] bssids, final String[] ssids, final int count) {
 		
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_BSSID, bssid);
-		values.put(COLUMN_SSID, ssid);
-		long rowId = database.insert(IGNORELIST_TABLE_NAME, null, values);
-		return rowId == -1 ? false : true;
+		// Waits for the write since the caller needs the count and reuses the arrays for the next batch
+		Integer added = await(new Callable<Integer>() {
+			public Integer call() {
+				int added = 0;
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"INSERT INTO " + IGNORELIST_TABLE_NAME + " (" + COLUMN_BSSID + ", " + COLUMN_SSID + ") VALUES (?, ?)");
+					for(int i = 0; i < count; i++) {
+						if(bssids[i] == null || ssids[i] == null) {
+							continue;
+						}
+						stmt.bindString(1, bssids[i]);
+						stmt.bindString(2, ssids[i]);
+						if(executeInsert(stmt) != -1) {
+							added++;
+						}
+					}
+				}
+				
+				// Cheaper to load again than to write through every entry
+				snapshotsStale = true;
+				
+				return added;
+			}
+		});
+		
+		return added == null ? 0 : added.intValue();
 	}
 
 	/**
-	 * Returns true if the given SSID is an ignored Wifi network, false otherwise. 
+	 * Returns true if the given SSID is an ignored Wifi network or matches a rule
+	 * of the ignore list, false otherwise. 
 	 * @param ssid
 	 * @return boolean true if ignored, false otherwise
 	 */
@@ -220,19 +772,28 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 			return false;
 		}
 
-		openIfNeeded();
-		
-		Cursor cursor = null;
-		try {
-			String[] columns = {COLUMN_BSSID};
-			String[] selectionArgs = {ssid};
-			cursor = database.query(IGNORELIST_TABLE_NAME, columns, 
-					COLUMN_SSID + " = ?", selectionArgs, null, null, null);
-			return cursor.getCount() > 0;
-		} finally {
-			if(cursor != null) {
-				cursor.close();
+		synchronized(readStatements) {
+			openIfNeeded();
+			
+			IgnoreListSnapshot snapshot = IgnoreListSnapshot.getInstance();
+			
+			// Once per opened database, in case the ignore list was changed behind our back
+			if(! ignoreListValidated) {
+				snapshot.validate(getIgnoreListVersion(readStatements));
+				ignoreListValidated = true;
 			}
+			
+			if(! snapshot.isLoaded()) {
+				long version = getIgnoreListVersion(readStatements);
+				Cursor cursor = fetchIgnoredWifis();
+				try {
+					snapshot.load(cursor, version);
+				} finally {
+					cursor.close();
+				}
+			}
+			
+			return snapshot.contains(ssid);
 		}
 	}
 
@@ -246,12 +807,30 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 			return false;
 		}
 		
-		openIfNeeded();
-		
-		String[] whereArgs = {ssid};
-		int rows = database.delete(IGNORELIST_TABLE_NAME, 
-				COLUMN_SSID + " = ?", whereArgs);
-		return rows > 0;
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"DELETE FROM " + IGNORELIST_TABLE_NAME + " WHERE " + COLUMN_SSID + " = ?");
+					stmt.bindString(1, ssid);
+					int rows = executeUpdateDelete(stmt);
+			
+					if(rows > 0) {
+						final int removed = rows;
+						final long version = getIgnoreListVersion(statements);
+						afterCommit(new Runnable() {
+							public void run() {
+								IgnoreListSnapshot.getInstance().remove(ssid, removed, version);
+							}
+						});
+					}
+			
+					return rows > 0;
+				}
+			}
+		});
 	}
 	
 	/**
@@ -264,9 +843,70 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 
         return database.query(IGNORELIST_TABLE_NAME, 
         		new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID}, 
-        		null, null, null, null, COLUMN_SSID + " COLLATE UNICODE");
+        		null, null, null, null, IGNORELIST_ORDER);
     }
 	
+	/**
+	 * Returns a cursor to up to limit ignored Wifi networks from the given offset, in the
+	 * order of fetchIgnoredWifis(), whose SSID contains the given filter, ignoring the
+	 * case of ASCII letters. Contains all ignored Wifi networks if the filter is null or empty.
+	 * @param filter
+	 * @param offset
+	 * @param limit
+	 * @return Cursor ignored Wifi networks
+	 */
+	public Cursor fetchIgnoredWifis(final String filter, final int offset, final int limit) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = getFilterArgs(filter, 1);
+		return database.query(IGNORELIST_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID}, 
+				selectionArgs == null ? null : COLUMN_SSID + LIKE, selectionArgs, 
+				null, null, IGNORELIST_ORDER, offset + ", " + limit);
+	}
+	
+	/**
+	 * Returns a cursor to up to limit ignored Wifi networks following the one with the
+	 * given SSID and BSSID, in the order of fetchIgnoredWifis(), whose SSID contains the
+	 * given filter, like fetchIgnoredWifis(String, int, int). Uses the index on the order
+	 * instead of sorting and skipping the ignored Wifi networks before.
+	 * @param filter
+	 * @param afterSSID
+	 * @param afterBSSID
+	 * @param limit
+	 * @return Cursor ignored Wifi networks
+	 */
+	public Cursor fetchIgnoredWifis(final String filter, final String afterSSID, final String afterBSSID, final int limit) {
+		
+		openIfNeeded();
+		
+		String[] filterArgs = getFilterArgs(filter, 1);
+		String[] selectionArgs = getAfterArgs(filterArgs, afterSSID, afterBSSID);
+		return database.query(IGNORELIST_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID}, 
+				filterArgs == null ? IGNORELIST_AFTER : COLUMN_SSID + LIKE + " AND " + IGNORELIST_AFTER, selectionArgs, 
+				null, null, IGNORELIST_ORDER, String.valueOf(limit));
+	}
+	
+	/**
+	 * Returns the number of ignored Wifi networks whose SSID contains the given filter,
+	 * like fetchIgnoredWifis(String, int, int).
+	 * @param filter
+	 * @return int number of ignored Wifi networks
+	 */
+	public int countIgnoredWifis(final String filter) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = getFilterArgs(filter, 1);
+		String sql = "SELECT COUNT(*) FROM " + IGNORELIST_TABLE_NAME;
+		if(selectionArgs != null) {
+			sql += " WHERE " + COLUMN_SSID + LIKE;
+		}
+		return (int)DatabaseUtils.longForQuery(database, sql, selectionArgs);
+	}
+	
     /**
      * Adds the given Wifi identified by the given BSSID together with its SSID and location
      * to the database, and updates lat, lon and acc if a location with the given BSSID already
@@ -281,32 +921,115 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 			return false;
 		}
 		
-		String localName = name;
-		if(name == null || name.length() == 0) {
-			localName = ssid;
-		}
+		final String localName = name == null || name.length() == 0 ? ssid : name;
 		
-		openIfNeeded();
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement update = statements.get(database, 
+							"UPDATE " + LOCATIONLIST_TABLE_NAME + " SET " + COLUMN_LAT + " = ?, " + COLUMN_LON + " = ?, " + 
+							COLUMN_ACC + " = ?, " + COLUMN_CELLLAT + " = ?, " + COLUMN_CELLLON + " = ? WHERE " + COLUMN_BSSID + " = ?");
+					update.bindDouble(1, location.getLatitude());
+					update.bindDouble(2, location.getLongitude());
+					update.bindDouble(3, location.getAccuracy());
+					update.bindLong(4, getCell(location.getLatitude()));
+					update.bindLong(5, getCell(location.getLongitude()));
+					update.bindString(6, bssid);
+					int rows = executeUpdateDelete(update);
+			
+					if(rows == 0) {
+						SQLiteStatement insert = statements.get(database, 
+								"INSERT INTO " + LOCATIONLIST_TABLE_NAME + " (" + COLUMN_BSSID + ", " + COLUMN_SSID + ", " + 
+								COLUMN_NAME + ", " + COLUMN_LAT + ", " + COLUMN_LON + ", " + COLUMN_ACC + ", " + 
+								COLUMN_CELLLAT + ", " + COLUMN_CELLLON + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+						insert.bindString(1, bssid);
+						insert.bindString(2, ssid);
+						insert.bindString(3, localName);
+						insert.bindDouble(4, location.getLatitude());
+						insert.bindDouble(5, location.getLongitude());
+						insert.bindDouble(6, location.getAccuracy());
+						insert.bindLong(7, getCell(location.getLatitude()));
+						insert.bindLong(8, getCell(location.getLongitude()));
+						long rowId = executeInsert(insert);
+						if(rowId == -1) {
+							return false;
+						}
+					}
+				}
 		
-		String[] whereArgs = {bssid};
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_LAT, location.getLatitude());
-		values.put(COLUMN_LON, location.getLongitude());
-		values.put(COLUMN_ACC, location.getAccuracy());
-		int rows = database.update(LOCATIONLIST_TABLE_NAME, values, 
-				COLUMN_BSSID + " = ?", whereArgs);
+				final double lat = location.getLatitude();
+				final double lon = location.getLongitude();
+				final float acc = location.getAccuracy();
+				afterCommit(new Runnable() {
+					public void run() {
+						LocationSnapshot.getInstance().put(bssid, ssid, localName, lat, lon, acc);
+					}
+				});
 		
-		if(rows == 0) {
-			values.put(COLUMN_BSSID, bssid);
-			values.put(COLUMN_SSID, ssid);
-			values.put(COLUMN_NAME, localName);
-			long rowId = database.insert(LOCATIONLIST_TABLE_NAME, null, values);
-			return rowId == -1 ? false : true;
-		} else {
-			return true;
-		}
+				return true;
+			}
+		});
 	}
 
+	/**
+	 * Adds the first count of the given Wifi locations to the database in one transaction,
+	 * replacing locations with the same BSSID, including their SSID and name. Locations
+	 * with a BSSID, SSID or location that is null are skipped.
+	 * @param locations
+	 * @param count
+	 * @return int number of locations added
+	 */
+	public int addLocations(final WifiLocation[] locations, final int count) {
+		
+		// Waits for the write since the caller needs the count and reuses the array for the next batch
+		Integer added = await(new Callable<Integer>() {
+			public Integer call() {
+				int added = 0;
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"INSERT INTO " + LOCATIONLIST_TABLE_NAME + " (" + COLUMN_BSSID + ", " + COLUMN_SSID + ", " + 
+							COLUMN_NAME + ", " + COLUMN_LAT + ", " + COLUMN_LON + ", " + COLUMN_ACC + ", " + 
+							COLUMN_CELLLAT + ", " + COLUMN_CELLLON + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+					for(int i = 0; i < count; i++) {
+						WifiLocation wifiLocation = locations[i];
+						String bssid = wifiLocation.getBSSID();
+						String ssid = wifiLocation.getSSID();
+						String name = wifiLocation.getName();
+						Location location = wifiLocation.getLocation();
+						if(bssid == null || ssid == null || location == null) {
+							continue;
+						}
+						if(name == null || name.length() == 0) {
+							name = ssid;
+						}
+						stmt.bindString(1, bssid);
+						stmt.bindString(2, ssid);
+						stmt.bindString(3, name.substring(0, Math.min(NAME_MAX_LENGTH, name.length())));
+						stmt.bindDouble(4, location.getLatitude());
+						stmt.bindDouble(5, location.getLongitude());
+						stmt.bindDouble(6, location.getAccuracy());
+						stmt.bindLong(7, getCell(location.getLatitude()));
+						stmt.bindLong(8, getCell(location.getLongitude()));
+						if(executeInsert(stmt) != -1) {
+							added++;
+						}
+					}
+				}
+				
+				// Cheaper to load again than to write through every location
+				snapshotsStale = true;
+				
+				return added;
+			}
+		});
+		
+		return added == null ? 0 : added.intValue();
+	}
+	
 	/**
 	 * Deletes the location of the Wifi identified by the given BSSID.
 	 * @param bssid
@@ -317,12 +1040,29 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 			return false;
 		}
 		
-		openIfNeeded();
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				int rows;
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"DELETE FROM " + LOCATIONLIST_TABLE_NAME + " WHERE " + COLUMN_BSSID + " = ?");
+					stmt.bindString(1, bssid);
+					rows = executeUpdateDelete(stmt);
+				}
+		
+				if(rows > 0) {
+					afterCommit(new Runnable() {
+						public void run() {
+							LocationSnapshot.getInstance().remove(bssid);
+						}
+					});
+				}
 		
-		String[] whereArgs = {bssid};
-		int rows = database.delete(LOCATIONLIST_TABLE_NAME, 
-				COLUMN_BSSID + " = ?", whereArgs);
-		return rows > 0;
+				return rows > 0;
+			}
+		});
 	}
 	
 	/**
@@ -337,17 +1077,32 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		if(name == null || name.length() == 0) {
 			return false;
 		}
-		String localName = name.substring(0, Math.min(NAME_MAX_LENGTH, name.length()));
+		final String localName = name.substring(0, Math.min(NAME_MAX_LENGTH, name.length()));
 		
-		openIfNeeded();
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				int rows;
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"UPDATE " + LOCATIONLIST_TABLE_NAME + " SET " + COLUMN_NAME + " = ? WHERE " + COLUMN_BSSID + " = ?");
+					stmt.bindString(1, localName);
+					bindString(stmt, 2, bssid);
+					rows = executeUpdateDelete(stmt);
+				}
 		
-		String[] whereArgs = {bssid};
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_NAME, localName);
-		int rows = database.update(LOCATIONLIST_TABLE_NAME, values, 
-				COLUMN_BSSID + " = ?", whereArgs);
+				if(rows > 0) {
+					afterCommit(new Runnable() {
+						public void run() {
+							LocationSnapshot.getInstance().rename(bssid, localName);
+						}
+					});
+				}
 		
-		return rows > 0;
+				return rows > 0;
+			}
+		});
 	}
 
 	/**
@@ -360,7 +1115,118 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 
         return database.query(LOCATIONLIST_TABLE_NAME, 
         		new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_ACC}, 
-        		null, null, null, null, COLUMN_NAME + " COLLATE UNICODE");
+        		null, null, null, null, LOCATIONLIST_ORDER);
+	}
+	
+	/**
+	 * Returns a cursor to up to limit Wifi locations from the given offset, in the
+	 * order of fetchLocations(), whose name or SSID contains the given filter, ignoring
+	 * the case of ASCII letters. Contains all Wifi locations if the filter is null or empty.
+	 * @param filter
+	 * @param offset
+	 * @param limit
+	 * @return Cursor Wifi locations
+	 */
+	public Cursor fetchLocations(final String filter, final int offset, final int limit) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = getFilterArgs(filter, 2);
+		return database.query(LOCATIONLIST_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_ACC}, 
+				selectionArgs == null ? null : LOCATIONLIST_FILTER, selectionArgs, 
+				null, null, LOCATIONLIST_ORDER, offset + ", " + limit);
+	}
+	
+	/**
+	 * Returns a cursor to up to limit Wifi locations following the one with the given
+	 * name and BSSID, in the order of fetchLocations(), whose name or SSID contains the
+	 * given filter, like fetchLocations(String, int, int). Uses the index on the order
+	 * instead of sorting and skipping the Wifi locations before.
+	 * @param filter
+	 * @param afterName
+	 * @param afterBSSID
+	 * @param limit
+	 * @return Cursor Wifi locations
+	 */
+	public Cursor fetchLocations(final String filter, final String afterName, final String afterBSSID, final int limit) {
+		
+		openIfNeeded();
+		
+		String[] filterArgs = getFilterArgs(filter, 2);
+		String[] selectionArgs = getAfterArgs(filterArgs, afterName, afterBSSID);
+		return database.query(LOCATIONLIST_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_ACC}, 
+				filterArgs == null ? LOCATIONLIST_AFTER : LOCATIONLIST_FILTER + " AND " + LOCATIONLIST_AFTER, selectionArgs, 
+				null, null, LOCATIONLIST_ORDER, String.valueOf(limit));
+	}
+	
+	/**
+	 * Returns the number of Wifi locations whose name or SSID contains the given filter,
+	 * like fetchLocations(String, int, int).
+	 * @param filter
+	 * @return int number of Wifi locations
+	 */
+	public int countLocations(final String filter) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = getFilterArgs(filter, 2);
+		String sql = "SELECT COUNT(*) FROM " + LOCATIONLIST_TABLE_NAME;
+		if(selectionArgs != null) {
+			sql += " WHERE " + LOCATIONLIST_FILTER;
+		}
+		return (int)DatabaseUtils.longForQuery(database, sql, selectionArgs);
+	}
+	
+	/**
+	 * Returns the given number of selection args with a LIKE pattern matching text
+	 * containing the given filter, or null if the filter is null or empty.
+	 * @param filter
+	 * @param count
+	 * @return String[] selection args or null
+	 */
+	private static String[] getFilterArgs(final String filter, final int count) {
+		if(filter == null || filter.length() == 0) {
+			return null;
+		}
+		
+		StringBuilder pattern = new StringBuilder(filter.length() + 2);
+		pattern.append('%');
+		for(int i = 0; i < filter.length(); i++) {
+			char c = filter.charAt(i);
+			if(c == '\\' || c == '%' || c == '_') {
+				pattern.append('\\');
+			}
+			pattern.append(c);
+		}
+		pattern.append('%');
+		
+		String[] args = new String[count];
+		for(int i = 0; i < count; i++) {
+			args[i] = pattern.toString();
+		}
+		return args;
+	}
+	
+	/**
+	 * Returns the given filter args, if not null, followed by the selection args of
+	 * IGNORELIST_AFTER or LOCATIONLIST_AFTER with the given sort key and BSSID.
+	 * @param filterArgs
+	 * @param sortKey
+	 * @param bssid
+	 * @return String[] selection args
+	 */
+	private static String[] getAfterArgs(final String[] filterArgs, final String sortKey, final String bssid) {
+		int count = filterArgs == null ? 0 : filterArgs.length;
+		String[] args = new String[count + 3];
+		for(int i = 0; i < count; i++) {
+			args[i] = filterArgs[i];
+		}
+		args[count] = sortKey;
+		args[count + 1] = sortKey;
+		args[count + 2] = bssid;
+		return args;
 	}
 	
 	/**
@@ -372,33 +1238,92 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		
 		openIfNeeded();
 		
-		boolean hasLocations = false;
-		
-		Cursor cursor = database.query(LOCATIONLIST_TABLE_NAME, 
-        		new String[] {COLUMN_ROWID}, 
-        		null, null, null, null, null);
-		
-		try {
-			hasLocations = cursor.getCount() > 0;
-		} finally {
-			cursor.close();
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().peek();
+		if(data != null) {
+			return data.size() > 0;
 		}
 		
-		return hasLocations;
+		synchronized(readStatements) {
+			SQLiteStatement stmt = readStatements.get(database, 
+					"SELECT EXISTS (SELECT " + COLUMN_ROWID + " FROM " + LOCATIONLIST_TABLE_NAME + ")");
+			return stmt.simpleQueryForLong() > 0;
+		}
 	}
 	
 	/**
 	 * Returns the location that is nearest to the given location as
 	 * a WifiLocation including the distance to the given location.
+	 * Looks in the LocationSnapshot if there are not more than
+	 * LocationSnapshot.MAX_LOCATIONS locations. Otherwise, only looks at
+	 * the locations in the grid cells around the given location, doubling
+	 * the number of rings of cells looked at until the nearest location found
+	 * is closer than any location outside of them can be, and looks at all
+	 * locations if there is none within NEAREST_MAX_RINGS rings or if the cells
+	 * would cross the 180th meridian or a pole.
 	 * @return WifiLocation
 	 */
 	public WifiLocation getNearestLocationTo(final Location location) {
 		
 		openIfNeeded();
 		
+		if(location == null) {
+			return null;
+		}
+		
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().get(this);
+		if(data != null) {
+			return data.getNearestLocation(location.getLatitude(), location.getLongitude());
+		}
+		
+		long cellLat = getCell(location.getLatitude());
+		long cellLon = getCell(location.getLongitude());
+		
+		for(int rings = 1; rings <= NEAREST_MAX_RINGS; rings *= 2) {
+			double minLat = (cellLat - rings) * CELL_DEG;
+			double maxLat = (cellLat + rings + 1) * CELL_DEG;
+			double minLon = (cellLon - rings) * CELL_DEG;
+			double maxLon = (cellLon + rings + 1) * CELL_DEG;
+			if(minLat < -90 || maxLat > 90 || minLon < -180 || maxLon > 180) {
+				break;
+			}
+			
+			String[] selectionArgs = {
+					String.valueOf(cellLat - rings), String.valueOf(cellLat + rings), 
+					String.valueOf(cellLon - rings), String.valueOf(cellLon + rings)};
+			WifiLocation nearestWifiLocation = getNearestLocationTo(location, 
+					COLUMN_CELLLAT + " BETWEEN ? AND ? AND " + COLUMN_CELLLON + " BETWEEN ? AND ?", selectionArgs);
+			
+			if(nearestWifiLocation != null && 
+					nearestWifiLocation.getDistance() <= getMinDistanceToEdge(location.getLatitude(), location.getLongitude(), minLat, maxLat, minLon, maxLon)) {
+				return nearestWifiLocation;
+			}
+		}
+		
+		return getNearestLocationTo(location, null, null);
+	}
+	
+	/**
+	 * Returns the grid cell of the given latitude or longitude.
+	 * @param degrees
+	 * @return long grid cell
+	 */
+	public static long getCell(final double degrees) {
+		return (long)Math.floor(degrees / CELL_DEG);
+	}
+	
+	/**
+	 * Returns the location matching the given selection that is nearest to the given
+	 * location as a WifiLocation including the distance to the given location.
+	 * @param location
+	 * @param selection
+	 * @param selectionArgs
+	 * @return WifiLocation
+	 */
+	private WifiLocation getNearestLocationTo(final Location location, final String selection, final String[] selectionArgs) {
+		
 		Cursor cursor = database.query(LOCATIONLIST_TABLE_NAME, 
         		new String[] {COLUMN_ROWID, COLUMN_BSSID, COLUMN_SSID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_ACC}, 
-        		null, null, null, null, null);
+        		selection, selectionArgs, null, null, null);
 		
 		WifiLocation nearestWifiLocation = null;
 		float shortestDistance = Float.MAX_VALUE;
@@ -431,31 +1356,51 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		return nearestWifiLocation;
 	}
 	
-	public boolean updateTestResult(final long timestamp, final int type, final String subtype, final boolean status) {
+	/**
+	 * Returns a distance in meters that is not longer than the distance from the given
+	 * latitude and longitude to the nearest edge of the given box, using the smallest
+	 * radius of curvature of the earth.
+	 * @param lat
+	 * @param lon
+	 * @param minLat
+	 * @param maxLat
+	 * @param minLon
+	 * @param maxLon
+	 * @return double distance in meters
+	 */
+	static double getMinDistanceToEdge(final double lat, final double lon, 
+			final double minLat, final double maxLat, final double minLon, final double maxLon) {
+		double dLat = Math.toRadians(Math.min(lat - minLat, maxLat - lat));
+		double dLon = Math.toRadians(Math.min(lon - minLon, maxLon - lon));
 		
-		openIfNeeded();
+		// Shortest distance to a meridian, along a great circle
+		double toMeridian = Math.asin(Math.min(1, Math.sin(dLon) * Math.cos(Math.toRadians(lat))));
 		
-		final String sql = String.format("INSERT OR REPLACE INTO %s " +
-										 "(%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)", 
-										 TESTRESULTS_TABLE_NAME, COLUMN_ROWID, COLUMN_TIMESTAMP, 
-										 COLUMN_TYPE, COLUMN_SUBTYPE, COLUMN_STATUS);
-		final SQLiteStatement stmt = database.compileStatement(sql);
-		stmt.bindLong(1, 0L);
-		stmt.bindLong(2, timestamp);
-		stmt.bindLong(3, type);
-		if (subtype != null) {
-			stmt.bindString(4, subtype);
-		}
-		stmt.bindLong(5, status ? 1 : 0);
+		return Math.min(dLat, toMeridian) * MIN_RADIUS;
+	}
+	
+	public boolean updateTestResult(final long timestamp, final int type, final String subtype, final boolean status) {
 		
-		try {
-			final long rowId = stmt.executeInsert();
-			return rowId == -1 ? false : true;
-		} catch(SQLException e) {
-			return false;
-		} finally {
-			stmt.close();
-		}
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					final SQLiteStatement stmt = statements.get(database, 
+							"INSERT OR REPLACE INTO " + TESTRESULTS_TABLE_NAME + " (" + COLUMN_ROWID + ", " + 
+							COLUMN_TIMESTAMP + ", " + COLUMN_TYPE + ", " + COLUMN_SUBTYPE + ", " + COLUMN_STATUS + 
+							") VALUES (?, ?, ?, ?, ?)");
+					stmt.bindLong(1, 0L);
+					stmt.bindLong(2, timestamp);
+					stmt.bindLong(3, type);
+					bindString(stmt, 4, subtype);
+					stmt.bindLong(5, status ? 1 : 0);
+			
+					final long rowId = executeInsert(stmt);
+					return rowId == -1 ? false : true;
+				}
+			}
+		});
 	}
 
 	public TestInfo fetchTestResult() {
@@ -480,6 +1425,251 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
 		
 		return info;
 	}
+	
+	/**
+	 * Appends the given test result details to the test history without phase times.
+	 * @param timestamp
+	 * @param type
+	 * @param subtype
+	 * @param bssid
+	 * @param status
+	 * @param latency
+	 * @return boolean true if successfully added, false otherwise
+	 */
+	public boolean addTestHistory(final long timestamp, final int type, final String subtype, 
+			final String bssid, final boolean status, final long latency) {
+		return addTestHistory(timestamp, type, subtype, bssid, status, latency, null);
+	}
+	
+	/**
+	 * Appends the given test result details to the test history, and prunes the test
+	 * history every HISTORY_PRUNE_INTERVAL inserts.
+	 * @param timestamp
+	 * @param type
+	 * @param subtype
+	 * @param bssid
+	 * @param status
+	 * @param latency
+	 * @param phaseTimes indexed by the ProbeTimings.PHASE_ constants, -1 or null if unknown
+	 * @return boolean true if successfully added, false otherwise
+	 */
+	public boolean addTestHistory(final long timestamp, final int type, final String subtype, 
+			final String bssid, final boolean status, final long latency, final long[] phaseTimes) {
+		
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"INSERT INTO " + TESTHISTORY_TABLE_NAME + " (" + COLUMN_TIMESTAMP + ", " + COLUMN_TYPE + ", " + 
+							COLUMN_SUBTYPE + ", " + COLUMN_BSSID + ", " + COLUMN_STATUS + ", " + COLUMN_LATENCY + ", " + 
+							COLUMN_CONNECT + ", " + COLUMN_FIRSTBYTE + ", " + COLUMN_PARSE + 
+							") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+					stmt.bindLong(1, timestamp);
+					stmt.bindLong(2, type);
+					bindString(stmt, 3, subtype);
+					bindString(stmt, 4, bssid);
+					stmt.bindLong(5, status ? 1 : 0);
+					stmt.bindLong(6, latency);
+					for(int i = 0; i < ProbeTimings.PHASES; i++) {
+						stmt.bindLong(7 + i, phaseTimes == null ? -1 : phaseTimes[i]);
+					}
+					long rowId = executeInsert(stmt);
+			
+					if(rowId > 0 && rowId % HISTORY_PRUNE_INTERVAL == 0) {
+						pruneTestHistory(rowId, timestamp);
+					}
+			
+					return rowId == -1 ? false : true;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the given percentile of the time of each phase over the test history,
+	 * indexed by the ProbeTimings.PHASE_ constants, or -1 for a phase without any
+	 * time in the test history.
+	 * @param percentile between 1 and 100
+	 * @return long[] times in milliseconds
+	 */
+	public long[] fetchPhasePercentiles(final int percentile) {
+		
+		long[] percentiles = new long[ProbeTimings.PHASES];
+		
+		synchronized(readStatements) {
+			openIfNeeded();
+			
+			for(int i = 0; i < ProbeTimings.PHASES; i++) {
+				String column = PHASE_COLUMNS[i];
+				
+				SQLiteStatement count = readStatements.get(database, 
+						"SELECT COUNT(*) FROM " + TESTHISTORY_TABLE_NAME + " WHERE " + column + " >= 0");
+				long rows = count.simpleQueryForLong();
+				if(rows == 0) {
+					percentiles[i] = -1;
+					continue;
+				}
+				
+				// Nearest rank
+				long rank = Math.max(1, (rows * percentile + 99) / 100);
+				
+				SQLiteStatement value = readStatements.get(database, 
+						"SELECT " + column + " FROM " + TESTHISTORY_TABLE_NAME + " WHERE " + column + " >= 0 " + 
+						"ORDER BY " + column + " LIMIT 1 OFFSET ?");
+				value.bindLong(1, rank - 1);
+				percentiles[i] = value.simpleQueryForLong();
+			}
+		}
+		
+		return percentiles;
+	}
+	
+	/**
+	 * Returns a cursor to the test history from the given time inclusive to the given
+	 * time exclusive, latest first.
+	 * @param from
+	 * @param to
+	 * @return Cursor test history
+	 */
+	public Cursor fetchTestHistory(final long from, final long to) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = {String.valueOf(from), String.valueOf(to)};
+		return database.query(TESTHISTORY_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_TIMESTAMP, COLUMN_TYPE, COLUMN_SUBTYPE, COLUMN_BSSID, COLUMN_STATUS, COLUMN_LATENCY}, 
+				COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?", selectionArgs, 
+				null, null, COLUMN_TIMESTAMP + " DESC");
+	}
+	
+	/**
+	 * Returns a cursor to the test history of the Wifi network with the given BSSID
+	 * from the given time inclusive to the given time exclusive, latest first.
+	 * @param bssid
+	 * @param from
+	 * @param to
+	 * @return Cursor test history
+	 */
+	public Cursor fetchTestHistory(final String bssid, final long from, final long to) {
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = {bssid, String.valueOf(from), String.valueOf(to)};
+		return database.query(TESTHISTORY_TABLE_NAME, 
+				new String[] {COLUMN_ROWID, COLUMN_TIMESTAMP, COLUMN_TYPE, COLUMN_SUBTYPE, COLUMN_BSSID, COLUMN_STATUS, COLUMN_LATENCY}, 
+				COLUMN_BSSID + " = ? AND " + COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?", selectionArgs, 
+				null, null, COLUMN_TIMESTAMP + " DESC");
+	}
+	
+	/**
+	 * Inserts or replaces the given test result as cached test result with the given key,
+	 * and deletes cached test results older than a day.
+	 * @param key
+	 * @param info
+	 * @return boolean true if successfully inserted, false otherwise
+	 */
+	public boolean updateCachedTestResult(final String key, final TestInfo info) {
+		if(key == null || info == null) {
+			return false;
+		}
+		
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement delete = statements.get(database, 
+							"DELETE FROM " + TESTCACHE_TABLE_NAME + " WHERE " + COLUMN_TIMESTAMP + " < ?");
+					delete.bindLong(1, info.getTimestamp() - TESTCACHE_MAX_AGE);
+					delete.execute();
+			
+					SQLiteStatement insert = statements.get(database, 
+							"INSERT INTO " + TESTCACHE_TABLE_NAME + " (" + COLUMN_KEY + ", " + COLUMN_TIMESTAMP + ", " + 
+							COLUMN_TYPE + ", " + COLUMN_TYPENAME + ", " + COLUMN_SSID + ", " + COLUMN_BSSID + ", " + 
+							COLUMN_SITE + ", " + COLUMN_TITLE + ", " + COLUMN_PAGETITLE + ", " + COLUMN_STATUS + 
+							") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+					insert.bindString(1, key);
+					insert.bindLong(2, info.getTimestamp());
+					insert.bindLong(3, info.getType());
+					bindString(insert, 4, info.getTypeName());
+					bindString(insert, 5, info.getExtra());
+					bindString(insert, 6, info.getExtra2());
+					bindString(insert, 7, info.getSite());
+					bindString(insert, 8, info.getTitle());
+					bindString(insert, 9, info.getPageTitle());
+					insert.bindLong(10, info.getIsExpectedTitle() ? 1 : 0);
+					long rowId = executeInsert(insert);
+					return rowId == -1 ? false : true;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the cached test result with the given key, or null if there is none.
+	 * @param key
+	 * @return TestInfo
+	 */
+	public TestInfo fetchCachedTestResult(final String key) {
+		if(key == null) {
+			return null;
+		}
+		
+		openIfNeeded();
+		
+		String[] selectionArgs = {key};
+		Cursor cursor = database.query(TESTCACHE_TABLE_NAME, 
+				new String[] {COLUMN_TIMESTAMP, COLUMN_TYPE, COLUMN_TYPENAME, COLUMN_SSID, COLUMN_BSSID, 
+				COLUMN_SITE, COLUMN_TITLE, COLUMN_PAGETITLE, COLUMN_STATUS}, 
+				COLUMN_KEY + " = ?", selectionArgs, null, null, null);
+		
+		try {
+			if(! cursor.moveToNext()) {
+				return null;
+			}
+			
+			TestInfo info = new TestInfo();
+			info.setTimestamp(cursor.getLong(0));
+			info.setType(cursor.getInt(1));
+			info.setTypeName(cursor.getString(2));
+			info.setExtra(cursor.getString(3));
+			info.setExtra2(cursor.getString(4));
+			info.setSite(cursor.getString(5));
+			info.setTitle(cursor.getString(6));
+			info.setPageTitle(cursor.getString(7));
+			info.setIsExpectedTitle(cursor.getInt(8) > 0 ? true : false);
+			
+			return info;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Deletes the cached test result with the given key.
+	 * @param key
+	 * @return boolean true if an entry was deleted, false otherwise
+	 */
+	public boolean deleteCachedTestResult(final String key) {
+		if(key == null) {
+			return false;
+		}
+		
+		return write(new Callable<Boolean>() {
+			public Boolean call() {
+				synchronized(statements) {
+					openIfNeeded();
+			
+					SQLiteStatement stmt = statements.get(database, 
+							"DELETE FROM " + TESTCACHE_TABLE_NAME + " WHERE " + COLUMN_KEY + " = ?");
+					stmt.bindString(1, key);
+					return executeUpdateDelete(stmt) > 0;
+				}
+			}
+		});
+	}
     
     /**
      * Returns the version of the database.
@@ -492,12 +1682,147 @@ public class DatabaseAdapterImpl implements DatabaseAdapter {
     	return database.getVersion();
     }
     
+    /**
+     * Deletes the rows of the test history exceeding the maximum number of rows,
+     * which are the ones with a row id not greater than the given last row id minus
+     * the maximum number of rows, and the ones older than the maximum age at the
+     * given time.
+     * @param lastRowId
+     * @param now
+     */
+    private void pruneTestHistory(final long lastRowId, final long now) {
+    	SQLiteStatement byRowId = statements.get(database, 
+    			"DELETE FROM " + TESTHISTORY_TABLE_NAME + " WHERE " + COLUMN_ROWID + " <= ?");
+    	byRowId.bindLong(1, lastRowId - historyMaxRows);
+    	byRowId.execute();
+    	
+    	SQLiteStatement byTimestamp = statements.get(database, 
+    			"DELETE FROM " + TESTHISTORY_TABLE_NAME + " WHERE " + COLUMN_TIMESTAMP + " < ?");
+    	byTimestamp.bindLong(1, now - historyMaxAge);
+    	byTimestamp.execute();
+    }
+    
+    /**
+     * Returns the SQL to create a trigger incrementing the version of the ignore list
+     * after every row affected by the given operation on it.
+     * @param operation INSERT, UPDATE or DELETE
+     * @return String SQL
+     */
+    private static String ignoreListTrigger(final String operation) {
+    	return "CREATE TRIGGER " + IGNORELIST_TABLE_NAME + "_" + operation + 
+    		" AFTER " + operation + " ON " + IGNORELIST_TABLE_NAME + " BEGIN UPDATE " + 
+    		COUNTERS_TABLE_NAME + " SET " + COLUMN_VALUE + " = " + COLUMN_VALUE + " + 1 WHERE " + 
+    		COLUMN_NAME + " = '" + IGNORELIST_TABLE_NAME + "'; END";
+    }
+    
+    /**
+     * Returns the version of the ignore list, incremented by a trigger on every change,
+     * using the given statement cache.
+     * @param cache
+     * @return long version
+     */
+    private long getIgnoreListVersion(final StatementCache cache) {
+    	SQLiteStatement stmt = cache.get(database, 
+    			"SELECT " + COLUMN_VALUE + " FROM " + COUNTERS_TABLE_NAME + " WHERE " + COLUMN_NAME + " = ?");
+    	stmt.bindString(1, IGNORELIST_TABLE_NAME);
+    	return stmt.simpleQueryForLong();
+    }
+    
+    /**
+     * Binds the given value to the given statement, or null if the value is null.
+     * @param stmt
+     * @param index
+     * @param value
+     */
+    private static void bindString(final SQLiteStatement stmt, final int index, final String value) {
+    	if(value == null) {
+    		stmt.bindNull(index);
+    	} else {
+    		stmt.bindString(index, value);
+    	}
+    }
+    
+    /**
+     * Executes the given insert statement and returns the row id of the inserted row,
+     * or -1 if an error occurred, like SQLiteDatabase.insert() does.
+     * @param stmt
+     * @return long row id or -1
+     */
+    private static long executeInsert(final SQLiteStatement stmt) {
+    	try {
+    		return stmt.executeInsert();
+    	} catch(SQLException e) {
+    		return -1;
+    	}
+    }
+    
+    /**
+     * Executes the given update or delete statement and returns the number of rows changed.
+     * SQLiteStatement.executeUpdateDelete() is not available before API level 11.
+     * @param stmt
+     * @return int number of rows changed
+     */
+    private int executeUpdateDelete(final SQLiteStatement stmt) {
+    	stmt.execute();
+    	return (int)statements.get(database, "SELECT changes()").simpleQueryForLong();
+    }
+    
     /**
      * Opens the database if it is not already open.
      */
     private void openIfNeeded() {
-    	if(database == null || ! database.isOpen()) {
-    		database = helper.getWritableDatabase();
+    	synchronized(helper) {
+    		if(database == null || ! database.isOpen()) {
+    			ignoreListValidated = false;
+    			database = helper.getWritableDatabase();
+    		}
+    	}
+    }
+    
+    /**
+     * Applies the given update of a copy in memory once the transaction of the
+     * current write is committed, and not at all if it is rolled back, so the
+     * copies in memory never get ahead of the database. Only to be called by writes.
+     * @param update
+     */
+    private void afterCommit(final Runnable update) {
+    	snapshotUpdates.add(update);
+    }
+    
+    /**
+     * Runs the given write on the writer thread, waits for it to be committed and
+     * returns its result, or false if it could not be run.
+     * @param write
+     * @return boolean result of the write
+     */
+    private boolean write(final Callable<Boolean> write) {
+    	Boolean result = await(write);
+    	return result != null && result.booleanValue();
+    }
+    
+    /**
+     * Runs the given write on the writer thread, batched with the writes queued up
+     * meanwhile, waits for it to be committed and returns its result. Runs it directly
+     * if already on the writer thread, i.e. if called by a submitted write. Runtime
+     * exceptions thrown by the write are rethrown.
+     * @param write
+     * @return T result of the write, or null if interrupted or the write could not be run
+     */
+    private <T> T await(final Callable<T> write) {
+    	if(writer.isWriterThread()) {
+    		return writer.run(write);
+    	}
+    	Future<T> future = writer.submit(write, null);
+    	try {
+    		return future.get();
+    	} catch(InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	} catch(ExecutionException e) {
+    		if(e.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException)e.getCause();
+    		}
+    		return null;
     	}
     }
 
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs writes to the database one after the other on a single background thread,
+ * batching the writes queued up meanwhile into one transaction. The thread is started
+ * when a write is submitted and stops after being idle for IDLE_TIMEOUT or when the
+ * writer is closed. Writes run with run() are run on the calling thread instead, in
+ * their own transaction, but never at the same time as a batch.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class DatabaseWriter {
+
+	/** Maximum number of writes batched into one transaction */
+	public static final int MAX_BATCH = 50;
+
+	/** Time in milliseconds after which an idle writer thread stops */
+	public static final long IDLE_TIMEOUT = 10000;
+
+	/**
+	 * Transaction the writes of a batch are run in.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	public interface Transaction {
+
+		/**
+		 * Begins the transaction.
+		 */
+		void begin();
+
+		/**
+		 * Marks the transaction as successful.
+		 */
+		void setSuccessful();
+
+		/**
+		 * Ends the transaction, committing it if it was marked as successful.
+		 */
+		void end();
+	}
+
+	/**
+	 * Listener notified on the writer thread when a write was committed.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	public interface Listener<T> {
+
+		/**
+		 * Called with the result of the write, or null if it failed.
+		 * @param result
+		 */
+		void onWritten(T result);
+	}
+
+	/** Name of the writer thread */
+	private final String name;
+
+	/** Transaction the writes are run in */
+	private final Transaction transaction;
+
+	/** Writes waiting to be run */
+	private final LinkedBlockingQueue<Write<?>> queue = new LinkedBlockingQueue<Write<?>>();
+
+	/** The writer thread, null if not running */
+	private Thread thread = null;
+
+	/** Lock held while running writes, so only one thread runs writes at a time */
+	private final Object writeLock = new Object();
+
+	/** Thread currently running writes, on any thread holding writeLock */
+	private volatile Thread writingThread = null;
+
+	/**
+	 * Creates an instance with a writer thread of the given name running
+	 * the writes in the given transaction.
+	 * @param name
+	 * @param transaction
+	 */
+	public DatabaseWriter(final String name, final Transaction transaction) {
+		this.name = name;
+		this.transaction = transaction;
+	}
+
+	/**
+	 * Queues the given write to be run on the writer thread and returns its result as future.
+	 * The given listener, if not null, is notified when the write was committed.
+	 * @param write
+	 * @param listener may be null
+	 * @return Future result of the write
+	 */
+	public <T> Future<T> submit(final Callable<T> write, final Listener<T> listener) {
+		Write<T> task = new Write<T>(write, listener);
+		synchronized(this) {
+			queue.add(task);
+			if(thread == null) {
+				thread = new Thread(new Runnable() {
+					public void run() {
+						runWrites();
+					}
+				}, name);
+				thread.start();
+			}
+		}
+		return task;
+	}
+
+	/**
+	 * Returns true if the current thread is running writes, either the writer thread
+	 * or a thread running a write with run().
+	 * @return boolean true if running writes
+	 */
+	public boolean isWriterThread() {
+		Thread current = Thread.currentThread();
+		synchronized(this) {
+			if(current == thread) {
+				return true;
+			}
+		}
+		return current == writingThread;
+	}
+
+	/**
+	 * Runs the given write on the calling thread in its own transaction and returns its
+	 * result, waiting for a batch running on the writer thread to finish first. Runs it
+	 * directly if already running writes. Exceptions thrown by the write are rethrown.
+	 * Should not be called on the UI thread, use submit() there.
+	 * @param write
+	 * @return T result of the write, or null if interrupted or the write could not be run
+	 */
+	public <T> T run(final Callable<T> write) {
+		try {
+			if(isWriterThread()) {
+				return write.call();
+			}
+			Write<T> task = new Write<T>(write, null);
+			runBatch(Collections.<Write<?>>singletonList(task));
+			return task.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			return null;
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Lets the writer thread finish the queued writes and waits for it to stop,
+	 * rather than for it to become idle for IDLE_TIMEOUT. A write submitted
+	 * afterwards starts a new writer thread.
+	 */
+	public void close() {
+		Thread current;
+		synchronized(this) {
+			current = thread;
+		}
+		if(current == null || current == Thread.currentThread()) {
+			return;
+		}
+		// Only stops the thread once the queue is empty
+		current.interrupt();
+		try {
+			current.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes and runs the queued writes in batches until idle for IDLE_TIMEOUT
+	 * or interrupted while the queue is empty.
+	 */
+	private void runWrites() {
+		List<Write<?>> batch = new ArrayList<Write<?>>(MAX_BATCH);
+		while(true) {
+			Write<?> first = null;
+			try {
+				first = queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				// Closed, stop only when there is nothing left to write
+			}
+			if(first == null) {
+				synchronized(this) {
+					if(queue.isEmpty()) {
+						thread = null;
+						return;
+					}
+				}
+				continue;
+			}
+
+			batch.clear();
+			batch.add(first);
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			try {
+				runBatch(batch);
+			} catch(RuntimeException e) {
+				// Log.d(Inetify.LOG_TAG, String.format("Failed to run %s writes: %s", batch.size(), e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Runs the given writes in one transaction on the current thread, holding the write lock.
+	 * @param batch
+	 */
+	private void runBatch(final List<Write<?>> batch) {
+		synchronized(writeLock) {
+			writingThread = Thread.currentThread();
+			try {
+				runTransaction(batch);
+			} finally {
+				writingThread = null;
+			}
+		}
+	}
+
+	/**
+	 * Runs the given writes in one transaction, and completes them and notifies
+	 * their listeners once it is committed, so callers see the committed writes.
+	 * If a write throws an exception, the transaction is rolled back, the write
+	 * fails and the other writes are run again without it.
+	 * @param batch
+	 */
+	private void runTransaction(final List<Write<?>> batch) {
+		try {
+			transaction.begin();
+		} catch(RuntimeException e) {
+			for(Write<?> write : batch) {
+				write.fail(e);
+			}
+			return;
+		}
+
+		Write<?> failed = null;
+		RuntimeException failure = null;
+		try {
+			for(Write<?> write : batch) {
+				if(! write.execute()) {
+					failed = write;
+					break;
+				}
+			}
+			if(failed == null) {
+				transaction.setSuccessful();
+			}
+		} catch(RuntimeException e) {
+			failure = e;
+		} finally {
+			try {
+				transaction.end();
+			} catch(RuntimeException e) {
+				failure = e;
+			}
+		}
+
+		if(failure == null && failed != null) {
+			failed.complete();
+			List<Write<?>> others = new ArrayList<Write<?>>(batch);
+			others.remove(failed);
+			if(! others.isEmpty()) {
+				runTransaction(others);
+			}
+			return;
+		}
+
+		for(Write<?> write : batch) {
+			if(failure == null) {
+				write.complete();
+			} else {
+				write.fail(failure);
+			}
+		}
+	}
+
+	/**
+	 * A queued write with its listener, completed only after its transaction was committed.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class Write<T> extends FutureTask<T> {
+
+		/** The write */
+		private final Callable<T> write;
+
+		/** Listener, may be null */
+		private final Listener<T> listener;
+
+		/** Result of the write */
+		private T result = null;
+
+		/** Exception thrown by the write */
+		private Exception exception = null;
+
+		/**
+		 * Creates an instance running the given write and notifying the given listener.
+		 * @param write
+		 * @param listener
+		 */
+		public Write(final Callable<T> write, final Listener<T> listener) {
+			super(write);
+			this.write = write;
+			this.listener = listener;
+		}
+
+		/**
+		 * Runs the write, without completing it yet, and returns false if it threw an exception.
+		 * @return boolean true if the write succeeded
+		 */
+		public boolean execute() {
+			result = null;
+			exception = null;
+			try {
+				result = write.call();
+			} catch(Exception e) {
+				exception = e;
+			}
+			return exception == null;
+		}
+
+		/**
+		 * Notifies the listener and completes the write with its result or exception,
+		 * so a caller waiting for the result sees the listener notified.
+		 */
+		public void complete() {
+			if(exception == null) {
+				try {
+					notifyListener(result);
+				} finally {
+					set(result);
+				}
+			} else {
+				fail(exception);
+			}
+		}
+
+		/**
+		 * Notifies the listener with null and completes the write with the given exception.
+		 * @param e
+		 */
+		public void fail(final Throwable e) {
+			try {
+				notifyListener(null);
+			} finally {
+				setException(e);
+			}
+		}
+
+		/**
+		 * Notifies the listener with the given result, if there is a listener.
+		 * @param result
+		 */
+		private void notifyListener(final T result) {
+			if(listener != null) {
+				listener.onWritten(result);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.SimpleAdapter;
+
+/**
+ * Activity that shows how long and how often the wake locks were held and how often
+ * longer than their budget, in total and per cause, and allows to reset the numbers.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class Diagnostics extends Activity {
+
+	/** Title key used for SimpleAdapter */
+	private static final String KEY_TITLE = "title";
+
+	/** Summary key used for SimpleAdapter */
+	private static final String KEY_SUMMARY = "summary";
+
+	/** Title string resource ids of the causes, in the order of WakeLockStats.CAUSES */
+	private static final int[] CAUSE_TITLES = {
+		R.string.diagnostics_title_wifi_connected,
+		R.string.diagnostics_title_wifi_disconnected,
+		R.string.diagnostics_title_redelivery,
+		R.string.diagnostics_title_location_alarm
+	};
+
+	/** Wake lock stats */
+	private WakeLockStats wakeLockStats;
+
+	/** Data of the list view */
+	private final List<Map<String, String>> listViewData = new ArrayList<Map<String, String>>();
+
+	/**
+	 * Performs initialization and populates the view.
+	 */
+	@Override
+	public void onCreate(final Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		if(wakeLockStats == null) {
+			wakeLockStats = WakeLockStats.getInstance(this);
+		}
+
+		this.setContentView(R.layout.diagnostics);
+
+		SimpleAdapter simpleAdapter = new SimpleAdapter(this, listViewData, android.R.layout.simple_list_item_2,
+				new String[] { KEY_TITLE, KEY_SUMMARY },
+				new int[] { android.R.id.text1, android.R.id.text2 });
+
+		ListView listViewDiagnostics = (ListView)findViewById(R.id.listview_diagnostics);
+		listViewDiagnostics.setAdapter(simpleAdapter);
+		listViewDiagnostics.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+			public void onItemClick(final AdapterView<?> parent, final View view, final int position, final long id) {
+				if(position == listViewData.size() - 1) {
+					reset();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shows the current numbers whenever the activity becomes visible.
+	 */
+	@Override
+	protected void onStart() {
+		super.onStart();
+
+		showStats();
+	}
+
+	/**
+	 * Resets the numbers and shows them again.
+	 */
+	private void reset() {
+		wakeLockStats.clear();
+		showStats();
+	}
+
+	/**
+	 * Fills the list view with the numbers of all causes together, each cause
+	 * and an item to reset the numbers.
+	 */
+	private void showStats() {
+		listViewData.clear();
+
+		listViewData.add(buildItem(getString(R.string.diagnostics_title_total), wakeLockStats.getTotal()));
+		for(int i = 0; i < WakeLockStats.CAUSES.length; i++) {
+			listViewData.add(buildItem(getString(CAUSE_TITLES[i]), wakeLockStats.getStats(WakeLockStats.CAUSES[i])));
+		}
+
+		Map<String, String> mapReset = new HashMap<String, String>();
+		mapReset.put(KEY_TITLE, getString(R.string.diagnostics_title_reset));
+		long since = wakeLockStats.getSince();
+		if(since < 0) {
+			mapReset.put(KEY_SUMMARY, getString(R.string.diagnostics_summary_reset_none));
+		} else {
+			mapReset.put(KEY_SUMMARY, getString(R.string.diagnostics_summary_reset, Utils.getDateTimeString(this, since)));
+		}
+		listViewData.add(mapReset);
+
+		ListView listViewDiagnostics = (ListView)findViewById(R.id.listview_diagnostics);
+		((BaseAdapter)listViewDiagnostics.getAdapter()).notifyDataSetChanged();
+	}
+
+	/**
+	 * Returns a map used as data item given to SimpleAdapter, with the given title
+	 * and a summary of the given numbers.
+	 * @param title
+	 * @param stats
+	 * @return Map<String, String>
+	 */
+	private Map<String, String> buildItem(final String title, final WakeLockStats.Stats stats) {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put(KEY_TITLE, title);
+		map.put(KEY_SUMMARY, getString(R.string.diagnostics_summary, stats.getCount(),
+				toSeconds(stats.getTotal()), toSeconds(stats.getAverage()), toSeconds(stats.getMax()), stats.getOverBudget()));
+		return map;
+	}
+
+	/**
+	 * Returns the given milliseconds as seconds with one decimal.
+	 * @param millis
+	 * @return String seconds
+	 */
+	private static String toSeconds(final long millis) {
+		return String.format("%.1f", millis / 1000.0);
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * Collapses bursts of Wifi connect and disconnect events, like when roaming between
+ * access points, into a single test request with the latest state. The first event
+ * makes a request pending and should start the service, further events only update
+ * the latest state while the request is pending. The service waits until no event
+ * came in for a short quiet window and then takes the request.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class EventCoalescer {
+
+	/** Time after which a request not taken is not considered pending anymore */
+	public static final long MAX_PENDING = 30000;
+
+	/** Clock */
+	private final Clock clock;
+
+	/** If a request is pending */
+	private boolean pending = false;
+
+	/** Time the pending request was made */
+	private long pendingSince;
+
+	/** Time of the last event */
+	private long lastEvent;
+
+	/** Latest state, true if Wifi is connected */
+	private boolean wifiConnected;
+
+	/** Number of events offered */
+	private int eventCount = 0;
+
+	/** Number of events collapsed into a pending request */
+	private int collapsedCount = 0;
+
+	/**
+	 * Creates an instance using the given clock.
+	 * @param clock
+	 */
+	public EventCoalescer(final Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Offers an event with the given state. Returns true if the event made a request
+	 * pending and the service should be started, false if it was collapsed into a
+	 * pending request. A request only stays pending while the service is busy,
+	 * since the service can't take it otherwise.
+	 * @param wifiConnected true if Wifi is connected
+	 * @param serviceBusy true if the service is busy, i.e. holds its wake lock
+	 * @return boolean true if the service should be started
+	 */
+	public synchronized boolean offer(final boolean wifiConnected, final boolean serviceBusy) {
+		long now = clock.now();
+		this.wifiConnected = wifiConnected;
+		this.lastEvent = now;
+		eventCount++;
+
+		if(pending && serviceBusy && now - pendingSince < MAX_PENDING) {
+			collapsedCount++;
+
+			// Log.d(Inetify.LOG_TAG, String.format("Collapsed event, %s collapsed so far", collapsedCount));
+
+			return false;
+		}
+
+		pending = true;
+		pendingSince = now;
+		return true;
+	}
+
+	/**
+	 * Waits until no event was offered for the given quiet window, but not longer than
+	 * maxWait, and takes the pending request. Returns the latest state if a request was
+	 * pending, the given state otherwise.
+	 * @param wifiConnected state to return if no request is pending
+	 * @param quietWindow time in milliseconds without events to wait for
+	 * @param maxWait maximum time in milliseconds to wait
+	 * @return boolean true if Wifi is connected
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized boolean take(final boolean wifiConnected, final long quietWindow, final long maxWait) throws InterruptedException {
+		if(! pending) {
+			return wifiConnected;
+		}
+
+		long start = clock.now();
+		long wait;
+		while((wait = Math.min(quietWindow - (clock.now() - lastEvent), maxWait - (clock.now() - start))) > 0) {
+			this.wait(wait);
+		}
+
+		pending = false;
+		return this.wifiConnected;
+	}
+
+	/**
+	 * Returns true if a request is pending.
+	 * @return boolean true if pending
+	 */
+	public synchronized boolean isPending() {
+		return pending;
+	}
+
+	/**
+	 * Returns the number of events offered.
+	 * @return int number of events
+	 */
+	public synchronized int getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Returns the number of events collapsed into a pending request.
+	 * @return int number of collapsed events
+	 */
+	public synchronized int getCollapsedCount() {
+		return collapsedCount;
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * RetryPolicy making a fixed number of attempts with the same delay before each attempt.
+ * 
+ * @author torsten.roemer@luniks.net
+ */
+public class FixedRetryPolicy implements RetryPolicy {
+	
+	/** Number of attempts */
+	private final int attempts;
+	
+	/** Delay before each attempt in milliseconds */
+	private final long delay;
+	
+	/**
+	 * Creates an instance making the given number of attempts with the given
+	 * delay in seconds before each attempt.
+	 * @param attempts number of attempts
+	 * @param delay delay before each attempt in seconds
+	 */
+	public FixedRetryPolicy(final int attempts, final int delay) {
+		this.attempts = attempts;
+		this.delay = delay * 1000L;
+	}
+
+	/**
+	 * Does nothing as this policy does not depend on time.
+	 */
+	public void start() {
+		// Nothing to do
+	}
+
+	/**
+	 * Returns the delay before each attempt, or -1 after the last attempt.
+	 * @param attempt
+	 * @return long delay in milliseconds or -1
+	 */
+	public long nextDelay(final int attempt) {
+		return attempt < attempts ? delay : -1;
+	}
+
+}
@@ -15,9 +15,13 @@
  */
 package net.luniks.android.inetify;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.luniks.android.impl.WifiManagerImpl;
+import net.luniks.android.inetify.Dialogs.InputDialog;
 import net.luniks.android.interfaces.IWifiInfo;
 import net.luniks.android.interfaces.IWifiManager;
 import android.app.AlertDialog;
@@ -29,14 +33,21 @@ import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.EditText;
 import android.widget.TwoLineListItem;
 
 /**
  * Activity that shows the list of ignored Wifi networks and allows to
- * delete single entries.
+ * delete single entries, and to add rules ignoring all SSIDs matching a
+ * wildcard pattern. The list is loaded in pages in the background
+ * and can be filtered by SSID.
  * 
  * @author torsten.roemer@luniks.net
  */
@@ -50,6 +61,9 @@ public class IgnoreList extends ListActivity {
 	
 	/** Id of the confirm delete dialog */
 	private static final int ID_CONFIRM_DELETE_DIALOG = 1;
+	
+	/** Id of the add rule dialog */
+	private static final int ID_ADD_RULE_DIALOG = 2;
 
 	/** Key to save the instance state of the ssid of the selected ignored Wifi */
 	private static final String STATE_BUNDLE_KEY_SELECTED_SSID = "selectedSSID";
@@ -60,6 +74,9 @@ public class IgnoreList extends ListActivity {
 	/** Database adapter */
 	private DatabaseAdapter databaseAdapter;
 	
+	/** Adapter of the list of ignored Wifi networks */
+	private IgnoredWifisAdapter ignoredWifisAdapter;
+	
 	/** Wifi manager */
 	private IWifiManager wifiManager;
 	
@@ -91,7 +108,7 @@ public class IgnoreList extends ListActivity {
 		headerView.getText2().setText(this.getString(R.string.wifi_status_unknown));
 		this.getListView().addHeaderView(headerView);
 		
-		databaseAdapter = new DatabaseAdapterImpl(this);
+		databaseAdapter = DatabaseAdapterImpl.getInstance(this);
 		wifiManager = new WifiManagerImpl((WifiManager)getSystemService(WIFI_SERVICE));
 		
 		this.getListView().setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -109,17 +126,31 @@ public class IgnoreList extends ListActivity {
 				if(position == 0) {
 					// Do nothing
 				} else {
-					Cursor cursor = (Cursor)IgnoreList.this.getListAdapter().getItem(position);
-					cursor.moveToPosition(position - 1);
-					
-					selectedSSID = cursor.getString(2);
-					
-					IgnoreList.this.showDialog(ID_CONTEXT_DIALOG);
+					WifiLocation ignoredWifi = (WifiLocation)IgnoreList.this.getListAdapter().getItem(position);
+					if(ignoredWifi != null) {
+						selectedSSID = ignoredWifi.getSSID();
+						
+						IgnoreList.this.showDialog(ID_CONTEXT_DIALOG);
+					}
 				}
 				return true;
 			}
 		});
 		
+		ignoredWifisAdapter = new IgnoredWifisAdapter();
+		this.setListAdapter(ignoredWifisAdapter);
+		
+		EditText filterText = (EditText)this.findViewById(R.id.edittext_ignorelist_filter);
+		filterText.addTextChangedListener(new TextWatcher() {
+			public void afterTextChanged(final Editable text) {
+				ignoredWifisAdapter.setFilter(text.toString());
+			}
+			public void beforeTextChanged(final CharSequence text, final int start, final int count, final int after) {
+			}
+			public void onTextChanged(final CharSequence text, final int start, final int before, final int count) {
+			}
+		});
+		
 		listIgnoredWifis();
 	}
 	
@@ -151,6 +182,16 @@ public class IgnoreList extends ListActivity {
 			final String message = getString(R.string.ignorelist_confirm_delete);
 			dialog = Dialogs.createConfirmDialog(this, id, message, listener);
 		}
+		else if(id == ID_ADD_RULE_DIALOG) {
+			DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
+				public void onClick(final DialogInterface dialog, final int whichButton) {
+					InputDialog inputDialog = (InputDialog)dialog;
+					addRule(inputDialog.getInputText());
+				}
+			};
+			final String message = getString(R.string.ignorelist_input_rule);
+			dialog = Dialogs.createInputDialog(this, id, message, listener);
+		}
 		this.currentDialog = dialog;
 		return dialog;
 	}
@@ -160,15 +201,50 @@ public class IgnoreList extends ListActivity {
 	 */
 	@Override
 	protected void onPrepareDialog(final int id, final Dialog dialog) {
+		if(id == ID_ADD_RULE_DIALOG) {
+			return;
+		}
 		AlertDialog alertDialog = (AlertDialog)dialog;
 		alertDialog.setTitle(selectedSSID);
 	}
+
+	/**
+	 * Creates the menu.
+	 */
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+
+		MenuInflater inflater = getMenuInflater();
+		inflater.inflate(R.menu.ignorelist, menu);
+
+		return true;
+	}
+	
+	/**
+	 * Called when a menu item is selected.
+	 */
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+
+		switch (item.getItemId()) {
+			case R.id.ignorelist_add_rule:
+				showDialog(ID_ADD_RULE_DIALOG);
+				return true;
+			default:
+				break;
+		}
+		
+		super.onOptionsItemSelected(item);
+
+		return false;
+	}
 	
 	/**
 	 * Closes the database.
 	 */
 	@Override
 	protected void onDestroy() {
+		ignoredWifisAdapter.close();
 		databaseAdapter.close();
 		currentDialog = null;
 		super.onDestroy();
@@ -248,38 +324,99 @@ public class IgnoreList extends ListActivity {
 	}
 	
 	/**
-	 * Lists the ignored Wifi networks in the database.
+	 * Lists the ignored Wifi networks in the database, in the background.
 	 */
-	private void listIgnoredWifis() {		
-        Cursor cursor = databaseAdapter.fetchIgnoredWifis();
-        startManagingCursor(cursor);
-        
-        SimpleCursorAdapter ignoredWifis = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_2, cursor, 
-        		new String[] { DatabaseAdapterImpl.COLUMN_SSID, DatabaseAdapterImpl.COLUMN_BSSID },
-				new int[] { android.R.id.text1, android.R.id.text2 });
-        
-        setListAdapter(ignoredWifis);
+	private void listIgnoredWifis() {
+		ignoredWifisAdapter.reload();
     }
 	
+	/**
+	 * Returns a listener running the given update of the list on the UI thread
+	 * when a change was written successfully.
+	 * @param update
+	 * @return DatabaseWriter.Listener<Boolean>
+	 */
+	private DatabaseWriter.Listener<Boolean> updater(final Runnable update) {
+		return new DatabaseWriter.Listener<Boolean>() {
+			public void onWritten(final Boolean result) {
+				if(result == null || ! result) {
+					return;
+				}
+				runOnUiThread(new Runnable() {
+					public void run() {
+						if(! isFinishing()) {
+							update.run();
+						}
+					}
+				});
+			}
+		};
+	}
+	
 	/**
 	 * Adds the current Wifi connection to the list of ignored Wifi networks if
-	 * wifi info is available.
+	 * wifi info is available, in the background.
 	 */
 	private void addIgnoredWifi() {
 		IWifiInfo wifiInfo = wifiManager.getConnectionInfo();
 		if(wifiConnected.get() && wifiInfoAvailable(wifiInfo)) {
-			databaseAdapter.addIgnoredWifi(wifiInfo.getBSSID(), wifiInfo.getSSID());
-			listIgnoredWifis();
+			final String bssid = wifiInfo.getBSSID();
+			final String ssid = wifiInfo.getSSID();
+			databaseAdapter.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return databaseAdapter.addIgnoredWifi(bssid, ssid);
+				}
+			}, updater(new Runnable() {
+				public void run() {
+					WifiLocation ignoredWifi = new WifiLocation();
+					ignoredWifi.setBSSID(bssid);
+					ignoredWifi.setSSID(ssid);
+					ignoredWifisAdapter.put(ignoredWifi);
+				}
+			}));
 		}
 	}
 	
 	/**
-	 * Deletes the ignored Wifi with the given SSID from the database.
+	 * Adds the given pattern as rule to the list of ignored Wifi networks if it
+	 * contains a wildcard, in the background. The pattern is also used as BSSID,
+	 * which is unique since a real BSSID never contains a wildcard.
+	 * @param pattern
+	 */
+	private void addRule(final String pattern) {
+		final String rule = pattern.trim();
+		if(! IgnoreMatcher.isPattern(rule)) {
+			return;
+		}
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.addIgnoredWifi(rule, rule);
+			}
+		}, updater(new Runnable() {
+			public void run() {
+				WifiLocation ignoredWifi = new WifiLocation();
+				ignoredWifi.setBSSID(rule);
+				ignoredWifi.setSSID(rule);
+				ignoredWifisAdapter.put(ignoredWifi);
+			}
+		}));
+	}
+	
+	/**
+	 * Deletes the ignored Wifi with the given SSID from the database, in the background.
 	 * @param ssid
 	 */
 	private void deleteIgnoredWifi(final String ssid) {
-		databaseAdapter.deleteIgnoredWifi(ssid);
-		listIgnoredWifis();
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.deleteIgnoredWifi(ssid);
+			}
+		}, updater(new Runnable() {
+			public void run() {
+				// Removes all entries with the SSID, which may not all be in memory
+				listIgnoredWifis();
+			}
+		}));
 	}
 	
 	/**
@@ -292,4 +429,71 @@ public class IgnoreList extends ListActivity {
 		return wifiInfo != null && wifiInfo.getBSSID() != null && wifiInfo.getSSID() != null;
 	}
 
+	/**
+	 * PagedListAdapter of the ignored Wifi networks as WifiLocation without
+	 * name and location, showing their SSID and BSSID.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class IgnoredWifisAdapter extends PagedListAdapter<WifiLocation> {
+		
+		private IgnoredWifisAdapter() {
+			super(IgnoreList.this);
+		}
+
+		@Override
+		protected int count(final String filter) {
+			return databaseAdapter.countIgnoredWifis(filter);
+		}
+
+		@Override
+		protected List<WifiLocation> fetch(final String filter, final WifiLocation after, final int offset, final int limit) {
+			List<WifiLocation> rows = new ArrayList<WifiLocation>(limit);
+			Cursor cursor = after == null ? databaseAdapter.fetchIgnoredWifis(filter, offset, limit) :
+				databaseAdapter.fetchIgnoredWifis(filter, after.getSSID(), after.getBSSID(), limit);
+			if(cursor == null) {
+				return rows;
+			}
+			try {
+				while(cursor.moveToNext()) {
+					WifiLocation ignoredWifi = new WifiLocation();
+					ignoredWifi.setBSSID(cursor.getString(1));
+					ignoredWifi.setSSID(cursor.getString(2));
+					rows.add(ignoredWifi);
+				}
+			} finally {
+				cursor.close();
+			}
+			return rows;
+		}
+
+		@Override
+		protected boolean matches(final WifiLocation row, final String filter) {
+			return contains(row.getSSID(), filter);
+		}
+
+		@Override
+		protected String getKey(final WifiLocation row) {
+			return row.getBSSID();
+		}
+
+		@Override
+		protected String getSortKey(final WifiLocation row) {
+			return row.getSSID();
+		}
+
+		@Override
+		protected String getText1(final WifiLocation row) {
+			return row.getSSID();
+		}
+
+		@Override
+		protected String getText2(final WifiLocation row) {
+			if(IgnoreMatcher.isPattern(row.getBSSID())) {
+				return getString(R.string.ignorelist_rule);
+			}
+			return row.getBSSID();
+		}
+	}
+
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import android.database.Cursor;
+
+/**
+ * Process wide copy of the ignore list, so checking if a Wifi network is ignored
+ * doesn't need to query the database. The copy is tagged with the version of the
+ * ignore list in the database it was loaded with, which is incremented by a trigger
+ * on every change of the ignore list. Changes made through DatabaseAdapterImpl are
+ * written through to the copy if they were the only change since, other changes
+ * discard the copy.
+ * Rules matching many SSIDs are added with the rule as both BSSID and SSID, and
+ * since the BSSID of a real Wifi network never contains a wildcard, only rows with
+ * a BSSID containing a wildcard are rules - a real SSID may well contain a '*'.
+ * The rules are compiled into an IgnoreMatcher that is only built again when a rule
+ * was added or removed.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class IgnoreListSnapshot {
+
+	/** The single instance */
+	private static final IgnoreListSnapshot instance = new IgnoreListSnapshot();
+
+	/** SSIDs of the ignored Wifi networks by BSSID */
+	private final Map<String, String> ssids = new HashMap<String, String>();
+
+	/** Number of BSSIDs of the ignored Wifi networks by SSID */
+	private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+	/** BSSIDs of the rules, which are the rules themselves */
+	private final Set<String> rules = new HashSet<String>();
+
+	/** Matcher of the rules, null if not built since the rules changed */
+	private IgnoreMatcher matcher;
+
+	/** Version of the ignore list in the database, -1 if not loaded */
+	private long version = -1;
+
+	/**
+	 * Use getInstance().
+	 */
+	private IgnoreListSnapshot() {
+	}
+
+	/**
+	 * Returns the single instance.
+	 * @return IgnoreListSnapshot instance
+	 */
+	public static IgnoreListSnapshot getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns true if the ignore list is loaded.
+	 * @return boolean true if loaded
+	 */
+	public synchronized boolean isLoaded() {
+		return version != -1;
+	}
+
+	/**
+	 * Returns true if the given SSID is an ignored Wifi network or matches a rule.
+	 * @param ssid
+	 * @return boolean true if ignored
+	 */
+	public synchronized boolean contains(final String ssid) {
+		if(counts.containsKey(ssid)) {
+			return true;
+		}
+		if(matcher == null) {
+			matcher = new IgnoreMatcher(rules);
+		}
+		return matcher.matches(ssid);
+	}
+
+	/**
+	 * Returns the number of ignored Wifi networks.
+	 * @return int number of BSSIDs
+	 */
+	public synchronized int size() {
+		return ssids.size();
+	}
+
+	/**
+	 * Loads the ignore list from the given cursor with the columns of
+	 * DatabaseAdapter.fetchIgnoredWifis(), tagged with the given version.
+	 * @param cursor
+	 * @param version
+	 */
+	public synchronized void load(final Cursor cursor, final long version) {
+		clear();
+		while(cursor.moveToNext()) {
+			put(cursor.getString(1), cursor.getString(2));
+		}
+		this.version = version;
+	}
+
+	/**
+	 * Discards the ignore list if it was loaded with a version other than the given one.
+	 * @param version
+	 */
+	public synchronized void validate(final long version) {
+		if(this.version != version) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Discards the ignore list, so it is loaded again.
+	 */
+	public synchronized void invalidate() {
+		clear();
+		version = -1;
+	}
+
+	/**
+	 * Adds the given BSSID and SSID, if adding them changed the version of the
+	 * ignore list in the database to the given one. Discards the ignore list otherwise.
+	 * @param bssid
+	 * @param ssid
+	 * @param version version after the change
+	 */
+	public synchronized void add(final String bssid, final String ssid, final long version) {
+		if(this.version == -1) {
+			return;
+		}
+		if(version != this.version + 1) {
+			invalidate();
+			return;
+		}
+
+		put(bssid, ssid);
+		this.version = version;
+	}
+
+	/**
+	 * Removes all BSSIDs with the given SSID, if deleting the given number of rows
+	 * changed the version of the ignore list in the database to the given one.
+	 * Discards the ignore list otherwise.
+	 * @param ssid
+	 * @param rows number of rows deleted
+	 * @param version version after the change
+	 */
+	public synchronized void remove(final String ssid, final int rows, final long version) {
+		if(this.version == -1) {
+			return;
+		}
+		if(version != this.version + rows) {
+			invalidate();
+			return;
+		}
+
+		Iterator<Entry<String, String>> iterator = ssids.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Entry<String, String> entry = iterator.next();
+			if(entry.getValue().equals(ssid)) {
+				iterator.remove();
+				if(rules.remove(entry.getKey())) {
+					matcher = null;
+				}
+			}
+		}
+		counts.remove(ssid);
+		this.version = version;
+	}
+
+	/**
+	 * Puts the given BSSID and SSID, replacing the SSID of the BSSID if it exists.
+	 * @param bssid
+	 * @param ssid
+	 */
+	private void put(final String bssid, final String ssid) {
+		String replaced = ssids.put(bssid, ssid);
+		if(replaced != null) {
+			int count = counts.get(replaced);
+			if(count == 1) {
+				counts.remove(replaced);
+			} else {
+				counts.put(replaced, count - 1);
+			}
+		}
+		if(IgnoreMatcher.isPattern(bssid) && rules.add(bssid)) {
+			matcher = null;
+		}
+		Integer count = counts.get(ssid);
+		counts.put(ssid, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Removes all BSSIDs and SSIDs.
+	 */
+	private void clear() {
+		ssids.clear();
+		counts.clear();
+		rules.clear();
+		matcher = null;
+	}
+
+}
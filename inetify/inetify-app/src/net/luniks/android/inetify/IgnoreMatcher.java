@@ -0,0 +1,352 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches SSIDs against the wildcard rules of the ignore list, where '*' stands for
+ * any sequence of characters, i.e. "CORP-*" or "*_Guest".
+ * The rules are compiled into a trie, where a '*' is an edge to a node that loops on
+ * any character. Matching walks all rules at once through the trie, and the sets of
+ * nodes reached are turned into states of a deterministic automaton as they are first
+ * reached, with their transitions cached. So once an SSID was matched, matching it or
+ * similar SSIDs again takes one cached transition per character, however many rules
+ * there are. The cache is cleared if it grows beyond MAX_STATES states.
+ * An instance is immutable except for the cache, and safe to use by several threads.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class IgnoreMatcher {
+
+	/** The wildcard character */
+	public static final char WILDCARD = '*';
+
+	/** Maximum number of states cached */
+	private static final int MAX_STATES = 10000;
+
+	/** Number of characters with a transition cached in an array, the rest in a map */
+	private static final int ASCII = 128;
+
+	/** Root node of the trie */
+	private final Node root = new Node(0, false);
+
+	/** Number of nodes of the trie */
+	private int nodes = 1;
+
+	/** States by their sorted set of node ids */
+	private final Map<NodeSet, State> states = new HashMap<NodeSet, State>();
+
+	/** Start state, null if not computed */
+	private State start;
+
+	/** Number of states computed since this instance was created */
+	private long statesComputed = 0;
+
+	/** Number of transitions computed since this instance was created */
+	private long transitionsComputed = 0;
+
+	/**
+	 * Compiles the given rules, ignoring the ones not containing a wildcard.
+	 * @param rules
+	 */
+	public IgnoreMatcher(final Iterable<String> rules) {
+		for(String rule : rules) {
+			if(isPattern(rule)) {
+				add(rule);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the given SSID of the ignore list contains a wildcard and
+	 * is a rule rather than a single SSID.
+	 * @param ssid
+	 * @return boolean true if a rule
+	 */
+	public static boolean isPattern(final String ssid) {
+		return ssid != null && ssid.indexOf(WILDCARD) != -1;
+	}
+
+	/**
+	 * Returns true if the given SSID matches one of the rules.
+	 * @param ssid
+	 * @return boolean true if matching
+	 */
+	public synchronized boolean matches(final String ssid) {
+		if(ssid == null) {
+			return false;
+		}
+
+		if(start == null || states.size() > MAX_STATES) {
+			states.clear();
+			Set<Node> closure = new LinkedHashSet<Node>();
+			addClosure(closure, root);
+			start = getState(closure);
+		}
+
+		State state = start;
+		for(int i = 0; i < ssid.length(); i++) {
+			if(state.always) {
+				return true;
+			}
+			if(state.dead) {
+				return false;
+			}
+			state = state.next(ssid.charAt(i));
+		}
+		return state.accepting;
+	}
+
+	/**
+	 * Returns the number of states computed since this instance was created,
+	 * including the ones computed again after the cache was cleared.
+	 * @return long number of states
+	 */
+	public synchronized long getStatesComputed() {
+		return statesComputed;
+	}
+
+	/**
+	 * Returns the number of transitions computed since this instance was created,
+	 * which is at most one per character matched, and none for a character whose
+	 * transition is cached.
+	 * @return long number of transitions
+	 */
+	public synchronized long getTransitionsComputed() {
+		return transitionsComputed;
+	}
+
+	/**
+	 * Adds the given rule to the trie, with consecutive wildcards collapsed into one.
+	 * @param rule
+	 */
+	private void add(final String rule) {
+		Node node = root;
+		for(int i = 0; i < rule.length(); i++) {
+			char c = rule.charAt(i);
+			if(c == WILDCARD) {
+				if(node.wildcard) {
+					continue;
+				}
+				if(node.star == null) {
+					node.star = new Node(nodes++, true);
+				}
+				node = node.star;
+			} else {
+				Node child = node.children.get(c);
+				if(child == null) {
+					child = new Node(nodes++, false);
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+		}
+		node.terminal = true;
+	}
+
+	/**
+	 * Adds the given node and the nodes reachable from it without consuming a
+	 * character, i.e. by a wildcard matching nothing, to the given nodes.
+	 * @param nodes
+	 * @param node
+	 */
+	private static void addClosure(final Set<Node> nodes, final Node node) {
+		Node current = node;
+		while(current != null && nodes.add(current)) {
+			current = current.star;
+		}
+	}
+
+	/**
+	 * Returns the state of the given nodes, creating it if it doesn't exist yet.
+	 * @param nodes
+	 * @return State
+	 */
+	private State getState(final Set<Node> nodes) {
+		int[] ids = new int[nodes.size()];
+		int i = 0;
+		for(Node node : nodes) {
+			ids[i++] = node.id;
+		}
+		Arrays.sort(ids);
+		NodeSet key = new NodeSet(ids);
+
+		State state = states.get(key);
+		if(state == null) {
+			state = new State(nodes.toArray(new Node[nodes.size()]));
+			states.put(key, state);
+			statesComputed++;
+		}
+		return state;
+	}
+
+	/**
+	 * Node of the trie.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class Node {
+
+		/** Id, unique within the trie */
+		private final int id;
+
+		/** If this node was reached by a wildcard, and so loops on any character */
+		private final boolean wildcard;
+
+		/** Children by character */
+		private final Map<Character, Node> children = new HashMap<Character, Node>();
+
+		/** Child reached by a wildcard, null if none */
+		private Node star;
+
+		/** If a rule ends at this node */
+		private boolean terminal;
+
+		/**
+		 * Creates a node with the given id.
+		 * @param id
+		 * @param wildcard if reached by a wildcard
+		 */
+		private Node(final int id, final boolean wildcard) {
+			this.id = id;
+			this.wildcard = wildcard;
+		}
+	}
+
+	/**
+	 * Sorted ids of a set of nodes, used as key of a state.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class NodeSet {
+
+		/** Sorted ids */
+		private final int[] ids;
+
+		/** Hash code */
+		private final int hash;
+
+		/**
+		 * Creates an instance with the given sorted ids.
+		 * @param ids
+		 */
+		private NodeSet(final int[] ids) {
+			this.ids = ids;
+			this.hash = Arrays.hashCode(ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			return other instanceof NodeSet && Arrays.equals(ids, ((NodeSet)other).ids);
+		}
+	}
+
+	/**
+	 * State of the deterministic automaton, the set of nodes reached by the
+	 * characters matched so far, and its cached transitions.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class State {
+
+		/** Nodes reached */
+		private final Node[] nodes;
+
+		/** If a rule ends at one of the nodes */
+		private final boolean accepting;
+
+		/** If a rule ending in a wildcard ends at one of the nodes, so any SSID matches from here */
+		private final boolean always;
+
+		/** If no node is reached, so no SSID matches from here */
+		private final boolean dead;
+
+		/** Transitions by ASCII character */
+		private final State[] ascii = new State[ASCII];
+
+		/** Transitions by other characters, null until needed */
+		private Map<Character, State> other;
+
+		/**
+		 * Creates the state of the given nodes.
+		 * @param nodes
+		 */
+		private State(final Node[] nodes) {
+			this.nodes = nodes;
+			boolean accepting = false;
+			boolean always = false;
+			for(Node node : nodes) {
+				accepting |= node.terminal;
+				always |= node.terminal && node.wildcard;
+			}
+			this.accepting = accepting;
+			this.always = always;
+			this.dead = nodes.length == 0;
+		}
+
+		/**
+		 * Returns the state reached from this one by the given character,
+		 * computing it the first time.
+		 * @param c
+		 * @return State
+		 */
+		private State next(final char c) {
+			State next;
+			if(c < ASCII) {
+				next = ascii[c];
+			} else {
+				next = other == null ? null : other.get(c);
+			}
+			if(next != null) {
+				return next;
+			}
+
+			Set<Node> reached = new LinkedHashSet<Node>();
+			for(Node node : nodes) {
+				Node child = node.children.get(c);
+				if(child != null) {
+					addClosure(reached, child);
+				}
+				if(node.wildcard) {
+					addClosure(reached, node);
+				}
+			}
+			next = getState(reached);
+			transitionsComputed++;
+
+			if(c < ASCII) {
+				ascii[c] = next;
+			} else {
+				if(other == null) {
+					other = new HashMap<Character, State>();
+				}
+				other.put(c, next);
+			}
+			return next;
+		}
+	}
+
+}
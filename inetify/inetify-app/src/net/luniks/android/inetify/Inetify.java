@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import net.luniks.android.impl.ConnectivityManagerImpl;
 import net.luniks.android.impl.WifiManagerImpl;
@@ -42,6 +44,7 @@ import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
+import android.widget.Toast;
 
 /**
  * Main activity of the app, providing a possibility to manually test internet connectivity,
@@ -81,6 +84,9 @@ public class Inetify extends Activity {
 	/** Index of the list item to show the help */
 	private static final int INDEX_HELP = 4;
 	
+	/** Index of the list item to show the diagnostics */
+	private static final int INDEX_DIAGNOSTICS = 5;
+	
 	/** Action to update the test result */
 	public static final String UPDATE_TESTRESULT_ACTION = "net.luniks.android.inetify.UPDATE_TESTRESULT";
 	
@@ -114,7 +120,7 @@ public class Inetify extends Activity {
 		this.setContentView(R.layout.main);
 		
 		if(databaseAdapter == null) {
-			databaseAdapter = new DatabaseAdapterImpl(this);
+			databaseAdapter = DatabaseAdapterImpl.getInstance(this);
 		}
 		
 		Object retained = this.getLastNonConfigurationInstance();
@@ -150,6 +156,9 @@ public class Inetify extends Activity {
 				if(position == INDEX_HELP) {
 					showHelp();
 				}
+				if(position == INDEX_DIAGNOSTICS) {
+					showDiagnostics();
+				}
 			}
 		});
 		
@@ -293,6 +302,11 @@ public class Inetify extends Activity {
 		mapHelp.put(KEY_SUMMARY, getString(R.string.main_summary_help));
 		list.add(INDEX_HELP, mapHelp);
 		
+		Map<String, String> mapDiagnostics = new HashMap<String, String>();
+		mapDiagnostics.put(KEY_TITLE, getString(R.string.main_title_diagnostics));
+		mapDiagnostics.put(KEY_SUMMARY, getString(R.string.main_summary_diagnostics));
+		list.add(INDEX_DIAGNOSTICS, mapDiagnostics);
+		
 		return list;
 	}
 	
@@ -360,6 +374,14 @@ public class Inetify extends Activity {
 		startActivity(launchHelpIntent);
 	}
 	
+	/**
+	 * Shows the diagnostics.
+	 */
+	private void showDiagnostics() {
+		Intent showDiagnosticsIntent = new Intent().setClass(this, Diagnostics.class);
+		startActivity(showDiagnosticsIntent);
+	}
+	
 	/**
 	 * Displays the given TestInfo in the InfoDetail view.
 	 * @param info
@@ -381,6 +403,7 @@ public class Inetify extends Activity {
     	private Tester tester;
     	private DatabaseAdapter databaseAdapter;
     	private Inetify activity;
+    	private Throwable error;
     	
     	private TestTask(final Inetify activity, final DatabaseAdapter databaseAdapter) {
     		this.activity = activity;
@@ -404,26 +427,42 @@ public class Inetify extends Activity {
 		}
 
 		/**
-		 * Runs the internet connectivity test in the background.
+		 * Runs the internet connectivity test on the ProbeScheduler, ahead of queued
+		 * background tests, and waits for its result. Returns null if the test was
+		 * cancelled or threw an exception, which is then kept for onPostExecute().
 		 */
 		@Override
 		protected TestInfo doInBackground(final Void... arg) {
-			final TestInfo info = tester.testSimple();
-			databaseAdapter.updateTestResult(info.getTimestamp(), info.getType(), info.getExtra(), info.getIsExpectedTitle());
-			
-			return info;
+			// Recorded in the database by the scheduler
+			try {
+				return ProbeScheduler.getInstance(activity).submitManual(tester, databaseAdapter).get();
+			} catch(InterruptedException e) {
+				return null;
+			} catch(CancellationException e) {
+				return null;
+			} catch(ExecutionException e) {
+				// Log.w(Inetify.LOG_TAG, String.format("Test threw exception: %s", e.getCause()));
+				error = e.getCause();
+				return null;
+			}
 		}
 		
 		/**
 		 * Cancels the progress dialog, and calls showInfoDetail(TestInfo) with
-		 * the TestInfo returned by doInBackground().
+		 * the TestInfo returned by doInBackground(), if any, or shows the
+		 * exception the test threw, if any.
 		 */
 		@Override
 	    protected void onPostExecute(final TestInfo info) {
 			Dialogs.dismissDialogSafely(activity, ID_PROGRESS_DIALOG);
 			// http://code.google.com/p/android/issues/detail?id=4266
 			Dialogs.removeDialogSafely(activity, ID_PROGRESS_DIALOG);
-			activity.showInfoDetail(info);
+			if(info != null) {
+				activity.showInfoDetail(info);
+			} else if(error != null) {
+				String message = activity.getString(R.string.main_testing_failed, error.getMessage());
+				Toast.makeText(activity, message, Toast.LENGTH_LONG).show();
+			}
 	    }
 		
     }
@@ -15,6 +15,11 @@
  */
 package net.luniks.android.inetify;
 
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
 import net.luniks.android.impl.ConnectivityManagerImpl;
 import net.luniks.android.impl.NotificationManagerImpl;
 import net.luniks.android.impl.WifiManagerImpl;
@@ -23,26 +28,29 @@ import android.app.IntentService;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
 import android.os.PowerManager;
+import android.preference.PreferenceManager;
 
 /**
  * IntentService that is started by ConnectivityActionReceiver when Wifi connects
  * or disconnects, performs the internet connectivity test and creates or cancels
  * the notifications. If the service receives an intent while is busy testing internet
- * connectivity it cancels the test and starts a new test run. 
+ * connectivity it cancels the test and starts a new test run. The test itself runs
+ * on the ProbeScheduler, which drops it if a newer connectivity event came in meanwhile.
  * 
  * @author torsten.roemer@luniks.net
  */
 public class InetifyIntentService extends IntentService {
 	
-	/** Delay before/between each (re)try to test internet connectivity */
-	public static final int TEST_DELAY_SECS = 10;
+	/** Time without connectivity events to wait for before testing */
+	public static final long EVENT_QUIET_WINDOW = 500;
 	
-	/** Number of retries to test internet connectivity */
-	private static final int TEST_RETRIES = 3;
+	/** Maximum time to wait for connectivity events to calm down */
+	public static final long EVENT_MAX_WAIT = 3000;
 	
 	/** Tag of the wake lock */
 	public static final String WAKE_LOCK_TAG = "net.luniks.android.inetify.InetifyIntentService";
@@ -50,18 +58,33 @@ public class InetifyIntentService extends IntentService {
 	/** Wake lock kept until the test is done */
 	static volatile PowerManager.WakeLock wakeLock;
 	
+	/** Collapses bursts of connectivity events into one test */
+	static final EventCoalescer eventCoalescer = new EventCoalescer(new ClockImpl());
+	
 	/** UI thread handler */
 	private Handler handler;
 	
 	/** Tester */
 	private Tester tester;
 	
+	/** Scheduler running the tests */
+	private ProbeScheduler scheduler;
+	
+	/** Background test last submitted to the scheduler, cancelled to cancel the test */
+	private volatile Future<TestInfo> test;
+	
 	/** Notifier */
 	private Notifier notifier;
 	
 	/** Database adapter */
 	private DatabaseAdapter databaseAdapter;
 	
+	/** Cache of OK test results */
+	private TestResultCache testResultCache;
+	
+	/** Shared preferences */
+	private SharedPreferences sharedPreferences;
+	
 	/**
 	 * Creates an instance with a name.
 	 */
@@ -83,24 +106,31 @@ public class InetifyIntentService extends IntentService {
 					new WifiManagerImpl((WifiManager)getSystemService(WIFI_SERVICE)),
 					new TitleVerifierImpl());
 		}
+		if(scheduler == null) {
+			scheduler = ProbeScheduler.getInstance(this);
+		}
 		if(notifier == null) {
 			notifier = new NotifierImpl(this,
 					new NotificationManagerImpl((NotificationManager)getSystemService(NOTIFICATION_SERVICE)));
 		}
 		if(databaseAdapter == null) {
-			databaseAdapter = new DatabaseAdapterImpl(this);
+			databaseAdapter = DatabaseAdapterImpl.getInstance(this);
+		}
+		if(testResultCache == null) {
+			testResultCache = new TestResultCache(databaseAdapter);
 		}
+		this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 	}
 
 	/**
 	 * Overridden to cancel a possibly ongoing internet connectivity test so the next
-	 * one can be started instead.
+	 * one can be started instead, without waiting for the servers it probes.
 	 * NOTE: ServiceTestCase and pre 1.5 API call onStart()!
 	 * @see android.app.IntentService#onStartCommand(android.content.Intent, int, int)
 	 */
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
-		cancelTester();
+		cancelTest();
 		return super.onStartCommand(intent, flags, startId);
 	}
 
@@ -110,7 +140,7 @@ public class InetifyIntentService extends IntentService {
 	 */
 	@Override
 	public void onDestroy() {
-		cancelTester();
+		cancelTest();
 		databaseAdapter.close();
 	}
 
@@ -128,7 +158,9 @@ public class InetifyIntentService extends IntentService {
 			
 			if(intent != null) {
 				boolean wifiConnected = intent.getBooleanExtra(ConnectivityActionReceiver.EXTRA_IS_WIFI_CONNECTED, false);
-				test(wifiConnected);
+				long generation = intent.getLongExtra(ConnectivityActionReceiver.EXTRA_GENERATION, scheduler.getGeneration());
+				wifiConnected = eventCoalescer.take(wifiConnected, EVENT_QUIET_WINDOW, EVENT_MAX_WAIT);
+				test(wifiConnected, generation);
 			}
 		} catch(Exception e) {
 			// Log.w(Inetify.LOG_TAG, String.format("Test threw exception: %s", e.getMessage()));
@@ -136,6 +168,7 @@ public class InetifyIntentService extends IntentService {
 			if(wakeLock != null) {
 				if(wakeLock.isHeld()) {
 					wakeLock.release();
+					WakeLockStats.getInstance(this).released(WAKE_LOCK_TAG);
 					
 					// Log.d(Inetify.LOG_TAG, String.format("Released wake lock"));
 				}
@@ -155,6 +188,7 @@ public class InetifyIntentService extends IntentService {
 		}
 		if(! wakeLock.isHeld()) {
 			wakeLock.acquire();
+			WakeLockStats.getInstance(context).acquired(WAKE_LOCK_TAG, WakeLockStats.CAUSE_REDELIVERY);
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Acquired wake lock since it was null"));
 		}
@@ -162,9 +196,16 @@ public class InetifyIntentService extends IntentService {
 	
 	/**
 	 * Runs an internet connectivity test if wifiConnected is true, clears an
-	 * existing notification otherwise.
+	 * existing notification otherwise. Uses the cached result instead if the
+	 * connected Wifi network was tested OK not longer ago than the cache TTL
+	 * set in the settings, recorded by the scheduler just like a test result.
+	 * Does nothing if the test was cancelled or dropped because
+	 * a newer connectivity event came in meanwhile.
+	 * @param wifiConnected
+	 * @param generation generation of the network state of the connectivity event
+	 * @throws Exception if the test threw an exception
 	 */	
-	private void test(final boolean wifiConnected) {
+	private void test(final boolean wifiConnected, final long generation) throws Exception {
 		/*
 		 * Ignore if Wifi says it connected or disconnected, as when moving from one neighbouring Wifi to another (roaming?),
 		 * it seems the sequence can be:
@@ -178,10 +219,27 @@ public class InetifyIntentService extends IntentService {
 			// Log.d(Inetify.LOG_TAG, String.format("Wifi %s is connected but ignored, skipping test", wifiInfo.getSSID()));
 			return;
 		} else {
-			TestInfo info = tester.testWifi(TEST_RETRIES, TEST_DELAY_SECS);
-			
-			databaseAdapter.updateTestResult(info.getTimestamp(), info.getType(), info.getExtra(), info.getIsExpectedTitle());
-			this.sendBroadcast(new Intent(Inetify.UPDATE_TESTRESULT_ACTION));
+			SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+			String key = getCacheKey(wifiInfo, settings);
+			TestInfo info = null;
+			if(tester.isWifiConnectedOrConnecting()) {
+				info = testResultCache.get(key, settings.getCacheTTL(), System.currentTimeMillis());
+			}
+			// Recorded in the database by the scheduler
+			if(info == null) {
+				info = testWifi(generation, getRetryPolicy(settings));
+				if(info == null) {
+					// Log.d(Inetify.LOG_TAG, "Test was cancelled or superseded");
+					return;
+				}
+				testResultCache.put(key, info);
+			} else {
+				info = useCached(generation, info);
+				if(info == null) {
+					// Log.d(Inetify.LOG_TAG, "Cached result was superseded");
+					return;
+				}
+			}
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Updated test results in database: %s", info));
 			
@@ -190,11 +248,100 @@ public class InetifyIntentService extends IntentService {
 	}
 	
 	/**
-	 * Cancelling the tester, catching any exception it may throw.
+	 * Runs the Wifi test on the scheduler as a background test of the given generation
+	 * and waits for its result. Returns null if the test was cancelled or dropped.
+	 * @param generation generation of the network state of the connectivity event
+	 * @param retryPolicy policy giving the delay before each try
+	 * @return TestInfo result or null
+	 * @throws Exception if the test threw an exception
+	 */
+	private TestInfo testWifi(final long generation, final RetryPolicy retryPolicy) throws Exception {
+		Callable<TestInfo> test = new Callable<TestInfo>() {
+			public TestInfo call() throws Exception {
+				return tester.testWifi(retryPolicy);
+			}
+		};
+		return runBackground(generation, test);
+	}
+	
+	/**
+	 * Passes the given cached test result through the scheduler as a background test
+	 * of the given generation, so it is recorded in the same way as a test result,
+	 * and returns it. Returns null if it was dropped.
+	 * @param generation generation of the network state of the connectivity event
+	 * @param cached cached test result
+	 * @return TestInfo cached test result or null
+	 * @throws Exception never
 	 */
-	private void cancelTester() {
+	private TestInfo useCached(final long generation, final TestInfo cached) throws Exception {
+		Callable<TestInfo> test = new Callable<TestInfo>() {
+			public TestInfo call() throws Exception {
+				return cached;
+			}
+		};
+		return runBackground(generation, test);
+	}
+	
+	/**
+	 * Runs the given test on the scheduler as a background test of the given generation
+	 * and waits for its result. Returns null if the test was cancelled or dropped.
+	 * @param generation generation of the network state of the connectivity event
+	 * @param test
+	 * @return TestInfo result or null
+	 * @throws Exception if the test threw an exception
+	 */
+	private TestInfo runBackground(final long generation, final Callable<TestInfo> test) throws Exception {
+		Future<TestInfo> future = scheduler.submitBackground(generation, tester, test, databaseAdapter);
+		this.test = future;
+		try {
+			return future.get();
+		} catch(CancellationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns a retry policy with the delays, the maximum number of tries and
+	 * the deadline of the given settings, the same deadline the budget of the test uses.
+	 * @param settings
+	 * @return RetryPolicy retry policy
+	 */
+	private static RetryPolicy getRetryPolicy(final SettingsSnapshot settings) {
+		return new BackoffRetryPolicy(new ClockImpl(), new Random(),
+				settings.getFirstDelay(), settings.getRetryDelay(), settings.getMaxRetryDelay(), settings.getRetryJitter(),
+				settings.getDeadline(), settings.getMaxTries());
+	}
+	
+	/**
+	 * Returns the key of the test result cache for the given Wifi network and the given
+	 * test settings, or null if wifiInfo is null.
+	 * @param wifiInfo
+	 * @param settings
+	 * @return String key or null
+	 */
+	private static String getCacheKey(final IWifiInfo wifiInfo, final SettingsSnapshot settings) {
+		if(wifiInfo == null) {
+			return null;
+		}
+		if(settings.isStatusProbe()) {
+			return TestResultCache.getKey(wifiInfo.getBSSID(), settings.getProbe(), settings.getStatusServer(), null);
+		}
+		return TestResultCache.getKey(wifiInfo.getBSSID(), settings.getProbe(), settings.getServer(), settings.getTitle());
+	}
+	
+	/**
+	 * Cancels the background test last submitted to the scheduler, if any, which drops
+	 * it if it is still queued and cancels the tester if it is running, catching any
+	 * exception it may throw. The tester itself is not cancelled, so a cancel can't
+	 * get lost by the tester being reset for another test.
+	 */
+	private void cancelTest() {
+		Future<TestInfo> test = this.test;
+		if(test == null) {
+			return;
+		}
 		try {
-			tester.cancel();
+			test.cancel(true);
 		} catch(Exception e) {
 			// Log.w(Inetify.LOG_TAG, String.format("Cancelling test threw exception: %s", e.getMessage()));
 		}
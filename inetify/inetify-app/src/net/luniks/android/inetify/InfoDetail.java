@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import android.app.Activity;
 import android.app.Dialog;
@@ -26,6 +27,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
@@ -73,11 +75,20 @@ public class InfoDetail extends Activity {
 	/** Index of the list item to ignore the Wifi network */
 	private static final int INDEX_IGNORE = 5;
 	
+	/** Not applicable phase time */
+	private static final String PHASE_TIME_NA = "-";
+	
 	/** Database adapter */
 	private DatabaseAdapter databaseAdapter;
 	
 	/** Test info */
 	private TestInfo info;
+	
+	/** List item showing the phase times, null if there are none */
+	private Map<String, String> timingsItem;
+	
+	/** Task fetching the percentiles of the phase times */
+	private PercentilesTask percentilesTask;
 
 	/**
 	 * Performs initialization and populates the view.
@@ -87,7 +98,7 @@ public class InfoDetail extends Activity {
 		super.onCreate(savedInstanceState);
 		
 		if(databaseAdapter == null) {
-			databaseAdapter = new DatabaseAdapterImpl(this);
+			databaseAdapter = DatabaseAdapterImpl.getInstance(this);
 		}
 
 		this.setContentView(R.layout.infodetail);
@@ -142,6 +153,11 @@ public class InfoDetail extends Activity {
 				}
 			}
 		});
+		
+		if(timingsItem != null) {
+			percentilesTask = new PercentilesTask(this);
+			percentilesTask.execute();
+		}
 	}
 	
 	/**
@@ -161,6 +177,9 @@ public class InfoDetail extends Activity {
 	 */
 	@Override
 	public void onDestroy() {
+		if(percentilesTask != null) {
+			percentilesTask.cancel(false);
+		}
 		databaseAdapter.close();
 		super.onDestroy();
 	}
@@ -200,12 +219,17 @@ public class InfoDetail extends Activity {
 	}
 	
 	/**
-	 * Adds the Wifi network in the given TestInfo to the ignored Wifi networks.
+	 * Adds the Wifi network in the given TestInfo to the ignored Wifi networks,
+	 * in the background.
 	 * @param info
 	 */
 	private void ignore(final TestInfo info) {
 		if(info.getType() == ConnectivityManager.TYPE_WIFI) {
-			databaseAdapter.addIgnoredWifi(info.getExtra2(), info.getExtra());
+			databaseAdapter.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return databaseAdapter.addIgnoredWifi(info.getExtra2(), info.getExtra());
+				}
+			}, null);
 			
 			ListView listViewInfodetail = (ListView)findViewById(R.id.listview_infodetail);
 			
@@ -217,6 +241,19 @@ public class InfoDetail extends Activity {
 		}
 	}
 	
+	/**
+	 * Shows the given percentiles of the phase times in the list item showing the phase times.
+	 * @param medians 50th percentiles
+	 * @param percentiles90 90th percentiles
+	 */
+	private void showPercentiles(final long[] medians, final long[] percentiles90) {
+		timingsItem.put(KEY_VALUE, getString(R.string.infodetail_value_timings, 
+				formatPhaseTimes(info.getPhaseTimes()), formatPhaseTimes(medians), formatPhaseTimes(percentiles90)));
+		
+		ListView listViewInfodetail = (ListView)findViewById(R.id.listview_infodetail);
+		((BaseAdapter)listViewInfodetail.getAdapter()).notifyDataSetChanged();
+	}
+	
 	/**
 	 * Returns a list of maps used as data given to SimpleAdapter, created from the given TestInfo instance.
 	 * @param info
@@ -268,9 +305,66 @@ public class InfoDetail extends Activity {
 			list.add(INDEX_IGNORE, mapIgnore);
 		}
 		
+		// Last, since the item to ignore the Wifi network is not always there
+		if(info.hasPhaseTimes()) {
+			Map<String, String> mapTimings = new HashMap<String, String>();
+			mapTimings.put(KEY_PROP, getString(R.string.infodetail_prop_timings));
+			// The percentiles are filled in by the PercentilesTask
+			mapTimings.put(KEY_VALUE, getString(R.string.infodetail_value_timings_loading, 
+					formatPhaseTimes(info.getPhaseTimes())));
+			list.add(mapTimings);
+			timingsItem = mapTimings;
+		}
+		
 		return list;
 	}
 	
+	/**
+	 * Returns the given times of the phases of a probe as string, with "-" for
+	 * phases not done.
+	 * @param phaseTimes indexed by the ProbeTimings.PHASE_ constants
+	 * @return String phase times
+	 */
+	private String formatPhaseTimes(final long[] phaseTimes) {
+		Object[] args = new Object[ProbeTimings.PHASES];
+		for(int i = 0; i < ProbeTimings.PHASES; i++) {
+			args[i] = phaseTimes[i] < 0 ? PHASE_TIME_NA : String.valueOf(phaseTimes[i]);
+		}
+		return getString(R.string.infodetail_value_phases, args);
+	}
+	
+	/**
+	 * AsyncTask that fetches the median and the 90th percentile of the phase times
+	 * over the test history, which queries the whole test history.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class PercentilesTask extends AsyncTask<Void, Void, long[][]> {
+		
+		private final InfoDetail activity;
+		private final DatabaseAdapter databaseAdapter;
+		
+		private PercentilesTask(final InfoDetail activity) {
+			this.activity = activity;
+			this.databaseAdapter = activity.databaseAdapter;
+		}
+
+		@Override
+		protected long[][] doInBackground(final Void... arg) {
+			return new long[][] {
+					databaseAdapter.fetchPhasePercentiles(50), 
+					databaseAdapter.fetchPhasePercentiles(90)};
+		}
+		
+		@Override
+	    protected void onPostExecute(final long[][] percentiles) {
+			if(! isCancelled()) {
+				activity.showPercentiles(percentiles[0], percentiles[1]);
+			}
+		}
+		
+	}
+	
 	/**
 	 * Subclass of SimpleAdapter disabling some items in the ItemList.
 	 * 
@@ -37,6 +37,19 @@ public interface Locater {
 	 */
 	void start(LocaterLocationListener listener, long maxAge, int minAccuracy, boolean useGPS);
 	
+	/**
+	 * Like start(LocaterLocationListener, long, int, boolean), but passes locations with at least
+	 * the given coarse accuracy to the listener, and only doesn't start listening for location
+	 * updates when a last known location already has at least the given fine accuracy.
+	 * Listens to all enabled providers at once, including GPS if useGPS is true.
+	 * @param listener
+	 * @param maxAge
+	 * @param fineAccuracy
+	 * @param coarseAccuracy
+	 * @param useGPS
+	 */
+	void start(LocaterLocationListener listener, long maxAge, int fineAccuracy, int coarseAccuracy, boolean useGPS);
+	
 	/**
 	 * Stops listening for location updates.
 	 */
@@ -57,16 +57,37 @@ public class LocaterImpl implements Locater {
 	public synchronized void start(final LocaterLocationListener listener,
 			final long maxAge, final int minAccuracy, final boolean useGPS) {
 		
-		// Log.d(Inetify.LOG_TAG, String.format("Locater started with maxAge: %s, minAccuracy: %s, useGPS: %s", maxAge, minAccuracy, useGPS));
+		// Keeps listening even if a last known location was delivered when any accuracy is accepted
+		int fineAccuracy = minAccuracy < Integer.MAX_VALUE ? minAccuracy : -1;
+		
+		start(listener, maxAge, fineAccuracy, minAccuracy, useGPS);
+	}
+	
+	/**
+	 * First checks for last known locations and passes the best one to the given listener if it has
+	 * at least the given coarse accuracy. Doesn't even start listening for location updates when it
+	 * already has at least the given fine accuracy, otherwise starts listening for location updates
+	 * from all enabled providers at once, using GPS or not, passing the ones with at least the given
+	 * coarse accuracy to the given listener.
+	 * @param listener
+	 * @param maxAge
+	 * @param fineAccuracy
+	 * @param coarseAccuracy
+	 * @param useGPS
+	 */
+	public synchronized void start(final LocaterLocationListener listener,
+			final long maxAge, final int fineAccuracy, final int coarseAccuracy, final boolean useGPS) {
+		
+		// Log.d(Inetify.LOG_TAG, String.format("Locater started with maxAge: %s, fineAccuracy: %s, coarseAccuracy: %s, useGPS: %s", maxAge, fineAccuracy, coarseAccuracy, useGPS));
 		
 		Location bestLastKnownLocation = this.getBestLastKnownLocation(maxAge);
-		if(bestLastKnownLocation != null && bestLastKnownLocation.getAccuracy() <= minAccuracy) {
+		if(bestLastKnownLocation != null && bestLastKnownLocation.getAccuracy() <= coarseAccuracy) {
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Locater bestLastKnownLocation %s", bestLastKnownLocation));
 			
 			listener.onLocationChanged(bestLastKnownLocation);
 			
-			if(minAccuracy < Integer.MAX_VALUE) {
+			if(bestLastKnownLocation.getAccuracy() <= fineAccuracy) {
 				// Log.d(Inetify.LOG_TAG, "Not listening for location updates as a last known location was sufficient");
 				
 				return;
@@ -80,7 +101,7 @@ public class LocaterImpl implements Locater {
 		locationListener = new LocationListener() {
 			
 			public void onLocationChanged(final Location location) {
-				if(location != null && location.getAccuracy() <= minAccuracy) {
+				if(location != null && location.getAccuracy() <= coarseAccuracy) {
 					
 					// Log.d(Inetify.LOG_TAG, String.format("Locater onLocationChanged: %s", location));
 					
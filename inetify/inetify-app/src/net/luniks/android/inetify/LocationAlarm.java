@@ -22,7 +22,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.SystemClock;
 import android.preference.PreferenceManager;
 
 /**
@@ -48,6 +47,12 @@ public class LocationAlarm implements Alarm {
 	/** The operation executed by this alarm */
 	private final PendingIntent operation;
 	
+	/** Clock */
+	private final Clock clock;
+	
+	/** Schedule of the location checks */
+	private final LocationSchedule schedule;
+	
 	/**
 	 * Creates an instance using the given context.
 	 * @param context
@@ -60,22 +65,31 @@ public class LocationAlarm implements Alarm {
 		Intent intent = new Intent(context, LocationAlarmReceiver.class);
 		intent.setAction(LocationAlarmReceiver.ACTION_LOCATION_ALARM);
 		this.operation = PendingIntent.getBroadcast(context, 0, intent, 0);
+		
+		this.clock = new ClockImpl();
+		this.schedule = new LocationSchedule(sharedPreferences, clock);
 	}
 
 	/**
-	 * Sets or cancels the alarm depending on some conditions.
+	 * Sets or cancels the alarm depending on some conditions. The alarm repeats
+	 * with the delay decided by the last location check, or the check interval
+	 * setting if there is none.
 	 */
 	public void reset() {
-		boolean autoWifi  = sharedPreferences.getBoolean(Settings.LOCATION_AUTO_WIFI, false);
-		boolean notification  = sharedPreferences.getBoolean(Settings.LOCATION_CHECK, false);
+		SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+		boolean autoWifi = settings.isAutoWifi();
+		boolean notification = settings.isLocationCheck();
 		
-		long interval = getIntervalSetting();
+		long interval = getInterval(settings.getCheckInterval());
 		boolean airplaneModeOn = isAirplaneModeOn();
 		
 		if((autoWifi || notification) && ! airplaneModeOn) {
 			
+			long now = clock.now();
+			long triggerAtTime = Math.max(now + TRIGGER_DELAY, schedule.getNextCheck());
+			
 			alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-					SystemClock.elapsedRealtime() + TRIGGER_DELAY, interval, operation);
+					triggerAtTime, schedule.getDelay(interval), operation);
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Alarm set"));
 		} else {
@@ -86,15 +100,14 @@ public class LocationAlarm implements Alarm {
 	}
 	
 	/**
-	 * Maps the Settings.LOCATION_CHECK_INTERVAL" setting to a AlarmManager.INTERVAL_* value.
+	 * Maps the given Settings.LOCATION_CHECK_INTERVAL setting to a AlarmManager.INTERVAL_* value.
 	 * FIXME Just can't come up with something better than this
+	 * @param minutes check interval in minutes
 	 * @return long AlarmManager.INTERVAL_* value
 	 */
-	private long getIntervalSetting() {
-		String setting = sharedPreferences.getString(Settings.LOCATION_CHECK_INTERVAL, null);
-		if(setting == null) return AlarmManager.INTERVAL_FIFTEEN_MINUTES;
-		if(setting.equals("30")) return AlarmManager.INTERVAL_HALF_HOUR;
-		if(setting.equals("60")) return AlarmManager.INTERVAL_HOUR;
+	private static long getInterval(final int minutes) {
+		if(minutes == 30) return AlarmManager.INTERVAL_HALF_HOUR;
+		if(minutes == 60) return AlarmManager.INTERVAL_HOUR;
 		return AlarmManager.INTERVAL_FIFTEEN_MINUTES;
 	}
     
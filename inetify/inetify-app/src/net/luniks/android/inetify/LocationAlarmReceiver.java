@@ -51,6 +51,8 @@ public class LocationAlarmReceiver extends BroadcastReceiver {
 				}
 				if(! LocationIntentService.wakeLock.isHeld()) {
 					LocationIntentService.wakeLock.acquire();
+					WakeLockStats.getInstance(context).acquired(LocationIntentService.WAKE_LOCK_TAG, 
+							WakeLockStats.CAUSE_LOCATION_ALARM);
 					
 					// Log.d(Inetify.LOG_TAG, String.format("Acquired wake lock"));
 				}
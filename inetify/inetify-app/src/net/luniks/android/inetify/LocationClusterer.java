@@ -0,0 +1,445 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.Cursor;
+
+/**
+ * Clusters all Wifi locations by zoom level for LocationMapView, so tens of thousands
+ * of locations can be shown without drawing a marker for each of them.
+ * The locations are grouped by the cells of a grid that is four cells per map tile wide
+ * at the given zoom level. For each zoom level, the locations are sorted by their cell
+ * the first time the zoom level is shown, so getting the clusters in the viewport
+ * only looks at the rows of cells within the viewport. The cluster of a cell is kept
+ * once it was computed, so panning back and forth doesn't compute it again.
+ * Only the MAX_LEVELS zoom levels shown most recently are kept, since each one takes
+ * memory in the order of the number of locations. Sorting a zoom level takes time in
+ * the same order, so getClusters() should not be called on the UI thread.
+ * The grid is in degrees like the one of DatabaseAdapterImpl, so clusters get a bit
+ * taller than wide on the map towards the poles.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class LocationClusterer {
+
+	/** Highest zoom level locations are clustered by, higher zoom levels use this one */
+	public static final int MAX_ZOOM = 18;
+
+	/** Number of cells per map tile */
+	private static final int CELLS_PER_TILE = 4;
+
+	/** Number of bits of the index of a location in a sort key */
+	private static final int INDEX_BITS = 23;
+
+	/** Maximum number of locations, limited by the bits of the index in a sort key */
+	public static final int MAX_LOCATIONS = 1 << INDEX_BITS;
+
+	/** Maximum number of zoom levels kept, i.e. the current one and the ones next to it */
+	public static final int MAX_LEVELS = 3;
+
+	/** Source the locations were taken from, i.e. a LocationSnapshot.Data, or null */
+	private final Object source;
+
+	/** Latitudes */
+	private final double[] lats;
+
+	/** Longitudes */
+	private final double[] lons;
+
+	/** Names */
+	private final String[] names;
+
+	/** Locations sorted by cell and computed clusters of the zoom levels shown most recently */
+	private final Map<Integer, Level> levels = new LinkedHashMap<Integer, Level>(MAX_LEVELS + 1, 1, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, Level> eldest) {
+			return size() > MAX_LEVELS;
+		}
+	};
+
+	/**
+	 * Creates an instance clustering the locations in the given arrays, taken from
+	 * the given source.
+	 * @param source
+	 * @param lats
+	 * @param lons
+	 * @param names
+	 */
+	public LocationClusterer(final Object source, final double[] lats, final double[] lons, final String[] names) {
+		if(lats.length > MAX_LOCATIONS) {
+			throw new IllegalArgumentException(String.format("More than %s locations", MAX_LOCATIONS));
+		}
+		this.source = source;
+		this.lats = lats;
+		this.lons = lons;
+		this.names = names;
+	}
+
+	/**
+	 * Returns an instance clustering the locations of the given LocationSnapshot.Data.
+	 * @param data
+	 * @return LocationClusterer
+	 */
+	public static LocationClusterer from(final LocationSnapshot.Data data) {
+		int size = data.size();
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		String[] names = new String[size];
+		for(int i = 0; i < size; i++) {
+			lats[i] = data.getLatitude(i);
+			lons[i] = data.getLongitude(i);
+			names[i] = data.getName(i);
+		}
+		return new LocationClusterer(data, lats, lons, names);
+	}
+
+	/**
+	 * Returns an instance clustering the locations of the given cursor with the
+	 * columns of DatabaseAdapter.fetchLocations(), up to MAX_LOCATIONS of them.
+	 * @param cursor
+	 * @return LocationClusterer
+	 */
+	public static LocationClusterer load(final Cursor cursor) {
+		int size = Math.min(cursor.getCount(), MAX_LOCATIONS);
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		String[] names = new String[size];
+
+		int count = 0;
+		while(count < size && cursor.moveToNext()) {
+			names[count] = cursor.getString(3);
+			lats[count] = cursor.getDouble(4);
+			lons[count] = cursor.getDouble(5);
+			count++;
+		}
+
+		if(count < size) {
+			double[] copyLats = new double[count];
+			double[] copyLons = new double[count];
+			String[] copyNames = new String[count];
+			System.arraycopy(lats, 0, copyLats, 0, count);
+			System.arraycopy(lons, 0, copyLons, 0, count);
+			System.arraycopy(names, 0, copyNames, 0, count);
+			return new LocationClusterer(null, copyLats, copyLons, copyNames);
+		}
+
+		return new LocationClusterer(null, lats, lons, names);
+	}
+
+	/**
+	 * Returns true if the locations of this instance were taken from the given source,
+	 * which is never the case if the source is null.
+	 * @param source
+	 * @return boolean true if taken from the source
+	 */
+	public boolean isFrom(final Object source) {
+		return source != null && source == this.source;
+	}
+
+	/**
+	 * Returns the number of locations.
+	 * @return int number of locations
+	 */
+	public int size() {
+		return lats.length;
+	}
+
+	/**
+	 * Returns the number of zoom levels kept, at most MAX_LEVELS.
+	 * @return int number of zoom levels
+	 */
+	public synchronized int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * Returns the size of a cell in degrees at the given zoom level.
+	 * @param zoom
+	 * @return double size in degrees
+	 */
+	public static double getCellDeg(final int zoom) {
+		return 360.0 / (1L << limit(zoom)) / CELLS_PER_TILE;
+	}
+
+	/**
+	 * Clears the given list and adds the clusters at the given zoom level within
+	 * the given bounds to it, row by row from the south-west. The bounds may cross
+	 * the 180th meridian, i.e. west may be greater than east. Returns the number of
+	 * locations in the clusters.
+	 * The same cluster instance is returned for a cell as long as its zoom level is kept.
+	 * @param zoom
+	 * @param south
+	 * @param west
+	 * @param north
+	 * @param east
+	 * @param clusters
+	 * @return int number of locations
+	 */
+	public synchronized int getClusters(final int zoom, final double south, final double west,
+			final double north, final double east, final List<Cluster> clusters) {
+		clusters.clear();
+
+		Level level = getLevel(limit(zoom));
+		if(west <= east) {
+			return level.collect(south, west, north, east, clusters);
+		} else {
+			return level.collect(south, west, north, 180, clusters) +
+				level.collect(south, -180, north, east, clusters);
+		}
+	}
+
+	/**
+	 * Returns the given zoom level, but at least 0 and not more than MAX_ZOOM.
+	 * @param zoom
+	 * @return int zoom level
+	 */
+	private static int limit(final int zoom) {
+		return Math.max(0, Math.min(zoom, MAX_ZOOM));
+	}
+
+	/**
+	 * Returns the locations sorted by cell at the given zoom level, sorting them
+	 * if the zoom level is not kept, and dropping the zoom level shown least
+	 * recently if more than MAX_LEVELS are kept.
+	 * @param zoom
+	 * @return Level
+	 */
+	private Level getLevel(final int zoom) {
+		Level level = levels.get(zoom);
+		if(level == null) {
+			level = new Level(getCellDeg(zoom));
+			levels.put(zoom, level);
+		}
+		return level;
+	}
+
+	/**
+	 * Locations sorted by their cell at one zoom level, and the clusters of the cells
+	 * computed so far.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class Level {
+
+		/** Size of a cell in degrees */
+		private final double cellDeg;
+
+		/** Number of cells of the longitude, from -180 to 180 degrees */
+		private final long lonCells;
+
+		/** Cell keys of the locations in ascending order */
+		private final long[] keys;
+
+		/** Indexes of the locations in the order of keys */
+		private final int[] order;
+
+		/** Cluster of the cell starting at each position in keys, null if not computed yet */
+		private final Cluster[] computed;
+
+		/**
+		 * Sorts the locations by their cell of the given size.
+		 * @param cellDeg
+		 */
+		private Level(final double cellDeg) {
+			this.cellDeg = cellDeg;
+			this.lonCells = getCell(180, 180) + 1;
+
+			int size = lats.length;
+			long[] sorted = new long[size];
+			for(int i = 0; i < size; i++) {
+				sorted[i] = getKey(getCell(lats[i], 90), getCell(lons[i], 180)) << INDEX_BITS | i;
+			}
+			Arrays.sort(sorted);
+
+			this.keys = new long[size];
+			this.order = new int[size];
+			this.computed = new Cluster[size];
+			for(int i = 0; i < size; i++) {
+				keys[i] = sorted[i] >>> INDEX_BITS;
+				order[i] = (int)(sorted[i] & (MAX_LOCATIONS - 1));
+			}
+		}
+
+		/**
+		 * Adds the clusters within the given bounds to the given list and returns the number
+		 * of locations in them. Only looks at the locations in the rows of cells within
+		 * the bounds.
+		 * @param south
+		 * @param west
+		 * @param north
+		 * @param east
+		 * @param clusters
+		 * @return int number of locations
+		 */
+		private int collect(final double south, final double west, final double north, final double east,
+				final List<Cluster> clusters) {
+			long minRow = getCell(Math.max(-90, south), 90);
+			long maxRow = getCell(Math.min(90, north), 90);
+			long minCol = getCell(Math.max(-180, west), 180);
+			long maxCol = getCell(Math.min(180, east), 180);
+
+			int count = 0;
+			for(long row = minRow; row <= maxRow; row++) {
+				long maxKey = getKey(row, maxCol);
+				int i = lowerBound(getKey(row, minCol));
+				while(i < keys.length && keys[i] <= maxKey) {
+					Cluster cluster = computed[i];
+					if(cluster == null) {
+						cluster = compute(i);
+						computed[i] = cluster;
+					}
+					clusters.add(cluster);
+					count += cluster.count;
+					i += cluster.count;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Computes the cluster of the cell starting at the given position in keys.
+		 * @param start
+		 * @return Cluster
+		 */
+		private Cluster compute(final int start) {
+			long key = keys[start];
+			double sumLat = 0;
+			double sumLon = 0;
+			int end = start;
+			while(end < keys.length && keys[end] == key) {
+				sumLat += lats[order[end]];
+				sumLon += lons[order[end]];
+				end++;
+			}
+			int count = end - start;
+			int first = order[start];
+			return new Cluster(sumLat / count, sumLon / count, count, count == 1 ? names[first] : null);
+		}
+
+		/**
+		 * Returns the position of the first key that is not less than the given key.
+		 * @param key
+		 * @return int position
+		 */
+		private int lowerBound(final long key) {
+			int low = 0;
+			int high = keys.length;
+			while(low < high) {
+				int mid = (low + high) >>> 1;
+				if(keys[mid] < key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns the cell of the given latitude or longitude, counted from the given
+		 * offset, i.e. from -90 or -180 degrees.
+		 * @param degrees
+		 * @param offset
+		 * @return long cell
+		 */
+		private long getCell(final double degrees, final double offset) {
+			return (long)Math.floor((degrees + offset) / cellDeg);
+		}
+
+		/**
+		 * Returns the key of the given cell, ascending with the longitude within a row of cells.
+		 * @param row
+		 * @param col
+		 * @return long key
+		 */
+		private long getKey(final long row, final long col) {
+			return row * lonCells + col;
+		}
+	}
+
+	/**
+	 * Locations within one cell, shown as one marker at their center.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	public static class Cluster {
+
+		/** Latitude of the center */
+		private final double lat;
+
+		/** Longitude of the center */
+		private final double lon;
+
+		/** Number of locations */
+		private final int count;
+
+		/** Name of the location if there is only one, null otherwise */
+		private final String name;
+
+		/**
+		 * Creates an instance with the given center, number of locations and name.
+		 * @param lat
+		 * @param lon
+		 * @param count
+		 * @param name
+		 */
+		private Cluster(final double lat, final double lon, final int count, final String name) {
+			this.lat = lat;
+			this.lon = lon;
+			this.count = count;
+			this.name = name;
+		}
+
+		/**
+		 * Returns the latitude of the center of the locations.
+		 * @return double latitude
+		 */
+		public double getLatitude() {
+			return lat;
+		}
+
+		/**
+		 * Returns the longitude of the center of the locations.
+		 * @return double longitude
+		 */
+		public double getLongitude() {
+			return lon;
+		}
+
+		/**
+		 * Returns the number of locations.
+		 * @return int number of locations
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the name of the location if there is only one, null otherwise.
+		 * @return String name or null
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+}
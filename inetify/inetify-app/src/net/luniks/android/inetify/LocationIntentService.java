@@ -55,12 +55,12 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 	/** Tag of the wake lock */
 	public static final String WAKE_LOCK_TAG = "net.luniks.android.inetify.LocationIntentService";
 	
+	/** Timeout in milliseconds for getting a location with fine accuracy, then a coarse one is accepted */
+	private static long GET_FINE_LOCATION_TIMEOUT = 30 * 1000;
+	
 	/** Timeout in milliseconds for getting a location */
 	private static long GET_LOCATION_TIMEOUT = 60 * 1000;
 	
-	/** Timeout in milliseconds for getting a location when using GPS */
-	private static long GET_LOCATION_TIMEOUT_GPS = 30 * 1000;
-	
 	/** Wake lock, released when the count down latch releases the worker thread */
 	static volatile PowerManager.WakeLock wakeLock;
 	
@@ -73,6 +73,12 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 	/** Flag to indicate that a location was found */
 	private final AtomicBoolean found = new AtomicBoolean(false);
 	
+	/** Flag to indicate that locations with coarse accuracy are accepted */
+	private boolean degraded = false;
+	
+	/** Most accurate location with coarse accuracy found so far */
+	private Location coarseLocation;
+	
 	/** UI thread handler */
 	private Handler handler;
 	
@@ -96,6 +102,12 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 	
 	/** Locater */
 	private Locater locater;
+	
+	/** Alarm triggering the location checks */
+	private Alarm alarm;
+	
+	/** Schedule of the location checks */
+	private LocationSchedule schedule;
 
 	/**
 	 * Creates an instance with a name.
@@ -125,7 +137,7 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 			locationManager = new LocationManagerImpl((LocationManager)getSystemService(LOCATION_SERVICE));
 		}
 		if(databaseAdapter == null) {
-			databaseAdapter = new DatabaseAdapterImpl(this);
+			databaseAdapter = DatabaseAdapterImpl.getInstance(this);
 		}
 		if(connectivityManager == null) {
 			connectivityManager = new ConnectivityManagerImpl((ConnectivityManager)getSystemService(CONNECTIVITY_SERVICE));
@@ -133,6 +145,12 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 		if(locater == null) {
 			locater = new LocaterImpl(locationManager);
 		}
+		if(alarm == null) {
+			alarm = new LocationAlarm(this);
+		}
+		if(schedule == null) {
+			schedule = new LocationSchedule(sharedPreferences, new ClockImpl());
+		}
 	}
 	
 	/**
@@ -147,35 +165,28 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 	}
 	
 	/**
-	 * Called on the main thread when a location was found, stops the locater, 
-	 * gets the nearest Wifi location and gives a notification and enables Wifi
-	 * depending on some settings and conditions.
+	 * Called on the main thread when a location was found. Accepts it if it has fine
+	 * accuracy or if coarse accuracy is already accepted, otherwise keeps it if it is
+	 * the most accurate location found so far.
 	 */
 	public void onLocationChanged(final Location location) {
 		
-		locater.stop();
-		found.set(true);
-		
-		WifiLocation nearestLocation = databaseAdapter.getNearestLocationTo(location);
-		
-		if(nearestLocation == null) {
-			return;
-		}
-		
-		boolean autoWifi  = sharedPreferences.getBoolean(Settings.LOCATION_AUTO_WIFI, false);
-		boolean notification  = sharedPreferences.getBoolean(Settings.LOCATION_CHECK, false);
-		int maxDistance = Integer.valueOf(sharedPreferences.getString(Settings.LOCATION_MAX_DISTANCE, "1500"));
-		
-		// Log.d(Inetify.LOG_TAG, String.format("Got location from %s with accuracy %s, distance to %s is %s, max. distance is %s", 
-		// 		location.getProvider(), location.getAccuracy(), nearestLocation.getName(), nearestLocation.getDistance(), maxDistance));
-		
-		if(nearestLocation.getDistance() <= maxDistance) {
-			locationNear(location, nearestLocation, autoWifi, notification);
-		} else {
-			locationFar(autoWifi, notification);
+		synchronized(this) {
+			// Already accepted a location with coarse accuracy
+			if(degraded && found.get()) {
+				return;
+			}
+			if(! degraded && ! locater.isAccurateEnough(location, LOCATION_MIN_ACC_FINE)) {
+				if(location != null && (coarseLocation == null || 
+						location.getAccuracy() < coarseLocation.getAccuracy())) {
+					coarseLocation = location;
+				}
+				return;
+			}
+			found.set(true);
 		}
 		
-		latch.countDown();
+		locationFound(location);
 	}
 
 	/**
@@ -206,6 +217,7 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 			if(wakeLock != null) {
 				if(wakeLock.isHeld()) {
 					wakeLock.release();
+					WakeLockStats.getInstance(this).released(WAKE_LOCK_TAG);
 					
 					// Log.d(Inetify.LOG_TAG, String.format("Released wake lock"));
 				}
@@ -230,38 +242,56 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 			return;
 		}
 		
-		found.set(false);
+		synchronized(this) {
+			found.set(false);
+			degraded = false;
+			coarseLocation = null;
+		}
 				
 		boolean useGPS = locater.isProviderEnabled(LocationManager.GPS_PROVIDER) && 
-						 sharedPreferences.getBoolean(Settings.LOCATION_USE_GPS, false);
+						 SettingsSnapshot.getInstance(sharedPreferences).isUseGPS();
 
-		locate(LOCATION_MIN_ACC_FINE, false);
-		if(! found.get()) {
-			if(useGPS) {
-				locate(LOCATION_MIN_ACC_FINE, true);
-			} else {
-				locate(LOCATION_MIN_ACC_COARSE, false);
-			}
-		}
+		locate(useGPS);
 	}
 	
 	/**
-	 * Starts the locater (registers for location updates) on the main thread to 
-	 * find a location with the given minimum accuracy, using GPS or not, and lets
-	 * the worker thread wait until a location was found or a timeout expired.
-	 * @param minAccuracy
+	 * Starts the locater (registers for location updates from all enabled providers at once)
+	 * on the main thread and lets the worker thread wait until a location with fine accuracy
+	 * was found or a timeout expired. Then accepts the most accurate location with coarse
+	 * accuracy found until then, or the first one found until the second timeout expires.
+	 * If GPS is used, the service does not accept locations with coarse accuracy from the
+	 * network because if it does, it might consider a Wifi location as near that it didn't
+	 * when it found accurate locations using GPS.
 	 * @param useGPS
 	 */
-	private void locate(final int minAccuracy, final boolean useGPS) {				
+	private void locate(final boolean useGPS) {
+		final int coarseAccuracy = useGPS ? LOCATION_MIN_ACC_FINE : LOCATION_MIN_ACC_COARSE;
 		try {
 			handler.post(new Runnable() {
 				public void run() {
-					locater.start(LocationIntentService.this, LOCATION_MAX_AGE, minAccuracy, useGPS);
+					locater.start(LocationIntentService.this, LOCATION_MAX_AGE, 
+							LOCATION_MIN_ACC_FINE, coarseAccuracy, useGPS);
 				}
 			});
 			
-			long timeout = useGPS ? GET_LOCATION_TIMEOUT_GPS : GET_LOCATION_TIMEOUT;			
-			latch.await(timeout, TimeUnit.MILLISECONDS);
+			if(latch.await(GET_FINE_LOCATION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+			
+			Location location;
+			synchronized(this) {
+				degraded = true;
+				location = found.get() ? null : coarseLocation;
+				if(location != null) {
+					found.set(true);
+				}
+			}
+			
+			if(location != null) {
+				locationFound(location);
+			} else {
+				latch.await(Math.max(0, GET_LOCATION_TIMEOUT - GET_FINE_LOCATION_TIMEOUT), TimeUnit.MILLISECONDS);
+			}
 		} catch(InterruptedException e) {
 			// Ignore
 		} finally {
@@ -269,6 +299,44 @@ public class LocationIntentService extends IntentService implements LocaterLocat
 		}
 	}
 	
+	/**
+	 * Stops the locater, gets the nearest Wifi location and gives a notification
+	 * and enables Wifi depending on some settings and conditions. Then schedules 
+	 * the next check depending on the distance to the nearest Wifi location.
+	 * @param location
+	 */
+	private void locationFound(final Location location) {
+		
+		locater.stop();
+		
+		try {
+			WifiLocation nearestLocation = databaseAdapter.getNearestLocationTo(location);
+			
+			if(nearestLocation == null) {
+				return;
+			}
+			
+			SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+			boolean autoWifi = settings.isAutoWifi();
+			boolean notification = settings.isLocationCheck();
+			int maxDistance = settings.getMaxDistance();
+			
+			// Log.d(Inetify.LOG_TAG, String.format("Got location from %s with accuracy %s, distance to %s is %s, max. distance is %s", 
+			// 		location.getProvider(), location.getAccuracy(), nearestLocation.getName(), nearestLocation.getDistance(), maxDistance));
+			
+			if(nearestLocation.getDistance() <= maxDistance) {
+				locationNear(location, nearestLocation, autoWifi, notification);
+			} else {
+				locationFar(autoWifi, notification);
+			}
+			
+			schedule.update(nearestLocation.getDistance(), location.getAccuracy(), maxDistance);
+			alarm.reset();
+		} finally {
+			latch.countDown();
+		}
+	}
+	
 	/**
 	 * Called when the found location is near enough a Wifi location in respect to the user's
 	 * "max distance" setting, enabling Wifi and giving a notification depending on some settings
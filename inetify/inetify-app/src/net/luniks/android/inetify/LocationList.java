@@ -15,7 +15,11 @@
  */
 package net.luniks.android.inetify;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.luniks.android.impl.LocationManagerImpl;
@@ -36,16 +40,25 @@ import android.database.Cursor;
 import android.location.Location;
 import android.location.LocationManager;
 import android.net.wifi.WifiManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.EditText;
 import android.widget.Toast;
 import android.widget.TwoLineListItem;
 
 /**
  * Activity that shows the list of Wifi locations and allows to
- * show locations on a Google map and rename or delete single entries.
+ * show locations on a Google map and rename or delete single entries,
+ * and to export and import the list to and from external storage.
+ * The list is loaded in pages in the background and can be filtered
+ * by name and SSID.
  * 
  * @author torsten.roemer@luniks.net
  */
@@ -84,6 +97,9 @@ public class LocationList extends ListActivity {
 	/** Database adapter */
 	private DatabaseAdapter databaseAdapter;
 	
+	/** Adapter of the list of Wifi locations */
+	private LocationsAdapter locationsAdapter;
+	
 	/** Wifi manager */
 	private IWifiManager wifiManager;
 	
@@ -124,7 +140,7 @@ public class LocationList extends ListActivity {
 		headerView.getText2().setText(this.getString(R.string.wifi_status_unknown));
 		this.getListView().addHeaderView(headerView);
 		
-		databaseAdapter = new DatabaseAdapterImpl(this);
+		databaseAdapter = DatabaseAdapterImpl.getInstance(this);
 		wifiManager = new WifiManagerImpl((WifiManager)getSystemService(WIFI_SERVICE));
 		locationManager = new LocationManagerImpl((LocationManager)getSystemService(LOCATION_SERVICE));
 		
@@ -134,20 +150,10 @@ public class LocationList extends ListActivity {
 				if(position == 0) {
 					findLocation();
 				} else {
-					Cursor cursor = (Cursor)LocationList.this.getListAdapter().getItem(position);
-					cursor.moveToPosition(position - 1);
-					
-					final String name = cursor.getString(3);
-					final double lat = cursor.getDouble(4);
-					final double lon = cursor.getDouble(5);
-					final float acc = cursor.getFloat(6);
-					
-					Location location = new Location(Locater.PROVIDER_DATABASE);
-					location.setLatitude(lat);
-					location.setLongitude(lon);
-					location.setAccuracy(acc);
-					
-					showLocation(name, location);
+					WifiLocation wifiLocation = (WifiLocation)LocationList.this.getListAdapter().getItem(position);
+					if(wifiLocation != null) {
+						showLocation(wifiLocation.getName(), wifiLocation.getLocation());
+					}
 				}
 			}
 		});
@@ -158,13 +164,13 @@ public class LocationList extends ListActivity {
 				if(position == 0) {
 					// Do nothing
 				} else {
-					Cursor cursor = (Cursor)LocationList.this.getListAdapter().getItem(position);
-					cursor.moveToPosition(position - 1);
-					
-					selectedBSSID = cursor.getString(1);
-					selectedName = cursor.getString(3);
-					
-					LocationList.this.showDialog(ID_CONTEXT_DIALOG);
+					WifiLocation wifiLocation = (WifiLocation)LocationList.this.getListAdapter().getItem(position);
+					if(wifiLocation != null) {
+						selectedBSSID = wifiLocation.getBSSID();
+						selectedName = wifiLocation.getName();
+						
+						LocationList.this.showDialog(ID_CONTEXT_DIALOG);
+					}
 				}
 				return true;
 			}
@@ -173,6 +179,20 @@ public class LocationList extends ListActivity {
         IntentFilter filter = new IntentFilter(ADD_LOCATION_ACTION);
         addLocationReceiver = new AddLocationReceiver();
         this.registerReceiver(addLocationReceiver, filter);
+        
+		locationsAdapter = new LocationsAdapter();
+		this.setListAdapter(locationsAdapter);
+		
+		EditText filterText = (EditText)this.findViewById(R.id.edittext_locationlist_filter);
+		filterText.addTextChangedListener(new TextWatcher() {
+			public void afterTextChanged(final Editable text) {
+				locationsAdapter.setFilter(text.toString());
+			}
+			public void beforeTextChanged(final CharSequence text, final int start, final int count, final int after) {
+			}
+			public void onTextChanged(final CharSequence text, final int start, final int before, final int count) {
+			}
+		});
 		
 		listLocations();
 	}
@@ -233,11 +253,49 @@ public class LocationList extends ListActivity {
 		alertDialog.setTitle(selectedName);
 	}
 
+	/**
+	 * Creates the menu.
+	 */
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+
+		MenuInflater inflater = getMenuInflater();
+		inflater.inflate(R.menu.locationlist, menu);
+
+		return true;
+	}
+	
+	/**
+	 * Called when a menu item is selected.
+	 */
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+
+		switch (item.getItemId()) {
+			case R.id.locationlist_export:
+				transferLocations(true);
+				return true;
+			case R.id.locationlist_import:
+				transferLocations(false);
+				return true;
+			case R.id.locationlist_map:
+				showAllLocations();
+				return true;
+			default:
+				break;
+		}
+		
+		super.onOptionsItemSelected(item);
+
+		return false;
+	}
+
 	/**
 	 * Closes the database and unregisters the broadcast receiver.
 	 */
 	@Override
 	protected void onDestroy() {
+		locationsAdapter.close();
 		databaseAdapter.close();
 		this.unregisterReceiver(addLocationReceiver);
 		currentDialog = null;
@@ -322,21 +380,37 @@ public class LocationList extends ListActivity {
 	}
 
 	/**
-	 * Lists the Wifi locations in the database.
+	 * Lists the Wifi locations in the database, in the background.
 	 */
-	private void listLocations() {		
-        Cursor cursor = databaseAdapter.fetchLocations();
-        startManagingCursor(cursor);
-        
-        SimpleCursorAdapter ignoredWifis = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_2, cursor,
-        		new String[] { DatabaseAdapterImpl.COLUMN_NAME, DatabaseAdapterImpl.COLUMN_BSSID },
-				new int[] { android.R.id.text1, android.R.id.text2 });
-        
-        this.setListAdapter(ignoredWifis);
+	private void listLocations() {
+		locationsAdapter.reload();
     }
 	
 	/**
-	 * Adds the given location to the database.
+	 * Returns a listener running the given update of the list on the UI thread
+	 * when a change was written successfully.
+	 * @param update
+	 * @return DatabaseWriter.Listener<Boolean>
+	 */
+	private DatabaseWriter.Listener<Boolean> updater(final Runnable update) {
+		return new DatabaseWriter.Listener<Boolean>() {
+			public void onWritten(final Boolean result) {
+				if(result == null || ! result) {
+					return;
+				}
+				runOnUiThread(new Runnable() {
+					public void run() {
+						if(! isFinishing()) {
+							update.run();
+						}
+					}
+				});
+			}
+		};
+	}
+	
+	/**
+	 * Adds the given location to the database, in the background.
 	 * @param location
 	 */
 	private void addLocation(final Location location) {
@@ -345,7 +419,7 @@ public class LocationList extends ListActivity {
 		}
 		IWifiInfo wifiInfo = wifiManager.getConnectionInfo();
 		if(wifiConnected.get() && wifiInfoAvailable(wifiInfo)) {
-			databaseAdapter.addLocation(wifiInfo.getBSSID(), wifiInfo.getSSID(), null, location);
+			addLocation(wifiInfo.getBSSID(), wifiInfo.getSSID(), location);
 			String message = this.getString(R.string.locationlist_added_wifi_location, wifiInfo.getSSID());
 			Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
 			
@@ -354,30 +428,78 @@ public class LocationList extends ListActivity {
 			// Toast.makeText(this, R.string.wifi_disconnected, Toast.LENGTH_SHORT).show();
 			String wifiDisconnected = this.getString(R.string.disconnected);
 			long timestamp = System.currentTimeMillis();
-			databaseAdapter.addLocation(Utils.getDateTimeString(this, timestamp), wifiDisconnected, null, location);
+			addLocation(Utils.getDateTimeString(this, timestamp), wifiDisconnected, location);
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Added location for %s: %s", wifiDisconnected, location));
 		}
-		listLocations();
 	}
 	
 	/**
-	 * Renames the Wifi location with the given BSSID to the given name.
+	 * Adds the given location with the given BSSID and SSID to the database, in the background.
+	 * @param bssid
+	 * @param ssid
+	 * @param location
+	 */
+	private void addLocation(final String bssid, final String ssid, final Location location) {
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.addLocation(bssid, ssid, null, location);
+			}
+		}, updater(new Runnable() {
+			public void run() {
+				// Like DatabaseAdapter.addLocation(), keeps SSID and name of an existing location
+				WifiLocation existing = locationsAdapter.find(bssid);
+				WifiLocation wifiLocation = new WifiLocation();
+				wifiLocation.setBSSID(bssid);
+				wifiLocation.setSSID(existing == null ? ssid : existing.getSSID());
+				wifiLocation.setName(existing == null ? ssid : existing.getName());
+				wifiLocation.setLocation(location);
+				locationsAdapter.put(wifiLocation);
+			}
+		}));
+	}
+	
+	/**
+	 * Renames the Wifi location with the given BSSID to the given name, in the background.
 	 * @param bssid
 	 * @param name
 	 */
 	private void renameLocation(final String bssid, final String name) {
-		databaseAdapter.renameLocation(bssid, name);
-		listLocations();
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.renameLocation(bssid, name);
+			}
+		}, updater(new Runnable() {
+			public void run() {
+				WifiLocation existing = locationsAdapter.find(bssid);
+				if(existing == null) {
+					locationsAdapter.reload();
+					return;
+				}
+				WifiLocation wifiLocation = new WifiLocation();
+				wifiLocation.setBSSID(bssid);
+				wifiLocation.setSSID(existing.getSSID());
+				wifiLocation.setName(name.substring(0, Math.min(DatabaseAdapterImpl.NAME_MAX_LENGTH, name.length())));
+				wifiLocation.setLocation(existing.getLocation());
+				locationsAdapter.put(wifiLocation);
+			}
+		}));
 	}
 	
 	/**
-	 * Deletes the Wifi location with the given BSSID from the database.
+	 * Deletes the Wifi location with the given BSSID from the database, in the background.
 	 * @param bssid
 	 */
 	private void deleteLocation(final String bssid) {
-		databaseAdapter.deleteLocation(bssid);
-		listLocations();
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.deleteLocation(bssid);
+			}
+		}, updater(new Runnable() {
+			public void run() {
+				locationsAdapter.remove(bssid);
+			}
+		}));
 	}
 	
 	/**
@@ -393,6 +515,15 @@ public class LocationList extends ListActivity {
 		startActivity(intent);
 	}
 	
+	/**
+	 * Shows all Wifi locations on the LocationMapView.
+	 */
+	private void showAllLocations() {
+		Intent intent = new Intent().setClass(this, LocationMapView.class);
+		intent.setAction(LocationMapView.SHOW_ALL_LOCATIONS_ACTION);
+		startActivity(intent);
+	}
+	
 	/**
 	 * Starts the LocationMapView activity to find the current location.
 	 */
@@ -411,6 +542,41 @@ public class LocationList extends ListActivity {
 		startActivity(intent);
 	}
 
+	/**
+	 * Exports the Wifi locations and ignored Wifi networks to external storage
+	 * or imports them from it, in the background.
+	 * @param export true to export, false to import
+	 */
+	private void transferLocations(final boolean export) {
+		if(! LocationListFile.isStorageAvailable()) {
+			Toast.makeText(this, R.string.locationlist_storage_not_available, Toast.LENGTH_LONG).show();
+			return;
+		}
+		new TransferTask(this, export).execute(new Void[0]);
+	}
+	
+	/**
+	 * Shows the result of exporting or importing and lists the Wifi locations again.
+	 * @param export true if exported, false if imported
+	 * @param rows number of rows exported or imported
+	 * @param error message of the error, null if successful
+	 */
+	private void showTransferResult(final boolean export, final int rows, final String error) {
+		String message;
+		if(error != null) {
+			message = this.getString(R.string.locationlist_transfer_failed, error);
+		} else if(export) {
+			message = this.getString(R.string.locationlist_exported, rows, LocationListFile.getFile());
+		} else {
+			message = this.getString(R.string.locationlist_imported, rows, LocationListFile.getFile());
+		}
+		Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+		
+		if(! export && ! isFinishing()) {
+			listLocations();
+		}
+	}
+
 	/**
 	 * Returns true if the given wifi info is not null and its BSSID
 	 * and SSID are not null, false otherwise.
@@ -435,6 +601,118 @@ public class LocationList extends ListActivity {
 		return true;
 	}
 	
+	/**
+	 * AsyncTask that exports the Wifi locations and ignored Wifi networks
+	 * to the file on external storage or imports them from it.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class TransferTask extends AsyncTask<Void, Void, Integer> {
+		
+		private final LocationList activity;
+		private final boolean export;
+		private final LocationListFile file;
+		
+		private volatile String error = null;
+		
+		private TransferTask(final LocationList activity, final boolean export) {
+			this.activity = activity;
+			this.export = export;
+			this.file = new LocationListFile(activity.databaseAdapter);
+		}
+
+		@Override
+		protected Integer doInBackground(final Void... arg) {
+			File location = LocationListFile.getFile();
+			try {
+				if(export) {
+					return file.exportTo(location, true);
+				} else {
+					return file.importFrom(location);
+				}
+			} catch(IOException e) {
+				error = e.getMessage() == null ? e.toString() : e.getMessage();
+				return 0;
+			}
+		}
+		
+		@Override
+	    protected void onPostExecute(final Integer rows) {
+			activity.showTransferResult(export, rows, error);
+		}
+		
+	}
+	
+	/**
+	 * PagedListAdapter of the Wifi locations, showing their name and BSSID.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class LocationsAdapter extends PagedListAdapter<WifiLocation> {
+		
+		private LocationsAdapter() {
+			super(LocationList.this);
+		}
+
+		@Override
+		protected int count(final String filter) {
+			return databaseAdapter.countLocations(filter);
+		}
+
+		@Override
+		protected List<WifiLocation> fetch(final String filter, final WifiLocation after, final int offset, final int limit) {
+			List<WifiLocation> rows = new ArrayList<WifiLocation>(limit);
+			Cursor cursor = after == null ? databaseAdapter.fetchLocations(filter, offset, limit) :
+				databaseAdapter.fetchLocations(filter, after.getName(), after.getBSSID(), limit);
+			if(cursor == null) {
+				return rows;
+			}
+			try {
+				while(cursor.moveToNext()) {
+					Location location = new Location(Locater.PROVIDER_DATABASE);
+					location.setLatitude(cursor.getDouble(4));
+					location.setLongitude(cursor.getDouble(5));
+					location.setAccuracy(cursor.getFloat(6));
+					
+					WifiLocation wifiLocation = new WifiLocation();
+					wifiLocation.setBSSID(cursor.getString(1));
+					wifiLocation.setSSID(cursor.getString(2));
+					wifiLocation.setName(cursor.getString(3));
+					wifiLocation.setLocation(location);
+					rows.add(wifiLocation);
+				}
+			} finally {
+				cursor.close();
+			}
+			return rows;
+		}
+
+		@Override
+		protected boolean matches(final WifiLocation row, final String filter) {
+			return contains(row.getName(), filter) || contains(row.getSSID(), filter);
+		}
+
+		@Override
+		protected String getKey(final WifiLocation row) {
+			return row.getBSSID();
+		}
+
+		@Override
+		protected String getSortKey(final WifiLocation row) {
+			return row.getName();
+		}
+
+		@Override
+		protected String getText1(final WifiLocation row) {
+			return row.getName();
+		}
+
+		@Override
+		protected String getText2(final WifiLocation row) {
+			return row.getBSSID();
+		}
+	}
+	
 	/**
 	 * BroadcastReceiver to listen for intents from the LocationMapView,
 	 * telling it to add the location in the intent to the database.
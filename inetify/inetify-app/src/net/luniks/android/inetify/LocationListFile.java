@@ -0,0 +1,256 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Environment;
+
+/**
+ * Exports the Wifi locations and optionally the ignored Wifi networks to a compact
+ * binary file and imports them from it again, streaming the rows so memory use does
+ * not depend on the number of rows. Imported rows are added in transactions of
+ * BATCH_SIZE rows and replace existing rows with the same BSSID.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class LocationListFile {
+
+	/** Name of the file on external storage */
+	public static final String FILE_NAME = "inetify-locations.dat";
+
+	/** Number of rows imported in one transaction */
+	public static final int BATCH_SIZE = 2000;
+
+	/** Identifies the file, "INLF" */
+	private static final int MAGIC = 0x494E4C46;
+
+	/** Version of the file format */
+	private static final int VERSION = 1;
+
+	/** Type of the record ending the file */
+	private static final byte TYPE_END = 0;
+
+	/** Type of a Wifi location record */
+	private static final byte TYPE_LOCATION = 1;
+
+	/** Type of an ignored Wifi network record */
+	private static final byte TYPE_IGNORED_WIFI = 2;
+
+	/** Size of the buffers of the streams */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Database adapter */
+	private final DatabaseAdapter databaseAdapter;
+
+	/**
+	 * Creates an instance exporting from and importing to the given database adapter.
+	 * @param databaseAdapter
+	 */
+	public LocationListFile(final DatabaseAdapter databaseAdapter) {
+		this.databaseAdapter = databaseAdapter;
+	}
+
+	/**
+	 * Returns the file on external storage.
+	 * @return File file
+	 */
+	public static File getFile() {
+		return new File(Environment.getExternalStorageDirectory(), FILE_NAME);
+	}
+
+	/**
+	 * Returns true if external storage is mounted and writable.
+	 * @return boolean true if external storage is available
+	 */
+	public static boolean isStorageAvailable() {
+		return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+	}
+
+	/**
+	 * Exports to the given file, replacing it only when the export is complete.
+	 * @param file
+	 * @param withIgnoreList true to also export the ignored Wifi networks
+	 * @return int number of rows exported
+	 * @throws IOException
+	 */
+	public int exportTo(final File file, final boolean withIgnoreList) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		int rows;
+		try {
+			rows = exportTo(out, withIgnoreList);
+		} finally {
+			out.close();
+		}
+		if(! temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException(String.format("Failed to rename %s to %s", temp, file));
+		}
+		return rows;
+	}
+
+	/**
+	 * Exports to the given stream, which is flushed but not closed.
+	 * @param stream
+	 * @param withIgnoreList true to also export the ignored Wifi networks
+	 * @return int number of rows exported
+	 * @throws IOException
+	 */
+	public int exportTo(final OutputStream stream, final boolean withIgnoreList) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		int rows = 0;
+
+		Cursor cursor = databaseAdapter.fetchLocations();
+		if(cursor != null) {
+			try {
+				while(cursor.moveToNext()) {
+					out.writeByte(TYPE_LOCATION);
+					out.writeUTF(cursor.getString(1));
+					out.writeUTF(cursor.getString(2));
+					out.writeUTF(cursor.getString(3));
+					out.writeDouble(cursor.getDouble(4));
+					out.writeDouble(cursor.getDouble(5));
+					out.writeFloat(cursor.getFloat(6));
+					rows++;
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+
+		if(withIgnoreList) {
+			cursor = databaseAdapter.fetchIgnoredWifis();
+			if(cursor != null) {
+				try {
+					while(cursor.moveToNext()) {
+						out.writeByte(TYPE_IGNORED_WIFI);
+						out.writeUTF(cursor.getString(1));
+						out.writeUTF(cursor.getString(2));
+						rows++;
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		}
+
+		out.writeByte(TYPE_END);
+		out.flush();
+
+		return rows;
+	}
+
+	/**
+	 * Imports from the given file.
+	 * @param file
+	 * @return int number of rows imported
+	 * @throws IOException
+	 */
+	public int importFrom(final File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return importFrom(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Imports from the given stream, which is not closed. If the stream ends
+	 * prematurely or is corrupt, the batches imported until then are kept
+	 * and an IOException is thrown.
+	 * @param stream
+	 * @return int number of rows imported
+	 * @throws IOException
+	 */
+	public int importFrom(final InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+		if(in.readInt() != MAGIC) {
+			throw new IOException("Not a location list file");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			throw new IOException(String.format("Unsupported location list file version %s", version));
+		}
+
+		// Reused for every batch so memory use stays constant
+		WifiLocation[] locations = new WifiLocation[BATCH_SIZE];
+		for(int i = 0; i < BATCH_SIZE; i++) {
+			locations[i] = new WifiLocation();
+			locations[i].setLocation(new Location(Locater.PROVIDER_DATABASE));
+		}
+		String[] bssids = new String[BATCH_SIZE];
+		String[] ssids = new String[BATCH_SIZE];
+
+		int locationCount = 0;
+		int ignoredCount = 0;
+		int rows = 0;
+
+		while(true) {
+			byte type = in.readByte();
+			if(type == TYPE_END) {
+				break;
+			} else if(type == TYPE_LOCATION) {
+				WifiLocation wifiLocation = locations[locationCount];
+				wifiLocation.setBSSID(in.readUTF());
+				wifiLocation.setSSID(in.readUTF());
+				wifiLocation.setName(in.readUTF());
+				Location location = wifiLocation.getLocation();
+				location.setLatitude(in.readDouble());
+				location.setLongitude(in.readDouble());
+				location.setAccuracy(in.readFloat());
+				if(++locationCount == BATCH_SIZE) {
+					rows += databaseAdapter.addLocations(locations, locationCount);
+					locationCount = 0;
+				}
+			} else if(type == TYPE_IGNORED_WIFI) {
+				bssids[ignoredCount] = in.readUTF();
+				ssids[ignoredCount] = in.readUTF();
+				if(++ignoredCount == BATCH_SIZE) {
+					rows += databaseAdapter.addIgnoredWifis(bssids, ssids, ignoredCount);
+					ignoredCount = 0;
+				}
+			} else {
+				throw new IOException(String.format("Unknown record type %s", type));
+			}
+		}
+
+		if(locationCount > 0) {
+			rows += databaseAdapter.addLocations(locations, locationCount);
+		}
+		if(ignoredCount > 0) {
+			rows += databaseAdapter.addIgnoredWifis(bssids, ssids, ignoredCount);
+		}
+
+		return rows;
+	}
+
+}
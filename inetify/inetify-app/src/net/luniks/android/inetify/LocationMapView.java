@@ -16,13 +16,22 @@
 package net.luniks.android.inetify;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.luniks.android.impl.LocationManagerImpl;
 import net.luniks.android.inetify.Locater.LocaterLocationListener;
+import net.luniks.android.inetify.LocationClusterer.Cluster;
 
+import org.osmdroid.events.DelayedMapListener;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.util.BoundingBoxE6;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.ItemizedIconOverlay;
@@ -32,6 +41,7 @@ import android.app.Activity;
 import android.app.Dialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.location.LocationManager;
@@ -40,12 +50,13 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.TwoLineListItem;
 
 /**
  * MapActivity that shows a location (of a Wifi network) on a map
  * or finds a location and adds it to the list by broadcasting an intent to
- * LocationList.
+ * LocationList, or shows all locations of the list, clustered by zoom level.
  * 
  * @author torsten.roemer@luniks.net
  */
@@ -57,6 +68,9 @@ public class LocationMapView extends Activity {
 	/** Action to find the location */
 	public static final String FIND_LOCATION_ACTION = "net.luniks.android.inetify.FIND_LOCATION";
 	
+	/** Action to show all locations */
+	public static final String SHOW_ALL_LOCATIONS_ACTION = "net.luniks.android.inetify.SHOW_ALL_LOCATIONS";
+	
 	/** Id of the status view */
 	public static final int ID_STATUS_VIEW = 0;
 	
@@ -72,6 +86,12 @@ public class LocationMapView extends Activity {
 	/** Timeout in milliseconds for getting a location */
 	private static long GET_LOCATION_TIMEOUT = 50 * 1000;
 	
+	/** Time in milliseconds the map must be still before the clusters are updated */
+	private static final long CLUSTER_UPDATE_DELAY = 100;
+	
+	/** Clusterer of all locations, kept while the locations don't change, keeping a few zoom levels */
+	private static LocationClusterer clusterer;
+	
 	private SharedPreferences sharedPreferences;
 	
 	/** The map view. */
@@ -86,6 +106,24 @@ public class LocationMapView extends Activity {
 	/** LocateTask - retained through config changes */
 	private LocateTask locateTask;
 	
+	/** Overlay showing the clusters of all locations, updated in place */
+	private ItemizedIconOverlay<OverlayItem> clusterOverlay;
+	
+	/** Clusters currently shown */
+	private final List<Cluster> shownClusters = new ArrayList<Cluster>();
+	
+	/** ClusterTask getting the clusters within the viewport, or null */
+	private ClusterTask clusterTask;
+	
+	/** Overlay items created for clusters */
+	private final Map<Cluster, OverlayItem> clusterItems = new WeakHashMap<Cluster, OverlayItem>();
+	
+	/** Overlay items to show, reused on each update */
+	private final List<OverlayItem> items = new ArrayList<OverlayItem>();
+	
+	/** If the map was moved to the locations after loading them */
+	private boolean centered = false;
+	
 	// TODO Is there some way to get a reference to the "current" dialog?
 	/** For testing only, read using reflection */
 	@SuppressWarnings("unused")
@@ -149,6 +187,8 @@ public class LocationMapView extends Activity {
 				updateLocation(name, location, locateTask.getLocateStatus());
 			} else if(intent.getAction().equals(FIND_LOCATION_ACTION)) {
 				findLocation(name);
+			} else if(intent.getAction().equals(SHOW_ALL_LOCATIONS_ACTION)) {
+				showAllLocations();
 			}
 		}
 	}
@@ -191,6 +231,9 @@ public class LocationMapView extends Activity {
 	@Override
 	protected void onDestroy() {
 		currentDialog = null;
+		if(clusterTask != null) {
+			clusterTask.cancel(false);
+		}
 		super.onDestroy();
 	}
 	
@@ -211,6 +254,139 @@ public class LocationMapView extends Activity {
 	}
 
 	
+	/**
+	 * Shows all locations, clustered by zoom level, and updates the clusters whenever
+	 * the map was panned or zoomed. Loads the locations in the background if they
+	 * changed since they were last shown.
+	 */
+	private void showAllLocations() {
+		this.setTitle(this.getString(R.string.locationmapview_label_all));
+		
+		if(clusterOverlay == null) {
+			clusterOverlay = new ItemizedIconOverlay<OverlayItem>(this, new ArrayList<OverlayItem>(),
+					new ItemizedIconOverlay.OnItemGestureListener<OverlayItem>() {
+				public boolean onItemSingleTapUp(final int index, final OverlayItem item) {
+					Toast.makeText(LocationMapView.this, item.getTitle(), Toast.LENGTH_SHORT).show();
+					return true;
+				}
+				public boolean onItemLongPress(final int index, final OverlayItem item) {
+					return false;
+				}
+			});
+			mapView.getOverlays().clear();
+			mapView.getOverlays().add(clusterOverlay);
+			
+			mapView.setMapListener(new DelayedMapListener(new MapListener() {
+				public boolean onScroll(final ScrollEvent event) {
+					updateClusters();
+					return true;
+				}
+				public boolean onZoom(final ZoomEvent event) {
+					updateClusters();
+					return true;
+				}
+			}, CLUSTER_UPDATE_DELAY));
+		}
+		
+		LocationClusterer current = clusterer;
+		if(current != null && current.isFrom(LocationSnapshot.getInstance().peek())) {
+			centered = true;
+			updateClusters();
+		} else {
+			new LoadTask(this).execute(new Void[0]);
+		}
+	}
+	
+	/**
+	 * Moves the map to the given cluster with the most locations at the lowest zoom level
+	 * once, and shows the clusters within the viewport.
+	 * @param largest cluster with the most locations, or null
+	 */
+	private void onLocationsLoaded(final Cluster largest) {
+		if(clusterer == null) {
+			return;
+		}
+		
+		if(! centered) {
+			centered = true;
+			if(largest != null) {
+				mapView.getController().setCenter(getGeoPoint(largest.getLatitude(), largest.getLongitude()));
+			}
+		}
+		
+		updateClusters();
+	}
+	
+	/**
+	 * Starts the ClusterTask to get the clusters within the viewport at the current
+	 * zoom level, cancelling the one still running, if any.
+	 */
+	private void updateClusters() {
+		LocationClusterer current = clusterer;
+		if(current == null || clusterOverlay == null) {
+			return;
+		}
+		
+		if(clusterTask != null) {
+			clusterTask.cancel(false);
+		}
+		BoundingBoxE6 box = mapView.getBoundingBox();
+		clusterTask = new ClusterTask(this, current, mapView.getZoomLevel(), 
+				box.getLatSouthE6() / 1E6, box.getLonWestE6() / 1E6, 
+				box.getLatNorthE6() / 1E6, box.getLonEastE6() / 1E6);
+		clusterTask.execute(new Void[0]);
+	}
+	
+	/**
+	 * Shows the given clusters got by the given ClusterTask if it is the current one,
+	 * replacing the items of the overlay only if the clusters changed.
+	 * @param task
+	 * @param clusters
+	 */
+	private void showClusters(final ClusterTask task, final List<Cluster> clusters) {
+		if(task != clusterTask) {
+			return;
+		}
+		clusterTask = null;
+		
+		if(clusters.equals(shownClusters)) {
+			return;
+		}
+		shownClusters.clear();
+		shownClusters.addAll(clusters);
+		
+		items.clear();
+		for(Cluster cluster : clusters) {
+			OverlayItem item = clusterItems.get(cluster);
+			if(item == null) {
+				String title = cluster.getName();
+				if(title == null) {
+					title = this.getString(R.string.locationmapview_cluster, cluster.getCount());
+				}
+				item = new OverlayItem(title, title, getGeoPoint(cluster.getLatitude(), cluster.getLongitude()));
+				item.setMarker(marker);
+				clusterItems.put(cluster, item);
+			}
+			items.add(item);
+		}
+		
+		clusterOverlay.removeAllItems(false);
+		clusterOverlay.addItems(items);
+		mapView.invalidate();
+	}
+	
+	/**
+	 * Returns a GeoPoint of the given latitude and longitude.
+	 * @param lat
+	 * @param lon
+	 * @return GeoPoint
+	 */
+	private static GeoPoint getGeoPoint(final double lat, final double lon) {
+		final Double latE6 = lat * 1E6;
+		final Double lonE6 = lon * 1E6;
+		return new GeoPoint(latE6.intValue(), lonE6.intValue());
+	}
+	
 	/**
 	 * Moves the marker and the map to the given location, shows the given name in the title if it
 	 * is not null, and shows status information depending on the given location and status.
@@ -286,6 +462,109 @@ public class LocationMapView extends Activity {
 		}
 	}
 	
+	/**
+	 * AsyncTask that loads all locations into a LocationClusterer, from the LocationSnapshot
+	 * or, if there are too many locations to keep them in it, from the database, and finds
+	 * the cluster with the most locations at the lowest zoom level.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class LoadTask extends AsyncTask<Void, Void, LocationClusterer> {
+		
+		private final LocationMapView activity;
+		private final DatabaseAdapter databaseAdapter;
+		private Cluster largest;
+		
+		private LoadTask(final LocationMapView activity) {
+			this.activity = activity;
+			this.databaseAdapter = DatabaseAdapterImpl.getInstance(activity);
+		}
+		
+		@Override
+		protected LocationClusterer doInBackground(final Void... arg) {
+			LocationClusterer result = load();
+			if(result != null) {
+				List<Cluster> clusters = new ArrayList<Cluster>();
+				result.getClusters(0, -90, -180, 90, 180, clusters);
+				for(Cluster cluster : clusters) {
+					if(largest == null || cluster.getCount() > largest.getCount()) {
+						largest = cluster;
+					}
+				}
+			}
+			return result;
+		}
+		
+		@Override
+		protected void onPostExecute(final LocationClusterer result) {
+			if(result != null) {
+				clusterer = result;
+			}
+			if(! activity.isFinishing()) {
+				activity.onLocationsLoaded(largest);
+			}
+		}
+		
+		private LocationClusterer load() {
+			LocationSnapshot.Data data = LocationSnapshot.getInstance().get(databaseAdapter);
+			if(data != null) {
+				return LocationClusterer.from(data);
+			}
+			
+			Cursor cursor = databaseAdapter.fetchLocations();
+			if(cursor == null) {
+				return null;
+			}
+			try {
+				return LocationClusterer.load(cursor);
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+	
+	/**
+	 * AsyncTask that gets the clusters within the given bounds at the given zoom level,
+	 * so sorting the locations of a zoom level not shown recently doesn't block the UI thread.
+	 * 
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class ClusterTask extends AsyncTask<Void, Void, List<Cluster>> {
+		
+		private final LocationMapView activity;
+		private final LocationClusterer clusterer;
+		private final int zoom;
+		private final double south;
+		private final double west;
+		private final double north;
+		private final double east;
+		
+		private ClusterTask(final LocationMapView activity, final LocationClusterer clusterer, final int zoom,
+				final double south, final double west, final double north, final double east) {
+			this.activity = activity;
+			this.clusterer = clusterer;
+			this.zoom = zoom;
+			this.south = south;
+			this.west = west;
+			this.north = north;
+			this.east = east;
+		}
+		
+		@Override
+		protected List<Cluster> doInBackground(final Void... arg) {
+			List<Cluster> clusters = new ArrayList<Cluster>();
+			clusterer.getClusters(zoom, south, west, north, east, clusters);
+			return clusters;
+		}
+		
+		@Override
+		protected void onPostExecute(final List<Cluster> clusters) {
+			if(! activity.isFinishing()) {
+				activity.showClusters(this, clusters);
+			}
+		}
+	}
+	
 	/**
 	 * AsyncTask that starts the Locater, listens for location updates and updates the location
 	 * when it receives a location update. Stops when it has received a location with
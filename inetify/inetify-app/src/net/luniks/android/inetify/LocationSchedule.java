@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import android.content.SharedPreferences;
+
+/**
+ * Decides when to check the location next, from the distance to the nearest Wifi
+ * location found by the last check. Far from any Wifi location, the next check is
+ * when the max. distance could be reached at the earliest travelling at MAX_SPEED,
+ * so arrivals are not missed, backing off further while the distance does not change.
+ * Near a Wifi location or without a recent check, the check interval setting is used.
+ * The last check is kept in the shared preferences, as every check runs in a
+ * new instance of LocationIntentService.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class LocationSchedule {
+
+	/** Assumed travel speed in meters per second, about 120 km/h */
+	public static final float MAX_SPEED = 33;
+
+	/** Minimum delay in milliseconds between two checks */
+	public static final long MIN_DELAY = 3 * 60 * 1000;
+
+	/** Maximum delay in milliseconds between two checks */
+	public static final long MAX_DELAY = 2 * 60 * 60 * 1000;
+
+	/** Factor by which the delay grows while the distance does not change */
+	public static final int BACKOFF_FACTOR = 2;
+
+	/** The distance must change by more than this to not be stationary, in meters */
+	public static final float STATIONARY_DISTANCE = 250;
+
+	/** Shared preferences key of the time of the last check */
+	private static final String KEY_TIME = "location_schedule_time";
+
+	/** Shared preferences key of the distance found by the last check */
+	private static final String KEY_DISTANCE = "location_schedule_distance";
+
+	/** Shared preferences key of the delay decided by the last check */
+	private static final String KEY_DELAY = "location_schedule_delay";
+
+	/** Shared preferences */
+	private final SharedPreferences sharedPreferences;
+
+	/** Clock, the same time base as AlarmManager.ELAPSED_REALTIME */
+	private final Clock clock;
+
+	/**
+	 * Creates an instance keeping the last check in the given shared preferences
+	 * and using the given clock.
+	 * @param sharedPreferences
+	 * @param clock
+	 */
+	public LocationSchedule(final SharedPreferences sharedPreferences, final Clock clock) {
+		this.sharedPreferences = sharedPreferences;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the delay until the next check decided by the last check, or the
+	 * given interval if there is none, the last check was near a Wifi location
+	 * or it is not valid anymore after a reboot or because it is overdue.
+	 * @param interval check interval setting in milliseconds
+	 * @return long delay in milliseconds
+	 */
+	public long getDelay(final long interval) {
+		long delay = getLastDelay();
+		return delay > 0 ? delay : interval;
+	}
+
+	/**
+	 * Returns the time of the next check decided by the last check, or -1 if
+	 * the check interval setting should be used.
+	 * @return long time of the next check in milliseconds
+	 */
+	public long getNextCheck() {
+		long delay = getLastDelay();
+		return delay > 0 ? sharedPreferences.getLong(KEY_TIME, -1) + delay : -1;
+	}
+
+	/**
+	 * Records a check that found the given distance to the nearest Wifi location with
+	 * the given accuracy, decides the delay until the next check and returns it.
+	 * @param distance distance to the nearest Wifi location in meters
+	 * @param accuracy accuracy of the location in meters
+	 * @param maxDistance max. distance setting in meters
+	 * @return long delay in milliseconds, 0 to use the check interval setting
+	 */
+	public long update(final float distance, final float accuracy, final int maxDistance) {
+		long delay = 0;
+		if(distance > maxDistance) {
+			// Might actually be closer by the accuracy
+			float remaining = Math.max(0, distance - accuracy - maxDistance);
+			delay = (long)(remaining / MAX_SPEED * 1000);
+
+			// An inaccurate location rather looks like moving than stationary
+			long lastDelay = getLastDelay();
+			if(lastDelay > 0) {
+				float lastDistance = sharedPreferences.getFloat(KEY_DISTANCE, -1);
+				if(Math.abs(distance - lastDistance) <= STATIONARY_DISTANCE) {
+					delay = Math.max(delay, lastDelay * BACKOFF_FACTOR);
+				}
+			}
+
+			delay = Math.max(MIN_DELAY, Math.min(MAX_DELAY, delay));
+		}
+
+		sharedPreferences.edit()
+			.putLong(KEY_TIME, clock.now())
+			.putFloat(KEY_DISTANCE, distance)
+			.putLong(KEY_DELAY, delay)
+			.commit();
+
+		return delay;
+	}
+
+	/**
+	 * Forgets the last check, so the check interval setting is used again.
+	 */
+	public void clear() {
+		sharedPreferences.edit()
+			.remove(KEY_TIME)
+			.remove(KEY_DISTANCE)
+			.remove(KEY_DELAY)
+			.commit();
+	}
+
+	/**
+	 * Returns the delay decided by the last check, or 0 if there is none, the last
+	 * check was near a Wifi location or it is not valid anymore, which it is not
+	 * after a reboot or when the next check is overdue by more than MAX_DELAY.
+	 * @return long delay in milliseconds
+	 */
+	private long getLastDelay() {
+		long time = sharedPreferences.getLong(KEY_TIME, -1);
+		long delay = sharedPreferences.getLong(KEY_DELAY, 0);
+		long now = clock.now();
+		if(time < 0 || time > now || now - time > delay + MAX_DELAY) {
+			return 0;
+		}
+		return delay;
+	}
+
+}
@@ -0,0 +1,681 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.database.Cursor;
+import android.location.Location;
+
+/**
+ * Process wide, read optimized copy of the location list, so finding the nearest
+ * locations doesn't need to walk a database cursor. The locations are kept in
+ * parallel arrays sorted by their grid cell, and the queries look at the cells
+ * around a location the same way DatabaseAdapterImpl.getNearestLocationTo() does,
+ * without allocating any objects.
+ * The arrays are never modified once published, so queries don't need to lock and
+ * LocationClusterer can tell by identity if it is up to date. Adding, moving and
+ * removing a location therefore copies all arrays and renaming copies the names,
+ * which is O(n) but spares reloading the whole list from the database, and is cheap
+ * next to the database write it follows with at most MAX_LOCATIONS locations.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class LocationSnapshot {
+
+	/** Maximum number of locations kept in memory */
+	public static final int MAX_LOCATIONS = 10000;
+
+	/** Number of grid cells of the longitude, from -180 to 180 degrees */
+	private static final long LON_CELLS = 2 * Math.round(180 / DatabaseAdapterImpl.CELL_DEG) + 1;
+
+	/** The single instance */
+	private static final LocationSnapshot instance = new LocationSnapshot();
+
+	/** Buffers per thread, so queries don't allocate */
+	private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	/** The locations, null if not loaded */
+	private volatile Data data = null;
+
+	/** If there are too many locations to keep them in memory */
+	private boolean tooLarge = false;
+
+	/**
+	 * Use getInstance().
+	 */
+	private LocationSnapshot() {
+	}
+
+	/**
+	 * Returns the single instance.
+	 * @return LocationSnapshot instance
+	 */
+	public static LocationSnapshot getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the locations if they are loaded, null otherwise.
+	 * @return Data locations or null
+	 */
+	public Data peek() {
+		return data;
+	}
+
+	/**
+	 * Returns the locations, loading them from the given database adapter if they
+	 * are not loaded yet. Returns null if there are more than MAX_LOCATIONS locations.
+	 * @param databaseAdapter
+	 * @return Data locations or null
+	 */
+	public Data get(final DatabaseAdapter databaseAdapter) {
+		Data current = data;
+		if(current != null) {
+			return current;
+		}
+
+		synchronized(this) {
+			if(data == null && ! tooLarge) {
+				Cursor cursor = databaseAdapter.fetchLocations();
+				if(cursor == null) {
+					return null;
+				}
+				try {
+					if(cursor.getCount() > MAX_LOCATIONS) {
+						tooLarge = true;
+					} else {
+						data = load(cursor);
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Discards the locations, so they are loaded again on the next call of get().
+	 */
+	public synchronized void invalidate() {
+		data = null;
+		tooLarge = false;
+	}
+
+	/**
+	 * Adds the location of the Wifi identified by the given BSSID, or updates its
+	 * lat, lon and acc if it already exists, like DatabaseAdapter.addLocation(),
+	 * by publishing a copy of the locations. Does nothing if the locations are not loaded.
+	 * @param bssid
+	 * @param ssid
+	 * @param name
+	 * @param lat
+	 * @param lon
+	 * @param acc
+	 */
+	public synchronized void put(final String bssid, final String ssid, final String name,
+			final double lat, final double lon, final float acc) {
+		Data current = data;
+		if(current == null) {
+			return;
+		}
+
+		String localSsid = ssid;
+		String localName = name;
+		int index = current.indexOf(bssid);
+		if(index != -1) {
+			localSsid = current.ssids[index];
+			localName = current.names[index];
+			current = current.remove(index);
+		}
+
+		if(current.size() >= MAX_LOCATIONS) {
+			data = null;
+			tooLarge = true;
+		} else {
+			data = current.insert(bssid, localSsid, localName, lat, lon, acc);
+		}
+	}
+
+	/**
+	 * Removes the location of the Wifi identified by the given BSSID by publishing
+	 * a copy of the locations without it.
+	 * @param bssid
+	 */
+	public synchronized void remove(final String bssid) {
+		Data current = data;
+		if(current == null) {
+			// Might fit in memory now
+			tooLarge = false;
+			return;
+		}
+
+		int index = current.indexOf(bssid);
+		if(index != -1) {
+			data = current.remove(index);
+		}
+	}
+
+	/**
+	 * Renames the location of the Wifi identified by the given BSSID by publishing
+	 * a copy of the locations sharing all arrays but the names.
+	 * @param bssid
+	 * @param name
+	 */
+	public synchronized void rename(final String bssid, final String name) {
+		Data current = data;
+		if(current == null) {
+			return;
+		}
+
+		int index = current.indexOf(bssid);
+		if(index != -1) {
+			data = current.rename(index, name);
+		}
+	}
+
+	/**
+	 * Returns the key used to sort the locations, unique per grid cell and
+	 * ascending with the longitude within a row of grid cells.
+	 * @param cellLat
+	 * @param cellLon
+	 * @return long key
+	 */
+	private static long getKey(final long cellLat, final long cellLon) {
+		return cellLat * LON_CELLS + cellLon + LON_CELLS / 2;
+	}
+
+	/**
+	 * Loads the locations from the given cursor with the columns
+	 * of DatabaseAdapter.fetchLocations().
+	 * @param cursor
+	 * @return Data locations
+	 */
+	private static Data load(final Cursor cursor) {
+		int size = cursor.getCount();
+		final long[] keys = new long[size];
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		float[] accs = new float[size];
+		String[] bssids = new String[size];
+		String[] ssids = new String[size];
+		String[] names = new String[size];
+
+		int count = 0;
+		while(cursor.moveToNext() && count < size) {
+			bssids[count] = cursor.getString(1);
+			ssids[count] = cursor.getString(2);
+			names[count] = cursor.getString(3);
+			lats[count] = cursor.getDouble(4);
+			lons[count] = cursor.getDouble(5);
+			accs[count] = cursor.getFloat(6);
+			keys[count] = getKey(DatabaseAdapterImpl.getCell(lats[count]), DatabaseAdapterImpl.getCell(lons[count]));
+			count++;
+		}
+
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(final Integer a, final Integer b) {
+				long keyA = keys[a];
+				long keyB = keys[b];
+				return keyA < keyB ? -1 : keyA == keyB ? 0 : 1;
+			}
+		});
+
+		Data sorted = new Data(count);
+		for(int i = 0; i < count; i++) {
+			int index = order[i];
+			sorted.keys[i] = keys[index];
+			sorted.lats[i] = lats[index];
+			sorted.lons[i] = lons[index];
+			sorted.accs[i] = accs[index];
+			sorted.bssids[i] = bssids[index];
+			sorted.ssids[i] = ssids[index];
+			sorted.names[i] = names[index];
+		}
+
+		return sorted;
+	}
+
+	/**
+	 * Buffers used by queries.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class Buffers {
+
+		/** Results of Location.distanceBetween() */
+		private final float[] results = new float[1];
+
+		/** Index of the nearest location */
+		private final int[] index = new int[1];
+
+		/** Distance to the nearest location */
+		private final float[] distance = new float[1];
+	}
+
+	/**
+	 * Immutable set of locations in parallel arrays, sorted by grid cell.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	public static class Data {
+
+		/** Keys of the grid cells */
+		private final long[] keys;
+
+		/** Latitudes */
+		private final double[] lats;
+
+		/** Longitudes */
+		private final double[] lons;
+
+		/** Accuracies */
+		private final float[] accs;
+
+		/** BSSIDs */
+		private final String[] bssids;
+
+		/** SSIDs */
+		private final String[] ssids;
+
+		/** Names */
+		private final String[] names;
+
+		/**
+		 * Creates an instance with empty arrays of the given size.
+		 * @param size
+		 */
+		private Data(final int size) {
+			this(new long[size], new double[size], new double[size], new float[size],
+					new String[size], new String[size], new String[size]);
+		}
+
+		/**
+		 * Creates an instance with the given arrays.
+		 * @param keys
+		 * @param lats
+		 * @param lons
+		 * @param accs
+		 * @param bssids
+		 * @param ssids
+		 * @param names
+		 */
+		private Data(final long[] keys, final double[] lats, final double[] lons, final float[] accs,
+				final String[] bssids, final String[] ssids, final String[] names) {
+			this.keys = keys;
+			this.lats = lats;
+			this.lons = lons;
+			this.accs = accs;
+			this.bssids = bssids;
+			this.ssids = ssids;
+			this.names = names;
+		}
+
+		/**
+		 * Returns the number of locations.
+		 * @return int number of locations
+		 */
+		public int size() {
+			return keys.length;
+		}
+
+		/**
+		 * Returns the BSSID of the location at the given index.
+		 * @param index
+		 * @return String BSSID
+		 */
+		public String getBSSID(final int index) {
+			return bssids[index];
+		}
+
+		/**
+		 * Returns the SSID of the location at the given index.
+		 * @param index
+		 * @return String SSID
+		 */
+		public String getSSID(final int index) {
+			return ssids[index];
+		}
+
+		/**
+		 * Returns the name of the location at the given index.
+		 * @param index
+		 * @return String name
+		 */
+		public String getName(final int index) {
+			return names[index];
+		}
+
+		/**
+		 * Returns the latitude of the location at the given index.
+		 * @param index
+		 * @return double latitude
+		 */
+		public double getLatitude(final int index) {
+			return lats[index];
+		}
+
+		/**
+		 * Returns the longitude of the location at the given index.
+		 * @param index
+		 * @return double longitude
+		 */
+		public double getLongitude(final int index) {
+			return lons[index];
+		}
+
+		/**
+		 * Returns the accuracy of the location at the given index.
+		 * @param index
+		 * @return float accuracy
+		 */
+		public float getAccuracy(final int index) {
+			return accs[index];
+		}
+
+		/**
+		 * Returns the location at the given index as a new WifiLocation
+		 * with the given distance.
+		 * @param index
+		 * @param distance
+		 * @return WifiLocation
+		 */
+		public WifiLocation getWifiLocation(final int index, final float distance) {
+			Location location = new Location(Locater.PROVIDER_DATABASE);
+			location.setLatitude(lats[index]);
+			location.setLongitude(lons[index]);
+			location.setAccuracy(accs[index]);
+
+			WifiLocation wifiLocation = new WifiLocation();
+			wifiLocation.setBSSID(bssids[index]);
+			wifiLocation.setSSID(ssids[index]);
+			wifiLocation.setName(names[index]);
+			wifiLocation.setLocation(location);
+			wifiLocation.setDistance(distance);
+
+			return wifiLocation;
+		}
+
+		/**
+		 * Returns the index of the location nearest to the given latitude and longitude
+		 * and stores its distance in meters in distance[0], or returns -1 if there are
+		 * no locations.
+		 * @param lat
+		 * @param lon
+		 * @param distance array of at least one element
+		 * @return int index or -1
+		 */
+		public int nearest(final double lat, final double lon, final float[] distance) {
+			int[] index = buffers.get().index;
+			int count = search(lat, lon, 1, Float.POSITIVE_INFINITY, index, distance);
+			return count == 0 ? -1 : index[0];
+		}
+
+		/**
+		 * Returns the location nearest to the given latitude and longitude as a new
+		 * WifiLocation with its distance in meters, or null if there are no locations.
+		 * Allocates nothing but the returned WifiLocation.
+		 * @param lat
+		 * @param lon
+		 * @return WifiLocation or null
+		 */
+		public WifiLocation getNearestLocation(final double lat, final double lon) {
+			float[] distance = buffers.get().distance;
+			int index = nearest(lat, lon, distance);
+			return index == -1 ? null : getWifiLocation(index, distance[0]);
+		}
+
+		/**
+		 * Stores the indexes of the up to indexes.length locations nearest to the given
+		 * latitude and longitude in indexes, nearest first, and their distances in meters
+		 * in distances, and returns the number of locations stored.
+		 * @param lat
+		 * @param lon
+		 * @param indexes
+		 * @param distances array at least as long as indexes
+		 * @return int number of locations
+		 */
+		public int nearest(final double lat, final double lon, final int[] indexes, final float[] distances) {
+			return search(lat, lon, indexes.length, Float.POSITIVE_INFINITY, indexes, distances);
+		}
+
+		/**
+		 * Stores the indexes of the up to indexes.length locations nearest to the given
+		 * latitude and longitude that are within the given radius in indexes, nearest first,
+		 * and their distances in meters in distances, and returns the number of locations stored.
+		 * @param lat
+		 * @param lon
+		 * @param radius in meters
+		 * @param indexes
+		 * @param distances array at least as long as indexes
+		 * @return int number of locations
+		 */
+		public int within(final double lat, final double lon, final float radius, final int[] indexes, final float[] distances) {
+			return search(lat, lon, indexes.length, radius, indexes, distances);
+		}
+
+		/**
+		 * Finds the up to k locations nearest to the given latitude and longitude that
+		 * are within the given radius, doubling the number of rings of grid cells looked
+		 * at until no location outside of them can be nearer, and looking at all locations
+		 * if that takes more than NEAREST_MAX_RINGS rings or if the cells would cross the
+		 * 180th meridian or a pole.
+		 * @param lat
+		 * @param lon
+		 * @param k
+		 * @param radius
+		 * @param indexes
+		 * @param distances
+		 * @return int number of locations found
+		 */
+		private int search(final double lat, final double lon, final int k, final float radius,
+				final int[] indexes, final float[] distances) {
+			if(k == 0 || keys.length == 0) {
+				return 0;
+			}
+
+			float[] results = buffers.get().results;
+			long cellLat = DatabaseAdapterImpl.getCell(lat);
+			long cellLon = DatabaseAdapterImpl.getCell(lon);
+
+			for(int rings = 1; rings <= DatabaseAdapterImpl.NEAREST_MAX_RINGS; rings *= 2) {
+				double minLat = (cellLat - rings) * DatabaseAdapterImpl.CELL_DEG;
+				double maxLat = (cellLat + rings + 1) * DatabaseAdapterImpl.CELL_DEG;
+				double minLon = (cellLon - rings) * DatabaseAdapterImpl.CELL_DEG;
+				double maxLon = (cellLon + rings + 1) * DatabaseAdapterImpl.CELL_DEG;
+				if(minLat < -90 || maxLat > 90 || minLon < -180 || maxLon > 180) {
+					break;
+				}
+
+				int count = 0;
+				for(long row = cellLat - rings; row <= cellLat + rings; row++) {
+					long maxKey = getKey(row, cellLon + rings);
+					for(int i = lowerBound(getKey(row, cellLon - rings)); i < keys.length && keys[i] <= maxKey; i++) {
+						count = offer(lat, lon, i, k, radius, indexes, distances, count, results);
+					}
+				}
+
+				float bound = count == k ? distances[k - 1] : radius;
+				if(bound <= DatabaseAdapterImpl.getMinDistanceToEdge(lat, lon, minLat, maxLat, minLon, maxLon)) {
+					return count;
+				}
+			}
+
+			int count = 0;
+			for(int i = 0; i < keys.length; i++) {
+				count = offer(lat, lon, i, k, radius, indexes, distances, count, results);
+			}
+
+			return count;
+		}
+
+		/**
+		 * Adds the location at the given index to the given count of nearest locations
+		 * found so far, if it is within the given radius and nearer than the k-th.
+		 * @param lat
+		 * @param lon
+		 * @param index
+		 * @param k
+		 * @param radius
+		 * @param indexes
+		 * @param distances
+		 * @param count
+		 * @param results buffer for Location.distanceBetween()
+		 * @return int new count
+		 */
+		private int offer(final double lat, final double lon, final int index, final int k, final float radius,
+				final int[] indexes, final float[] distances, final int count, final float[] results) {
+			Location.distanceBetween(lats[index], lons[index], lat, lon, results);
+			float distance = results[0];
+			if(distance > radius || (count == k && distance >= distances[k - 1])) {
+				return count;
+			}
+
+			int position = count < k ? count : k - 1;
+			while(position > 0 && distances[position - 1] > distance) {
+				indexes[position] = indexes[position - 1];
+				distances[position] = distances[position - 1];
+				position--;
+			}
+			indexes[position] = index;
+			distances[position] = distance;
+
+			return count < k ? count + 1 : count;
+		}
+
+		/**
+		 * Returns the index of the first location with a key not less than the given key.
+		 * @param key
+		 * @return int index
+		 */
+		private int lowerBound(final long key) {
+			int low = 0;
+			int high = keys.length;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(keys[middle] < key) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns the index of the location with the given BSSID, or -1.
+		 * @param bssid
+		 * @return int index or -1
+		 */
+		private int indexOf(final String bssid) {
+			for(int i = 0; i < bssids.length; i++) {
+				if(bssids[i].equals(bssid)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns a copy with the given location inserted in the order of its grid cell.
+		 * @param bssid
+		 * @param ssid
+		 * @param name
+		 * @param lat
+		 * @param lon
+		 * @param acc
+		 * @return Data copy
+		 */
+		private Data insert(final String bssid, final String ssid, final String name,
+				final double lat, final double lon, final float acc) {
+			long key = getKey(DatabaseAdapterImpl.getCell(lat), DatabaseAdapterImpl.getCell(lon));
+			int index = lowerBound(key);
+			int size = keys.length;
+
+			Data copy = new Data(size + 1);
+			copy(this, 0, copy, 0, index);
+			copy(this, index, copy, index + 1, size - index);
+			copy.keys[index] = key;
+			copy.lats[index] = lat;
+			copy.lons[index] = lon;
+			copy.accs[index] = acc;
+			copy.bssids[index] = bssid;
+			copy.ssids[index] = ssid;
+			copy.names[index] = name;
+
+			return copy;
+		}
+
+		/**
+		 * Returns a copy without the location at the given index.
+		 * @param index
+		 * @return Data copy
+		 */
+		private Data remove(final int index) {
+			int size = keys.length;
+
+			Data copy = new Data(size - 1);
+			copy(this, 0, copy, 0, index);
+			copy(this, index + 1, copy, index, size - index - 1);
+
+			return copy;
+		}
+
+		/**
+		 * Returns a copy with the location at the given index renamed,
+		 * sharing all arrays but the names.
+		 * @param index
+		 * @param name
+		 * @return Data copy
+		 */
+		private Data rename(final int index, final String name) {
+			String[] renamed = names.clone();
+			renamed[index] = name;
+
+			return new Data(keys, lats, lons, accs, bssids, ssids, renamed);
+		}
+
+		/**
+		 * Copies length locations from the given source index to the given destination index.
+		 * @param src
+		 * @param srcPos
+		 * @param dest
+		 * @param destPos
+		 * @param length
+		 */
+		private static void copy(final Data src, final int srcPos, final Data dest, final int destPos, final int length) {
+			System.arraycopy(src.keys, srcPos, dest.keys, destPos, length);
+			System.arraycopy(src.lats, srcPos, dest.lats, destPos, length);
+			System.arraycopy(src.lons, srcPos, dest.lons, destPos, length);
+			System.arraycopy(src.accs, srcPos, dest.accs, destPos, length);
+			System.arraycopy(src.bssids, srcPos, dest.bssids, destPos, length);
+			System.arraycopy(src.ssids, srcPos, dest.ssids, destPos, length);
+			System.arraycopy(src.names, srcPos, dest.names, destPos, length);
+		}
+	}
+
+}
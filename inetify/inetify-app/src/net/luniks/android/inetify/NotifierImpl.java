@@ -71,7 +71,7 @@ public class NotifierImpl implements Notifier {
 			return;
 		}
 		
-    	boolean onlyNotOK = sharedPreferences.getBoolean(Settings.INTERNET_ONLY_NOK, false);
+    	boolean onlyNotOK = SettingsSnapshot.getInstance(sharedPreferences).isOnlyNotOK();
 
     	if(info.getIsExpectedTitle() && onlyNotOK) {
 			// Log.d(Inetify.LOG_TAG, "Cancelling notification");
@@ -149,8 +149,9 @@ public class NotifierImpl implements Notifier {
 	private Notification createNotification(final int icon, final String tickerText, 
 			final String contentTitle, final String contentText, final Intent intent) {
 		
-    	String tone = sharedPreferences.getString(Settings.TONE, "");
-    	boolean light = sharedPreferences.getBoolean(Settings.LIGHT, true);
+    	SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+    	String tone = settings.getTone();
+    	boolean light = settings.isLight();
 		
         Notification notification = new Notification(icon, tickerText, System.currentTimeMillis());
         notification.flags |= Notification.FLAG_ONLY_ALERT_ONCE;
@@ -0,0 +1,528 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TwoLineListItem;
+
+/**
+ * ListAdapter showing rows of a database table in pages of PAGE_SIZE rows, loaded in the
+ * background when they are shown for the first time. Up to MAX_PAGES pages are kept in
+ * memory, the ones shown least recently are dropped and loaded again when needed.
+ * A page following one in memory is loaded by the key of the last row of that page, so
+ * the database can seek to it in an index instead of sorting and skipping all rows
+ * before it like with an offset, which is only used when jumping to a page.
+ * The rows can be filtered by text typed in; a filter is applied in memory if all rows
+ * of a less strict filter are loaded, and queried otherwise, after the user stopped
+ * typing for FILTER_DELAY.
+ * A row added, changed or removed can be put or removed in memory if all rows are loaded,
+ * so the list doesn't need to be loaded again; otherwise the pages are loaded again in
+ * the background. Rows put in memory are sorted with a collator that should give the
+ * same order as COLLATE UNICODE in the database, and then by key, if it doesn't, the
+ * order is corrected the next time the rows are loaded.
+ * All methods must be called on the UI thread, only count() and fetch() are called
+ * in the background.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public abstract class PagedListAdapter<T> extends BaseAdapter {
+
+	/** Number of rows per page */
+	public static final int PAGE_SIZE = 50;
+
+	/** Maximum number of pages kept in memory */
+	public static final int MAX_PAGES = 8;
+
+	/** Time in milliseconds the filter must be unchanged before it is queried */
+	private static final long FILTER_DELAY = 300;
+
+	/** Context */
+	private final Context context;
+
+	/** Handler to query the filter after FILTER_DELAY */
+	private final Handler handler = new Handler();
+
+	/** Collator to sort rows put in memory */
+	private final Collator collator = Collator.getInstance(new Locale(""));
+
+	/** Pages in memory, least recently shown first */
+	private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(MAX_PAGES + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, List<T>> eldest) {
+			return size() > MAX_PAGES;
+		}
+	};
+
+	/** Pages being loaded */
+	private final Set<Integer> loading = new HashSet<Integer>();
+
+	/** Loads the pages again, i.e. after the filter was changed */
+	private final Runnable reloader = new Runnable() {
+		public void run() {
+			reload();
+		}
+	};
+
+	/** Filter typed in */
+	private String filter = "";
+
+	/** Filter of the rows in memory */
+	private String loadedFilter = "";
+
+	/** Number of rows matching loadedFilter */
+	private int count = 0;
+
+	/** Incremented whenever the rows in memory change, so older loads are discarded */
+	private int generation = 0;
+
+	/**
+	 * Creates an instance using the given context. Call reload() to load the first page.
+	 * @param context
+	 */
+	public PagedListAdapter(final Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Returns the number of rows matching the given filter. Called in the background.
+	 * @param filter
+	 * @return int number of rows
+	 */
+	protected abstract int count(String filter);
+
+	/**
+	 * Returns up to limit rows matching the given filter, in the order of sort keys
+	 * and then keys, following the given row if it is not null, and from the given
+	 * offset otherwise. Called in the background.
+	 * @param filter
+	 * @param after row the rows follow, or null
+	 * @param offset
+	 * @param limit
+	 * @return List<T> rows
+	 */
+	protected abstract List<T> fetch(String filter, T after, int offset, int limit);
+
+	/**
+	 * Returns true if the given row matches the given filter, like count() and fetch().
+	 * @param row
+	 * @param filter
+	 * @return boolean true if matching
+	 */
+	protected abstract boolean matches(T row, String filter);
+
+	/**
+	 * Returns the key identifying the given row.
+	 * @param row
+	 * @return String key
+	 */
+	protected abstract String getKey(T row);
+
+	/**
+	 * Returns the text the rows are sorted by.
+	 * @param row
+	 * @return String sort key
+	 */
+	protected abstract String getSortKey(T row);
+
+	/**
+	 * Returns the text shown in the first line of the given row.
+	 * @param row
+	 * @return String text
+	 */
+	protected abstract String getText1(T row);
+
+	/**
+	 * Returns the text shown in the second line of the given row.
+	 * @param row
+	 * @return String text
+	 */
+	protected abstract String getText2(T row);
+
+	/**
+	 * Returns true if the given text contains the given filter, ignoring the case
+	 * of ASCII letters, like the LIKE operator of SQLite.
+	 * @param text
+	 * @param filter
+	 * @return boolean true if text contains filter
+	 */
+	public static boolean contains(final String text, final String filter) {
+		if(text == null) {
+			return false;
+		}
+		int last = text.length() - filter.length();
+		for(int i = 0; i <= last; i++) {
+			int j = 0;
+			while(j < filter.length() && toLowerAscii(text.charAt(i + j)) == toLowerAscii(filter.charAt(j))) {
+				j++;
+			}
+			if(j == filter.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of rows matching the filter.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the row at the given position, or null if its page is not loaded yet,
+	 * in which case it is loaded in the background.
+	 */
+	public T getItem(final int position) {
+		int page = position / PAGE_SIZE;
+		List<T> rows = pages.get(page);
+		if(rows == null) {
+			load(page);
+			return null;
+		}
+		int index = position % PAGE_SIZE;
+		return index < rows.size() ? rows.get(index) : null;
+	}
+
+	/**
+	 * Returns the given position.
+	 */
+	public long getItemId(final int position) {
+		return position;
+	}
+
+	/**
+	 * Returns a TwoLineListItem showing the row at the given position,
+	 * empty if its page is not loaded yet.
+	 */
+	public View getView(final int position, final View convertView, final ViewGroup parent) {
+		TwoLineListItem view = (TwoLineListItem)convertView;
+		if(view == null) {
+			view = (TwoLineListItem)LayoutInflater.from(context).inflate(android.R.layout.simple_list_item_2, parent, false);
+		}
+		T row = getItem(position);
+		view.getText1().setText(row == null ? "" : getText1(row));
+		view.getText2().setText(row == null ? "" : getText2(row));
+		return view;
+	}
+
+	/**
+	 * Sets the filter to the given text. Filters the rows in memory if all rows of a
+	 * filter contained in the given one are loaded, and loads them again after
+	 * FILTER_DELAY otherwise.
+	 * @param text
+	 */
+	public void setFilter(final String text) {
+		String newFilter = text == null ? "" : text.trim();
+		if(newFilter.equals(filter)) {
+			return;
+		}
+		filter = newFilter;
+		handler.removeCallbacks(reloader);
+
+		if(isComplete() && contains(newFilter, loadedFilter)) {
+			List<T> rows = getRows();
+			List<T> matching = new ArrayList<T>(rows.size());
+			for(T row : rows) {
+				if(matches(row, newFilter)) {
+					matching.add(row);
+				}
+			}
+			loadedFilter = newFilter;
+			setRows(matching);
+		} else {
+			handler.postDelayed(reloader, FILTER_DELAY);
+		}
+	}
+
+	/**
+	 * Returns the filter.
+	 * @return String filter
+	 */
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Returns the row with the given key if it is in memory, null otherwise.
+	 * @param key
+	 * @return T row or null
+	 */
+	public T find(final String key) {
+		for(List<T> rows : pages.values()) {
+			for(T row : rows) {
+				if(getKey(row).equals(key)) {
+					return row;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the given row or replaces the row with the same key in memory if all rows
+	 * are loaded, and loads the pages again otherwise.
+	 * @param row
+	 */
+	public void put(final T row) {
+		if(! isComplete()) {
+			reload();
+			return;
+		}
+
+		List<T> rows = getRows();
+		removeKey(rows, getKey(row));
+		if(matches(row, loadedFilter)) {
+			int low = 0;
+			int high = rows.size();
+			while(low < high) {
+				int mid = (low + high) >>> 1;
+				if(compare(rows.get(mid), row) <= 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			rows.add(low, row);
+		}
+		setRows(rows);
+	}
+
+	/**
+	 * Removes the row with the given key in memory if all rows are loaded,
+	 * and loads the pages again otherwise.
+	 * @param key
+	 */
+	public void remove(final String key) {
+		if(! isComplete()) {
+			reload();
+			return;
+		}
+
+		List<T> rows = getRows();
+		removeKey(rows, key);
+		setRows(rows);
+	}
+
+	/**
+	 * Counts the rows matching the filter and loads the pages in memory again
+	 * in the background, or the first page if there are none.
+	 */
+	public void reload() {
+		handler.removeCallbacks(reloader);
+		generation++;
+		loading.clear();
+
+		Set<Integer> reload = new TreeSet<Integer>(pages.keySet());
+		if(reload.isEmpty()) {
+			reload.add(0);
+		}
+		loading.addAll(reload);
+		new LoadTask(generation, filter, true, reload, null).execute(new Void[0]);
+	}
+
+	/**
+	 * Discards loads still running and filters not queried yet.
+	 */
+	public void close() {
+		handler.removeCallbacks(reloader);
+		generation++;
+		loading.clear();
+	}
+
+	/**
+	 * Loads the given page in the background if it is not already being loaded,
+	 * following the last row of the page before if it is in memory.
+	 * @param page
+	 */
+	private void load(final int page) {
+		if(loading.add(page)) {
+			Set<Integer> load = new TreeSet<Integer>();
+			load.add(page);
+			T after = null;
+			List<T> previous = pages.get(page - 1);
+			if(previous != null && ! previous.isEmpty()) {
+				after = previous.get(previous.size() - 1);
+			}
+			new LoadTask(generation, loadedFilter, false, load, after).execute(new Void[0]);
+		}
+	}
+
+	/**
+	 * Returns true if all rows matching loadedFilter are in memory.
+	 * @return boolean true if complete
+	 */
+	private boolean isComplete() {
+		int last = count == 0 ? 0 : (count - 1) / PAGE_SIZE;
+		if(last >= MAX_PAGES) {
+			return false;
+		}
+		for(int page = 0; page <= last; page++) {
+			if(! pages.containsKey(page)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns all rows in memory in order, assuming all rows are loaded.
+	 * @return List<T> rows
+	 */
+	private List<T> getRows() {
+		List<T> rows = new ArrayList<T>(count + 1);
+		for(int page = 0; pages.containsKey(page); page++) {
+			rows.addAll(pages.get(page));
+		}
+		return rows;
+	}
+
+	/**
+	 * Replaces the rows in memory with the given rows, discarding loads still running,
+	 * and notifies the list about the change.
+	 * @param rows
+	 */
+	private void setRows(final List<T> rows) {
+		generation++;
+		loading.clear();
+		pages.clear();
+		count = rows.size();
+		for(int offset = 0; offset == 0 || offset < count; offset += PAGE_SIZE) {
+			pages.put(offset / PAGE_SIZE, new ArrayList<T>(rows.subList(offset, Math.min(offset + PAGE_SIZE, count))));
+		}
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Compares the given rows by their sort key and then by their key.
+	 * @param row1
+	 * @param row2
+	 * @return int comparison
+	 */
+	private int compare(final T row1, final T row2) {
+		int compared = collator.compare(getSortKey(row1), getSortKey(row2));
+		return compared != 0 ? compared : getKey(row1).compareTo(getKey(row2));
+	}
+
+	/**
+	 * Removes the rows with the given key from the given rows.
+	 * @param rows
+	 * @param key
+	 */
+	private void removeKey(final List<T> rows, final String key) {
+		for(int i = rows.size() - 1; i >= 0; i--) {
+			if(getKey(rows.get(i)).equals(key)) {
+				rows.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the given character in lower case if it is an ASCII letter.
+	 * @param c
+	 * @return char
+	 */
+	private static char toLowerAscii(final char c) {
+		return c >= 'A' && c <= 'Z' ? (char)(c + 'a' - 'A') : c;
+	}
+
+	/**
+	 * AsyncTask that loads pages and optionally counts the rows matching a filter,
+	 * and puts them in memory if nothing changed meanwhile. A page following the
+	 * one loaded before is loaded following its last row, and so is the first page
+	 * following the given row, if any.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class LoadTask extends AsyncTask<Void, Void, Map<Integer, List<T>>> {
+
+		private final int taskGeneration;
+		private final String taskFilter;
+		private final boolean counting;
+		private final Set<Integer> load;
+		private final T after;
+
+		private volatile int taskCount;
+
+		private LoadTask(final int generation, final String filter, final boolean counting, 
+				final Set<Integer> load, final T after) {
+			this.taskGeneration = generation;
+			this.taskFilter = filter;
+			this.counting = counting;
+			this.load = load;
+			this.after = after;
+		}
+
+		@Override
+		protected Map<Integer, List<T>> doInBackground(final Void... arg) {
+			Map<Integer, List<T>> loaded = new HashMap<Integer, List<T>>();
+			int total = counting ? count(taskFilter) : Integer.MAX_VALUE;
+			T last = after;
+			int previous = load.isEmpty() ? -1 : load.iterator().next() - 1;
+			for(int page : load) {
+				int offset = page * PAGE_SIZE;
+				if(page == 0 || offset < total) {
+					List<T> rows = fetch(taskFilter, page == previous + 1 ? last : null, offset, PAGE_SIZE);
+					loaded.put(page, rows);
+					last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+					previous = page;
+				}
+			}
+			taskCount = total;
+			return loaded;
+		}
+
+		@Override
+		protected void onPostExecute(final Map<Integer, List<T>> loaded) {
+			if(taskGeneration != generation) {
+				return;
+			}
+			loading.removeAll(load);
+			if(! counting && ! taskFilter.equals(loadedFilter)) {
+				// Loaded before the rows of a new filter
+				return;
+			}
+			if(counting) {
+				pages.clear();
+				count = taskCount;
+				loadedFilter = taskFilter;
+			}
+			for(int page : new TreeSet<Integer>(loaded.keySet())) {
+				pages.put(page, loaded.get(page));
+			}
+			notifyDataSetChanged();
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Time budget of an internet connectivity test: a connect timeout and a read timeout
+ * for each request, and a deadline for the whole test including all retries. The
+ * timeouts are never longer than the time left until the deadline, and a watchdog
+ * aborts the connection of a probe still running at the deadline, so a server
+ * trickling its response byte by byte can't hold up the test.
+ * The budget is also the handle to cancel a test: cancelling it closes the connections
+ * of the probes running within it right away, instead of letting them run until their
+ * response is read or the deadline passes.
+ * The budget of a test is made available to the probes on the thread they run on,
+ * like ProbeTimings.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class ProbeBudget {
+
+	/** Default connect timeout in milliseconds */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+
+	/** Default read timeout in milliseconds */
+	public static final int DEFAULT_READ_TIMEOUT = 3000;
+
+	/** Default time in milliseconds after the start of a test until its deadline */
+	public static final long DEFAULT_DEADLINE = 60 * 1000;
+
+	/** Budget of the probe running on the current thread */
+	private static final ThreadLocal<ProbeBudget> CURRENT = new ThreadLocal<ProbeBudget>();
+
+	/** Clock */
+	private final Clock clock;
+
+	/** Connect timeout in milliseconds */
+	private final int connectTimeout;
+
+	/** Read timeout in milliseconds */
+	private final int readTimeout;
+
+	/** Time of the deadline */
+	private final long deadline;
+
+	/** Connections currently used by probes within this budget */
+	private final Set<ProbeConnection> connections = new HashSet<ProbeConnection>();
+
+	/** If this budget was cancelled */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates a budget with the default timeouts and deadline, starting now.
+	 */
+	public ProbeBudget() {
+		this(new ClockImpl(), DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_DEADLINE);
+	}
+
+	/**
+	 * Creates a budget with the given timeouts and the deadline the given time from now.
+	 * @param clock
+	 * @param connectTimeout connect timeout in milliseconds
+	 * @param readTimeout read timeout in milliseconds
+	 * @param total time in milliseconds from now until the deadline
+	 */
+	public ProbeBudget(final Clock clock, final int connectTimeout, final int readTimeout, final long total) {
+		this.clock = clock;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.deadline = clock.now() + total;
+	}
+
+	/**
+	 * Makes the given budget the one of the probe running on the current thread.
+	 * @param budget
+	 */
+	public static void enter(final ProbeBudget budget) {
+		CURRENT.set(budget);
+	}
+
+	/**
+	 * Removes the budget of the probe running on the current thread.
+	 */
+	public static void exit() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Returns the budget of the probe running on the current thread, or a new
+	 * budget with the default timeouts and deadline if there is none.
+	 * @return ProbeBudget budget
+	 */
+	public static ProbeBudget current() {
+		ProbeBudget budget = CURRENT.get();
+		return budget == null ? new ProbeBudget() : budget;
+	}
+
+	/**
+	 * Returns the time left until the deadline, 0 if it has passed.
+	 * @return long time in milliseconds
+	 */
+	public long getRemaining() {
+		return Math.max(0, deadline - clock.now());
+	}
+
+	/**
+	 * Returns true if the deadline has passed.
+	 * @return boolean true if expired
+	 */
+	public boolean isExpired() {
+		return getRemaining() == 0;
+	}
+
+	/**
+	 * Returns the connect timeout, but not more than the time left until the deadline.
+	 * Never returns 0 since that would mean no timeout.
+	 * @return int timeout in milliseconds
+	 */
+	public int getConnectTimeout() {
+		return limit(connectTimeout);
+	}
+
+	/**
+	 * Returns the read timeout, but not more than the time left until the deadline.
+	 * Never returns 0 since that would mean no timeout.
+	 * @return int timeout in milliseconds
+	 */
+	public int getReadTimeout() {
+		return limit(readTimeout);
+	}
+
+	/**
+	 * Returns true if this budget was cancelled.
+	 * @return boolean true if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancels this budget, closing the connections currently used by probes within it,
+	 * so the probes fail with a CancelledException without waiting for the server.
+	 * A connection stays attached until its response was closed, so a probe reading the
+	 * rest of a response on close is cancelled too.
+	 * Probes started within this budget after it was cancelled fail right away.
+	 */
+	public void cancel() {
+		List<ProbeConnection> cancel;
+		synchronized(this) {
+			cancelled = true;
+			cancel = new ArrayList<ProbeConnection>(connections);
+			connections.clear();
+		}
+		for(ProbeConnection connection : cancel) {
+			connection.cancel();
+		}
+	}
+
+	/**
+	 * Throws a CancelledException if this budget was cancelled and a
+	 * DeadlineExceededException if the deadline has passed.
+	 * @throws CancelledException if this budget was cancelled
+	 * @throws DeadlineExceededException if the deadline has passed
+	 */
+	public void check() throws InterruptedIOException {
+		if(cancelled) {
+			throw new CancelledException();
+		}
+		if(isExpired()) {
+			throw new DeadlineExceededException();
+		}
+	}
+
+	/**
+	 * Adds the given connection to the ones used by probes within this budget, or
+	 * cancels it right away if this budget was already cancelled.
+	 * @param connection
+	 */
+	void attach(final ProbeConnection connection) {
+		synchronized(this) {
+			if(! cancelled) {
+				connections.add(connection);
+				return;
+			}
+		}
+		connection.cancel();
+	}
+
+	/**
+	 * Removes the given connection from the ones used by probes within this budget.
+	 * @param connection
+	 */
+	synchronized void detach(final ProbeConnection connection) {
+		connections.remove(connection);
+	}
+
+	/**
+	 * Returns the given timeout, but not more than the time left until the deadline
+	 * and at least 1.
+	 * @param timeout in milliseconds
+	 * @return int timeout in milliseconds
+	 */
+	private int limit(final int timeout) {
+		return (int)Math.max(1, Math.min(timeout, getRemaining()));
+	}
+
+	/**
+	 * Thrown if a probe did not finish before the deadline.
+	 */
+	public static final class DeadlineExceededException extends SocketTimeoutException {
+
+		private static final long serialVersionUID = 1L;
+
+		DeadlineExceededException() {
+			super("Deadline exceeded");
+		}
+
+	}
+
+	/**
+	 * Thrown if a probe was cancelled before it finished.
+	 */
+	public static final class CancelledException extends InterruptedIOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CancelledException() {
+			super("Probe cancelled");
+		}
+
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the HttpURLConnection of a probe, so it is disconnected by a watchdog at the
+ * deadline of the probe's budget, or right away if the budget is cancelled, and the
+ * probe fails with a DeadlineExceededException or a CancelledException instead of the
+ * exception caused by the connection being disconnected. Used by ProbeTransport.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+final class ProbeConnection {
+
+	/** Watchdog aborting connections still in use at the deadline of their probe */
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				public Thread newThread(final Runnable runnable) {
+					Thread thread = new Thread(runnable, "ProbeWatchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/** Connection */
+	private final HttpURLConnection connection;
+
+	/** Pending abort of this connection by the watchdog, or null */
+	private ScheduledFuture<?> watch;
+
+	/** Budget of the probe using this connection, or null */
+	private ProbeBudget budget;
+
+	/** If this connection was aborted by the watchdog */
+	private volatile boolean aborted = false;
+
+	/** If this connection was cancelled with the budget of its probe */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates an instance watching the given connection.
+	 * @param connection
+	 */
+	ProbeConnection(final HttpURLConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Returns the connection.
+	 * @return HttpURLConnection
+	 */
+	HttpURLConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Lets the watchdog disconnect this connection at the deadline of the given budget,
+	 * and cancelling the given budget disconnect it right away.
+	 * @param budget
+	 */
+	synchronized void watch(final ProbeBudget budget) {
+		unwatch();
+		this.budget = budget;
+		budget.attach(this);
+		watch = WATCHDOG.schedule(new Runnable() {
+			public void run() {
+				aborted = true;
+				connection.disconnect();
+			}
+		}, budget.getRemaining(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Keeps the watchdog from disconnecting this connection and cancelling the budget
+	 * of the probe from cancelling it, i.e. after the response was read.
+	 */
+	synchronized void unwatch() {
+		if(watch != null) {
+			watch.cancel(false);
+			watch = null;
+		}
+		if(budget != null) {
+			budget.detach(this);
+			budget = null;
+		}
+	}
+
+	/**
+	 * Returns the time left until the deadline of the budget this connection is watched
+	 * with, 0 if it is not watched or the budget was cancelled.
+	 * @return long time in milliseconds
+	 */
+	synchronized long getRemaining() {
+		if(budget == null || budget.isCancelled()) {
+			return 0;
+		}
+		return budget.getRemaining();
+	}
+
+	/**
+	 * Cancels this connection by disconnecting it, so a probe blocked in connecting
+	 * or reading fails right away.
+	 */
+	void cancel() {
+		cancelled = true;
+		connection.disconnect();
+	}
+
+	/**
+	 * Returns true if this connection was aborted by the watchdog or cancelled.
+	 * @return boolean true if aborted
+	 */
+	boolean isAborted() {
+		return aborted || cancelled;
+	}
+
+	/**
+	 * Returns a stream that throws a DeadlineExceededException or a CancelledException
+	 * instead of the exception caused by the watchdog or the cancel disconnecting this
+	 * connection, and an InterruptedIOException if the reading thread was interrupted.
+	 * @param in
+	 * @return InputStream
+	 */
+	InputStream wrap(final InputStream in) {
+		return new AbortAwareInputStream(in);
+	}
+
+	/**
+	 * Returns a CancelledException instead of the given exception if this connection
+	 * was cancelled, a DeadlineExceededException if it was aborted by the watchdog,
+	 * and the given exception otherwise.
+	 * @param e
+	 * @return IOException to throw
+	 */
+	IOException abortedOr(final IOException e) {
+		if(cancelled) {
+			return new ProbeBudget.CancelledException();
+		}
+		return aborted ? new ProbeBudget.DeadlineExceededException() : e;
+	}
+
+	/**
+	 * Stream translating the exceptions caused by disconnecting the connection.
+	 */
+	private final class AbortAwareInputStream extends FilterInputStream {
+
+		AbortAwareInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			ProbeTransport.checkInterrupted();
+			try {
+				return super.read();
+			} catch(IOException e) {
+				throw abortedOr(e);
+			}
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			ProbeTransport.checkInterrupted();
+			try {
+				return super.read(buffer, offset, length);
+			} catch(IOException e) {
+				throw abortedOr(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes several internet servers concurrently with a bounded number of threads and
+ * returns the first conclusive result, so a single slow server does not delay the test.
+ * A server returning the expected title is conclusive right away and cancels the probes
+ * of the other servers. Otherwise, the first page title returned is used once all probes
+ * are finished, and if all probes failed, the first exception is thrown.
+ * The probes of all races run on one executor per process. A race waits for its probes
+ * to finish, for its deadline or to be cancelled, without polling.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class ProbeRacer {
+
+	/** Maximum number of servers probed at the same time */
+	public static final int MAX_THREADS = 3;
+
+	/** Executor the probes of all races run on */
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_THREADS,
+			new ThreadFactory() {
+				public Thread newThread(final Runnable runnable) {
+					Thread thread = new Thread(runnable, "ProbeRacer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/** Put into the queue of finished probes of a race to wake it up when it is cancelled */
+	private static final Future<ProbeResult> CANCELLED = new FutureTask<ProbeResult>(new Callable<ProbeResult>() {
+		public ProbeResult call() {
+			return null;
+		}
+	});
+
+	/** Probes of the current race, null if there is none */
+	private List<Future<ProbeResult>> probes;
+
+	/** Queue of the finished probes of the current race, null if there is none */
+	private BlockingQueue<Future<ProbeResult>> finished;
+
+	/** If races are cancelled, until reset */
+	private boolean cancelled = false;
+
+	/**
+	 * Splits the given server setting at whitespace and commas and returns the servers.
+	 * Returns a list containing only the given setting if there are no servers in it.
+	 * @param setting
+	 * @return List<String> servers
+	 */
+	public static List<String> parseServers(final String setting) {
+		if(setting == null) {
+			return Collections.singletonList(setting);
+		}
+		List<String> servers = new ArrayList<String>();
+		for(String server : setting.split("[\\s,]+")) {
+			if(server.length() > 0) {
+				servers.add(server);
+			}
+		}
+		if(servers.isEmpty()) {
+			servers.add(setting);
+		}
+		return servers;
+	}
+
+	/**
+	 * Probes the given servers with the given verifier and returns the first conclusive
+	 * result, using the default timeouts and deadline.
+	 * @param verifier
+	 * @param servers
+	 * @param title expected title
+	 * @return ProbeResult
+	 * @throws Exception the first exception if all probes failed
+	 * @throws CancellationException if the race was cancelled
+	 */
+	public ProbeResult race(final TitleVerifier verifier, final List<String> servers, final String title) throws Exception {
+		return race(verifier, servers, title, new ProbeBudget());
+	}
+
+	/**
+	 * Probes the given servers with the given verifier and returns the first conclusive
+	 * result. A single server is probed on the calling thread. The probes use the timeouts
+	 * of the given budget, and the race is given up at its deadline. Throws a
+	 * CancellationException right away if this racer was cancelled and not reset since.
+	 * @param verifier
+	 * @param servers
+	 * @param title expected title
+	 * @param budget
+	 * @return ProbeResult
+	 * @throws Exception the first exception if all probes failed
+	 * @throws CancellationException if the race was cancelled
+	 * @throws ProbeBudget.DeadlineExceededException if the deadline passed
+	 */
+	public ProbeResult race(final TitleVerifier verifier, final List<String> servers, final String title,
+			final ProbeBudget budget) throws Exception {
+
+		budget.check();
+
+		if(servers.size() == 1) {
+			synchronized(this) {
+				if(cancelled) {
+					throw new CancellationException("Cancelled");
+				}
+			}
+			return probe(verifier, servers.get(0), title, budget);
+		}
+
+		BlockingQueue<Future<ProbeResult>> finished = new LinkedBlockingQueue<Future<ProbeResult>>();
+		CompletionService<ProbeResult> completionService = new ExecutorCompletionService<ProbeResult>(EXECUTOR, finished);
+		List<Future<ProbeResult>> probes = new ArrayList<Future<ProbeResult>>(servers.size());
+
+		synchronized(this) {
+			if(cancelled) {
+				throw new CancellationException("Cancelled");
+			}
+			for(final String server : servers) {
+				probes.add(completionService.submit(new Callable<ProbeResult>() {
+					public ProbeResult call() throws Exception {
+						return probe(verifier, server, title, budget);
+					}
+				}));
+			}
+			this.probes = probes;
+			this.finished = finished;
+		}
+
+		try {
+			ProbeResult first = null;
+			Exception exception = null;
+
+			for(int done = 0; done < servers.size(); ) {
+				// A probe stuck in a DNS lookup is not aborted by the watchdog, so wait no longer than the deadline
+				Future<ProbeResult> future = finished.poll(budget.getRemaining(), TimeUnit.MILLISECONDS);
+				synchronized(this) {
+					if(cancelled) {
+						throw new CancellationException("Cancelled");
+					}
+				}
+				if(future == null) {
+					budget.check();
+					continue;
+				}
+				done++;
+				try {
+					ProbeResult result = future.get();
+					if(result.isExpectedTitle()) {
+						// Log.d(Inetify.LOG_TAG, String.format("%s won the race", result.getServer()));
+						return result;
+					}
+					if(first == null) {
+						first = result;
+					}
+				} catch(ExecutionException e) {
+					if(exception == null) {
+						exception = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+					}
+				} catch(CancellationException e) {
+					// Not expected since the race was not cancelled, but count it as failed
+					if(exception == null) {
+						exception = e;
+					}
+				}
+			}
+
+			if(first != null) {
+				return first;
+			}
+			throw exception;
+
+		} finally {
+			// Interrupts the probes still running and drops the ones not started yet
+			synchronized(this) {
+				for(Future<ProbeResult> probe : probes) {
+					probe.cancel(true);
+				}
+				this.probes = null;
+				this.finished = null;
+			}
+		}
+	}
+
+	/**
+	 * Cancels the current race, if any, and any race started until reset() is called.
+	 */
+	public void cancel() {
+		synchronized(this) {
+			cancelled = true;
+			if(probes != null) {
+				for(Future<ProbeResult> probe : probes) {
+					probe.cancel(true);
+				}
+				finished.offer(CANCELLED);
+			}
+		}
+	}
+
+	/**
+	 * Resets this racer after it was cancelled, so races can be started again. Should be
+	 * called at the start of a test, so a cancel arriving before the first race is not lost.
+	 */
+	public void reset() {
+		synchronized(this) {
+			cancelled = false;
+		}
+	}
+
+	/**
+	 * Probes the given server with the given verifier within the given budget, recording
+	 * the time spent in each phase of the probe.
+	 * @param verifier
+	 * @param server
+	 * @param title expected title
+	 * @param budget
+	 * @return ProbeResult
+	 * @throws Exception if some error occurs
+	 */
+	private static ProbeResult probe(final TitleVerifier verifier, final String server, final String title,
+			final ProbeBudget budget) throws Exception {
+		ProbeTimings timings = ProbeTimings.start();
+		ProbeBudget.enter(budget);
+		try {
+			String pageTitle = verifier.getPageTitle(server);
+			return new ProbeResult(server, pageTitle, verifier.isExpectedTitle(title, pageTitle), timings);
+		} finally {
+			ProbeBudget.exit();
+			ProbeTimings.finish();
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Response to a request sent by ProbeTransport. The body must be read from the input stream
+ * and the response must be closed. If the body was read completely, or if only a few bytes
+ * of it are left, the connection is left to HttpURLConnection to be reused, otherwise it
+ * is disconnected. Responses of requests sent with "Connection: close" or before the
+ * transport was flushed are always disconnected. The rest of the body is read while the connection is still watched, so
+ * a server trickling it can't hold up the probe past its deadline or after its budget
+ * was cancelled.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class ProbeResponse {
+
+	/** Transport that sent the request */
+	private final ProbeTransport transport;
+
+	/** Generation of the transport the request was sent in, -1 if not kept alive */
+	private final long generation;
+
+	/** Connection the response is read from */
+	private final ProbeConnection connection;
+
+	/** HTTP status */
+	private final int status;
+
+	/** Body, null until opened */
+	private InputStream body;
+
+	/** If the response was closed */
+	private boolean closed = false;
+
+	/**
+	 * Creates a response with the given status, read from the given connection, of a
+	 * request sent by the given transport in the given generation.
+	 * @param transport
+	 * @param connection
+	 * @param status
+	 * @param generation generation of the transport, -1 if the connection is not kept alive
+	 */
+	ProbeResponse(final ProbeTransport transport, final ProbeConnection connection,
+			final int status, final long generation) {
+		this.transport = transport;
+		this.connection = connection;
+		this.status = status;
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns the HTTP status.
+	 * @return int status
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the url of the response, differing from the one requested if
+	 * HttpURLConnection followed redirects.
+	 * @return URL url
+	 */
+	public URL getURL() {
+		return connection.getConnection().getURL();
+	}
+
+	/**
+	 * Returns the location of a redirect to an http or https url that HttpURLConnection
+	 * did not follow, i.e. to another protocol, or null if this response is no redirect.
+	 * @return String location or null
+	 */
+	String getRedirect() {
+		if(status < HttpURLConnection.HTTP_MULT_CHOICE || status >= HttpURLConnection.HTTP_BAD_REQUEST || 
+				status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			return null;
+		}
+		String location = getHeader("Location");
+		if(location == null) {
+			return null;
+		}
+		try {
+			return ProbeTransport.isHttp(new URL(getURL(), location)) ? location : null;
+		} catch(MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the value of the header with the given name, case insensitive, or null.
+	 * @param name
+	 * @return String header value or null
+	 */
+	public String getHeader(final String name) {
+		return connection.getConnection().getHeaderField(name);
+	}
+
+	/**
+	 * Returns the content length, or -1 if it is unknown.
+	 * @return long content length or -1
+	 */
+	public long getContentLength() {
+		return connection.getConnection().getContentLength();
+	}
+
+	/**
+	 * Returns the content type, or null.
+	 * @return String content type or null
+	 */
+	public String getContentType() {
+		return connection.getConnection().getContentType();
+	}
+
+	/**
+	 * Returns the stream to read the body from. The stream ends at the end of the body.
+	 * @return InputStream body
+	 * @throws IOException if some error occurs
+	 */
+	public InputStream getInputStream() throws IOException {
+		if(body == null) {
+			HttpURLConnection httpConnection = connection.getConnection();
+			InputStream in;
+			try {
+				in = status >= HttpURLConnection.HTTP_BAD_REQUEST ?
+						httpConnection.getErrorStream() : httpConnection.getInputStream();
+			} catch(IOException e) {
+				throw connection.abortedOr(e);
+			}
+			body = connection.wrap(in == null ? new ByteArrayInputStream(new byte[0]) : in);
+		}
+		return body;
+	}
+
+	/**
+	 * Closes this response. Reads the rest of the body if no more than
+	 * ProbeTransport.MAX_DRAIN bytes of it are left and it can be read before the deadline,
+	 * so HttpURLConnection can reuse the connection, and disconnects the connection otherwise.
+	 * Disconnects without reading if less than ProbeTransport.MIN_DRAIN_TIME is left until
+	 * the deadline, or if the connection is not kept alive.
+	 */
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if(isReusable() && connection.getRemaining() >= ProbeTransport.MIN_DRAIN_TIME && drain()) {
+				body.close();
+				return;
+			}
+		} catch(IOException e) {
+			// Disconnect
+		} finally {
+			connection.unwatch();
+		}
+		connection.getConnection().disconnect();
+	}
+
+	/**
+	 * Returns true if the connection of this response may be put back into the pool.
+	 * @return boolean true if reusable
+	 */
+	private boolean isReusable() {
+		return generation != -1 && transport.isCurrent(generation) && ! connection.isAborted();
+	}
+
+	/**
+	 * Reads and discards the rest of the body if it is not longer than
+	 * ProbeTransport.MAX_DRAIN bytes, and returns true if the end of the body was reached.
+	 * Still watched, so reading is aborted at the deadline or if the budget is cancelled.
+	 * @return boolean true if the body was read completely
+	 */
+	private boolean drain() {
+		try {
+			InputStream in = getInputStream();
+			byte[] buffer = new byte[512];
+			int drained = 0;
+			int count;
+			while((count = in.read(buffer, 0, buffer.length)) != -1) {
+				drained += count;
+				if(drained > ProbeTransport.MAX_DRAIN || connection.getRemaining() == 0) {
+					return false;
+				}
+			}
+			return true;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * Result of probing one internet server, i.e. the server, the page title
+ * it returned and if that was the expected title.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class ProbeResult {
+
+	/** Server probed */
+	private final String server;
+
+	/** Page title */
+	private final String pageTitle;
+
+	/** If the page title was the expected title */
+	private final boolean expectedTitle;
+
+	/** Time spent in each phase of the probe */
+	private final ProbeTimings timings;
+
+	/**
+	 * Creates an instance with the given server, page title and if that was the expected title,
+	 * with no phase timings.
+	 * @param server
+	 * @param pageTitle
+	 * @param expectedTitle
+	 */
+	public ProbeResult(final String server, final String pageTitle, final boolean expectedTitle) {
+		this(server, pageTitle, expectedTitle, new ProbeTimings());
+	}
+
+	/**
+	 * Creates an instance with the given server, page title, if that was the expected title
+	 * and the time spent in each phase of the probe.
+	 * @param server
+	 * @param pageTitle
+	 * @param expectedTitle
+	 * @param timings
+	 */
+	public ProbeResult(final String server, final String pageTitle, final boolean expectedTitle, final ProbeTimings timings) {
+		this.server = server;
+		this.pageTitle = pageTitle;
+		this.expectedTitle = expectedTitle;
+		this.timings = timings;
+	}
+
+	/**
+	 * Returns the server probed.
+	 * @return String server
+	 */
+	public String getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns the page title.
+	 * @return String page title
+	 */
+	public String getPageTitle() {
+		return pageTitle;
+	}
+
+	/**
+	 * Returns true if the page title was the expected title.
+	 * @return boolean true if expected title
+	 */
+	public boolean isExpectedTitle() {
+		return expectedTitle;
+	}
+
+	/**
+	 * Returns the time spent in each phase of the probe.
+	 * @return ProbeTimings timings
+	 */
+	public ProbeTimings getTimings() {
+		return timings;
+	}
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Runs the internet connectivity tests of the process one after the other on a single
+ * thread: background tests started by connectivity events and manual tests started by
+ * the user. Manual tests jump ahead of background tests still queued, and pre-empt a
+ * running background test, which is cancelled and queued again to run after them. Each background
+ * test belongs to a generation of the network state, and a connectivity event starting
+ * a new generation drops the queued background tests of older generations and cancels
+ * the running one, since their results would be stale anyway.
+ * Cancelling the future of a test cancels that test only: it is dropped if queued, also
+ * when queued again after being pre-empted, and its tester is cancelled if it is running.
+ * The tester is reset right before each test, so a cancel can't get lost by a test
+ * resetting it when it starts.
+ * The results of all tests are recorded in the same way, in the test result and the
+ * test history, followed by a broadcast of Inetify.UPDATE_TESTRESULT_ACTION once they
+ * are committed. They are written by the writer thread of the database adapter, so the
+ * next test doesn't wait for the database.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class ProbeScheduler {
+
+	/** Priority of a manual test */
+	public static final int PRIORITY_MANUAL = 0;
+
+	/** Priority of a background test */
+	public static final int PRIORITY_BACKGROUND = 1;
+
+	/** Shared instance */
+	private static ProbeScheduler instance;
+
+	/** Context used to send the broadcast */
+	private final Context context;
+
+	/** Executor running the tests, ordered by priority */
+	private final ThreadPoolExecutor executor;
+
+	/** Current generation of the network state */
+	private long generation = 0;
+
+	/** Number of jobs submitted, to keep the order of jobs with the same priority */
+	private long sequence = 0;
+
+	/** Job currently running, or null */
+	private Job running;
+
+	/**
+	 * Returns the shared instance, creating it if needed.
+	 * @param context
+	 * @return ProbeScheduler shared instance
+	 */
+	public static synchronized ProbeScheduler getInstance(final Context context) {
+		if(instance == null) {
+			instance = new ProbeScheduler(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates an instance using the given context to send the broadcast.
+	 * @param context
+	 */
+	public ProbeScheduler(final Context context) {
+		this.context = context;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(final Runnable runnable) {
+						Thread thread = new Thread(runnable, "ProbeScheduler");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Returns the current generation of the network state.
+	 * @return long generation
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Starts a new generation of the network state and returns it. Drops the queued
+	 * background tests of older generations and cancels the running one, if any.
+	 * @return long new generation
+	 */
+	public synchronized long newGeneration() {
+		generation++;
+
+		Iterator<Runnable> iterator = executor.getQueue().iterator();
+		while(iterator.hasNext()) {
+			Job job = (Job)iterator.next();
+			if(job.isStale(generation)) {
+				iterator.remove();
+				job.cancel(false);
+			}
+		}
+		if(running != null && running.isStale(generation)) {
+			// Log.d(Inetify.LOG_TAG, "Cancelling stale test");
+			running.tester.cancel();
+		}
+
+		return generation;
+	}
+
+	/**
+	 * Queues a manual test with the given tester, ahead of the queued background tests,
+	 * and returns its result as future. A running background test is pre-empted.
+	 * The result is recorded to the given database adapter.
+	 * @param tester
+	 * @param databaseAdapter
+	 * @return Future<TestInfo> result of the test
+	 */
+	public Future<TestInfo> submitManual(final Tester tester, final DatabaseAdapter databaseAdapter) {
+		return submit(PRIORITY_MANUAL, -1, tester, new Callable<TestInfo>() {
+			public TestInfo call() throws Exception {
+				return tester.testSimple();
+			}
+		}, databaseAdapter);
+	}
+
+	/**
+	 * Queues a background test of the given generation and returns its result as future.
+	 * The test is the given callable, which may return null if it was cancelled or did not
+	 * test, and is cancelled with the given tester. The result is recorded to the given
+	 * database adapter. The returned future is cancelled if the test was dropped because
+	 * the given generation is older than the current one.
+	 * @param generation generation of the network state the test belongs to
+	 * @param tester
+	 * @param test
+	 * @param databaseAdapter
+	 * @return Future<TestInfo> result of the test
+	 */
+	public Future<TestInfo> submitBackground(final long generation, final Tester tester,
+			final Callable<TestInfo> test, final DatabaseAdapter databaseAdapter) {
+		return submit(PRIORITY_BACKGROUND, generation, tester, test, databaseAdapter);
+	}
+
+	/**
+	 * Queues a job with the given properties, or cancels it right away if it is stale.
+	 * A generation newer than the current one, i.e. of an intent redelivered after the
+	 * process was restarted, becomes the current one.
+	 * @param priority
+	 * @param generation
+	 * @param tester
+	 * @param test
+	 * @param databaseAdapter
+	 * @return Future<TestInfo> result of the test
+	 */
+	private synchronized Future<TestInfo> submit(final int priority, final long generation, final Tester tester,
+			final Callable<TestInfo> test, final DatabaseAdapter databaseAdapter) {
+		if(generation > this.generation) {
+			this.generation = generation;
+		}
+		Job job = new Job(priority, generation, sequence++, tester, test, databaseAdapter);
+		if(job.isStale(this.generation)) {
+			// Log.d(Inetify.LOG_TAG, "Dropping stale test");
+			job.cancel(false);
+		} else {
+			executor.execute(job);
+			if(priority == PRIORITY_MANUAL && running != null && running.priority == PRIORITY_BACKGROUND) {
+				// Log.d(Inetify.LOG_TAG, "Pre-empting background test");
+				running.preempted = true;
+				running.tester.cancel();
+			}
+		}
+		return job;
+	}
+	
+	/**
+	 * Queues the given job again if it was pre-empted while running, so it runs after
+	 * the manual tests that pre-empted it, and returns true, or returns false if it
+	 * was not pre-empted.
+	 * @param job
+	 * @return boolean true if the job was queued again
+	 */
+	private synchronized boolean requeueIfPreempted(final Job job) {
+		if(! job.preempted) {
+			return false;
+		}
+		job.preempted = false;
+		executor.execute(job);
+		return true;
+	}
+
+	/**
+	 * Submits the result of a test to be recorded in the test result and the test history
+	 * of the given database adapter in one transaction, and sends the broadcast once it
+	 * is committed.
+	 * @param databaseAdapter
+	 * @param info
+	 */
+	private void record(final DatabaseAdapter databaseAdapter, final TestInfo info) {
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				databaseAdapter.updateTestResult(info.getTimestamp(), info.getType(), info.getExtra(), info.getIsExpectedTitle());
+				return databaseAdapter.addTestHistory(info.getTimestamp(), info.getType(), info.getExtra(),
+						info.getExtra2(), info.getIsExpectedTitle(), info.getLatency(), info.getPhaseTimes());
+			}
+		}, new DatabaseWriter.Listener<Boolean>() {
+			public void onWritten(final Boolean result) {
+				context.sendBroadcast(new Intent(Inetify.UPDATE_TESTRESULT_ACTION));
+			}
+		});
+	}
+
+	/**
+	 * Makes the given job the one currently running and resets its tester, and returns true,
+	 * or returns false if it was cancelled or became stale since it was queued.
+	 * @param job
+	 * @return boolean true if the job should run
+	 */
+	private synchronized boolean start(final Job job) {
+		if(job.isCancelled() || job.isStale(generation)) {
+			return false;
+		}
+		running = job;
+		job.tester.reset();
+		return true;
+	}
+	
+	/**
+	 * Cancels the tester of the given job if the job is currently running.
+	 * @param job
+	 */
+	private synchronized void cancelIfRunning(final Job job) {
+		if(running == job) {
+			job.tester.cancel();
+		}
+	}
+
+	/**
+	 * Clears the job currently running.
+	 */
+	private synchronized void finish() {
+		running = null;
+	}
+
+	/**
+	 * A test queued in the executor, ordered by priority and then by the order of submission.
+	 * A pre-empted job is queued again with its sequence number, so it stays ahead of the
+	 * background tests queued after it, and completes only when it ran without being pre-empted.
+	 * Cancelling a job cancels its test if it is running, and otherwise keeps it from running.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private class Job extends FutureTask<TestInfo> implements Comparable<Job> {
+
+		/** Priority */
+		private final int priority;
+
+		/** Generation of the network state, ignored for manual tests */
+		private final long generation;
+
+		/** Sequence number */
+		private final long sequence;
+
+		/** Tester used to cancel the test */
+		private final Tester tester;
+
+		/** Test run by the job */
+		private final Callable<TestInfo> test;
+
+		/** Database adapter to record the result to */
+		private final DatabaseAdapter databaseAdapter;
+
+		/** Set if the job was pre-empted by a manual test while running, guarded by the scheduler */
+		private boolean preempted = false;
+
+		/**
+		 * Creates a job running the given test and recording its result, if not null.
+		 * @param priority
+		 * @param generation
+		 * @param sequence
+		 * @param tester
+		 * @param test
+		 * @param databaseAdapter
+		 */
+		private Job(final int priority, final long generation, final long sequence, final Tester tester,
+				final Callable<TestInfo> test, final DatabaseAdapter databaseAdapter) {
+			super(test);
+			this.priority = priority;
+			this.generation = generation;
+			this.sequence = sequence;
+			this.tester = tester;
+			this.test = test;
+			this.databaseAdapter = databaseAdapter;
+		}
+
+		/**
+		 * Returns true if this is a background test of a generation older than the given one.
+		 * @param current current generation
+		 * @return boolean true if stale
+		 */
+		private boolean isStale(final long current) {
+			return priority == PRIORITY_BACKGROUND && generation < current;
+		}
+
+		/**
+		 * Cancels the test of this job if it is running, and keeps it from running if it is
+		 * queued. The job is never interrupted, its tester is cancelled instead.
+		 * @param mayInterruptIfRunning ignored
+		 * @return boolean false if the job could not be cancelled
+		 */
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(false);
+			if(cancelled) {
+				cancelIfRunning(this);
+			}
+			return cancelled;
+		}
+
+		/**
+		 * Runs the test and records its result, if not null, unless the job was cancelled
+		 * or became stale. Discards the result and queues the job again if it was pre-empted.
+		 */
+		@Override
+		public void run() {
+			if(isDone()) {
+				return;
+			}
+			if(! start(this)) {
+				cancel(false);
+				return;
+			}
+			try {
+				TestInfo info = test.call();
+				if(! requeueIfPreempted(this)) {
+					if(info != null && ! isCancelled()) {
+						record(databaseAdapter, info);
+					}
+					set(info);
+				}
+			} catch(Exception e) {
+				if(! requeueIfPreempted(this)) {
+					setException(e);
+				}
+			} finally {
+				finish();
+			}
+		}
+
+		public int compareTo(final Job other) {
+			if(priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+
+	}
+
+}
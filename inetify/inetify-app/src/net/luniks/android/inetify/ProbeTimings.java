@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * Time spent in each phase of probing an internet server: connecting, time to the
+ * first byte of the response and parsing the page. HttpURLConnection does the DNS lookup
+ * and the TLS handshake as part of connecting, so they are not timed separately.
+ * The timings of a probe are recorded on the thread the probe runs on, so
+ * ProbeTransport and TitleVerifierImpl can record them without passing them around.
+ * A phase that was not done has the time -1.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class ProbeTimings {
+
+	/** Phase connecting, including the DNS lookup and the TLS handshake */
+	public static final int PHASE_CONNECT = 0;
+
+	/** Phase from sending the request to the first byte of the response */
+	public static final int PHASE_FIRST_BYTE = 1;
+
+	/** Phase parsing the page */
+	public static final int PHASE_PARSE = 2;
+
+	/** Number of phases */
+	public static final int PHASES = 3;
+
+	/** Timings of the probe running on the current thread */
+	private static final ThreadLocal<ProbeTimings> CURRENT = new ThreadLocal<ProbeTimings>();
+
+	/** Time of each phase in milliseconds, -1 if the phase was not done */
+	private final long[] times = new long[PHASES];
+
+	/**
+	 * Creates an instance with no phase done.
+	 */
+	public ProbeTimings() {
+		for(int i = 0; i < PHASES; i++) {
+			times[i] = -1;
+		}
+	}
+
+	/**
+	 * Starts recording the timings of a probe on the current thread and returns them.
+	 * @return ProbeTimings of the probe
+	 */
+	public static ProbeTimings start() {
+		ProbeTimings timings = new ProbeTimings();
+		CURRENT.set(timings);
+		return timings;
+	}
+
+	/**
+	 * Stops recording the timings of a probe on the current thread.
+	 */
+	public static void finish() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Adds the given time to the given phase of the probe running on the current
+	 * thread. Does nothing if no timings are recorded on the current thread.
+	 * @param phase one of the PHASE_ constants
+	 * @param millis time in milliseconds
+	 */
+	public static void record(final int phase, final long millis) {
+		ProbeTimings timings = CURRENT.get();
+		if(timings != null) {
+			timings.add(phase, millis);
+		}
+	}
+
+	/**
+	 * Returns the milliseconds elapsed since the given start time, taken from System.nanoTime().
+	 * @param start start time in nanoseconds
+	 * @return long elapsed time in milliseconds
+	 */
+	public static long since(final long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Adds the given time to the given phase.
+	 * @param phase one of the PHASE_ constants
+	 * @param millis time in milliseconds
+	 */
+	public void add(final int phase, final long millis) {
+		times[phase] = Math.max(0, times[phase]) + Math.max(0, millis);
+	}
+
+	/**
+	 * Returns the time of the given phase, -1 if it was not done.
+	 * @param phase one of the PHASE_ constants
+	 * @return long time in milliseconds
+	 */
+	public long get(final int phase) {
+		return times[phase];
+	}
+
+	/**
+	 * Returns the times of all phases, indexed by the PHASE_ constants.
+	 * @return long[] times in milliseconds
+	 */
+	public long[] toArray() {
+		long[] copy = new long[PHASES];
+		System.arraycopy(times, 0, copy, 0, PHASES);
+		return copy;
+	}
+
+}
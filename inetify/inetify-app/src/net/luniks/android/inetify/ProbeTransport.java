@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import android.os.Build;
+
+/**
+ * Sends the requests of the internet connectivity tests with HttpURLConnection, leaving
+ * keep-alive enabled so retries and manual tests can reuse a connection from the pool of
+ * the platform instead of paying for DNS lookup, TCP and TLS handshake again. A connection
+ * goes back to the pool when its response was read completely, so ProbeResponse reads
+ * the rest of a small body on close and disconnects otherwise.
+ * The pool of the platform is keyed by host, not by network, so connections are only kept
+ * alive within the current network: flush() is called when Wifi disconnects, and after
+ * that the first request to each host requested before is sent with "Connection: close",
+ * so a connection pooled on the previous network is closed after one use, and responses
+ * read across the flush are not put back into the pool.
+ * Before Android 2.2, reusing a connection of which the response was closed can poison
+ * the pool, so keep-alive is disabled there as it used to be.
+ * The timeouts are taken from the budget of the probe, and a watchdog disconnects the
+ * connection at its deadline or when the budget is cancelled. There is one instance per
+ * process.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class ProbeTransport {
+
+	/** Maximum number of bytes left in a response body that are read to be able to reuse the connection */
+	static final int MAX_DRAIN = 4096;
+
+	/** Maximum number of redirects to another protocol followed */
+	static final int MAX_REDIRECTS = 5;
+
+	/** Minimum time in milliseconds left until the deadline to read the rest of a response body */
+	static final long MIN_DRAIN_TIME = 250;
+
+	/** Android 2.2, the first version with a working keep-alive */
+	private static final int FROYO = 8;
+
+	/** If connections are kept alive at all */
+	static final boolean KEEP_ALIVE = Build.VERSION.SDK_INT >= FROYO;
+
+	/** Protocol HTTP */
+	private static final String HTTP = "http";
+
+	/** Protocol HTTPS */
+	private static final String HTTPS = "https";
+
+	/** The instance */
+	private static final ProbeTransport INSTANCE = new ProbeTransport();
+
+	static {
+		if(! KEEP_ALIVE) {
+			// Sometimes fails with "Connection reset by peer" otherwise
+			System.setProperty("http.keepAlive", "false");
+		}
+	}
+
+	/** Hosts with a request sent since the last flush */
+	private final Set<String> hosts = new HashSet<String>();
+
+	/** Hosts with a request sent before the last flush, that may have a connection pooled on the previous network */
+	private final Set<String> stale = new HashSet<String>();
+
+	/** Incremented on every flush */
+	private long generation = 0;
+
+	/**
+	 * Returns the instance.
+	 * @return ProbeTransport instance
+	 */
+	public static ProbeTransport getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates an instance - there should be one instance per process, but tests may use
+	 * their own one.
+	 */
+	public ProbeTransport() {
+	}
+
+	/**
+	 * Flushes the connections of the current network, i.e. when Wifi disconnected.
+	 * The next request to each host requested so far closes its connection after the
+	 * response, and responses of requests sent before are not put back into the pool.
+	 */
+	public synchronized void flush() {
+		stale.addAll(hosts);
+		hosts.clear();
+		generation++;
+	}
+
+	/**
+	 * Returns true if a response of a request sent in the given generation may be put
+	 * back into the pool, i.e. if the transport wasn't flushed since.
+	 * @param generation
+	 * @return boolean true if the connection may be reused
+	 */
+	synchronized boolean isCurrent(final long generation) {
+		return this.generation == generation;
+	}
+
+	/**
+	 * Records that a request is sent to the host and port of the given URL, and returns
+	 * false if it is the first one since the last flush to a host requested before.
+	 * @param url
+	 * @return boolean true if the connection may be kept alive
+	 */
+	private synchronized boolean keepAlive(final URL url) {
+		String host = String.format("%s:%s", url.getHost().toLowerCase(Locale.US), url.getPort());
+		hosts.add(host);
+		return ! stale.remove(host);
+	}
+
+	/**
+	 * Returns the current generation.
+	 * @return long generation
+	 */
+	private synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Sends a GET request for the given url and returns the response, following redirects
+	 * if followRedirects is true: HttpURLConnection follows the ones with the same protocol,
+	 * and redirects from http to https and back are followed here, up to MAX_REDIRECTS.
+	 * The returned response must be closed.
+	 * @param url url with http or https protocol
+	 * @param followRedirects
+	 * @return ProbeResponse
+	 * @throws IOException if some error occurs, or if there were too many redirects
+	 * @throws IllegalArgumentException if the protocol is not http or https
+	 * @throws ProbeBudget.DeadlineExceededException if the deadline passed
+	 * @throws ProbeBudget.CancelledException if the budget was cancelled
+	 */
+	public ProbeResponse get(final String url, final boolean followRedirects) throws IOException {
+		URL location = new URL(checkProtocol(url));
+		for(int redirects = 0; ; redirects++) {
+			ProbeResponse response = get(location, followRedirects);
+			String redirect = followRedirects ? response.getRedirect() : null;
+			if(redirect == null) {
+				return response;
+			}
+			response.close();
+			if(redirects == MAX_REDIRECTS) {
+				throw new ProtocolException(String.format("Too many redirects from %s", url));
+			}
+			location = new URL(response.getURL(), redirect);
+		}
+	}
+
+	/**
+	 * Sends a GET request for the given url and returns the response, letting
+	 * HttpURLConnection follow redirects if followRedirects is true. The returned response
+	 * must be closed. The timeouts and the deadline are taken from the budget of the probe
+	 * running on the current thread. The time of connecting, including the DNS lookup
+	 * and the TLS handshake, and until the first byte of the response are recorded as
+	 * phases of the probe. The DNS lookup is not timed separately since looking up
+	 * the host before connecting could not be aborted at the deadline.
+	 * @param target url with http or https protocol
+	 * @param followRedirects
+	 * @return ProbeResponse
+	 * @throws IOException if some error occurs
+	 * @throws ProbeBudget.DeadlineExceededException if the deadline passed
+	 * @throws ProbeBudget.CancelledException if the budget was cancelled
+	 */
+	private ProbeResponse get(final URL target, final boolean followRedirects) throws IOException {
+		String url = target.toString();
+
+		checkInterrupted();
+		ProbeBudget budget = ProbeBudget.current();
+		budget.check();
+
+		HttpURLConnection connection = (HttpURLConnection)target.openConnection();
+		connection.setConnectTimeout(budget.getConnectTimeout());
+		connection.setReadTimeout(budget.getReadTimeout());
+		connection.setInstanceFollowRedirects(followRedirects);
+		connection.setUseCaches(false);
+		// So the bytes read are the bytes of the page
+		connection.setRequestProperty("Accept-Encoding", "identity");
+
+		long generation = getGeneration();
+		boolean keepAlive = KEEP_ALIVE && keepAlive(target);
+		if(! keepAlive) {
+			// Possibly sent on a connection pooled on the previous network
+			connection.setRequestProperty("Connection", "close");
+		}
+
+		ProbeConnection probeConnection = new ProbeConnection(connection);
+		probeConnection.watch(budget);
+		try {
+			long start = System.nanoTime();
+			connection.connect();
+			ProbeTimings.record(ProbeTimings.PHASE_CONNECT, ProbeTimings.since(start));
+
+			start = System.nanoTime();
+			int status = connection.getResponseCode();
+			ProbeTimings.record(ProbeTimings.PHASE_FIRST_BYTE, ProbeTimings.since(start));
+			if(status == -1) {
+				throw new IOException(String.format("Invalid response from %s", url));
+			}
+
+			return new ProbeResponse(this, probeConnection, status, keepAlive ? generation : -1);
+		} catch(IOException e) {
+			probeConnection.unwatch();
+			connection.disconnect();
+			throw probeConnection.abortedOr(e);
+		}
+	}
+
+	/**
+	 * Returns the given url if its protocol is http or https.
+	 * @param url
+	 * @return String url
+	 * @throws IllegalArgumentException if the protocol is not http or https
+	 */
+	static String checkProtocol(final String url) {
+		String protocol = url.toLowerCase(Locale.US);
+		if(! (protocol.startsWith(HTTP + "://") || protocol.startsWith(HTTPS + "://"))) {
+			throw new IllegalArgumentException("Only http & https protocols supported");
+		}
+		return url;
+	}
+
+	/**
+	 * Returns true if the protocol of the given url is http or https.
+	 * @param url
+	 * @return boolean true if http or https
+	 */
+	static boolean isHttp(final URL url) {
+		String protocol = url.getProtocol().toLowerCase(Locale.US);
+		return protocol.equals(HTTP) || protocol.equals(HTTPS);
+	}
+
+	/**
+	 * Throws an InterruptedIOException if the current thread was interrupted, i.e. if the
+	 * probe was cancelled because another server already answered.
+	 * @throws InterruptedIOException if the current thread was interrupted
+	 */
+	static void checkInterrupted() throws InterruptedIOException {
+		if(Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Probe cancelled");
+		}
+	}
+
+}
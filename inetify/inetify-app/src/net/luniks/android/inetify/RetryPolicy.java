@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * Interface for a policy deciding how long to wait before each attempt to test
+ * internet connectivity, and when to give up.
+ * 
+ * @author torsten.roemer@luniks.net
+ */
+public interface RetryPolicy {
+
+	/**
+	 * Starts a new series of attempts.
+	 */
+	void start();
+
+	/**
+	 * Returns the delay in milliseconds before the given attempt, or -1 if
+	 * no more attempts should be made.
+	 * @param attempt attempt, starting with 0
+	 * @return long delay in milliseconds or -1
+	 */
+	long nextDelay(final int attempt);
+
+}
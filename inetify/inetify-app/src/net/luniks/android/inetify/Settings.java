@@ -29,6 +29,19 @@ public class Settings extends PreferenceActivity {
 	public static final String INTERNET_ONLY_NOK = "settings_only_nok";
 	public static final String INTERNET_SERVER = "settings_server";
 	public static final String INTERNET_TITLE = "settings_title";
+	public static final String INTERNET_PROBE = "settings_probe";
+	public static final String INTERNET_STATUS_SERVER = "settings_status_server";
+	public static final String INTERNET_PROBE_TITLE = "title";
+	public static final String INTERNET_PROBE_STATUS = "status";
+	public static final String INTERNET_CACHE_TTL = "settings_cache_ttl";
+	public static final String INTERNET_CONNECT_TIMEOUT = "settings_connect_timeout";
+	public static final String INTERNET_READ_TIMEOUT = "settings_read_timeout";
+	public static final String INTERNET_DEADLINE = "settings_deadline";
+	public static final String INTERNET_FIRST_DELAY = "settings_first_delay";
+	public static final String INTERNET_RETRY_DELAY = "settings_retry_delay";
+	public static final String INTERNET_MAX_RETRY_DELAY = "settings_max_retry_delay";
+	public static final String INTERNET_RETRY_JITTER = "settings_retry_jitter";
+	public static final String INTERNET_MAX_TRIES = "settings_max_tries";
 	public static final String LOCATION_CHECK = "settings_wifi_location_enabled";
 	public static final String LOCATION_AUTO_WIFI = "settings_auto_wifi";
 	public static final String LOCATION_USE_GPS = "settings_use_gps";
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+
+/**
+ * Immutable snapshot of the settings, read and parsed once. The current snapshot is
+ * shared by all components and replaced by a new one whenever a setting changes, so
+ * the components don't read and parse the shared preferences on every event.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class SettingsSnapshot {
+
+	/** Default page of the HTTP status test, same as the default value of the setting */
+	public static final String DEFAULT_STATUS_SERVER = "clients3.google.com/generate_204";
+
+	/** Default cache TTL in minutes */
+	public static final int DEFAULT_CACHE_TTL = 5;
+
+	/** Default delay before the first try of a test in milliseconds, giving DHCP a moment */
+	public static final long DEFAULT_FIRST_DELAY = 1000;
+
+	/** Default delay before the first retry of a test in milliseconds, doubled for each further retry */
+	public static final long DEFAULT_RETRY_DELAY = 3000;
+
+	/** Default maximum delay before a retry of a test in milliseconds */
+	public static final long DEFAULT_MAX_RETRY_DELAY = 16000;
+
+	/** Default percentage of a retry delay that is randomly subtracted */
+	public static final int DEFAULT_RETRY_JITTER = 30;
+
+	/** Default maximum number of tries of a test */
+	public static final int DEFAULT_MAX_TRIES = 5;
+
+	/** Default max. distance to a Wifi location in meters */
+	public static final int DEFAULT_MAX_DISTANCE = 1500;
+
+	/** Default location check interval in minutes */
+	public static final int DEFAULT_CHECK_INTERVAL = 15;
+
+	/** Keys of the settings in a snapshot, changes of other keys are ignored */
+	private static final Set<String> KEYS = new HashSet<String>(Arrays.asList(
+			Settings.INTERNET_CHECK, Settings.INTERNET_ONLY_NOK, Settings.INTERNET_SERVER,
+			Settings.INTERNET_TITLE, Settings.INTERNET_PROBE, Settings.INTERNET_STATUS_SERVER,
+			Settings.INTERNET_CACHE_TTL, Settings.INTERNET_CONNECT_TIMEOUT, Settings.INTERNET_READ_TIMEOUT,
+			Settings.INTERNET_DEADLINE, Settings.INTERNET_FIRST_DELAY, Settings.INTERNET_RETRY_DELAY,
+			Settings.INTERNET_MAX_RETRY_DELAY, Settings.INTERNET_RETRY_JITTER, Settings.INTERNET_MAX_TRIES,
+			Settings.LOCATION_CHECK, Settings.LOCATION_AUTO_WIFI,
+			Settings.LOCATION_USE_GPS, Settings.LOCATION_MAX_DISTANCE, Settings.LOCATION_CHECK_INTERVAL,
+			Settings.TONE, Settings.LIGHT));
+
+	/** Lock guarding the replacement of the current snapshot */
+	private static final Object LOCK = new Object();
+
+	/** Replaces the current snapshot when a setting changes, referenced here since
+	 * SharedPreferences only keeps a weak reference to its listeners */
+	private static final OnSharedPreferenceChangeListener LISTENER = new OnSharedPreferenceChangeListener() {
+		public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+			if(KEYS.contains(key)) {
+				refresh(sharedPreferences);
+			}
+		}
+	};
+
+	/** Current snapshot */
+	private static volatile SettingsSnapshot current;
+
+	/** Shared preferences this snapshot was read from */
+	private final SharedPreferences sharedPreferences;
+
+	/** If the internet connectivity test is enabled */
+	private final boolean internetCheck;
+
+	/** If only a failed test should be notified */
+	private final boolean onlyNotOK;
+
+	/** Test method, Settings.INTERNET_PROBE_TITLE or Settings.INTERNET_PROBE_STATUS */
+	private final String probe;
+
+	/** Server(s) of the title test */
+	private final String server;
+
+	/** Expected title of the title test */
+	private final String title;
+
+	/** Server(s) of the HTTP status test */
+	private final String statusServer;
+
+	/** Servers of the test method, parsed */
+	private final List<String> probeServers;
+
+	/** Cache TTL in milliseconds, 0 if caching is off */
+	private final long cacheTTL;
+
+	/** Connect timeout in milliseconds */
+	private final int connectTimeout;
+
+	/** Read timeout in milliseconds */
+	private final int readTimeout;
+
+	/** Time in milliseconds from the start of a test until its deadline */
+	private final long deadline;
+
+	/** Delay before the first try of a test in milliseconds */
+	private final long firstDelay;
+
+	/** Delay before the first retry of a test in milliseconds */
+	private final long retryDelay;
+
+	/** Maximum delay before a retry of a test in milliseconds */
+	private final long maxRetryDelay;
+
+	/** Fraction of a retry delay that is randomly subtracted, between 0 and 1 */
+	private final double retryJitter;
+
+	/** Maximum number of tries of a test */
+	private final int maxTries;
+
+	/** If the nearest Wifi location should be notified */
+	private final boolean locationCheck;
+
+	/** If Wifi should be enabled near a Wifi location */
+	private final boolean autoWifi;
+
+	/** If GPS should be used */
+	private final boolean useGPS;
+
+	/** Max. distance to a Wifi location in meters */
+	private final int maxDistance;
+
+	/** Location check interval in minutes */
+	private final int checkInterval;
+
+	/** Notification tone, empty if none */
+	private final String tone;
+
+	/** If the notification light should be used */
+	private final boolean light;
+
+	/**
+	 * Returns the current snapshot of the default shared preferences of the given context.
+	 * @param context
+	 * @return SettingsSnapshot current snapshot
+	 */
+	public static SettingsSnapshot getInstance(final Context context) {
+		return getInstance(PreferenceManager.getDefaultSharedPreferences(context));
+	}
+
+	/**
+	 * Returns the current snapshot of the given shared preferences, reading it and
+	 * listening for changes if it is the first access or the shared preferences changed.
+	 * @param sharedPreferences
+	 * @return SettingsSnapshot current snapshot
+	 */
+	public static SettingsSnapshot getInstance(final SharedPreferences sharedPreferences) {
+		SettingsSnapshot snapshot = current;
+		if(snapshot != null && snapshot.sharedPreferences == sharedPreferences) {
+			return snapshot;
+		}
+		synchronized(LOCK) {
+			if(current == null || current.sharedPreferences != sharedPreferences) {
+				if(current != null) {
+					current.sharedPreferences.unregisterOnSharedPreferenceChangeListener(LISTENER);
+				}
+				sharedPreferences.registerOnSharedPreferenceChangeListener(LISTENER);
+				current = new SettingsSnapshot(sharedPreferences);
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * Replaces the current snapshot by a new one read from the given shared preferences,
+	 * if the current one was read from them.
+	 * @param sharedPreferences
+	 */
+	private static void refresh(final SharedPreferences sharedPreferences) {
+		synchronized(LOCK) {
+			if(current != null && current.sharedPreferences == sharedPreferences) {
+				// Log.d(Inetify.LOG_TAG, "Settings changed, replacing snapshot");
+				current = new SettingsSnapshot(sharedPreferences);
+			}
+		}
+	}
+
+	/**
+	 * Reads and parses the settings from the given shared preferences.
+	 * @param sharedPreferences
+	 */
+	public SettingsSnapshot(final SharedPreferences sharedPreferences) {
+		this.sharedPreferences = sharedPreferences;
+
+		this.internetCheck = sharedPreferences.getBoolean(Settings.INTERNET_CHECK, false);
+		this.onlyNotOK = sharedPreferences.getBoolean(Settings.INTERNET_ONLY_NOK, false);
+		this.probe = sharedPreferences.getString(Settings.INTERNET_PROBE, Settings.INTERNET_PROBE_TITLE);
+		this.server = sharedPreferences.getString(Settings.INTERNET_SERVER, null);
+		this.title = sharedPreferences.getString(Settings.INTERNET_TITLE, null);
+		// Not set by the default values of the settings after an upgrade
+		this.statusServer = sharedPreferences.getString(Settings.INTERNET_STATUS_SERVER, DEFAULT_STATUS_SERVER);
+		this.probeServers = Collections.unmodifiableList(ProbeRacer.parseServers(getProbeServer()));
+
+		// Caching is off if the setting is invalid
+		long cacheTTLMinutes = parseLong(sharedPreferences, Settings.INTERNET_CACHE_TTL, DEFAULT_CACHE_TTL, 0);
+		this.cacheTTL = Math.max(0, cacheTTLMinutes) * 60 * 1000;
+
+		this.connectTimeout = (int)parseMillis(sharedPreferences, Settings.INTERNET_CONNECT_TIMEOUT, ProbeBudget.DEFAULT_CONNECT_TIMEOUT);
+		this.readTimeout = (int)parseMillis(sharedPreferences, Settings.INTERNET_READ_TIMEOUT, ProbeBudget.DEFAULT_READ_TIMEOUT);
+		this.deadline = parseMillis(sharedPreferences, Settings.INTERNET_DEADLINE, ProbeBudget.DEFAULT_DEADLINE);
+		this.firstDelay = parseMillis(sharedPreferences, Settings.INTERNET_FIRST_DELAY, DEFAULT_FIRST_DELAY);
+		this.retryDelay = parseMillis(sharedPreferences, Settings.INTERNET_RETRY_DELAY, DEFAULT_RETRY_DELAY);
+		this.maxRetryDelay = Math.max(retryDelay, parseMillis(sharedPreferences, Settings.INTERNET_MAX_RETRY_DELAY, DEFAULT_MAX_RETRY_DELAY));
+		long retryJitterPercent = parseLong(sharedPreferences, Settings.INTERNET_RETRY_JITTER, DEFAULT_RETRY_JITTER);
+		this.retryJitter = Math.max(0, Math.min(100, retryJitterPercent)) / 100.0;
+		long maxTries = parseLong(sharedPreferences, Settings.INTERNET_MAX_TRIES, DEFAULT_MAX_TRIES);
+		this.maxTries = maxTries > 0 ? (int)maxTries : DEFAULT_MAX_TRIES;
+
+		this.locationCheck = sharedPreferences.getBoolean(Settings.LOCATION_CHECK, false);
+		this.autoWifi = sharedPreferences.getBoolean(Settings.LOCATION_AUTO_WIFI, false);
+		this.useGPS = sharedPreferences.getBoolean(Settings.LOCATION_USE_GPS, false);
+		this.maxDistance = (int)parseLong(sharedPreferences, Settings.LOCATION_MAX_DISTANCE, DEFAULT_MAX_DISTANCE);
+		this.checkInterval = (int)parseLong(sharedPreferences, Settings.LOCATION_CHECK_INTERVAL, DEFAULT_CHECK_INTERVAL);
+
+		this.tone = sharedPreferences.getString(Settings.TONE, "");
+		this.light = sharedPreferences.getBoolean(Settings.LIGHT, true);
+	}
+
+	/**
+	 * Returns true if the internet connectivity test is enabled.
+	 * @return boolean true if enabled
+	 */
+	public boolean isInternetCheck() {
+		return internetCheck;
+	}
+
+	/**
+	 * Returns true if only a failed test should be notified.
+	 * @return boolean true if only a failed test should be notified
+	 */
+	public boolean isOnlyNotOK() {
+		return onlyNotOK;
+	}
+
+	/**
+	 * Returns the test method, Settings.INTERNET_PROBE_TITLE or Settings.INTERNET_PROBE_STATUS.
+	 * @return String test method
+	 */
+	public String getProbe() {
+		return probe;
+	}
+
+	/**
+	 * Returns true if the HTTP status test is set.
+	 * @return boolean true if the HTTP status test should be used
+	 */
+	public boolean isStatusProbe() {
+		return Settings.INTERNET_PROBE_STATUS.equals(probe);
+	}
+
+	/**
+	 * Returns the server(s) of the title test.
+	 * @return String server setting
+	 */
+	public String getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns the expected title of the title test.
+	 * @return String title setting
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Returns the server(s) of the HTTP status test.
+	 * @return String status server setting
+	 */
+	public String getStatusServer() {
+		return statusServer;
+	}
+
+	/**
+	 * Returns the server setting of the test method set, which may be several
+	 * servers separated by whitespace or commas.
+	 * @return String server setting
+	 */
+	public String getProbeServer() {
+		return isStatusProbe() ? statusServer : server;
+	}
+
+	/**
+	 * Returns the servers of the test method set.
+	 * @return List<String> servers, unmodifiable
+	 */
+	public List<String> getProbeServers() {
+		return probeServers;
+	}
+
+	/**
+	 * Returns the expected title, or the summary of the expected response if the
+	 * HTTP status test is set.
+	 * @return String title
+	 */
+	public String getProbeTitle() {
+		return isStatusProbe() ? StatusVerifierImpl.SUMMARY_NO_CONTENT : title;
+	}
+
+	/**
+	 * Returns the cache TTL.
+	 * @return long TTL in milliseconds, 0 if caching is off
+	 */
+	public long getCacheTTL() {
+		return cacheTTL;
+	}
+
+	/**
+	 * Returns the connect timeout.
+	 * @return int timeout in milliseconds
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Returns the read timeout.
+	 * @return int timeout in milliseconds
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Returns the time from the start of a test until its deadline.
+	 * @return long time in milliseconds
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns the delay before the first try of a test.
+	 * @return long delay in milliseconds
+	 */
+	public long getFirstDelay() {
+		return firstDelay;
+	}
+
+	/**
+	 * Returns the delay before the first retry of a test, doubled for each further retry.
+	 * @return long delay in milliseconds
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	/**
+	 * Returns the maximum delay before a retry of a test, not less than the retry delay.
+	 * @return long delay in milliseconds
+	 */
+	public long getMaxRetryDelay() {
+		return maxRetryDelay;
+	}
+
+	/**
+	 * Returns the fraction of a retry delay that is randomly subtracted.
+	 * @return double fraction between 0 and 1
+	 */
+	public double getRetryJitter() {
+		return retryJitter;
+	}
+
+	/**
+	 * Returns the maximum number of tries of a test.
+	 * @return int number of tries
+	 */
+	public int getMaxTries() {
+		return maxTries;
+	}
+
+	/**
+	 * Returns true if the nearest Wifi location should be notified.
+	 * @return boolean true if enabled
+	 */
+	public boolean isLocationCheck() {
+		return locationCheck;
+	}
+
+	/**
+	 * Returns true if Wifi should be enabled near a Wifi location.
+	 * @return boolean true if enabled
+	 */
+	public boolean isAutoWifi() {
+		return autoWifi;
+	}
+
+	/**
+	 * Returns true if GPS should be used.
+	 * @return boolean true if enabled
+	 */
+	public boolean isUseGPS() {
+		return useGPS;
+	}
+
+	/**
+	 * Returns the max. distance to a Wifi location.
+	 * @return int distance in meters
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Returns the location check interval.
+	 * @return int interval in minutes
+	 */
+	public int getCheckInterval() {
+		return checkInterval;
+	}
+
+	/**
+	 * Returns the notification tone.
+	 * @return String tone, empty if none
+	 */
+	public String getTone() {
+		return tone;
+	}
+
+	/**
+	 * Returns true if the notification light should be used.
+	 * @return boolean true if enabled
+	 */
+	public boolean isLight() {
+		return light;
+	}
+
+	/**
+	 * Returns the number set as string in the settings with the given key,
+	 * or the given default if it is not set or invalid.
+	 * @param sharedPreferences
+	 * @param key
+	 * @param defaultValue
+	 * @return long number
+	 */
+	private static long parseLong(final SharedPreferences sharedPreferences, final String key, final long defaultValue) {
+		return parseLong(sharedPreferences, key, defaultValue, defaultValue);
+	}
+
+	/**
+	 * Returns the number set as string in the settings with the given key,
+	 * the given default if it is not set or the given invalid value if it is invalid.
+	 * @param sharedPreferences
+	 * @param key
+	 * @param defaultValue
+	 * @param invalidValue
+	 * @return long number
+	 */
+	private static long parseLong(final SharedPreferences sharedPreferences, final String key,
+			final long defaultValue, final long invalidValue) {
+		try {
+			return Long.parseLong(sharedPreferences.getString(key, String.valueOf(defaultValue)));
+		} catch(NumberFormatException e) {
+			return invalidValue;
+		}
+	}
+
+	/**
+	 * Returns the time in seconds set in the settings with the given key in milliseconds,
+	 * or the given default if it is not set, invalid or not positive.
+	 * @param sharedPreferences
+	 * @param key
+	 * @param defaultMillis default in milliseconds
+	 * @return long time in milliseconds
+	 */
+	private static long parseMillis(final SharedPreferences sharedPreferences, final String key, final long defaultMillis) {
+		long seconds = parseLong(sharedPreferences, key, defaultMillis / 1000);
+		return seconds > 0 ? seconds * 1000 : defaultMillis;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+/**
+ * TitleVerifier implementation that does not look at the page title at all, but requests
+ * a small page like http://clients3.google.com/generate_204 and decides from the HTTP status,
+ * the redirect target and the content length if the internet connectivity is OK. Redirects
+ * are not followed since a captive portal usually redirects to its login page.
+ * getPageTitle() returns a short summary of the response that is shown in place of the
+ * page title, and isExpectedTitle() ignores the expected title.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public final class StatusVerifierImpl implements TitleVerifier {
+
+	/** Summary of a "204 No Content" response */
+	public static final String SUMMARY_NO_CONTENT = "HTTP 204";
+
+	/** Summary of a "200 OK" response with an empty page */
+	public static final String SUMMARY_EMPTY = "HTTP 200, 0 bytes";
+
+	/** Transport used to request the page */
+	private final ProbeTransport transport;
+
+	/**
+	 * Creates an instance using the ProbeTransport instance.
+	 */
+	public StatusVerifierImpl() {
+		this(ProbeTransport.getInstance());
+	}
+
+	/**
+	 * Creates an instance using the given transport.
+	 * @param transport
+	 */
+	public StatusVerifierImpl(final ProbeTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Returns true if the given pageTitle is the summary of a "204 No Content"
+	 * response or of a "200 OK" response with an empty page. The given title is ignored.
+	 * @param title ignored
+	 * @param pageTitle summary of the response as returned by getPageTitle()
+	 * @return boolean true if internet connectivity is OK
+	 */
+	public boolean isExpectedTitle(final String title, final String pageTitle) {
+		return SUMMARY_NO_CONTENT.equals(pageTitle) || SUMMARY_EMPTY.equals(pageTitle);
+	}
+
+	/**
+	 * Requests the given page without following redirects and returns a short summary of
+	 * the response, like "HTTP 204", "HTTP 302, http://portal/login" or "HTTP 200, 4711 bytes".
+	 * Reads at most one byte of the page to find out if it is empty if the
+	 * content length is unknown.
+	 * @param server internet server with or without protocol
+	 * @return String summary of the response
+	 * @throws Exception if some error occurs
+	 */
+	public String getPageTitle(final String server) throws Exception {
+		String url = TitleVerifierImpl.addProtocol(server);
+
+		ProbeResponse response = transport.get(url, false);
+		try {
+			int status = response.getStatus();
+
+			if(status == 204) {
+				return SUMMARY_NO_CONTENT;
+			}
+			if(status >= 300 && status < 400) {
+				String location = response.getHeader("Location");
+				return location == null ? summary(status) : String.format("%s, %s", summary(status), location);
+			}
+
+			long length = response.getContentLength();
+			if(length == -1 && status == 200) {
+				length = response.getInputStream().read() == -1 ? 0 : -1;
+			}
+			return length == -1 ? summary(status) : String.format("%s, %s bytes", summary(status), length);
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Returns the summary of the given HTTP status.
+	 * @param status
+	 * @return String summary
+	 */
+	private static String summary(final int status) {
+		return String.format("HTTP %s", status);
+	}
+
+}
@@ -62,7 +62,9 @@ public class TestInfo implements Parcelable {
 		boolean[] val = new boolean[1];
 		source.readBooleanArray(val);
 		isExpectedTitle = val[0];
-		exception = source.readString();		
+		exception = source.readString();
+		latency = source.readLong();
+		source.readLongArray(phaseTimes);
 	}
 	
 	/** Timestamp when the test was done */
@@ -95,6 +97,12 @@ public class TestInfo implements Parcelable {
 	/** If an exception occurred, null otherwise */
 	private String exception;
 	
+	/** Time the last probe took in milliseconds, -1 if there was no probe */
+	private long latency = -1;
+	
+	/** Time the last probe spent in each phase in milliseconds, indexed by the ProbeTimings.PHASE_ constants */
+	private final long[] phaseTimes = new ProbeTimings().toArray();
+	
 	public long getTimestamp() {
 		return timestamp;
 	}
@@ -155,6 +163,39 @@ public class TestInfo implements Parcelable {
 	public void setException(final String exception) {
 		this.exception = exception;
 	}
+	public long getLatency() {
+		return latency;
+	}
+	public void setLatency(final long latency) {
+		this.latency = latency;
+	}
+	public long getPhaseTime(final int phase) {
+		return phaseTimes[phase];
+	}
+	public void setPhaseTime(final int phase, final long time) {
+		this.phaseTimes[phase] = time;
+	}
+	public long[] getPhaseTimes() {
+		long[] copy = new long[phaseTimes.length];
+		System.arraycopy(phaseTimes, 0, copy, 0, phaseTimes.length);
+		return copy;
+	}
+	public void setPhaseTimes(final long[] phaseTimes) {
+		System.arraycopy(phaseTimes, 0, this.phaseTimes, 0, this.phaseTimes.length);
+	}
+	
+	/**
+	 * Returns true if the time of at least one phase of the last probe is known.
+	 * @return boolean true if there are phase times
+	 */
+	public boolean hasPhaseTimes() {
+		for(long time : phaseTimes) {
+			if(time >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
 	
 	/**
 	 * Returns a "nice" type name: "Wifi" instead of "WIFI",
@@ -186,6 +227,10 @@ public class TestInfo implements Parcelable {
 		buffer.append(", pageTitle = ").append(pageTitle);
 		buffer.append(", exception = ").append(exception);
 		buffer.append(", expectedTitle = ").append(isExpectedTitle);
+		buffer.append(", latency = ").append(latency);
+		buffer.append(", connect = ").append(phaseTimes[ProbeTimings.PHASE_CONNECT]);
+		buffer.append(", firstByte = ").append(phaseTimes[ProbeTimings.PHASE_FIRST_BYTE]);
+		buffer.append(", parse = ").append(phaseTimes[ProbeTimings.PHASE_PARSE]);
 		buffer.append(" ]");
 		return buffer.toString();
 	}
@@ -205,6 +250,8 @@ public class TestInfo implements Parcelable {
 		dest.writeString(pageTitle);
 		dest.writeBooleanArray(new boolean[] {isExpectedTitle});
 		dest.writeString(exception);
+		dest.writeLong(latency);
+		dest.writeLongArray(phaseTimes);
 	}
 	
 	private static class TestInfoCreator implements Parcelable.Creator<TestInfo> {
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of successful internet connectivity test results, keyed by the BSSID of the Wifi
+ * network and the test settings, so reconnecting to a flapping access point does not run
+ * the whole test again. Entries are kept in memory for the whole process and mirrored
+ * in the database, so they survive the process being killed. The database is written
+ * by the writer thread of the database adapter, without waiting for it.
+ * Only OK results are cached, so a failed test is always repeated.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class TestResultCache {
+
+	/** Maximum number of entries kept in memory */
+	private static final int MAX_ENTRIES = 16;
+
+	/** Entries in memory, shared by all instances */
+	private static final Map<String, TestInfo> entries = new LinkedHashMap<String, TestInfo>(MAX_ENTRIES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, TestInfo> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/** Number of lookups that returned a cached result */
+	private static final AtomicInteger hits = new AtomicInteger(0);
+
+	/** Number of lookups that did not return a cached result */
+	private static final AtomicInteger misses = new AtomicInteger(0);
+
+	/** Database adapter the entries are mirrored in */
+	private final DatabaseAdapter databaseAdapter;
+
+	/**
+	 * Creates an instance mirroring the entries in the given database adapter.
+	 * @param databaseAdapter
+	 */
+	public TestResultCache(final DatabaseAdapter databaseAdapter) {
+		this.databaseAdapter = databaseAdapter;
+	}
+
+	/**
+	 * Returns the key for the Wifi network with the given BSSID tested with the given
+	 * test method, server and title, or null if bssid is null.
+	 * @param bssid
+	 * @param probe test method
+	 * @param server
+	 * @param title
+	 * @return String key or null
+	 */
+	public static String getKey(final String bssid, final String probe, final String server, final String title) {
+		if(bssid == null) {
+			return null;
+		}
+		return String.format("%s\n%s\n%s\n%s", bssid, probe, server, title);
+	}
+
+	/**
+	 * Returns a copy of the result cached with the given key if it is not older than ttl
+	 * milliseconds at the given time, null otherwise. Looks in the database if there is no
+	 * entry in memory. The copy has the given time as timestamp and no latency and phase
+	 * times, since no server was probed for it.
+	 * @param key
+	 * @param ttl time to live in milliseconds
+	 * @param now current time in milliseconds
+	 * @return TestInfo cached result or null
+	 */
+	public TestInfo get(final String key, final long ttl, final long now) {
+		if(key == null || ttl <= 0) {
+			return null;
+		}
+
+		TestInfo info;
+		synchronized(entries) {
+			info = entries.get(key);
+		}
+		if(info == null) {
+			info = databaseAdapter.fetchCachedTestResult(key);
+			if(info != null) {
+				synchronized(entries) {
+					entries.put(key, info);
+				}
+			}
+		}
+
+		// Also treat results from the future as expired, the clock may have been changed
+		long age = info == null ? -1 : now - info.getTimestamp();
+		if(age < 0 || age > ttl || ! info.getIsExpectedTitle()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+
+		TestInfo hit = copy(info);
+		hit.setTimestamp(now);
+		hit.setLatency(-1);
+		hit.setPhaseTimes(new ProbeTimings().toArray());
+		
+		return hit;
+	}
+
+	/**
+	 * Caches the given result with the given key if it is OK, and removes
+	 * the entry with the given key otherwise.
+	 * @param key
+	 * @param info
+	 */
+	public void put(final String key, final TestInfo info) {
+		if(key == null || info == null) {
+			return;
+		}
+
+		if(info.getIsExpectedTitle()) {
+			synchronized(entries) {
+				entries.put(key, copy(info));
+			}
+			final TestInfo copy = copy(info);
+			databaseAdapter.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return databaseAdapter.updateCachedTestResult(key, copy);
+				}
+			}, null);
+		} else {
+			remove(key);
+		}
+	}
+
+	/**
+	 * Removes the entry with the given key.
+	 * @param key
+	 */
+	public void remove(final String key) {
+		if(key == null) {
+			return;
+		}
+
+		synchronized(entries) {
+			entries.remove(key);
+		}
+		databaseAdapter.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return databaseAdapter.deleteCachedTestResult(key);
+			}
+		}, null);
+	}
+
+	/**
+	 * Returns the number of lookups that returned a cached result.
+	 * @return int hits
+	 */
+	public static int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that did not return a cached result.
+	 * @return int misses
+	 */
+	public static int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Removes all entries from memory and resets the counters, without
+	 * touching the database.
+	 */
+	public static void clear() {
+		synchronized(entries) {
+			entries.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Returns a copy of the given TestInfo, so the cached instance can't be modified.
+	 * @param info
+	 * @return TestInfo copy
+	 */
+	private static TestInfo copy(final TestInfo info) {
+		TestInfo copy = new TestInfo();
+		copy.setTimestamp(info.getTimestamp());
+		copy.setType(info.getType());
+		copy.setTypeName(info.getTypeName());
+		copy.setExtra(info.getExtra());
+		copy.setExtra2(info.getExtra2());
+		copy.setSite(info.getSite());
+		copy.setTitle(info.getTitle());
+		copy.setPageTitle(info.getPageTitle());
+		copy.setIsExpectedTitle(info.getIsExpectedTitle());
+		copy.setException(info.getException());
+		copy.setLatency(info.getLatency());
+		copy.setPhaseTimes(info.getPhaseTimes());
+		return copy;
+	}
+
+}
@@ -44,9 +44,25 @@ public interface Tester {
 	TestInfo testWifi(final int retries, final int delay);
 	
 	/**
-	 * Cancels an ongoing test.
+	 * Gets network and Wifi info and tests if the internet site in the settings has
+	 * the expected title and returns and instance of TestInfo, waiting before each attempt
+	 * and giving up as the given retry policy says. Aborts testing and returns null if
+	 * Wifi disconnects during testing.
+	 * @param retryPolicy policy giving the delay before each attempt
+	 * @return instance of TestInfo containing the test results
+	 */
+	TestInfo testWifi(final RetryPolicy retryPolicy);
+	
+	/**
+	 * Cancels an ongoing test, and tests started later until reset.
 	 */
 	void cancel();
+	
+	/**
+	 * Resets this tester after it was cancelled, so it can test again.
+	 * Should be called right before each test.
+	 */
+	void reset();
 
 	/**
 	 * Returns true if there currently is a Wifi connection/connecting, false otherwise.
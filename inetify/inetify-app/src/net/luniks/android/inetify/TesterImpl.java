@@ -15,6 +15,7 @@
  */
 package net.luniks.android.inetify;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -26,6 +27,7 @@ import net.luniks.android.interfaces.IWifiManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 
 /**
@@ -47,9 +49,18 @@ public class TesterImpl implements Tester {
 	/** Title verifier */
 	private final TitleVerifier titleVerifier;
 	
+	/** Verifier used if the HTTP status test is set in the settings */
+	private final TitleVerifier statusVerifier;
+	
+	/** Races the servers in the settings */
+	private final ProbeRacer racer = new ProbeRacer();
+	
 	/** Flag to cancel the test */
 	private final AtomicBoolean cancelled = new AtomicBoolean(false);
 	
+	/** Budget of the ongoing test, cancelled to abort its probes */
+	private volatile ProbeBudget budget;
+	
 	/** Thread that runs the test */
 	private CountDownLatch countDownLatch;
 	
@@ -64,10 +75,27 @@ public class TesterImpl implements Tester {
 			final IConnectivityManager connectivityManager, final IWifiManager wifiManager,
 			final TitleVerifier titleVerifier) {
 		
+		this(context, connectivityManager, wifiManager, titleVerifier, new StatusVerifierImpl());
+	}
+	
+	/**
+	 * Constructs a tester instance using the given Context, IConnectivityManager, IWifiManager,
+	 * TitleVerifier and the TitleVerifier to use if the HTTP status test is set in the settings.
+	 * @param context
+	 * @param connectivityManager
+	 * @param wifiManager
+	 * @param titleVerifier
+	 * @param statusVerifier
+	 */
+	public TesterImpl(final Context context,
+			final IConnectivityManager connectivityManager, final IWifiManager wifiManager,
+			final TitleVerifier titleVerifier, final TitleVerifier statusVerifier) {
+		
 		this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 		this.connectivityManager = connectivityManager;
 		this.wifiManager = wifiManager;
 		this.titleVerifier = titleVerifier;
+		this.statusVerifier = statusVerifier;
 	}
 
 	/**
@@ -77,25 +105,36 @@ public class TesterImpl implements Tester {
 	 */
 	public TestInfo testSimple() {
 		
-		String server = getSettingsServer();
-		String title = getSettingsTitle();
+		final SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+		final TitleVerifier verifier = getVerifier(settings);
+		final List<String> servers = settings.getProbeServers();
+		final String title = settings.getProbeTitle();
 		
+		String server = settings.getProbeServer();
 		String pageTitle = "";
 		boolean isExpectedTitle = false;
 		String exception = null;
+		ProbeTimings timings = new ProbeTimings();
 				
+		long start = SystemClock.elapsedRealtime();
 		try {
 			// Log.d(Inetify.LOG_TAG, String.format("Manual internet connectivity test"));
-			pageTitle = titleVerifier.getPageTitle(server);
-			isExpectedTitle = titleVerifier.isExpectedTitle(title, pageTitle);
+			ProbeBudget budget = getBudget(settings);
+			this.budget = budget;
+			ProbeResult result = racer.race(verifier, servers, title, budget);
+			server = result.getServer();
+			pageTitle = result.getPageTitle();
+			isExpectedTitle = result.isExpectedTitle();
+			timings = result.getTimings();
 			
 			// Log.d(Inetify.LOG_TAG, String.format("Internet connectivity is OK: %s", isExpectedTitle));				
 		} catch(Exception e) {
 			// Log.d(Inetify.LOG_TAG, String.format("Internet connectivity test failed with: %s", e.getMessage()));
 			exception = e.getLocalizedMessage();
 		}
+		long latency = SystemClock.elapsedRealtime() - start;
 		
-		return buildTestInfo(pageTitle, isExpectedTitle, exception);
+		return buildTestInfo(server, title, pageTitle, isExpectedTitle, exception, latency, timings);
 	}
 	
 	/**
@@ -107,25 +146,58 @@ public class TesterImpl implements Tester {
 	 * @return instance of TestInfo containing the test results
 	 */
 	public TestInfo testWifi(final int retries, final int delay) {
-				
-		cancelled.set(false);
+		return testWifi(new FixedRetryPolicy(retries, delay));
+	}
+	
+	/**
+	 * Gets network and Wifi info and tests if the internet site in the settings has
+	 * the expected title and returns and instance of TestInfo, waiting before each attempt
+	 * and giving up as the given retry policy says. Aborts testing and returns null if
+	 * Wifi disconnects during testing.
+	 * @param retryPolicy policy giving the delay before each attempt
+	 * @return instance of TestInfo containing the test results
+	 */
+	public TestInfo testWifi(final RetryPolicy retryPolicy) {
 		
-		final String server = getSettingsServer();
-		final String title = getSettingsTitle();
+		final SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+		final TitleVerifier verifier = getVerifier(settings);
+		final List<String> servers = settings.getProbeServers();
+		final String title = settings.getProbeTitle();
 		
+		String server = settings.getProbeServer();
 		String pageTitle = "";
 		boolean isExpectedTitle = false;
 		String exception = null;
+		long latency = -1;
+		ProbeTimings timings = new ProbeTimings();
+		
+		retryPolicy.start();
+		
+		// Shared by all attempts, so there is an upper bound for the whole test
+		ProbeBudget budget = getBudget(settings);
+		this.budget = budget;
 		
 		// I know there are more advanced ways than a for loop but they don't really make it simpler
-		for(int i = 0; i < retries && ! isExpectedTitle; i++) {
+		long delay;
+		for(int i = 0; ! isExpectedTitle && (delay = retryPolicy.nextDelay(i)) != -1; i++) {
+			
+			// No point in waiting for an attempt that would start at or after the deadline
+			if(delay >= budget.getRemaining()) {
+				// Log.d(Inetify.LOG_TAG, "Deadline reached, not retrying");
+				if(i == 0) {
+					exception = new ProbeBudget.DeadlineExceededException().getLocalizedMessage();
+				}
+				break;
+			}
+			
+			long start = -1;
 			try {
 				
 				// Give the wifi connection time to settle
-				// Log.d(Inetify.LOG_TAG, String.format("Sleeping %s s before testing internet connectivity", delay));
+				// Log.d(Inetify.LOG_TAG, String.format("Sleeping %s ms before testing internet connectivity", delay));
 				try {
 					countDownLatch = new CountDownLatch(1);
-					countDownLatch.await(delay, TimeUnit.SECONDS);
+					countDownLatch.await(delay, TimeUnit.MILLISECONDS);
 				} catch (InterruptedException e) {
 					// Log.d(Inetify.LOG_TAG, String.format("Cancelled during sleep(), aborting"));
 					return null;
@@ -138,9 +210,13 @@ public class TesterImpl implements Tester {
 				}
 				
 				// Test internet connectivity
-				// Log.d(Inetify.LOG_TAG, String.format("Testing internet connectivity, try %s of %s", i + 1, retries));
-				pageTitle = titleVerifier.getPageTitle(server);
-				isExpectedTitle = titleVerifier.isExpectedTitle(title, pageTitle);
+				// Log.d(Inetify.LOG_TAG, String.format("Testing internet connectivity, try %s", i + 1));
+				start = SystemClock.elapsedRealtime();
+				ProbeResult result = racer.race(verifier, servers, title, budget);
+				server = result.getServer();
+				pageTitle = result.getPageTitle();
+				isExpectedTitle = result.isExpectedTitle();
+				timings = result.getTimings();
 				
 				// Log.d(Inetify.LOG_TAG, String.format("Internet connectivity is OK: %s", isExpectedTitle));
 				exception = null;
@@ -148,39 +224,54 @@ public class TesterImpl implements Tester {
 			} catch(Exception e) {
 				// Log.d(Inetify.LOG_TAG, String.format("Internet connectivity test failed with: %s", e.getMessage()));
 				exception = e.getLocalizedMessage();
+				timings = new ProbeTimings();
+			}
+			if(start != -1) {
+				latency = SystemClock.elapsedRealtime() - start;
+			}
+			
+			if(cancelled.get()) {
+				// Log.d(Inetify.LOG_TAG, "Cancelled while testing, aborting");
+				return null;
 			}
 		}
 		
-		return buildTestInfo(pageTitle, isExpectedTitle, exception);	
+		return buildTestInfo(server, title, pageTitle, isExpectedTitle, exception, latency, timings);	
 	}
 	
 	/**
-	 * Returns the server set in the settings.
-	 * @return String server setting
+	 * Returns a budget with the connect and read timeouts and the test deadline
+	 * of the given settings, starting now.
+	 * @param settings
+	 * @return ProbeBudget budget of a test
 	 */
-	private String getSettingsServer() {
-		return sharedPreferences.getString(Settings.INTERNET_SERVER, null);
+	private static ProbeBudget getBudget(final SettingsSnapshot settings) {
+		return new ProbeBudget(new ClockImpl(), settings.getConnectTimeout(), settings.getReadTimeout(), settings.getDeadline());
 	}
 	
 	/**
-	 * Returns the title set in the settings.
-	 * @return String title setting
+	 * Returns the verifier for the test method of the given settings.
+	 * @param settings
+	 * @return TitleVerifier to use
 	 */
-	private String getSettingsTitle() {
-		return sharedPreferences.getString(Settings.INTERNET_TITLE, null);
+	private TitleVerifier getVerifier(final SettingsSnapshot settings) {
+		return settings.isStatusProbe() ? statusVerifier : titleVerifier;
 	}
 	
 	/**
 	 * Builds a TestInfo instance from NetworkInfo and WifiInfo, and the given test results. 
+	 * @param server internet site tested
+	 * @param title expected title
 	 * @param pageTitle page title found
 	 * @param isExpectedTitle if pageTitle was the expected title
 	 * @param exception exception message or null if there was no exception 
+	 * @param latency time the last probe took in milliseconds, -1 if there was no probe
+	 * @param timings time spent in each phase of the last probe
 	 * @return TestInfo instance
 	 */
-	private TestInfo buildTestInfo(final String pageTitle, final boolean isExpectedTitle, final String exception) {
-		
-		String server = getSettingsServer();
-		String title = getSettingsTitle();
+	private TestInfo buildTestInfo(final String server, final String title,
+			final String pageTitle, final boolean isExpectedTitle, final String exception, final long latency,
+			final ProbeTimings timings) {
 		
 		INetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
 		IWifiInfo wifiInfo = wifiManager.getConnectionInfo();
@@ -212,6 +303,8 @@ public class TesterImpl implements Tester {
 		info.setPageTitle(pageTitle);
 		info.setIsExpectedTitle(isExpectedTitle);
 		info.setException(exception);
+		info.setLatency(latency);
+		info.setPhaseTimes(timings.toArray());
 		
 		return info;
 	}
@@ -236,15 +329,29 @@ public class TesterImpl implements Tester {
 	}
 	
 	/**
-	 * Cancels an ongoing test.
+	 * Cancels an ongoing test, closing the connections of its probes so it
+	 * does not wait for any server.
 	 */
 	public void cancel() {
 		this.cancelled.set(true);
+		ProbeBudget budget = this.budget;
+		if(budget != null) {
+			budget.cancel();
+		}
+		racer.cancel();
 		if(countDownLatch != null) {
 			countDownLatch.countDown();
 		}
 	}
 	
+	/**
+	 * Resets this tester after it was cancelled, so it can test again.
+	 */
+	public void reset() {
+		this.cancelled.set(false);
+		racer.reset();
+	}
+	
 	/**
 	 * Returns true if there currently is a Wifi connected or connecting, false otherwise.
 	 * TODO Duplication, same method in LocationIntentService
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Scans an HTML stream for the text of the first title element. The stream is read
+ * in small buffers and scanning stops as soon as the end tag was found or a maximum
+ * number of bytes was read, so the rest of the page does not need to be downloaded.
+ * The start and end tags are found even if they span buffer boundaries, and the
+ * bytes read are kept, so the page does not need to be loaded again if it has to
+ * be parsed after all.
+ * An instance is meant to be used for a single scan by a single thread.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class TitleScanner {
+
+	/** Default size of the read buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 512;
+
+	/** Default maximum number of bytes to read before giving up */
+	public static final int DEFAULT_MAX_BYTES = 32 * 1024;
+
+	/** Charset used if none is given */
+	public static final String DEFAULT_CHARSET = "UTF-8";
+
+	/** Start tag without the closing bracket, lower case */
+	private static final byte[] START_TAG = {'<', 't', 'i', 't', 'l', 'e'};
+
+	/** End tag without the closing bracket, lower case */
+	private static final byte[] END_TAG = {'<', '/', 't', 'i', 't', 'l', 'e'};
+
+	/** Looking for the start tag */
+	private static final int STATE_START_TAG = 0;
+
+	/** Start tag name found, expecting '>', whitespace or attributes */
+	private static final int STATE_START_TAG_NAME = 1;
+
+	/** Skipping attributes of the start tag until '>' */
+	private static final int STATE_ATTRIBUTES = 2;
+
+	/** Collecting the title until the end tag */
+	private static final int STATE_TITLE = 3;
+
+	/** Size of the read buffer */
+	private final int bufferSize;
+
+	/** Maximum number of bytes to read */
+	private final int maxBytes;
+
+	/** Number of bytes read by the last scan */
+	private int bytesRead = 0;
+
+	/** Bytes read by the last scan */
+	private ByteArrayOutputStream page = new ByteArrayOutputStream(0);
+
+	/**
+	 * Creates an instance using the default buffer size and maximum number of bytes.
+	 */
+	public TitleScanner() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates an instance using the given buffer size and maximum number of bytes.
+	 * @param bufferSize size of the read buffer
+	 * @param maxBytes maximum number of bytes to read
+	 */
+	public TitleScanner(final int bufferSize, final int maxBytes) {
+		this.bufferSize = bufferSize;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the number of bytes read by the last scan.
+	 * @return int number of bytes read
+	 */
+	public int getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the bytes read by the last scan.
+	 * @return byte[] bytes read
+	 */
+	public byte[] getBytes() {
+		return page.toByteArray();
+	}
+
+	/**
+	 * Reads from the given stream until the end of the first title element, decodes
+	 * the title using the given charset and returns it with entities unescaped and
+	 * whitespace normalized. Returns null if no complete title element was found
+	 * before the end of the stream or before the maximum number of bytes was read.
+	 * Does not close the stream.
+	 * @param in stream to read from
+	 * @param charset charset of the stream, or null to use the default charset
+	 * @return String page title or null
+	 * @throws IOException if reading from the stream fails
+	 */
+	public String scan(final InputStream in, final String charset) throws IOException {
+
+		bytesRead = 0;
+		page = new ByteArrayOutputStream(bufferSize);
+
+		ByteArrayOutputStream title = new ByteArrayOutputStream(128);
+		byte[] buffer = new byte[bufferSize];
+		int state = STATE_START_TAG;
+		int matched = 0;
+
+		while(bytesRead < maxBytes) {
+			int count = in.read(buffer, 0, Math.min(buffer.length, maxBytes - bytesRead));
+			if(count == -1) {
+				return null;
+			}
+			bytesRead += count;
+			page.write(buffer, 0, count);
+
+			for(int i = 0; i < count; i++) {
+				byte b = buffer[i];
+
+				switch(state) {
+					case STATE_START_TAG:
+						matched = match(START_TAG, matched, b);
+						if(matched == START_TAG.length) {
+							state = STATE_START_TAG_NAME;
+						}
+						break;
+					case STATE_START_TAG_NAME:
+						if(b == '>') {
+							state = STATE_TITLE;
+							matched = 0;
+						} else if(b == '/' || isWhitespace(b)) {
+							state = STATE_ATTRIBUTES;
+						} else {
+							// Something like <titlebar>
+							state = STATE_START_TAG;
+							matched = match(START_TAG, 0, b);
+						}
+						break;
+					case STATE_ATTRIBUTES:
+						if(b == '>') {
+							state = STATE_TITLE;
+							matched = 0;
+						}
+						break;
+					case STATE_TITLE:
+						title.write(b);
+						matched = match(END_TAG, matched, b);
+						if(matched == END_TAG.length) {
+							byte[] bytes = title.toByteArray();
+							return normalize(decode(bytes, bytes.length - END_TAG.length, charset));
+						}
+						break;
+					default:
+						break;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the number of bytes of the given tag matched after the given byte, given
+	 * that the given number of bytes was matched before, ignoring the case.
+	 * Since the tags contain '<' only as first character, a mismatch can only be the
+	 * beginning of a new match if the byte is '<'.
+	 * @param tag tag to match
+	 * @param matched number of bytes matched so far
+	 * @param b next byte
+	 * @return int number of bytes matched
+	 */
+	private static int match(final byte[] tag, final int matched, final byte b) {
+		byte lower = b >= 'A' && b <= 'Z' ? (byte)(b + ('a' - 'A')) : b;
+		if(lower == tag[matched]) {
+			return matched + 1;
+		}
+		return lower == tag[0] ? 1 : 0;
+	}
+
+	/**
+	 * Returns true if the given byte is ASCII whitespace.
+	 * @param b
+	 * @return boolean true if whitespace
+	 */
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	/**
+	 * Decodes the given number of bytes using the given charset, falling back
+	 * to the default charset if the given one is null or not supported.
+	 * @param bytes
+	 * @param length
+	 * @param charset
+	 * @return String decoded bytes
+	 * @throws UnsupportedEncodingException if even the default charset is not supported
+	 */
+	static String decode(final byte[] bytes, final int length, final String charset) throws UnsupportedEncodingException {
+		if(charset != null) {
+			try {
+				return new String(bytes, 0, length, charset);
+			} catch(UnsupportedEncodingException e) {
+				// Use the default charset
+			}
+		}
+		return new String(bytes, 0, length, DEFAULT_CHARSET);
+	}
+
+	/**
+	 * Unescapes the most common entities in the given text, collapses any whitespace
+	 * to single spaces and trims it, similar to what jsoup does with the title.
+	 * @param text
+	 * @return String normalized text
+	 */
+	static String normalize(final String text) {
+		StringBuilder builder = new StringBuilder(text.length());
+		boolean space = false;
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if(c == '&') {
+				int end = text.indexOf(';', i);
+				if(end > i + 1 && end - i <= 10) {
+					int unescaped = unescape(text.substring(i + 1, end));
+					if(unescaped != -1) {
+						c = (char)unescaped;
+						i = end;
+					}
+				}
+			}
+			if(Character.isWhitespace(c) || c == '\u00A0') {
+				space = builder.length() > 0;
+			} else {
+				if(space) {
+					builder.append(' ');
+					space = false;
+				}
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the character the given entity name or numeric reference stands for,
+	 * or -1 if it is not known.
+	 * @param entity without '&' and ';'
+	 * @return int character or -1
+	 */
+	private static int unescape(final String entity) {
+		if(entity.charAt(0) == '#') {
+			try {
+				int c;
+				if(entity.length() > 1 && (entity.charAt(1) == 'x' || entity.charAt(1) == 'X')) {
+					c = Integer.parseInt(entity.substring(2), 16);
+				} else {
+					c = Integer.parseInt(entity.substring(1));
+				}
+				return c >= 0 && c <= Character.MAX_VALUE ? c : -1;
+			} catch(NumberFormatException e) {
+				return -1;
+			}
+		}
+		if(entity.equals("amp")) return '&';
+		if(entity.equals("lt")) return '<';
+		if(entity.equals("gt")) return '>';
+		if(entity.equals("quot")) return '"';
+		if(entity.equals("apos")) return '\'';
+		if(entity.equals("nbsp")) return '\u00A0';
+		return -1;
+	}
+
+}
@@ -15,6 +15,9 @@
  */
 package net.luniks.android.inetify;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Locale;
 
 import org.jsoup.Connection;
@@ -22,21 +25,58 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 /**
- * TitleVerifier implementation.
+ * TitleVerifier implementation. By default, the page title is read with a TitleScanner
+ * that stops downloading the page as soon as the title was read, using a connection of
+ * the ProbeTransport, and jsoup is used as fallback to parse the page if no title could
+ * be found that way.
  * 
  * @author torsten.roemer@luniks.net
  */
 public final class TitleVerifierImpl implements TitleVerifier {
 	
-	/** Connect timeout */
-	private static final int TIMEOUT = 3000;
-	
 	/** Protocol */
 	private static final String PROTOCOL = "://";
 	
 	/** Protocol HTTP */
 	private static final String PROTOCOL_HTTP = "http://";
 	
+	/** Charset parameter of the content type */
+	private static final String CHARSET = "charset=";
+	
+	/** Transport used to read the page title */
+	private final ProbeTransport transport;
+	
+	/** If true, always use jsoup to get the page title */
+	private final boolean jsoupOnly;
+	
+	/**
+	 * Creates an instance that reads the page title with a TitleScanner
+	 * and uses jsoup as fallback to parse the page.
+	 */
+	public TitleVerifierImpl() {
+		this(false);
+	}
+	
+	/**
+	 * Creates an instance that always uses jsoup to get the page title
+	 * if jsoupOnly is true, and reads the page title with a TitleScanner
+	 * using jsoup as fallback otherwise.
+	 * @param jsoupOnly
+	 */
+	public TitleVerifierImpl(final boolean jsoupOnly) {
+		this(ProbeTransport.getInstance(), jsoupOnly);
+	}
+	
+	/**
+	 * Creates an instance like TitleVerifierImpl(boolean), using the given transport.
+	 * @param transport
+	 * @param jsoupOnly
+	 */
+	public TitleVerifierImpl(final ProbeTransport transport, final boolean jsoupOnly) {
+		this.transport = transport;
+		this.jsoupOnly = jsoupOnly;
+	}
+	
 	/**
 	 * Returns true if the given pageTitle contains the given title, case insensitive.
 	 * @param title (part of) the expected title
@@ -58,14 +98,89 @@ public final class TitleVerifierImpl implements TitleVerifier {
 	 */
 	public String getPageTitle(final String server) throws Exception {
 		String url = addProtocol(server);
-		// Sometimes, this fails with "Connection reset by peer". Maybe this helps?
-		System.setProperty("http.keepAlive", "false");
+		if(! jsoupOnly) {
+			return scanPageTitle(url);
+		}
+		// jsoup can't be aborted or cancelled, but its timeouts don't go beyond the deadline
+		ProbeBudget budget = ProbeBudget.current();
+		budget.check();
 		Connection connection = Jsoup.connect(url);
-		connection.timeout(TIMEOUT);
+		connection.timeout(budget.getReadTimeout());
 		Document document = connection.get();
 		return document.title();
 	}
 	
+	/**
+	 * Reads the page at the given url only up to the end of its title element and
+	 * returns the title. Redirects are followed, also from http to https and back.
+	 * If the page has no title within the first TitleScanner.DEFAULT_MAX_BYTES bytes,
+	 * up to another TitleScanner.DEFAULT_MAX_BYTES bytes of the page are read and jsoup
+	 * parses them together with the bytes already read, instead of loading the page again.
+	 * The connection is reused if the rest of the page is small, and closed otherwise.
+	 * @param url url with protocol
+	 * @return String page title, empty if the page has none
+	 * @throws IOException if some error occurs
+	 */
+	private String scanPageTitle(final String url) throws IOException {
+		ProbeResponse response = transport.get(url, true);
+		try {
+			int status = response.getStatus();
+			if(status != 200) {
+				throw new IOException(String.format("%s error loading URL %s", status, url));
+			}
+			
+			InputStream in = response.getInputStream();
+			String charset = getCharset(response.getContentType());
+			
+			long start = System.nanoTime();
+			TitleScanner scanner = new TitleScanner();
+			String pageTitle = scanner.scan(in, charset);
+			if(pageTitle == null) {
+				ByteArrayOutputStream page = new ByteArrayOutputStream();
+				page.write(scanner.getBytes());
+				byte[] buffer = new byte[TitleScanner.DEFAULT_BUFFER_SIZE];
+				int left = TitleScanner.DEFAULT_MAX_BYTES;
+				int count;
+				while(left > 0 && (count = in.read(buffer, 0, Math.min(buffer.length, left))) != -1) {
+					page.write(buffer, 0, count);
+					left -= count;
+				}
+				byte[] bytes = page.toByteArray();
+				pageTitle = Jsoup.parse(TitleScanner.decode(bytes, bytes.length, charset)).title();
+			}
+			ProbeTimings.record(ProbeTimings.PHASE_PARSE, ProbeTimings.since(start));
+			
+			return pageTitle;
+		} finally {
+			response.close();
+		}
+	}
+	
+	/**
+	 * Returns the charset parameter of the given content type, or null
+	 * if there is none.
+	 * @param contentType
+	 * @return String charset or null
+	 */
+	static String getCharset(final String contentType) {
+		if(contentType == null) {
+			return null;
+		}
+		int index = contentType.toLowerCase(Locale.US).indexOf(CHARSET);
+		if(index == -1) {
+			return null;
+		}
+		String charset = contentType.substring(index + CHARSET.length()).trim();
+		int end = charset.indexOf(';');
+		if(end != -1) {
+			charset = charset.substring(0, end).trim();
+		}
+		if(charset.startsWith("\"") && charset.endsWith("\"") && charset.length() > 1) {
+			charset = charset.substring(1, charset.length() - 1);
+		}
+		return charset.length() == 0 ? null : charset;
+	}
+	
 	/**
 	 * Adds protocol "http://" to the given url if it doesn't appear to have
 	 * a protocol, and returns it
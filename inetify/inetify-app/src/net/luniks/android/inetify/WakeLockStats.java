@@ -0,0 +1,333 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Accounts for the time the wake locks of the services are held, counting the
+ * number of holds and their total and max. time per cause of the acquisition.
+ * Each cause has a budget for how long a single hold should take at most, and
+ * holds longer than that are counted as over budget. The budget of a hold for a
+ * test follows the deadline of the test in the settings when it was acquired.
+ * The numbers are kept in their own shared preferences so they survive restarts,
+ * a hold is only counted when the wake lock is released.
+ *
+ * @author torsten.roemer@luniks.net
+ */
+public class WakeLockStats {
+
+	/** Cause of a wake lock acquired because Wifi connected */
+	public static final String CAUSE_WIFI_CONNECTED = "wifi_connected";
+
+	/** Cause of a wake lock acquired because Wifi disconnected */
+	public static final String CAUSE_WIFI_DISCONNECTED = "wifi_disconnected";
+
+	/** Cause of a wake lock acquired by the service itself, i.e. on intent redelivery */
+	public static final String CAUSE_REDELIVERY = "redelivery";
+
+	/** Cause of a wake lock acquired because of the location alarm */
+	public static final String CAUSE_LOCATION_ALARM = "location_alarm";
+
+	/** All causes */
+	public static final String[] CAUSES = {
+		CAUSE_WIFI_CONNECTED, CAUSE_WIFI_DISCONNECTED, CAUSE_REDELIVERY, CAUSE_LOCATION_ALARM
+	};
+
+	/** Time a hold of a wake lock acquired because Wifi connected or on redelivery may take
+	 * in addition to the wait for connectivity events to calm down and the deadline of the test,
+	 * i.e. for closing the last probe and recording and notifying the result */
+	public static final long BUDGET_TEST_MARGIN = 7 * 1000;
+
+	/** Budget of a hold of a wake lock acquired because Wifi disconnected, only cancelling the notification */
+	public static final long BUDGET_WIFI_DISCONNECTED = 5 * 1000;
+
+	/** Budget of a hold of a wake lock acquired because of the location alarm, covering
+	 * the search for a location until its timeout */
+	public static final long BUDGET_LOCATION_ALARM = 65 * 1000;
+
+	/** Name of the shared preferences */
+	private static final String PREFERENCES_NAME = "wakelockstats";
+
+	/** Shared preferences key of the time since when holds are counted */
+	private static final String KEY_SINCE = "since";
+
+	/** Suffix of the shared preferences key of the number of holds of a cause */
+	private static final String SUFFIX_COUNT = "_count";
+
+	/** Suffix of the shared preferences key of the total time held of a cause */
+	private static final String SUFFIX_TOTAL = "_total";
+
+	/** Suffix of the shared preferences key of the max. time held of a cause */
+	private static final String SUFFIX_MAX = "_max";
+
+	/** Suffix of the shared preferences key of the number of holds of a cause over its budget */
+	private static final String SUFFIX_OVER_BUDGET = "_over_budget";
+
+	/** Shared instance */
+	private static WakeLockStats instance;
+
+	/** Shared preferences */
+	private final SharedPreferences sharedPreferences;
+
+	/** Shared preferences of the settings */
+	private final SharedPreferences settings;
+
+	/** Clock */
+	private final Clock clock;
+
+	/** Cause and time of acquisition by wake lock tag of the wake locks currently held */
+	private final Map<String, Hold> holds = new HashMap<String, Hold>();
+
+	/**
+	 * Returns the shared instance, creating it if needed.
+	 * @param context
+	 * @return WakeLockStats shared instance
+	 */
+	public static synchronized WakeLockStats getInstance(final Context context) {
+		if(instance == null) {
+			SharedPreferences sharedPreferences = context.getApplicationContext().getSharedPreferences(
+					PREFERENCES_NAME, Context.MODE_PRIVATE);
+			instance = new WakeLockStats(sharedPreferences,
+					PreferenceManager.getDefaultSharedPreferences(context), new ClockImpl());
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates an instance keeping the numbers in the given shared preferences,
+	 * taking the deadline of a test from the given settings and using the given clock.
+	 * @param sharedPreferences
+	 * @param settings
+	 * @param clock
+	 */
+	public WakeLockStats(final SharedPreferences sharedPreferences, final SharedPreferences settings, final Clock clock) {
+		this.sharedPreferences = sharedPreferences;
+		this.settings = settings;
+		this.clock = clock;
+	}
+
+	/**
+	 * Records that the wake lock with the given tag was acquired for the given cause.
+	 * Should be called when the wake lock was actually acquired, i.e. was not held.
+	 * @param tag tag of the wake lock
+	 * @param cause one of CAUSES
+	 */
+	public synchronized void acquired(final String tag, final String cause) {
+		long deadline = SettingsSnapshot.getInstance(settings).getDeadline();
+		holds.put(tag, new Hold(cause, clock.now(), getBudget(cause, deadline)));
+	}
+
+	/**
+	 * Records that the wake lock with the given tag was released and counts the
+	 * time it was held. Does nothing if its acquisition was not recorded.
+	 * @param tag tag of the wake lock
+	 */
+	public synchronized void released(final String tag) {
+		Hold hold = holds.remove(tag);
+		if(hold == null) {
+			return;
+		}
+
+		long time = Math.max(0, clock.now() - hold.time);
+
+		SharedPreferences.Editor editor = sharedPreferences.edit();
+		if(! sharedPreferences.contains(KEY_SINCE)) {
+			editor.putLong(KEY_SINCE, System.currentTimeMillis());
+		}
+		editor.putInt(hold.cause + SUFFIX_COUNT, sharedPreferences.getInt(hold.cause + SUFFIX_COUNT, 0) + 1);
+		editor.putLong(hold.cause + SUFFIX_TOTAL, sharedPreferences.getLong(hold.cause + SUFFIX_TOTAL, 0) + time);
+		editor.putLong(hold.cause + SUFFIX_MAX, Math.max(time, sharedPreferences.getLong(hold.cause + SUFFIX_MAX, 0)));
+		if(time > hold.budget) {
+			// Log.w(Inetify.LOG_TAG, String.format("Wake lock %s held %s ms, over budget", tag, time));
+			editor.putInt(hold.cause + SUFFIX_OVER_BUDGET, sharedPreferences.getInt(hold.cause + SUFFIX_OVER_BUDGET, 0) + 1);
+		}
+		editor.commit();
+	}
+
+	/**
+	 * Returns the budget of a single hold of a wake lock acquired for the given cause,
+	 * with the given deadline of a test.
+	 * @param cause one of CAUSES
+	 * @param deadline time from the start of a test until its deadline in milliseconds
+	 * @return long budget in milliseconds
+	 */
+	public static long getBudget(final String cause, final long deadline) {
+		if(CAUSE_WIFI_DISCONNECTED.equals(cause)) {
+			return BUDGET_WIFI_DISCONNECTED;
+		}
+		if(CAUSE_LOCATION_ALARM.equals(cause)) {
+			return BUDGET_LOCATION_ALARM;
+		}
+		return InetifyIntentService.EVENT_MAX_WAIT + deadline + BUDGET_TEST_MARGIN;
+	}
+
+	/**
+	 * Returns the numbers of the given cause.
+	 * @param cause one of CAUSES
+	 * @return Stats numbers of the cause
+	 */
+	public synchronized Stats getStats(final String cause) {
+		return new Stats(sharedPreferences.getInt(cause + SUFFIX_COUNT, 0),
+				sharedPreferences.getLong(cause + SUFFIX_TOTAL, 0),
+				sharedPreferences.getLong(cause + SUFFIX_MAX, 0),
+				sharedPreferences.getInt(cause + SUFFIX_OVER_BUDGET, 0));
+	}
+
+	/**
+	 * Returns the numbers of all causes together.
+	 * @return Stats numbers of all causes
+	 */
+	public synchronized Stats getTotal() {
+		int count = 0;
+		long total = 0;
+		long max = 0;
+		int overBudget = 0;
+		for(String cause : CAUSES) {
+			Stats stats = getStats(cause);
+			count += stats.getCount();
+			total += stats.getTotal();
+			max = Math.max(max, stats.getMax());
+			overBudget += stats.getOverBudget();
+		}
+		return new Stats(count, total, max, overBudget);
+	}
+
+	/**
+	 * Returns the time since when holds are counted, or -1 if none was counted yet.
+	 * @return long time in milliseconds since the epoch
+	 */
+	public synchronized long getSince() {
+		return sharedPreferences.getLong(KEY_SINCE, -1);
+	}
+
+	/**
+	 * Clears the numbers, but keeps the wake locks currently held.
+	 */
+	public synchronized void clear() {
+		sharedPreferences.edit().clear().commit();
+	}
+
+	/**
+	 * Number of holds, their total and max. time and the number of holds over budget.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	public static class Stats {
+
+		/** Number of holds */
+		private final int count;
+
+		/** Total time held in milliseconds */
+		private final long total;
+
+		/** Max. time held in milliseconds */
+		private final long max;
+
+		/** Number of holds over budget */
+		private final int overBudget;
+
+		/**
+		 * Creates an instance with the given numbers.
+		 * @param count
+		 * @param total
+		 * @param max
+		 * @param overBudget
+		 */
+		public Stats(final int count, final long total, final long max, final int overBudget) {
+			this.count = count;
+			this.total = total;
+			this.max = max;
+			this.overBudget = overBudget;
+		}
+
+		/**
+		 * Returns the number of holds.
+		 * @return int number of holds
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the total time held.
+		 * @return long time in milliseconds
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Returns the max. time held.
+		 * @return long time in milliseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the number of holds over budget.
+		 * @return int number of holds
+		 */
+		public int getOverBudget() {
+			return overBudget;
+		}
+
+		/**
+		 * Returns the average time held, or 0 if there were no holds.
+		 * @return long time in milliseconds
+		 */
+		public long getAverage() {
+			return count > 0 ? total / count : 0;
+		}
+
+	}
+
+	/**
+	 * Cause, time of acquisition and budget of a wake lock.
+	 *
+	 * @author torsten.roemer@luniks.net
+	 */
+	private static class Hold {
+
+		/** Cause */
+		private final String cause;
+
+		/** Time of acquisition */
+		private final long time;
+
+		/** Budget in milliseconds */
+		private final long budget;
+
+		/**
+		 * Creates an instance with the given cause, time and budget.
+		 * @param cause
+		 * @param time
+		 * @param budget
+		 */
+		private Hold(final String cause, final long time, final long budget) {
+			this.cause = cause;
+			this.time = time;
+			this.budget = budget;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.Random;
+
+import net.luniks.android.inetify.BackoffRetryPolicy;
+import net.luniks.android.inetify.FixedRetryPolicy;
+import net.luniks.android.inetify.RetryPolicy;
+import android.test.AndroidTestCase;
+
+public class BackoffRetryPolicyTest extends AndroidTestCase {
+	
+	public void testScheduleWithoutJitter() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(), 1000, 2000, 16000, 0, 60000, 10);
+		
+		policy.start();
+		
+		long[] expected = {1000, 2000, 4000, 8000, 16000, 16000};
+		for(int attempt = 0; attempt < expected.length; attempt++) {
+			long delay = policy.nextDelay(attempt);
+			assertEquals(expected[attempt], delay);
+			clock.advance(delay + 500);
+		}
+		
+		// 50000 ms elapsed, next delay of 16000 ms would be after the deadline
+		assertEquals(-1, policy.nextDelay(expected.length));
+	}
+	
+	public void testMaxAttempts() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(), 1000, 2000, 16000, 0, 60000, 3);
+		
+		policy.start();
+		
+		assertEquals(1000, policy.nextDelay(0));
+		assertEquals(2000, policy.nextDelay(1));
+		assertEquals(4000, policy.nextDelay(2));
+		assertEquals(-1, policy.nextDelay(3));
+	}
+	
+	public void testDeadline() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(), 1000, 2000, 16000, 0, 10000, 10);
+		
+		clock.setNow(100000);
+		policy.start();
+		
+		assertEquals(1000, policy.nextDelay(0));
+		clock.advance(7000);
+		assertEquals(2000, policy.nextDelay(1));
+		clock.advance(2001);
+		assertEquals(-1, policy.nextDelay(2));
+	}
+	
+	public void testStartResetsDeadline() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(), 1000, 2000, 16000, 0, 10000, 10);
+		
+		policy.start();
+		clock.advance(20000);
+		assertEquals(-1, policy.nextDelay(1));
+		
+		policy.start();
+		assertEquals(2000, policy.nextDelay(1));
+	}
+	
+	public void testFirstAttemptDespiteDeadline() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(), 5000, 2000, 16000, 0, 1000, 10);
+		
+		policy.start();
+		
+		assertEquals(5000, policy.nextDelay(0));
+	}
+	
+	public void testJitter() {
+		
+		TestClock clock = new TestClock();
+		RetryPolicy policy = new BackoffRetryPolicy(clock, new Random(42), 1000, 8000, 16000, 0.5, 60000, 10);
+		
+		policy.start();
+		
+		assertEquals(1000, policy.nextDelay(0));
+		
+		boolean varies = false;
+		long previous = -1;
+		for(int i = 0; i < 100; i++) {
+			long delay = policy.nextDelay(1);
+			assertTrue(delay > 4000);
+			assertTrue(delay <= 8000);
+			varies |= previous != -1 && delay != previous;
+			previous = delay;
+		}
+		assertTrue(varies);
+	}
+	
+	public void testJitterDeterministic() {
+		
+		RetryPolicy policy1 = new BackoffRetryPolicy(new TestClock(), new Random(42), 1000, 2000, 16000, 0.5, 60000, 10);
+		RetryPolicy policy2 = new BackoffRetryPolicy(new TestClock(), new Random(42), 1000, 2000, 16000, 0.5, 60000, 10);
+		
+		for(int attempt = 0; attempt < 5; attempt++) {
+			assertEquals(policy1.nextDelay(attempt), policy2.nextDelay(attempt));
+		}
+	}
+	
+	public void testNoOverflow() {
+		
+		RetryPolicy policy = new BackoffRetryPolicy(new TestClock(), new Random(), 1000, 2000, 16000, 0, Long.MAX_VALUE / 2, 1000);
+		
+		assertEquals(16000, policy.nextDelay(100));
+		assertEquals(16000, policy.nextDelay(999));
+	}
+	
+	public void testFixedRetryPolicy() {
+		
+		RetryPolicy policy = new FixedRetryPolicy(3, 10);
+		
+		policy.start();
+		
+		assertEquals(10000, policy.nextDelay(0));
+		assertEquals(10000, policy.nextDelay(1));
+		assertEquals(10000, policy.nextDelay(2));
+		assertEquals(-1, policy.nextDelay(3));
+	}
+
+}
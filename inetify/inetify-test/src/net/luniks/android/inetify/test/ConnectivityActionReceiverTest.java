@@ -16,6 +16,7 @@
 package net.luniks.android.inetify.test;
 
 import net.luniks.android.inetify.ConnectivityActionReceiver;
+import net.luniks.android.inetify.EventCoalescer;
 import net.luniks.android.inetify.InetifyIntentService;
 import android.content.Intent;
 import android.net.ConnectivityManager;
@@ -159,6 +160,48 @@ public class ConnectivityActionReceiverTest extends AndroidTestCase {
 		TestUtils.setStaticFieldValue(InetifyIntentService.class, "wakeLock", null);
 	}
 	
+	public void testRoamingCollapsed() throws Exception {
+		
+		PreferenceManager.getDefaultSharedPreferences(getContext()).edit().putBoolean("settings_enabled", true).commit();
+		
+		NetworkInfo wifiDisconnected = TestUtils.createNetworkInfo(ConnectivityManager.TYPE_WIFI, false);
+		NetworkInfo wifiConnected = TestUtils.createNetworkInfo(ConnectivityManager.TYPE_WIFI, true);
+		
+		// Wifi disconnected
+		Intent connectivityActionWifiDisconnects = new Intent(ConnectivityManager.CONNECTIVITY_ACTION);
+		connectivityActionWifiDisconnects.putExtra(ConnectivityManager.EXTRA_NETWORK_INFO, wifiDisconnected);
+		
+		// Wifi connected
+		Intent wifiActionConnect = new Intent(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+		wifiActionConnect.putExtra(WifiManager.EXTRA_NETWORK_INFO, wifiConnected);
+		
+		EventCoalescer coalescer = (EventCoalescer)TestUtils.getStaticFieldValue(InetifyIntentService.class, "eventCoalescer");
+		int collapsedCount = coalescer.getCollapsedCount();
+		
+		TestContext testContext = new TestContext(getContext());
+		
+		// Roaming between access points
+		receiver.onReceive(testContext, wifiActionConnect);
+		receiver.onReceive(testContext, connectivityActionWifiDisconnects);
+		receiver.onReceive(testContext, wifiActionConnect);
+		receiver.onReceive(testContext, connectivityActionWifiDisconnects);
+		receiver.onReceive(testContext, wifiActionConnect);
+		
+		assertEquals(1, testContext.getStartServiceCount());
+		assertEquals(collapsedCount + 4, coalescer.getCollapsedCount());
+		
+		// The service tests the latest state
+		assertTrue(coalescer.take(false, 0, 0));
+		
+		WakeLock wakeLock = (WakeLock)TestUtils.getStaticFieldValue(InetifyIntentService.class, "wakeLock");
+		
+		assertNotNull(wakeLock);
+		assertTrue(wakeLock.isHeld());
+		
+		wakeLock.release();
+		TestUtils.setStaticFieldValue(InetifyIntentService.class, "wakeLock", null);
+	}
+	
 	public void testWifiDisconnectedSettingsDisabled() throws Exception {
 		
 		PreferenceManager.getDefaultSharedPreferences(getContext()).edit().putBoolean("settings_enabled", false).commit();
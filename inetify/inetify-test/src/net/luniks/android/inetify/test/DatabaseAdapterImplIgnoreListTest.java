@@ -16,15 +16,17 @@
 package net.luniks.android.inetify.test;
 
 import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.IgnoreListSnapshot;
+import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
 public class DatabaseAdapterImplIgnoreListTest extends AndroidTestCase {
 	
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getContext().deleteDatabase("inetifydb");
-		this.getContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getContext());
 	}
 	
 	public void testDatabaseNotOpen() {
@@ -143,6 +145,57 @@ public class DatabaseAdapterImplIgnoreListTest extends AndroidTestCase {
 		adapter.close();
 	}
 	
+	public void testIsIgnoredWifiRule() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		assertFalse(adapter.isIgnoredWifi("CORP-1"));
+		
+		assertTrue(adapter.addIgnoredWifi("CORP-*", "CORP-*"));
+		
+		assertTrue(adapter.isIgnoredWifi("CORP-1"));
+		assertTrue(adapter.isIgnoredWifi("CORP-"));
+		assertTrue(adapter.isIgnoredWifi("CORP-*"));
+		assertTrue(adapter.isIgnoredWifi("Celsten"));
+		assertFalse(adapter.isIgnoredWifi("CORP"));
+		assertFalse(adapter.isIgnoredWifi("XCORP-1"));
+		
+		assertTrue(adapter.deleteIgnoredWifi("CORP-*"));
+		
+		assertFalse(adapter.isIgnoredWifi("CORP-1"));
+		assertTrue(adapter.isIgnoredWifi("Celsten"));
+		
+		adapter.close();
+	}
+	
+	public void testIsIgnoredWifiSSIDWithWildcardNotRule() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		// A real Wifi network with a '*' in its SSID, not a rule
+		assertTrue(adapter.addIgnoredWifi("00:99:11:22:33:44", "Cafe*Bar"));
+		
+		assertTrue(adapter.isIgnoredWifi("Cafe*Bar"));
+		assertFalse(adapter.isIgnoredWifi("Cafe-Bar"));
+		assertFalse(adapter.isIgnoredWifi("CafeBar"));
+		
+		// A rule with the same SSID
+		assertTrue(adapter.addIgnoredWifi("Cafe*", "Cafe*"));
+		
+		assertTrue(adapter.isIgnoredWifi("Cafe-Bar"));
+		
+		assertTrue(adapter.deleteIgnoredWifi("Cafe*"));
+		
+		assertFalse(adapter.isIgnoredWifi("Cafe-Bar"));
+		assertTrue(adapter.isIgnoredWifi("Cafe*Bar"));
+		
+		adapter.close();
+	}
+	
 	public void testDeleteIgnoredWifi() {
 		
 		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
@@ -253,6 +306,150 @@ public class DatabaseAdapterImplIgnoreListTest extends AndroidTestCase {
 		adapter.close();
 	}
 	
+	public void testFetchIgnoredWifisPagedFiltered() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		assertEquals(3, adapter.countIgnoredWifis(null));
+		assertEquals(2, adapter.countIgnoredWifis("testssid"));
+		assertEquals(0, adapter.countIgnoredWifis("Other"));
+		
+		Cursor cursor = adapter.fetchIgnoredWifis("testssid", 1, 5);
+		
+		assertEquals(1, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("00:66:77:88:99:00", cursor.getString(1));
+		assertEquals("TestSSID2", cursor.getString(2));
+		
+		cursor.close();
+		adapter.close();
+	}
+	
+	public void testFetchIgnoredWifisAfter() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		adapter.addIgnoredWifi("00:01:00:00:00:00", "TestSSID1");
+		
+		// Equal SSIDs ordered by BSSID
+		Cursor cursor = adapter.fetchIgnoredWifis(null, "Celsten", "00:21:29:A2:48:80", 2);
+		
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("00:01:00:00:00:00", cursor.getString(1));
+		assertTrue(cursor.moveToNext());
+		assertEquals("00:11:22:33:44:55", cursor.getString(1));
+		
+		cursor.close();
+		
+		cursor = adapter.fetchIgnoredWifis("testssid", "TestSSID1", "00:11:22:33:44:55", 5);
+		
+		assertEquals(1, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("TestSSID2", cursor.getString(2));
+		
+		cursor.close();
+		adapter.close();
+	}
+	
+	public void testIgnoreListInMemory() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		assertTrue(adapter.isIgnoredWifi("Celsten"));
+		assertTrue(IgnoreListSnapshot.getInstance().isLoaded());
+		assertEquals(3, IgnoreListSnapshot.getInstance().size());
+		
+		// Written through
+		assertTrue(adapter.addIgnoredWifi("00:99:11:22:33:44", "TestSSID3"));
+		assertTrue(IgnoreListSnapshot.getInstance().isLoaded());
+		assertTrue(IgnoreListSnapshot.getInstance().contains("TestSSID3"));
+		
+		// Replaces the SSID of the BSSID
+		assertTrue(adapter.addIgnoredWifi("00:99:11:22:33:44", "TestSSID4"));
+		assertTrue(IgnoreListSnapshot.getInstance().isLoaded());
+		assertFalse(adapter.isIgnoredWifi("TestSSID3"));
+		assertTrue(adapter.isIgnoredWifi("TestSSID4"));
+		
+		assertTrue(adapter.deleteIgnoredWifi("TestSSID4"));
+		assertTrue(IgnoreListSnapshot.getInstance().isLoaded());
+		assertFalse(adapter.isIgnoredWifi("TestSSID4"));
+		assertEquals(3, IgnoreListSnapshot.getInstance().size());
+		
+		adapter.close();
+	}
+	
+	public void testIgnoreListWrittenThroughByOtherAdapter() {
+		DatabaseAdapterImpl adapter1 = new DatabaseAdapterImpl(this.getContext());
+		DatabaseAdapterImpl adapter2 = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter1);
+		
+		assertFalse(adapter2.isIgnoredWifi("TestSSID3"));
+		
+		adapter1.addIgnoredWifi("00:99:11:22:33:44", "TestSSID3");
+		
+		assertTrue(adapter2.isIgnoredWifi("TestSSID3"));
+		
+		adapter1.deleteIgnoredWifi("TestSSID3");
+		
+		assertFalse(adapter2.isIgnoredWifi("TestSSID3"));
+		
+		adapter1.close();
+		adapter2.close();
+	}
+	
+	public void testIgnoreListChangedBehindBack() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		assertFalse(adapter.isIgnoredWifi("TestSSID3"));
+		
+		adapter.close();
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " (" + 
+				DatabaseAdapterImpl.COLUMN_BSSID + ", " + DatabaseAdapterImpl.COLUMN_SSID + ") VALUES ('00:99:11:22:33:44', 'TestSSID3')");
+		database.execSQL("DELETE FROM " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " WHERE " + 
+				DatabaseAdapterImpl.COLUMN_SSID + " = 'Celsten'");
+		database.close();
+		
+		assertTrue(IgnoreListSnapshot.getInstance().isLoaded());
+		
+		// Checked when opened again
+		assertTrue(adapter.isIgnoredWifi("TestSSID3"));
+		assertFalse(adapter.isIgnoredWifi("Celsten"));
+		
+		adapter.close();
+	}
+	
+	public void testIgnoreListDiscardedWhenOtherChange() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		insertTestWifis(adapter);
+		
+		assertTrue(adapter.isIgnoredWifi("Celsten"));
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " (" + 
+				DatabaseAdapterImpl.COLUMN_BSSID + ", " + DatabaseAdapterImpl.COLUMN_SSID + ") VALUES ('00:99:11:22:33:44', 'TestSSID3')");
+		database.close();
+		
+		// Two changes since the ignore list was loaded, so it is not written through
+		adapter.addIgnoredWifi("00:99:11:22:33:45", "TestSSID4");
+		
+		assertFalse(IgnoreListSnapshot.getInstance().isLoaded());
+		assertTrue(adapter.isIgnoredWifi("TestSSID3"));
+		assertTrue(adapter.isIgnoredWifi("TestSSID4"));
+		
+		adapter.close();
+	}
+	
 	private void insertTestWifis(final DatabaseAdapterImpl adapter) {
 		adapter.addIgnoredWifi("00:21:29:A2:48:80", "Celsten");
 		adapter.addIgnoredWifi("00:11:22:33:44:55", "TestSSID1");
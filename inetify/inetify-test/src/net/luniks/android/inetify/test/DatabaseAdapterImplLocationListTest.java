@@ -25,8 +25,7 @@ public class DatabaseAdapterImplLocationListTest extends AndroidTestCase {
 	
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getContext().deleteDatabase("inetifydb");
-		this.getContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getContext());
 	}
 	
 	public void testDatabaseNotOpen() {
@@ -341,6 +340,115 @@ public class DatabaseAdapterImplLocationListTest extends AndroidTestCase {
 		adapter.close();
 	}
 	
+	public void testFetchLocationsPaged() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("01:00:00:00:00:00", "TestSSID1", "b", TestUtils.createLocation(0.1, 0.1, 10));
+		adapter.addLocation("02:00:00:00:00:00", "TestSSID2", "1", TestUtils.createLocation(0.2, 0.2, 20));
+		adapter.addLocation("03:00:00:00:00:00", "TestSSID3", "ä", TestUtils.createLocation(0.3, 0.3, 30));
+		adapter.addLocation("04:00:00:00:00:00", "TestSSID4", "C", TestUtils.createLocation(0.4, 0.4, 40));
+		adapter.addLocation("05:00:00:00:00:00", "TestSSID5", "2", TestUtils.createLocation(0.5, 0.5, 50));
+		
+		assertEquals(5, adapter.countLocations(null));
+		assertEquals(5, adapter.countLocations(""));
+		
+		Cursor cursor = adapter.fetchLocations(null, 2, 2);
+		
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("ä", cursor.getString(3));
+		assertTrue(cursor.moveToNext());
+		assertEquals("b", cursor.getString(3));
+		assertFalse(cursor.moveToNext());
+		
+		cursor.close();
+		
+		cursor = adapter.fetchLocations(null, 4, 2);
+		
+		assertEquals(1, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("C", cursor.getString(3));
+		
+		cursor.close();
+		adapter.close();
+	}
+	
+	public void testFetchLocationsAfter() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("01:00:00:00:00:00", "TestSSID1", "b", TestUtils.createLocation(0.1, 0.1, 10));
+		adapter.addLocation("02:00:00:00:00:00", "TestSSID2", "1", TestUtils.createLocation(0.2, 0.2, 20));
+		adapter.addLocation("03:00:00:00:00:00", "TestSSID3", "ä", TestUtils.createLocation(0.3, 0.3, 30));
+		adapter.addLocation("04:00:00:00:00:00", "TestSSID4", "C", TestUtils.createLocation(0.4, 0.4, 40));
+		adapter.addLocation("05:00:00:00:00:00", "TestSSID5", "b", TestUtils.createLocation(0.5, 0.5, 50));
+		
+		// Same order as with an offset, equal names ordered by BSSID
+		Cursor cursor = adapter.fetchLocations(null, "ä", "03:00:00:00:00:00", 2);
+		
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("01:00:00:00:00:00", cursor.getString(1));
+		assertTrue(cursor.moveToNext());
+		assertEquals("05:00:00:00:00:00", cursor.getString(1));
+		assertFalse(cursor.moveToNext());
+		
+		cursor.close();
+		
+		cursor = adapter.fetchLocations(null, "b", "01:00:00:00:00:00", 5);
+		
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("05:00:00:00:00:00", cursor.getString(1));
+		assertTrue(cursor.moveToNext());
+		assertEquals("C", cursor.getString(3));
+		
+		cursor.close();
+		
+		cursor = adapter.fetchLocations("TestSSID4", "1", "02:00:00:00:00:00", 5);
+		
+		assertEquals(1, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("C", cursor.getString(3));
+		
+		cursor.close();
+		
+		cursor = adapter.fetchLocations(null, "C", "04:00:00:00:00:00", 5);
+		
+		assertEquals(0, cursor.getCount());
+		
+		cursor.close();
+		adapter.close();
+	}
+	
+	public void testFetchLocationsFiltered() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("01:00:00:00:00:00", "Home", "Living Room", TestUtils.createLocation(0.1, 0.1, 10));
+		adapter.addLocation("02:00:00:00:00:00", "Office", "Desk", TestUtils.createLocation(0.2, 0.2, 20));
+		adapter.addLocation("03:00:00:00:00:00", "HOME_5G", "Kitchen", TestUtils.createLocation(0.3, 0.3, 30));
+		adapter.addLocation("04:00:00:00:00:00", "100%_free", "Cafe", TestUtils.createLocation(0.4, 0.4, 40));
+		
+		assertEquals(2, adapter.countLocations("home"));
+		assertEquals(1, adapter.countLocations("room"));
+		assertEquals(1, adapter.countLocations("%_"));
+		assertEquals(2, adapter.countLocations("_"));
+		assertEquals(0, adapter.countLocations("xyz"));
+		
+		Cursor cursor = adapter.fetchLocations("home", 0, 10);
+		
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToNext());
+		assertEquals("Kitchen", cursor.getString(3));
+		assertTrue(cursor.moveToNext());
+		assertEquals("Living Room", cursor.getString(3));
+		
+		cursor.close();
+		adapter.close();
+	}
+	
 	public void testHasLocationsNone() {
 		
 		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.Random;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.LocationSnapshot;
+import net.luniks.android.inetify.WifiLocation;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class DatabaseAdapterImplNearestLocationTest extends AndroidTestCase {
+	
+	private double[] lats;
+	private double[] lons;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+	}
+	
+	public void testGetCell() {
+		
+		assertEquals(0, DatabaseAdapterImpl.getCell(0));
+		assertEquals(0, DatabaseAdapterImpl.getCell(0.09));
+		assertEquals(-1, DatabaseAdapterImpl.getCell(-0.01));
+		assertEquals(506, DatabaseAdapterImpl.getCell(50.628707));
+		assertEquals(-1513, DatabaseAdapterImpl.getCell(-151.21));
+	}
+	
+	public void testNearestSameAsScan() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		// Dense around Lille, sparse all over the world
+		Random random = new Random(0);
+		insertLocations(adapter, 2000, random, 50, 3, 2);
+		insertLocations(adapter, 200, random, 0, 0, 180);
+		
+		for(int i = 0; i < 200; i++) {
+			Location location = createLocation(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+			if(i % 2 == 0) {
+				location = createLocation(50 + random.nextGaussian() * 3, 3 + random.nextGaussian() * 3);
+			}
+			assertNearest(adapter, location);
+		}
+		
+		adapter.close();
+	}
+	
+	public void testNearestFarAway() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(-33.86, 151.21, 10));
+		
+		WifiLocation wifiLocation = adapter.getNearestLocationTo(createLocation(50.628707, 3.538688));
+		
+		assertNotNull(wifiLocation);
+		assertEquals("Name1", wifiLocation.getName());
+		
+		adapter.close();
+	}
+	
+	public void testNearestAcross180thMeridianAndPole() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(0, 179.99, 10));
+		adapter.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(0, 170, 10));
+		adapter.addLocation("BSSID3", "SSID3", "Name3", TestUtils.createLocation(89.99, 0, 10));
+		adapter.addLocation("BSSID4", "SSID4", "Name4", TestUtils.createLocation(80, 180, 10));
+		
+		assertEquals("Name1", adapter.getNearestLocationTo(createLocation(0, -179.99)).getName());
+		assertEquals("Name3", adapter.getNearestLocationTo(createLocation(89.99, 180)).getName());
+		
+		adapter.close();
+	}
+	
+	public void testMovedLocationUpdatesCell() {
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(50.5, 3.5, 10));
+		
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50.62, 3.53, 10));
+		
+		assertEquals("Name1", adapter.getNearestLocationTo(createLocation(50.628707, 3.538688)).getName());
+		
+		adapter.close();
+	}
+	
+	public void testBenchmark() throws Exception {
+		
+		int[] sizes = {10000, 100000, 1000000};
+		int queries = 100;
+		
+		for(int size : sizes) {
+			TestUtils.deleteDatabase(this.getContext());
+			lats = null;
+			lons = null;
+			
+			DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+			
+			// Locations all over Europe
+			Random random = new Random(size);
+			insertLocations(adapter, size, random, 50, 10, 10);
+			
+			long start = System.currentTimeMillis();
+			for(int i = 0; i < queries; i++) {
+				assertNotNull(adapter.getNearestLocationTo(createLocation(50 + random.nextGaussian() * 10, 10 + random.nextGaussian() * 10)));
+			}
+			long indexTime = System.currentTimeMillis() - start;
+			
+			// What it took before, reading and measuring every location
+			Location location = createLocation(50, 10);
+			start = System.currentTimeMillis();
+			float[] results = new float[1];
+			float shortestDistance = Float.MAX_VALUE;
+			for(int i = 0; i < lats.length; i++) {
+				Location.distanceBetween(lats[i], lons[i], location.getLatitude(), location.getLongitude(), results);
+				shortestDistance = Math.min(shortestDistance, results[0]);
+			}
+			long scanTime = System.currentTimeMillis() - start;
+			
+			Log.d("DatabaseAdapterImplNearestLocationTest", String.format(
+					"%s locations: %s ms per query, distances only of a full scan: %s ms", 
+					size, indexTime / queries, scanTime));
+			
+			assertNearest(adapter, location);
+			assertTrue(shortestDistance < Float.MAX_VALUE);
+			assertTrue(indexTime / queries < scanTime);
+			
+			adapter.close();
+		}
+	}
+	
+	private void assertNearest(final DatabaseAdapterImpl adapter, final Location location) {
+		float[] results = new float[1];
+		float shortestDistance = Float.MAX_VALUE;
+		for(int i = 0; i < lats.length; i++) {
+			Location.distanceBetween(location.getLatitude(), location.getLongitude(), lats[i], lons[i], results);
+			shortestDistance = Math.min(shortestDistance, results[0]);
+		}
+		
+		WifiLocation wifiLocation = adapter.getNearestLocationTo(location);
+		
+		assertNotNull(wifiLocation);
+		assertEquals(shortestDistance, wifiLocation.getDistance(), 0.1);
+	}
+	
+	private void insertLocations(final DatabaseAdapterImpl adapter, final int count, final Random random, 
+			final double lat, final double lon, final double deviation) {
+		
+		// Creates the database
+		adapter.hasLocations();
+		
+		int offset = lats == null ? 0 : lats.length;
+		double[] newLats = new double[offset + count];
+		double[] newLons = new double[offset + count];
+		if(lats != null) {
+			System.arraycopy(lats, 0, newLats, 0, offset);
+			System.arraycopy(lons, 0, newLons, 0, offset);
+		}
+		lats = newLats;
+		lons = newLons;
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		SQLiteStatement stmt = database.compileStatement(String.format(
+				"INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, 'SSID', 'Name', ?, ?, 10, ?, ?)", 
+				DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME, DatabaseAdapterImpl.COLUMN_BSSID, 
+				DatabaseAdapterImpl.COLUMN_SSID, DatabaseAdapterImpl.COLUMN_NAME, 
+				DatabaseAdapterImpl.COLUMN_LAT, DatabaseAdapterImpl.COLUMN_LON, DatabaseAdapterImpl.COLUMN_ACC,
+				DatabaseAdapterImpl.COLUMN_CELLLAT, DatabaseAdapterImpl.COLUMN_CELLLON));
+		database.beginTransaction();
+		try {
+			for(int i = offset; i < lats.length; i++) {
+				lats[i] = Math.max(-89.9, Math.min(89.9, lat + random.nextGaussian() * deviation));
+				lons[i] = Math.max(-179.9, Math.min(179.9, lon + random.nextGaussian() * deviation));
+				stmt.bindString(1, String.valueOf(i));
+				stmt.bindDouble(2, lats[i]);
+				stmt.bindDouble(3, lons[i]);
+				stmt.bindLong(4, DatabaseAdapterImpl.getCell(lats[i]));
+				stmt.bindLong(5, DatabaseAdapterImpl.getCell(lons[i]));
+				stmt.executeInsert();
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+			stmt.close();
+			database.close();
+		}
+		
+		// Inserted behind the back of the adapter
+		LocationSnapshot.getInstance().invalidate();
+	}
+	
+	private static Location createLocation(final double latitude, final double longitude) {
+		Location location = new Location("test");
+		location.setLatitude(latitude);
+		location.setLongitude(longitude);
+		return location;
+	}
+	
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.TestInfo;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class DatabaseAdapterImplStatementTest extends AndroidTestCase {
+
+	private static final int CALLS = 1000;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+	}
+
+	public void testStatementsUsableAfterClose() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertTrue(adapter.addIgnoredWifi("BSSID1", "SSID1"));
+		assertTrue(adapter.isIgnoredWifi("SSID1"));
+
+		adapter.close();
+
+		assertFalse(adapter.isOpen());
+		assertTrue(adapter.isIgnoredWifi("SSID1"));
+		assertTrue(adapter.deleteIgnoredWifi("SSID1"));
+		assertFalse(adapter.isIgnoredWifi("SSID1"));
+
+		adapter.close();
+	}
+
+	public void testBindingsCleared() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertTrue(adapter.updateTestResult(1000L, ConnectivityManager.TYPE_WIFI, "Sputnik", true));
+		assertTrue(adapter.updateTestResult(2000L, ConnectivityManager.TYPE_MOBILE, null, false));
+
+		TestInfo info = adapter.fetchTestResult();
+
+		assertEquals(2000L, info.getTimestamp());
+		assertNull(info.getExtra());
+
+		adapter.close();
+	}
+
+	public void testChangedRowsCounted() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertTrue(adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10)));
+
+		assertFalse(adapter.renameLocation("BSSID2", "Name2"));
+		assertTrue(adapter.renameLocation("BSSID1", "Name2"));
+		assertFalse(adapter.deleteLocation("BSSID2"));
+		assertTrue(adapter.deleteLocation("BSSID1"));
+		assertFalse(adapter.deleteLocation("BSSID1"));
+
+		adapter.close();
+	}
+
+	public void testBenchmarkAddTestHistory() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		// Creates the database
+		adapter.getDatabaseVersion();
+
+		// What it took before, ContentValues for every call
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		long start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			ContentValues values = new ContentValues();
+			values.put(DatabaseAdapterImpl.COLUMN_TIMESTAMP, (long)i);
+			values.put(DatabaseAdapterImpl.COLUMN_TYPE, ConnectivityManager.TYPE_WIFI);
+			values.put(DatabaseAdapterImpl.COLUMN_SUBTYPE, "Sputnik");
+			values.put(DatabaseAdapterImpl.COLUMN_BSSID, "00:21:29:A2:48:80");
+			values.put(DatabaseAdapterImpl.COLUMN_STATUS, 1);
+			values.put(DatabaseAdapterImpl.COLUMN_LATENCY, 123L);
+			database.insert(DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME, null, values);
+		}
+		long before = System.nanoTime() - start;
+		database.close();
+
+		start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			assertTrue(adapter.addTestHistory(CALLS + i, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 123));
+		}
+		long after = System.nanoTime() - start;
+
+		Log.d("DatabaseAdapterImplStatementTest", String.format(
+				"addTestHistory: %s us per call before, %s us per call after",
+				before / CALLS / 1000, after / CALLS / 1000));
+
+		Cursor cursor = adapter.fetchTestHistory(0, Long.MAX_VALUE);
+		assertEquals(2 * CALLS, cursor.getCount());
+		cursor.close();
+
+		adapter.close();
+	}
+
+	public void testBenchmarkUpdateTestResult() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		// Creates the database
+		adapter.getDatabaseVersion();
+
+		// What it took before, compiling and closing the statement for every call
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		long start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			String sql = String.format("INSERT OR REPLACE INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)",
+					DatabaseAdapterImpl.TESTRESULTS_TABLE_NAME, DatabaseAdapterImpl.COLUMN_ROWID,
+					DatabaseAdapterImpl.COLUMN_TIMESTAMP, DatabaseAdapterImpl.COLUMN_TYPE,
+					DatabaseAdapterImpl.COLUMN_SUBTYPE, DatabaseAdapterImpl.COLUMN_STATUS);
+			SQLiteStatement stmt = database.compileStatement(sql);
+			stmt.bindLong(1, 0L);
+			stmt.bindLong(2, i);
+			stmt.bindLong(3, ConnectivityManager.TYPE_WIFI);
+			stmt.bindString(4, "Sputnik");
+			stmt.bindLong(5, 1);
+			stmt.executeInsert();
+			stmt.close();
+		}
+		long before = System.nanoTime() - start;
+		database.close();
+
+		start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			assertTrue(adapter.updateTestResult(i, ConnectivityManager.TYPE_WIFI, "Sputnik", true));
+		}
+		long after = System.nanoTime() - start;
+
+		Log.d("DatabaseAdapterImplStatementTest", String.format(
+				"updateTestResult: %s us per call before, %s us per call after",
+				before / CALLS / 1000, after / CALLS / 1000));
+
+		assertEquals(CALLS - 1, adapter.fetchTestResult().getTimestamp());
+
+		adapter.close();
+	}
+
+	public void testBenchmarkIsIgnoredWifi() {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		for(int i = 0; i < 100; i++) {
+			adapter.addIgnoredWifi("BSSID" + i, "SSID" + i);
+		}
+
+		// What it took before, a query and cursor for every call
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		long start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			Cursor cursor = database.query(DatabaseAdapterImpl.IGNORELIST_TABLE_NAME,
+					new String[] {DatabaseAdapterImpl.COLUMN_BSSID}, DatabaseAdapterImpl.COLUMN_SSID + " = ?",
+					new String[] {"SSID" + (i % 100)}, null, null, null);
+			assertTrue(cursor.getCount() > 0);
+			cursor.close();
+		}
+		long before = System.nanoTime() - start;
+		database.close();
+
+		start = System.nanoTime();
+		for(int i = 0; i < CALLS; i++) {
+			assertTrue(adapter.isIgnoredWifi("SSID" + (i % 100)));
+		}
+		long after = System.nanoTime() - start;
+
+		Log.d("DatabaseAdapterImplStatementTest", String.format(
+				"isIgnoredWifi: %s us per call before, %s us per call after",
+				before / CALLS / 1000, after / CALLS / 1000));
+
+		adapter.close();
+	}
+
+}
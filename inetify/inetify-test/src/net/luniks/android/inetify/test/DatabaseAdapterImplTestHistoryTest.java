@@ -0,0 +1,220 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.ProbeTimings;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class DatabaseAdapterImplTestHistoryTest extends AndroidTestCase {
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+	}
+	
+	public void testAddAndFetch() {
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertTrue(adapter.addTestHistory(1000L, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 123));
+		assertTrue(adapter.addTestHistory(2000L, ConnectivityManager.TYPE_WIFI, "Celsten", "00:21:29:A2:48:81", false, 3000));
+		assertTrue(adapter.addTestHistory(3000L, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 456));
+		assertTrue(adapter.addTestHistory(4000L, ConnectivityManager.TYPE_MOBILE, "UMTS", null, true, 789));
+		
+		Cursor cursor = adapter.fetchTestHistory(0, Long.MAX_VALUE);
+		assertEquals(4, cursor.getCount());
+		cursor.close();
+		
+		// Range by time, latest first
+		cursor = adapter.fetchTestHistory(2000L, 4000L);
+		assertEquals(2, cursor.getCount());
+		cursor.moveToNext();
+		assertEquals(3000L, cursor.getLong(1));
+		assertEquals(ConnectivityManager.TYPE_WIFI, cursor.getInt(2));
+		assertEquals("Sputnik", cursor.getString(3));
+		assertEquals("00:21:29:A2:48:80", cursor.getString(4));
+		assertEquals(1, cursor.getInt(5));
+		assertEquals(456, cursor.getLong(6));
+		cursor.moveToNext();
+		assertEquals(2000L, cursor.getLong(1));
+		assertEquals(0, cursor.getInt(5));
+		cursor.close();
+		
+		// Range by network
+		cursor = adapter.fetchTestHistory("00:21:29:A2:48:80", 0, Long.MAX_VALUE);
+		assertEquals(2, cursor.getCount());
+		cursor.moveToNext();
+		assertEquals(3000L, cursor.getLong(1));
+		cursor.moveToNext();
+		assertEquals(1000L, cursor.getLong(1));
+		cursor.close();
+		
+		cursor = adapter.fetchTestHistory("00:21:29:A2:48:80", 2000L, 3000L);
+		assertEquals(0, cursor.getCount());
+		cursor.close();
+		
+		adapter.close();
+	}
+	
+	public void testPhasePercentiles() {
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		long[] percentiles = adapter.fetchPhasePercentiles(50);
+		assertEquals(ProbeTimings.PHASES, percentiles.length);
+		for(long percentile : percentiles) {
+			assertEquals(-1, percentile);
+		}
+		
+		// No parsing, and no phase times at all for the last test
+		for(int i = 1; i <= 10; i++) {
+			long[] phaseTimes = {10 * i, 100 * i, -1};
+			assertTrue(adapter.addTestHistory(i, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 111 * i, phaseTimes));
+		}
+		assertTrue(adapter.addTestHistory(11, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", false, 3000));
+		
+		percentiles = adapter.fetchPhasePercentiles(50);
+		assertEquals(50, percentiles[ProbeTimings.PHASE_CONNECT]);
+		assertEquals(500, percentiles[ProbeTimings.PHASE_FIRST_BYTE]);
+		assertEquals(-1, percentiles[ProbeTimings.PHASE_PARSE]);
+		
+		percentiles = adapter.fetchPhasePercentiles(90);
+		assertEquals(90, percentiles[ProbeTimings.PHASE_CONNECT]);
+		assertEquals(900, percentiles[ProbeTimings.PHASE_FIRST_BYTE]);
+		
+		percentiles = adapter.fetchPhasePercentiles(100);
+		assertEquals(100, percentiles[ProbeTimings.PHASE_CONNECT]);
+		
+		adapter.close();
+	}
+	
+	public void testPruneByRows() {
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext(), 250, Long.MAX_VALUE / 2);
+		
+		for(int i = 1; i <= 1000; i++) {
+			assertTrue(adapter.addTestHistory(i, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, i));
+			
+			// Never more rows than the cap plus the prune interval
+			if(i % 50 == 0) {
+				assertTrue(countRows(adapter) <= 250 + DatabaseAdapterImpl.HISTORY_PRUNE_INTERVAL);
+			}
+		}
+		
+		// The latest rows are kept
+		assertEquals(250, countRows(adapter));
+		Cursor cursor = adapter.fetchTestHistory(0, Long.MAX_VALUE);
+		cursor.moveToLast();
+		assertEquals(751, cursor.getLong(1));
+		cursor.close();
+		
+		adapter.close();
+	}
+	
+	public void testPruneByAge() {
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext(), 10000, 1000);
+		
+		for(int i = 1; i < DatabaseAdapterImpl.HISTORY_PRUNE_INTERVAL; i++) {
+			assertTrue(adapter.addTestHistory(i, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, i));
+		}
+		assertEquals(DatabaseAdapterImpl.HISTORY_PRUNE_INTERVAL - 1, countRows(adapter));
+		
+		// Pruning happens with the next insert
+		assertTrue(adapter.addTestHistory(2000, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 0));
+		assertEquals(1, countRows(adapter));
+		
+		adapter.close();
+	}
+	
+	public void testInsertBenchmark() {
+		
+		final int rows = 100000;
+		final int inserts = 1000;
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext(), rows, Long.MAX_VALUE / 2);
+		
+		long emptyTime = timeInserts(adapter, 0, inserts);
+		
+		// Fill up the history to the cap in one transaction
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		SQLiteStatement stmt = database.compileStatement(String.format(
+				"INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, 'Sputnik', ?, 1, 100)", 
+				DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME, DatabaseAdapterImpl.COLUMN_TIMESTAMP, 
+				DatabaseAdapterImpl.COLUMN_TYPE, DatabaseAdapterImpl.COLUMN_SUBTYPE, DatabaseAdapterImpl.COLUMN_BSSID,
+				DatabaseAdapterImpl.COLUMN_STATUS, DatabaseAdapterImpl.COLUMN_LATENCY));
+		database.beginTransaction();
+		try {
+			for(int i = inserts; i < rows; i++) {
+				stmt.bindLong(1, i);
+				stmt.bindLong(2, ConnectivityManager.TYPE_WIFI);
+				stmt.bindString(3, String.format("00:21:29:A2:%02X:%02X", (i >> 8) & 0xff, i & 0xff));
+				stmt.executeInsert();
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+			stmt.close();
+			database.close();
+		}
+		
+		assertEquals(rows, countRows(adapter));
+		
+		// At the cap, each insert also prunes
+		long fullTime = timeInserts(adapter, rows, inserts);
+		
+		assertEquals(rows, countRows(adapter));
+		
+		long start = System.currentTimeMillis();
+		Cursor cursor = adapter.fetchTestHistory("00:21:29:A2:48:80", 0, Long.MAX_VALUE);
+		int count = cursor.getCount();
+		cursor.close();
+		long queryTime = System.currentTimeMillis() - start;
+		
+		Log.d("DatabaseAdapterImplTestHistoryTest", String.format("%s inserts: empty: %s ms, %s rows: %s ms; query by network: %s ms", 
+				inserts, emptyTime, rows, fullTime, queryTime));
+		
+		assertTrue(count > 0);
+		assertTrue(fullTime < emptyTime * 3);
+		
+		adapter.close();
+	}
+	
+	private static long timeInserts(final DatabaseAdapterImpl adapter, final long timestamp, final int inserts) {
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < inserts; i++) {
+			adapter.addTestHistory(timestamp + i, ConnectivityManager.TYPE_WIFI, "Sputnik", "00:21:29:A2:48:80", true, 100);
+		}
+		return System.currentTimeMillis() - start;
+	}
+	
+	private static int countRows(final DatabaseAdapterImpl adapter) {
+		Cursor cursor = adapter.fetchTestHistory(Long.MIN_VALUE, Long.MAX_VALUE);
+		try {
+			return cursor.getCount();
+		} finally {
+			cursor.close();
+		}
+	}
+	
+}
@@ -24,8 +24,7 @@ public class DatabaseAdapterImplTestResultTest extends AndroidTestCase {
 
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getContext().deleteDatabase("inetifydb");
-		this.getContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getContext());
 	}
 	
 	public void testFetchNoResult() {
@@ -67,4 +66,50 @@ public class DatabaseAdapterImplTestResultTest extends AndroidTestCase {
 		adapter.close();
 	}
 	
+	public void testCachedTestResult() {
+		
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertNull(adapter.fetchCachedTestResult("Key"));
+		
+		TestInfo info = new TestInfo();
+		info.setTimestamp(1234567890L);
+		info.setType(ConnectivityManager.TYPE_WIFI);
+		info.setTypeName("WIFI");
+		info.setExtra("Sputnik");
+		info.setExtra2("00:21:29:A2:48:80");
+		info.setSite("www.google.com");
+		info.setTitle("Google");
+		info.setPageTitle("Google");
+		info.setIsExpectedTitle(true);
+		
+		assertTrue(adapter.updateCachedTestResult("Key", info));
+		
+		info = adapter.fetchCachedTestResult("Key");
+		
+		assertNotNull(info);
+		assertEquals(1234567890L, info.getTimestamp());
+		assertEquals(ConnectivityManager.TYPE_WIFI, info.getType());
+		assertEquals("WIFI", info.getTypeName());
+		assertEquals("Sputnik", info.getExtra());
+		assertEquals("00:21:29:A2:48:80", info.getExtra2());
+		assertEquals("www.google.com", info.getSite());
+		assertEquals("Google", info.getTitle());
+		assertEquals("Google", info.getPageTitle());
+		assertTrue(info.getIsExpectedTitle());
+		
+		assertNull(adapter.fetchCachedTestResult("OtherKey"));
+		
+		// Results older than a day are deleted
+		info.setTimestamp(1234567890L + 25 * 60 * 60 * 1000);
+		assertTrue(adapter.updateCachedTestResult("OtherKey", info));
+		assertNull(adapter.fetchCachedTestResult("Key"));
+		
+		assertTrue(adapter.deleteCachedTestResult("OtherKey"));
+		assertNull(adapter.fetchCachedTestResult("OtherKey"));
+		assertFalse(adapter.deleteCachedTestResult("OtherKey"));
+		
+		adapter.close();
+	}
+	
 }
@@ -26,20 +26,56 @@ public class DatabaseUpgradeTest extends AndroidTestCase {
 	/** SQL to create the inital database */
 	private static final String IGNORELIST_TABLE_CREATE =
 		"CREATE TABLE " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " (" +
-		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT)";
+		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		DatabaseAdapterImpl.COLUMN_BSSID + " TEXT NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_SSID + " TEXT NOT NULL, " +
+		"UNIQUE (" + DatabaseAdapterImpl.COLUMN_BSSID + ") ON CONFLICT REPLACE)";
 	
-	/** SQL to create the inital database */
+	/** SQL to create the location list of version 2 */
 	private static final String LOCATIONLIST_TABLE_NAME =
 		"CREATE TABLE " + DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME + " (" +
-		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT)";
+		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		DatabaseAdapterImpl.COLUMN_BSSID + " TEXT NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_SSID + " TEXT NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_NAME + " TEXT NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_LAT + " NUMBER NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_LON + " NUMBER NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_ACC + " NUMBER NOT NULL, " +
+		"UNIQUE (" + DatabaseAdapterImpl.COLUMN_BSSID + ") ON CONFLICT REPLACE)";
+	
+	/** SQL to create the test history of version 8 and 9 */
+	private static final String TESTHISTORY_V8_TABLE_CREATE =
+		"CREATE TABLE " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + " (" +
+		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		DatabaseAdapterImpl.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_TYPE + " INTEGER, " +
+		DatabaseAdapterImpl.COLUMN_SUBTYPE + " TEXT, " +
+		DatabaseAdapterImpl.COLUMN_BSSID + " TEXT, " +
+		DatabaseAdapterImpl.COLUMN_STATUS + " INTEGER, " +
+		DatabaseAdapterImpl.COLUMN_LATENCY + " INTEGER, " +
+		"dns INTEGER DEFAULT -1, " +
+		DatabaseAdapterImpl.COLUMN_CONNECT + " INTEGER DEFAULT -1, " +
+		"tls INTEGER DEFAULT -1, " +
+		DatabaseAdapterImpl.COLUMN_FIRSTBYTE + " INTEGER DEFAULT -1, " +
+		DatabaseAdapterImpl.COLUMN_PARSE + " INTEGER DEFAULT -1)";
+	
+	/** SQL to create the test history of version 5 to 7 */
+	private static final String TESTHISTORY_TABLE_CREATE =
+		"CREATE TABLE " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + " (" +
+		DatabaseAdapterImpl.COLUMN_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+		DatabaseAdapterImpl.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+		DatabaseAdapterImpl.COLUMN_TYPE + " INTEGER, " +
+		DatabaseAdapterImpl.COLUMN_SUBTYPE + " TEXT, " +
+		DatabaseAdapterImpl.COLUMN_BSSID + " TEXT, " +
+		DatabaseAdapterImpl.COLUMN_STATUS + " INTEGER, " +
+		DatabaseAdapterImpl.COLUMN_LATENCY + " INTEGER)";
 	
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getContext().deleteDatabase("inetifydb");
-		this.getContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getContext());
 	}
 	
-	public void testUpdateV1ToV3() {
+	public void testUpdateV1ToV10() {
 		
 		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
 		database.setVersion(1);
@@ -47,11 +83,14 @@ public class DatabaseUpgradeTest extends AndroidTestCase {
 		
 		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
 		
-		assertEquals(3, adapter.getDatabaseVersion());
+		assertEquals(10, adapter.getDatabaseVersion());
 		
 		assertTrue(tableExists(database, DatabaseAdapterImpl.IGNORELIST_TABLE_NAME));
 		assertTrue(tableExists(database, DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME));
 		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTRESULTS_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTCACHE_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.COUNTERS_TABLE_NAME));
 		
 		database.close();
 		
@@ -59,7 +98,7 @@ public class DatabaseUpgradeTest extends AndroidTestCase {
 		
 	}
 	
-	public void testUpdateV2ToV3() {
+	public void testUpdateV2ToV10() {
 		
 		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
 		database.setVersion(2);
@@ -68,11 +107,14 @@ public class DatabaseUpgradeTest extends AndroidTestCase {
 		
 		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
 		
-		assertEquals(3, adapter.getDatabaseVersion());
+		assertEquals(10, adapter.getDatabaseVersion());
 		
 		assertTrue(tableExists(database, DatabaseAdapterImpl.IGNORELIST_TABLE_NAME));
 		assertTrue(tableExists(database, DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME));
 		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTRESULTS_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTCACHE_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME));
+		assertTrue(tableExists(database, DatabaseAdapterImpl.COUNTERS_TABLE_NAME));
 		
 		database.close();
 		
@@ -80,6 +122,152 @@ public class DatabaseUpgradeTest extends AndroidTestCase {
 		
 	}
 	
+	public void testUpdateV5ToV10LocationCells() {
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.setVersion(5);
+		database.execSQL(IGNORELIST_TABLE_CREATE);
+		database.execSQL(LOCATIONLIST_TABLE_NAME);
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME + " VALUES (1, 'BSSID1', 'SSID1', 'Name1', 50.628707, 3.538688, 10)");
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME + " VALUES (2, 'BSSID2', 'SSID2', 'Name2', -33.86, -151.21, 10)");
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME + " VALUES (3, 'BSSID3', 'SSID3', 'Name3', 0, -0.05, 10)");
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertEquals(10, adapter.getDatabaseVersion());
+		
+		Cursor cursor = database.rawQuery("SELECT " + DatabaseAdapterImpl.COLUMN_LAT + ", " + DatabaseAdapterImpl.COLUMN_LON + ", " +
+				DatabaseAdapterImpl.COLUMN_CELLLAT + ", " + DatabaseAdapterImpl.COLUMN_CELLLON + " FROM " + 
+				DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME, null);
+		assertEquals(3, cursor.getCount());
+		while(cursor.moveToNext()) {
+			assertEquals(DatabaseAdapterImpl.getCell(cursor.getDouble(0)), cursor.getLong(2));
+			assertEquals(DatabaseAdapterImpl.getCell(cursor.getDouble(1)), cursor.getLong(3));
+		}
+		cursor.close();
+		
+		database.close();
+		
+		adapter.close();
+	}
+	
+	public void testUpdateV6ToV10IgnoreListVersion() {
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.setVersion(6);
+		database.execSQL(IGNORELIST_TABLE_CREATE);
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " VALUES (1, 'BSSID1', 'SSID1')");
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertEquals(10, adapter.getDatabaseVersion());
+		assertTrue(adapter.isIgnoredWifi("SSID1"));
+		
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " VALUES (2, 'BSSID2', 'SSID2')");
+		database.execSQL("DELETE FROM " + DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + " WHERE " + DatabaseAdapterImpl.COLUMN_ROWID + " = 1");
+		
+		Cursor cursor = database.rawQuery("SELECT " + DatabaseAdapterImpl.COLUMN_VALUE + " FROM " + 
+				DatabaseAdapterImpl.COUNTERS_TABLE_NAME + " WHERE " + DatabaseAdapterImpl.COLUMN_NAME + " = ?", 
+				new String[] {DatabaseAdapterImpl.IGNORELIST_TABLE_NAME});
+		assertTrue(cursor.moveToNext());
+		assertEquals(2, cursor.getLong(0));
+		cursor.close();
+		
+		database.close();
+		
+		adapter.close();
+	}
+	
+	public void testUpdateV7ToV10PhaseTimes() {
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.setVersion(7);
+		database.execSQL(TESTHISTORY_TABLE_CREATE);
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + " VALUES (1, 1000, 1, 'Sputnik', 'BSSID1', 1, 123)");
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertEquals(10, adapter.getDatabaseVersion());
+		
+		Cursor cursor = database.rawQuery("SELECT " + DatabaseAdapterImpl.COLUMN_LATENCY + ", " + DatabaseAdapterImpl.COLUMN_CONNECT + ", " + 
+				DatabaseAdapterImpl.COLUMN_PARSE + " FROM " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME, null);
+		assertTrue(cursor.moveToNext());
+		assertEquals(123, cursor.getLong(0));
+		assertEquals(-1, cursor.getLong(1));
+		assertEquals(-1, cursor.getLong(2));
+		cursor.close();
+		
+		long[] percentiles = adapter.fetchPhasePercentiles(50);
+		for(long percentile : percentiles) {
+			assertEquals(-1, percentile);
+		}
+		
+		database.close();
+		
+		adapter.close();
+	}
+	
+	public void testUpdateV8ToV10OrderIndexes() {
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.setVersion(8);
+		database.execSQL(IGNORELIST_TABLE_CREATE);
+		database.execSQL(LOCATIONLIST_TABLE_NAME);
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertEquals(10, adapter.getDatabaseVersion());
+		
+		assertTrue(indexExists(database, DatabaseAdapterImpl.IGNORELIST_TABLE_NAME + "_order"));
+		assertTrue(indexExists(database, DatabaseAdapterImpl.LOCATIONLIST_TABLE_NAME + "_order"));
+		
+		database.close();
+		
+		adapter.close();
+	}
+	
+	public void testUpdateV9ToV10PhaseTimes() {
+		
+		SQLiteDatabase database = this.getContext().openOrCreateDatabase(DatabaseAdapterImpl.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.setVersion(9);
+		database.execSQL(TESTHISTORY_V8_TABLE_CREATE);
+		database.execSQL("CREATE INDEX " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + "_" + DatabaseAdapterImpl.COLUMN_TIMESTAMP + 
+				" ON " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + " (" + DatabaseAdapterImpl.COLUMN_TIMESTAMP + ")");
+		database.execSQL("INSERT INTO " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + " VALUES (7, 1000, 1, 'Sputnik', 'BSSID1', 1, 123, -1, 20, -1, 30, 40)");
+		
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		
+		assertEquals(10, adapter.getDatabaseVersion());
+		
+		Cursor cursor = database.rawQuery("SELECT * FROM " + DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME, null);
+		assertEquals(-1, cursor.getColumnIndex("dns"));
+		assertEquals(-1, cursor.getColumnIndex("tls"));
+		assertTrue(cursor.moveToNext());
+		assertEquals(7, cursor.getLong(cursor.getColumnIndex(DatabaseAdapterImpl.COLUMN_ROWID)));
+		assertEquals(123, cursor.getLong(cursor.getColumnIndex(DatabaseAdapterImpl.COLUMN_LATENCY)));
+		assertEquals(20, cursor.getLong(cursor.getColumnIndex(DatabaseAdapterImpl.COLUMN_CONNECT)));
+		assertEquals(30, cursor.getLong(cursor.getColumnIndex(DatabaseAdapterImpl.COLUMN_FIRSTBYTE)));
+		assertEquals(40, cursor.getLong(cursor.getColumnIndex(DatabaseAdapterImpl.COLUMN_PARSE)));
+		cursor.close();
+		
+		assertTrue(indexExists(database, DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + "_" + DatabaseAdapterImpl.COLUMN_TIMESTAMP));
+		assertTrue(indexExists(database, DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + "_" + DatabaseAdapterImpl.COLUMN_BSSID));
+		assertFalse(tableExists(database, DatabaseAdapterImpl.TESTHISTORY_TABLE_NAME + "_old"));
+		
+		database.close();
+		
+		adapter.close();
+	}
+	
+	private boolean indexExists(final SQLiteDatabase database, final String index) {
+		String[] args = new String[] {index};
+		Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?", args);
+		cursor.moveToNext();
+		boolean exists = cursor.getInt(0) == 1;
+		cursor.close();
+		return exists;
+	}
+	
 	private boolean tableExists(final SQLiteDatabase database, final String table) {
 		String[] args = new String[] {table};
 		Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", args);
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.DatabaseWriter;
+import net.luniks.android.inetify.LocationSnapshot;
+import android.test.AndroidTestCase;
+
+public class DatabaseWriterTest extends AndroidTestCase {
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+	}
+
+	public void testRunReturnsResult() {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		assertEquals("Result", writer.run(new Callable<String>() {
+			public String call() {
+				return "Result";
+			}
+		}));
+		assertEquals("begin setSuccessful end", transaction.getLog());
+	}
+
+	public void testRunRethrowsException() {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		try {
+			writer.run(new Callable<String>() {
+				public String call() {
+					throw new IllegalStateException("Failed");
+				}
+			});
+			fail("Expected IllegalStateException");
+		} catch(IllegalStateException e) {
+			assertEquals("Failed", e.getMessage());
+		}
+		assertEquals("begin end", transaction.getLog());
+	}
+
+	public void testWritesBatched() throws Exception {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		Future<Boolean> blocker = writer.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				blocked.countDown();
+				release.await();
+				return true;
+			}
+		}, null);
+
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+		final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for(int i = 0; i < 10; i++) {
+			final int value = i;
+			futures.add(writer.submit(new Callable<Integer>() {
+				public Integer call() {
+					return value;
+				}
+			}, new DatabaseWriter.Listener<Integer>() {
+				public void onWritten(final Integer result) {
+					written.add(result);
+				}
+			}));
+		}
+
+		release.countDown();
+
+		assertTrue(blocker.get());
+		for(int i = 0; i < 10; i++) {
+			assertEquals(i, futures.get(i).get().intValue());
+		}
+
+		assertEquals(10, written.size());
+		assertEquals(2, transaction.getCommits());
+	}
+
+	public void testCompletedAfterCommit() throws Exception {
+
+		final TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		final List<Integer> commits = Collections.synchronizedList(new ArrayList<Integer>());
+
+		Future<Boolean> future = writer.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return true;
+			}
+		}, new DatabaseWriter.Listener<Boolean>() {
+			public void onWritten(final Boolean result) {
+				commits.add(transaction.getCommits());
+			}
+		});
+
+		assertTrue(future.get());
+		assertEquals(1, transaction.getCommits());
+		assertEquals(1, commits.size());
+		assertEquals(1, commits.get(0).intValue());
+	}
+
+	public void testFailedWriteRolledBack() throws Exception {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		writer.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				blocked.countDown();
+				release.await();
+				return true;
+			}
+		}, null);
+
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+		final List<Boolean> written = Collections.synchronizedList(new ArrayList<Boolean>());
+		Future<Boolean> failing = writer.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				throw new IllegalStateException("Failed");
+			}
+		}, null);
+		Future<Boolean> other = writer.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return true;
+			}
+		}, new DatabaseWriter.Listener<Boolean>() {
+			public void onWritten(final Boolean result) {
+				written.add(result);
+			}
+		});
+
+		release.countDown();
+
+		try {
+			failing.get();
+			fail("Expected ExecutionException");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(other.get());
+
+		// Other write run again without the failed one
+		assertEquals(1, written.size());
+		assertTrue(written.get(0));
+		assertEquals(2, transaction.getCommits());
+		assertEquals("begin setSuccessful end begin end begin setSuccessful end", transaction.getLog());
+	}
+
+	public void testRunOnWriterThread() throws Exception {
+
+		TestTransaction transaction = new TestTransaction();
+		final DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		assertFalse(writer.isWriterThread());
+
+		// Would deadlock if not run directly
+		String result = writer.run(new Callable<String>() {
+			public String call() {
+				assertTrue(writer.isWriterThread());
+				return writer.run(new Callable<String>() {
+					public String call() {
+						return "Nested";
+					}
+				});
+			}
+		});
+
+		assertEquals("Nested", result);
+		assertEquals(1, transaction.getCommits());
+	}
+
+	public void testRunOnCallingThread() throws Exception {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		final Thread caller = Thread.currentThread();
+		int threads = Thread.activeCount();
+
+		assertTrue(writer.run(new Callable<Boolean>() {
+			public Boolean call() {
+				return Thread.currentThread() == caller;
+			}
+		}));
+		assertEquals(threads, Thread.activeCount());
+		assertFalse(writer.isWriterThread());
+		assertEquals(1, transaction.getCommits());
+	}
+
+	public void testCloseStopsWriterThread() throws Exception {
+
+		TestTransaction transaction = new TestTransaction();
+		DatabaseWriter writer = new DatabaseWriter("TestWriter", transaction);
+
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		Future<Boolean> future = writer.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				threads.add(Thread.currentThread());
+				return true;
+			}
+		}, null);
+		Future<Boolean> queued = writer.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return true;
+			}
+		}, null);
+
+		assertTrue(future.get());
+
+		writer.close();
+
+		// Queued writes are written before the thread stops, well before IDLE_TIMEOUT
+		assertTrue(queued.isDone());
+		assertFalse(threads.get(0).isAlive());
+
+		// Starts a new thread
+		assertTrue(writer.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return true;
+			}
+		}, null).get());
+		writer.close();
+	}
+
+	public void testAdapterCloseStopsWriterThread() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		Future<Boolean> future = adapter.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				threads.add(Thread.currentThread());
+				return true;
+			}
+		}, null);
+
+		assertTrue(future.get());
+
+		adapter.close();
+
+		assertFalse(threads.get(0).isAlive());
+	}
+
+	public void testSnapshotUpdatedAfterCommit() throws Exception {
+
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		LocationSnapshot.getInstance().invalidate();
+		adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+
+		final CountDownLatch written = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		Future<Boolean> future = adapter.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+				written.countDown();
+				release.await();
+				return true;
+			}
+		}, null);
+
+		assertTrue(written.await(10, TimeUnit.SECONDS));
+
+		// Not committed yet
+		assertEquals(0, LocationSnapshot.getInstance().peek().size());
+
+		release.countDown();
+
+		assertTrue(future.get());
+		assertEquals(1, LocationSnapshot.getInstance().peek().size());
+
+		adapter.close();
+	}
+
+	public void testSnapshotNotUpdatedOnRollback() throws Exception {
+
+		final DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+		LocationSnapshot.getInstance().invalidate();
+		adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+		LocationSnapshot.Data before = LocationSnapshot.getInstance().peek();
+
+		Future<Boolean> future = adapter.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+				throw new IllegalStateException("Failed");
+			}
+		}, null);
+
+		try {
+			future.get();
+			fail("Expected ExecutionException");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		// Still loaded and unchanged
+		assertSame(before, LocationSnapshot.getInstance().peek());
+		assertFalse(adapter.hasLocations());
+
+		adapter.close();
+	}
+
+	public void testSharedInstance() throws Exception {
+
+		DatabaseAdapterImpl adapter = DatabaseAdapterImpl.getInstance(this.getContext());
+
+		assertSame(adapter, DatabaseAdapterImpl.getInstance(this.getContext()));
+
+		assertTrue(adapter.addIgnoredWifi("BSSID1", "SSID1"));
+		adapter.close();
+
+		assertTrue(adapter.isOpen());
+		assertTrue(adapter.isIgnoredWifi("SSID1"));
+
+		final DatabaseAdapterImpl other = DatabaseAdapterImpl.getInstance(this.getContext());
+		Future<Boolean> future = other.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return other.deleteIgnoredWifi("SSID1");
+			}
+		}, null);
+
+		assertTrue(future.get());
+		assertFalse(adapter.isIgnoredWifi("SSID1"));
+
+		TestUtils.deleteDatabase(this.getContext());
+
+		assertNotSame(adapter, DatabaseAdapterImpl.getInstance(this.getContext()));
+		assertFalse(adapter.isOpen());
+	}
+
+	private static class TestTransaction implements DatabaseWriter.Transaction {
+
+		private final StringBuilder log = new StringBuilder();
+		private boolean successful = false;
+		private int commits = 0;
+
+		public synchronized void begin() {
+			append("begin");
+			successful = false;
+		}
+
+		public synchronized void setSuccessful() {
+			append("setSuccessful");
+			successful = true;
+		}
+
+		public synchronized void end() {
+			append("end");
+			if(successful) {
+				commits++;
+			}
+		}
+
+		public synchronized String getLog() {
+			return log.toString();
+		}
+
+		public synchronized int getCommits() {
+			return commits;
+		}
+
+		private void append(final String event) {
+			if(log.length() > 0) {
+				log.append(" ");
+			}
+			log.append(event);
+		}
+	}
+
+}
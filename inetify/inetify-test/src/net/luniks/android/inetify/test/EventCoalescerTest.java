@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.Clock;
+import net.luniks.android.inetify.EventCoalescer;
+import android.test.AndroidTestCase;
+
+public class EventCoalescerTest extends AndroidTestCase {
+	
+	public void testCollapse() throws Exception {
+		
+		TestClock clock = new TestClock();
+		EventCoalescer coalescer = new EventCoalescer(clock);
+		
+		assertTrue(coalescer.offer(true, false));
+		assertFalse(coalescer.offer(false, true));
+		assertFalse(coalescer.offer(true, true));
+		assertFalse(coalescer.offer(false, true));
+		
+		assertTrue(coalescer.isPending());
+		assertEquals(4, coalescer.getEventCount());
+		assertEquals(3, coalescer.getCollapsedCount());
+		
+		clock.advance(1000);
+		
+		// Latest state wins
+		assertFalse(coalescer.take(true, 500, 3000));
+		assertFalse(coalescer.isPending());
+		
+		// The next event starts the service again
+		assertTrue(coalescer.offer(true, true));
+	}
+	
+	public void testNotPendingWhenServiceNotBusy() throws Exception {
+		
+		EventCoalescer coalescer = new EventCoalescer(new TestClock());
+		
+		assertTrue(coalescer.offer(true, false));
+		assertTrue(coalescer.offer(true, false));
+		
+		assertEquals(0, coalescer.getCollapsedCount());
+	}
+	
+	public void testNotPendingAfterMaxPending() throws Exception {
+		
+		TestClock clock = new TestClock();
+		EventCoalescer coalescer = new EventCoalescer(clock);
+		
+		assertTrue(coalescer.offer(true, false));
+		clock.advance(EventCoalescer.MAX_PENDING);
+		assertTrue(coalescer.offer(true, true));
+	}
+	
+	public void testTakeNotPending() throws Exception {
+		
+		EventCoalescer coalescer = new EventCoalescer(new TestClock());
+		
+		assertTrue(coalescer.take(true, 500, 3000));
+		assertFalse(coalescer.take(false, 500, 3000));
+	}
+	
+	public void testTakeWaitsForQuietWindow() throws Exception {
+		
+		final EventCoalescer coalescer = new EventCoalescer(new Clock() {
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		});
+		
+		coalescer.offer(true, false);
+		
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int i = 0; i < 3; i++) {
+						Thread.sleep(100);
+						coalescer.offer(i % 2 == 0, true);
+					}
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+		}.start();
+		
+		long start = System.currentTimeMillis();
+		boolean wifiConnected = coalescer.take(true, 200, 3000);
+		long time = System.currentTimeMillis() - start;
+		
+		// Last event was at about 300 ms
+		assertTrue(wifiConnected);
+		assertTrue(time >= 450);
+		assertTrue(time < 2000);
+		assertEquals(3, coalescer.getCollapsedCount());
+	}
+	
+	public void testTakeWaitsNotLongerThanMaxWait() throws Exception {
+		
+		final EventCoalescer coalescer = new EventCoalescer(new Clock() {
+			public long now() {
+				return System.currentTimeMillis();
+			}
+		});
+		
+		coalescer.offer(true, false);
+		
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						Thread.sleep(50);
+						coalescer.offer(false, true);
+					}
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+		};
+		thread.start();
+		
+		long start = System.currentTimeMillis();
+		boolean wifiConnected = coalescer.take(true, 200, 500);
+		long time = System.currentTimeMillis() - start;
+		
+		thread.interrupt();
+		
+		assertFalse(wifiConnected);
+		assertTrue(time >= 450);
+		assertTrue(time < 1500);
+	}
+	
+}
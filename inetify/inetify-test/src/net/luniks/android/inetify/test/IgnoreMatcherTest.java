@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.luniks.android.inetify.IgnoreMatcher;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class IgnoreMatcherTest extends AndroidTestCase {
+	
+	public void testIsPattern() {
+		
+		assertTrue(IgnoreMatcher.isPattern("CORP-*"));
+		assertTrue(IgnoreMatcher.isPattern("*"));
+		
+		assertFalse(IgnoreMatcher.isPattern("Celsten"));
+		assertFalse(IgnoreMatcher.isPattern(""));
+		assertFalse(IgnoreMatcher.isPattern(null));
+	}
+	
+	public void testNoRules() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("Celsten", "TestSSID1"));
+		
+		assertFalse(matcher.matches("Celsten"));
+		assertFalse(matcher.matches(""));
+		assertFalse(matcher.matches(null));
+	}
+	
+	public void testPrefix() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("CORP-*"));
+		
+		assertTrue(matcher.matches("CORP-"));
+		assertTrue(matcher.matches("CORP-1"));
+		assertTrue(matcher.matches("CORP-Floor-2"));
+		
+		assertFalse(matcher.matches("CORP"));
+		assertFalse(matcher.matches("corp-1"));
+		assertFalse(matcher.matches("XCORP-1"));
+	}
+	
+	public void testSuffix() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("*_Guest"));
+		
+		assertTrue(matcher.matches("_Guest"));
+		assertTrue(matcher.matches("Shop_Guest"));
+		assertTrue(matcher.matches("Shop_Guest_Guest"));
+		
+		assertFalse(matcher.matches("Shop_Guest2"));
+		assertFalse(matcher.matches("Shop_Gues"));
+	}
+	
+	public void testInfixAndMultipleWildcards() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("A*B*C", "X**Y"));
+		
+		assertTrue(matcher.matches("ABC"));
+		assertTrue(matcher.matches("A1B2C"));
+		assertTrue(matcher.matches("ABBCBC"));
+		assertTrue(matcher.matches("XY"));
+		assertTrue(matcher.matches("X-Y"));
+		
+		assertFalse(matcher.matches("AB"));
+		assertFalse(matcher.matches("ACB"));
+		assertFalse(matcher.matches("ABCD"));
+		assertFalse(matcher.matches("X"));
+	}
+	
+	public void testWildcardOnly() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("*"));
+		
+		assertTrue(matcher.matches(""));
+		assertTrue(matcher.matches("Celsten"));
+	}
+	
+	public void testOverlappingRules() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("Shop*", "Shop-*-Guest", "*Guest"));
+		
+		assertTrue(matcher.matches("Shop"));
+		assertTrue(matcher.matches("Shop-1-Guest"));
+		assertTrue(matcher.matches("Guest"));
+		
+		assertFalse(matcher.matches("Shoe"));
+		assertFalse(matcher.matches("Gues"));
+	}
+	
+	public void testNonAscii() {
+		
+		IgnoreMatcher matcher = new IgnoreMatcher(Arrays.asList("Café*", "*Größe"));
+		
+		assertTrue(matcher.matches("Café"));
+		assertTrue(matcher.matches("Café Müller"));
+		assertTrue(matcher.matches("Kleine Größe"));
+		
+		assertFalse(matcher.matches("Cafe"));
+		assertFalse(matcher.matches("Größer"));
+	}
+	
+	public void testBenchmark() {
+		
+		benchmark(createRules(10), 1000, 100);
+		benchmark(createRules(10000), 1000, 100);
+	}
+	
+	private static List<String> createRules(final int count) {
+		List<String> rules = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++) {
+			if(i % 2 == 0) {
+				rules.add("CORP-" + i + "-*");
+			} else {
+				rules.add("*_Guest" + i);
+			}
+		}
+		return rules;
+	}
+	
+	private static void benchmark(final List<String> rules, final int count, final int rounds) {
+		IgnoreMatcher matcher = new IgnoreMatcher(rules);
+		
+		List<String> ssids = new ArrayList<String>(count);
+		long chars = 0;
+		for(int i = 0; i < count; i++) {
+			String ssid;
+			if(i % 3 == 0) {
+				ssid = "CORP-" + i + "-Floor" + i;
+			} else if(i % 3 == 1) {
+				ssid = "Shop_Guest" + i;
+			} else {
+				ssid = "Celsten" + i;
+			}
+			ssids.add(ssid);
+			chars += ssid.length();
+		}
+		
+		// Cold, computes the states of the SSIDs matched
+		long start = System.currentTimeMillis();
+		for(String ssid : ssids) {
+			matcher.matches(ssid);
+		}
+		long cold = System.currentTimeMillis() - start;
+		
+		long states = matcher.getStatesComputed();
+		long transitions = matcher.getTransitionsComputed();
+		
+		// Warm, only cached transitions
+		start = System.currentTimeMillis();
+		for(int i = 0; i < rounds; i++) {
+			for(String ssid : ssids) {
+				matcher.matches(ssid);
+			}
+		}
+		long warm = System.currentTimeMillis() - start;
+		
+		Log.d("IgnoreMatcherTest", String.format("%s SSIDs on %s rules cold: %s ms, %s states, %s transitions", 
+				count, rules.size(), cold, states, transitions));
+		Log.d("IgnoreMatcherTest", String.format("%s SSIDs on %s rules warm: %s ms for %s rounds", 
+				count, rules.size(), warm, rounds));
+		
+		// At most one state and transition computed per character matched, however many rules
+		assertTrue(transitions > 0);
+		assertTrue(transitions <= chars);
+		assertTrue(states <= chars + 1);
+		
+		// None computed once the SSIDs were matched
+		assertEquals(states, matcher.getStatesComputed());
+		assertEquals(transitions, matcher.getTransitionsComputed());
+	}
+	
+}
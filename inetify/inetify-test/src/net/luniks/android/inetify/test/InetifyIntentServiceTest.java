@@ -19,11 +19,16 @@ package net.luniks.android.inetify.test;
 import net.luniks.android.inetify.ConnectivityActionReceiver;
 import net.luniks.android.inetify.DatabaseAdapter;
 import net.luniks.android.inetify.InetifyIntentService;
+import net.luniks.android.inetify.ProbeScheduler;
+import net.luniks.android.inetify.Settings;
 import net.luniks.android.inetify.TestInfo;
+import net.luniks.android.inetify.TestResultCache;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.preference.PreferenceManager;
 import android.test.ServiceTestCase;
 
 public class InetifyIntentServiceTest extends ServiceTestCase<InetifyIntentService> {
@@ -188,6 +193,7 @@ public class InetifyIntentServiceTest extends ServiceTestCase<InetifyIntentServi
 		tester.done();
 		
 		assertEquals("testWifiNotIgnored()", databaseAdapter.fetchTestResult().getExtra());
+		assertEquals(1, ((TestDatabaseAdapter)databaseAdapter).getTestHistoryCount());
 		
 		TestUtils.waitForStaticFieldNull(InetifyIntentService.class, "wakeLock", 1000);
 		
@@ -319,6 +325,87 @@ public class InetifyIntentServiceTest extends ServiceTestCase<InetifyIntentServi
 		assertFalse(this.getService().stopService(serviceIntent));
 	}
 	
+	public void testStaleGeneration() throws Exception {
+		
+		ProbeScheduler scheduler = ProbeScheduler.getInstance(this.getContext());
+		long generation = scheduler.newGeneration();
+		scheduler.newGeneration();
+		
+		Intent serviceIntent = new Intent(this.getContext(), InetifyIntentService.class);
+		serviceIntent.putExtra(ConnectivityActionReceiver.EXTRA_IS_WIFI_CONNECTED, true);
+		serviceIntent.putExtra(ConnectivityActionReceiver.EXTRA_GENERATION, generation);
+		
+		this.setupService();
+		InetifyIntentService serviceToTest = getService();
+		
+		TestTester tester = new TestTester();
+		TestUtils.setFieldValue(serviceToTest, "tester", tester);
+		
+		DatabaseAdapter databaseAdapter = new TestDatabaseAdapter();
+		TestUtils.setFieldValue(serviceToTest, "databaseAdapter", databaseAdapter);
+		
+		acquireWakeLock();
+		
+		this.startService(serviceIntent);
+		
+		TestUtils.waitForStaticFieldNull(InetifyIntentService.class, "wakeLock", 1000);
+		
+		// A newer connectivity event came in meanwhile, so the test should be dropped
+		assertEquals(0, tester.testCount());
+		assertEquals(0, ((TestDatabaseAdapter)databaseAdapter).getTestHistoryCount());
+		
+		assertFalse(this.getService().stopService(serviceIntent));
+	}
+	
+	public void testCachedResult() throws Exception {
+		
+		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this.getContext());
+		sharedPreferences.edit()
+			.putString(Settings.INTERNET_PROBE, Settings.INTERNET_PROBE_TITLE)
+			.putString(Settings.INTERNET_SERVER, "www.google.com")
+			.putString(Settings.INTERNET_TITLE, "Google")
+			.putString(Settings.INTERNET_CACHE_TTL, "5")
+			.commit();
+		
+		Intent serviceIntent = new Intent(this.getContext(), InetifyIntentService.class);
+		serviceIntent.putExtra(ConnectivityActionReceiver.EXTRA_IS_WIFI_CONNECTED, true);
+		
+		this.setupService();
+		InetifyIntentService serviceToTest = getService();
+		
+		TestTester tester = new TestTester();
+		TestUtils.setFieldValue(serviceToTest, "tester", tester);
+		
+		DatabaseAdapter databaseAdapter = new TestDatabaseAdapter();
+		TestUtils.setFieldValue(serviceToTest, "databaseAdapter", databaseAdapter);
+		
+		TestResultCache.clear();
+		TestResultCache cache = new TestResultCache(databaseAdapter);
+		TestUtils.setFieldValue(serviceToTest, "testResultCache", cache);
+		
+		TestInfo info = new TestInfo();
+		info.setTimestamp(System.currentTimeMillis());
+		info.setExtra("testCachedResult()");
+		info.setIsExpectedTitle(true);
+		cache.put(TestResultCache.getKey("TesterBSSID", Settings.INTERNET_PROBE_TITLE, "www.google.com", "Google"), info);
+		
+		acquireWakeLock();
+		
+		this.startService(serviceIntent);
+		
+		TestUtils.waitForStaticFieldNull(InetifyIntentService.class, "wakeLock", 1000);
+		
+		// The Wifi network was tested OK just before, so the cached result should be used
+		assertEquals(0, tester.testCount());
+		assertEquals("testCachedResult()", databaseAdapter.fetchTestResult().getExtra());
+		assertEquals(1, TestResultCache.getHitCount());
+		
+		// Nothing was probed, but the cached result is recorded like a test result
+		assertEquals(1, ((TestDatabaseAdapter)databaseAdapter).getTestHistoryCount());
+		
+		assertFalse(this.getService().stopService(serviceIntent));
+	}
+	
 	private void acquireWakeLock() throws Exception {
 		PowerManager powerManager = (PowerManager)this.getContext().getSystemService(Context.POWER_SERVICE);
 		WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, 
@@ -16,6 +16,7 @@
 package net.luniks.android.inetify.test;
 
 import net.luniks.android.inetify.DatabaseAdapter;
+import net.luniks.android.inetify.Diagnostics;
 import net.luniks.android.inetify.Help;
 import net.luniks.android.inetify.IgnoreList;
 import net.luniks.android.inetify.Inetify;
@@ -46,8 +47,7 @@ public class InetifyTest extends ActivityInstrumentationTestCase2<Inetify> {
 	protected void setUp() throws Exception {
 		super.setUp();
 
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb");
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getInstrumentation().getTargetContext());
 		
 		activity = this.getActivity();
 	}
@@ -147,6 +147,19 @@ public class InetifyTest extends ActivityInstrumentationTestCase2<Inetify> {
 		
 	}
 	
+	public void testDiagnostics() throws InterruptedException {
+		
+		ListView listView = (ListView)activity.findViewById(R.id.listview_main);
+		
+		TwoLineListItem listItemDiagnostics = (TwoLineListItem)TestUtils.selectAndFindListViewChildAt(activity, listView, 5, 3000);
+		
+		assertTrue(listItemDiagnostics.isEnabled());
+		
+		assertEquals(activity.getString(R.string.main_title_diagnostics), listItemDiagnostics.getText1().getText());
+		assertEquals(activity.getString(R.string.main_summary_diagnostics), listItemDiagnostics.getText2().getText());
+		
+	}
+	
 	public void testClickTest() throws Exception {
 		
 		TestTester tester = new TestTester();
@@ -292,5 +305,31 @@ public class InetifyTest extends ActivityInstrumentationTestCase2<Inetify> {
 		help.finish();
 		
 	}
+	
+	public void testClickDiagnostics() throws InterruptedException {
+		
+		final ListView listView = (ListView)activity.findViewById(R.id.listview_main);
+		
+		final TwoLineListItem listItemDiagnostics = (TwoLineListItem)TestUtils.selectAndFindListViewChildAt(activity, listView, 5, 3000);
+		
+		ActivityMonitor monitor = new ActivityMonitor(Diagnostics.class.getName(), null, false);
+		this.getInstrumentation().addMonitor(monitor);
+		
+		Runnable click = new Runnable() {
+			public void run() {
+				listView.performItemClick(listItemDiagnostics, 5, 5);
+			}
+		};
+		activity.runOnUiThread(click);
+		
+		Activity diagnostics = monitor.waitForActivityWithTimeout(10000);
+		
+		assertEquals(1, monitor.getHits());
+		
+		this.getInstrumentation().removeMonitor(monitor);
+		
+		diagnostics.finish();
+		
+	}
 
 }
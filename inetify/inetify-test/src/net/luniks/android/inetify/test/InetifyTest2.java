@@ -37,8 +37,7 @@ public class InetifyTest2 extends ActivityInstrumentationTestCase2<Inetify> {
 	protected void setUp() throws Exception {
 		super.setUp();
 		
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb");
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getInstrumentation().getTargetContext());
 		
 		DatabaseAdapter databaseAdapter = new DatabaseAdapterImpl(this.getInstrumentation().getTargetContext());
 		databaseAdapter.updateTestResult(0, ConnectivityManager.TYPE_WIFI, "Sputnik", true);
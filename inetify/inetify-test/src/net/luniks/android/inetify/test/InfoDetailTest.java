@@ -18,6 +18,7 @@ package net.luniks.android.inetify.test;
 import net.luniks.android.inetify.DatabaseAdapter;
 import net.luniks.android.inetify.DatabaseAdapterImpl;
 import net.luniks.android.inetify.InfoDetail;
+import net.luniks.android.inetify.ProbeTimings;
 import net.luniks.android.inetify.R;
 import net.luniks.android.inetify.TestInfo;
 import net.luniks.android.inetify.Utils;
@@ -38,8 +39,7 @@ public class InfoDetailTest extends ActivityInstrumentationTestCase2<InfoDetail>
 	
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb");
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getInstrumentation().getTargetContext());
 	}
 	
 	public void testTestInfoNull() throws InterruptedException {
@@ -320,6 +320,37 @@ public class InfoDetailTest extends ActivityInstrumentationTestCase2<InfoDetail>
 		
 	}
 	
+	public void testTimingsPercentilesLoaded() throws InterruptedException {
+		
+		TestInfo info = getTestInfo();
+		info.setPhaseTime(ProbeTimings.PHASE_CONNECT, 10);
+		info.setPhaseTime(ProbeTimings.PHASE_FIRST_BYTE, 20);
+		
+		InfoDetail activity = this.getActivity(info);
+		
+		ListView listView = (ListView)activity.findViewById(R.id.listview_infodetail);
+		
+		TestUtils.waitForItemCount(listView, 7, 10000);
+		
+		// No test history, so the percentiles of all phases are not available
+		String phases = activity.getString(R.string.infodetail_value_phases, "10", "20", "-");
+		String none = activity.getString(R.string.infodetail_value_phases, "-", "-", "-");
+		String expected = activity.getString(R.string.infodetail_value_timings, phases, none, none);
+		
+		TwoLineListItem listItem6 = (TwoLineListItem)TestUtils.selectAndFindListViewChildAt(activity, listView, 6, 5000);
+		long timeout = System.currentTimeMillis() + 10000;
+		while(! expected.equals(listItem6.getText2().getText().toString()) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+			listItem6 = (TwoLineListItem)TestUtils.selectAndFindListViewChildAt(activity, listView, 6, 5000);
+		}
+		
+		assertEquals(activity.getString(R.string.infodetail_prop_timings), listItem6.getText1().getText());
+		assertEquals(expected, listItem6.getText2().getText().toString());
+		
+		activity.finish();
+		
+	}
+	
 	private InfoDetail getActivity(final TestInfo info) {
 		
 		Intent infoDetailIntent = new Intent(InfoDetail.class.getName());
@@ -413,6 +413,82 @@ public class LocaterImplTest extends AndroidTestCase {
 		assertEquals(locationGPS, locations.get(1));
 	}
 	
+	public void testLocaterLastKnownCoarseKeepsListening() {
+		
+		final Vector<Location> locations = new Vector<Location>();
+		
+		LocationManagerMock locationManager = new LocationManagerMock(true);
+		
+		long time = System.currentTimeMillis();
+		
+		Location coarse = new Location(LocationManager.NETWORK_PROVIDER);
+		coarse.setTime(time - 10 * 1000);
+		coarse.setAccuracy(1000);
+		locationManager.addLastKnownLocation(LocationManager.NETWORK_PROVIDER, coarse);
+		
+		final LocaterLocationListener listener = new LocaterLocationListener() {
+			
+			public void onLocationChanged(Location location) {
+				locations.add(location);
+			}
+		};
+		
+		final LocaterImpl locater = new LocaterImpl(locationManager);
+		
+		locater.start(listener, 60 * 1000, 100, 5000, true);
+		
+		assertEquals(1, locations.size());
+		assertTrue(locationManager.areListenersRegistered());
+		
+		Location tooCoarse = new Location(LocationManager.NETWORK_PROVIDER);
+		tooCoarse.setAccuracy(6000);
+		locationManager.updateLocation(tooCoarse);
+		
+		Location alsoCoarse = new Location(LocationManager.NETWORK_PROVIDER);
+		alsoCoarse.setAccuracy(2000);
+		locationManager.updateLocation(alsoCoarse);
+		
+		Location fine = new Location(LocationManager.GPS_PROVIDER);
+		fine.setAccuracy(10);
+		locationManager.updateLocation(fine);
+		
+		assertEquals(3, locations.size());
+		assertEquals(alsoCoarse, locations.get(1));
+		assertEquals(fine, locations.get(2));
+		
+		locater.stop();
+		
+		assertFalse(locationManager.areListenersRegistered());
+	}
+	
+	public void testLocaterLastKnownFineNotListening() {
+		
+		final Vector<Location> locations = new Vector<Location>();
+		
+		LocationManagerMock locationManager = new LocationManagerMock(true);
+		
+		long time = System.currentTimeMillis();
+		
+		Location fine = new Location(LocationManager.GPS_PROVIDER);
+		fine.setTime(time - 10 * 1000);
+		fine.setAccuracy(10);
+		locationManager.addLastKnownLocation(LocationManager.GPS_PROVIDER, fine);
+		
+		final LocaterLocationListener listener = new LocaterLocationListener() {
+			
+			public void onLocationChanged(Location location) {
+				locations.add(location);
+			}
+		};
+		
+		final LocaterImpl locater = new LocaterImpl(locationManager);
+		
+		locater.start(listener, 60 * 1000, 100, 5000, true);
+		
+		assertEquals(1, locations.size());
+		assertFalse(locationManager.areListenersRegistered());
+	}
+	
 	public void testIsAccurateEnoughTrue() {
 		
 		LocationManagerMock locationManager = new LocationManagerMock(true);
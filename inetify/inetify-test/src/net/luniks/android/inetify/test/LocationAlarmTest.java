@@ -17,6 +17,7 @@ package net.luniks.android.inetify.test;
 
 import net.luniks.android.inetify.LocationAlarm;
 import net.luniks.android.inetify.LocationAlarmReceiver;
+import net.luniks.android.inetify.LocationSchedule;
 import net.luniks.android.inetify.Settings;
 import net.luniks.android.test.mock.AlarmManagerMock;
 import android.app.AlarmManager;
@@ -39,6 +40,8 @@ public class LocationAlarmTest extends AndroidTestCase {
 		Intent intent = new Intent(this.getContext(), LocationAlarmReceiver.class);
 		intent.setAction(LocationAlarmReceiver.ACTION_LOCATION_ALARM);
 		this.operation = PendingIntent.getBroadcast(this.getContext(), 0, intent, 0);
+		
+		new LocationSchedule(sharedPreferences, new TestClock()).clear();
 	}
 	
 	// Auto Wifi and notification enabled, airplane mode off
@@ -149,6 +152,42 @@ public class LocationAlarmTest extends AndroidTestCase {
 		assertAlarmSet(alarmManager, AlarmManager.INTERVAL_FIFTEEN_MINUTES);
 	}
 	
+	// Location checked and found far from any Wifi location
+	public void testScheduledDelay() throws Exception {
+		
+		LocationAlarm alarm = new LocationAlarm(this.getContext());
+		
+		AlarmManagerMock alarmManager = new AlarmManagerMock();
+		TestClock clock = new TestClock();
+		clock.setNow(SystemClock.elapsedRealtime());
+		LocationSchedule schedule = new LocationSchedule(sharedPreferences, clock);
+		TestUtils.setFieldValue(alarm, "alarmManager", alarmManager);
+		TestUtils.setFieldValue(alarm, "clock", clock);
+		TestUtils.setFieldValue(alarm, "schedule", schedule);
+		
+		setSettings(true, true, "15");
+		
+		// How to set airplane mode?
+		assertFalse("Test assumes that airplane mode is off", isAirplaneModeOn());
+		
+		long delay = schedule.update(100000, 0, 1500);
+		
+		alarm.reset();
+		
+		assertFalse(alarmManager.isCancelled());
+		assertEquals(clock.now() + delay, alarmManager.getTriggerAtTime());
+		assertEquals(delay, alarmManager.getInterval());
+		
+		// Near a Wifi location the check interval setting is used again
+		schedule.update(100, 0, 1500);
+		
+		alarm.reset();
+		
+		assertAlarmSet(alarmManager, AlarmManager.INTERVAL_FIFTEEN_MINUTES);
+		
+		schedule.clear();
+	}
+	
     /**
      * Returns true if airplane mode is on, false otherwise.
      * @return boolean true if airplane mode is on
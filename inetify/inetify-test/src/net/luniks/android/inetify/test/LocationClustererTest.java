@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.luniks.android.inetify.LocationClusterer;
+import net.luniks.android.inetify.LocationClusterer.Cluster;
+import android.test.AndroidTestCase;
+
+public class LocationClustererTest extends AndroidTestCase {
+
+	private List<Cluster> clusters;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		clusters = new ArrayList<Cluster>();
+	}
+
+	public void testEmpty() {
+
+		LocationClusterer clusterer = new LocationClusterer(null, new double[0], new double[0], new String[0]);
+
+		assertEquals(0, clusterer.getClusters(10, -90, -180, 90, 180, clusters));
+		assertTrue(clusters.isEmpty());
+	}
+
+	public void testClusteredByZoom() {
+
+		LocationClusterer clusterer = new LocationClusterer(null,
+				new double[] { 50.0001, 50.0002, 50.0003, 48.8 },
+				new double[] { 3.0001, 3.0002, 3.0003, 2.3 },
+				new String[] { "Name1", "Name2", "Name3", "Name4" });
+
+		assertEquals(4, clusterer.getClusters(3, -90, -180, 90, 180, clusters));
+		assertEquals(1, clusters.size());
+		assertEquals(4, clusters.get(0).getCount());
+		assertNull(clusters.get(0).getName());
+
+		assertEquals(4, clusterer.getClusters(8, -90, -180, 90, 180, clusters));
+		assertEquals(2, clusters.size());
+		assertEquals(1, clusters.get(0).getCount());
+		assertEquals("Name4", clusters.get(0).getName());
+		assertEquals(48.8, clusters.get(0).getLatitude(), 0.000001);
+		assertEquals(3, clusters.get(1).getCount());
+		assertEquals(50.0002, clusters.get(1).getLatitude(), 0.000001);
+		assertEquals(3.0002, clusters.get(1).getLongitude(), 0.000001);
+
+		assertEquals(4, clusterer.getClusters(LocationClusterer.MAX_ZOOM + 5, -90, -180, 90, 180, clusters));
+		assertEquals(4, clusters.size());
+	}
+
+	public void testOnlyViewport() {
+
+		LocationClusterer clusterer = new LocationClusterer(null,
+				new double[] { 50, 50, 48.8, -33.9 },
+				new double[] { 3, 4.4, 2.3, 151.2 },
+				new String[] { "Name1", "Name2", "Name3", "Name4" });
+
+		assertEquals(2, clusterer.getClusters(12, 49.5, 2.5, 50.5, 5, clusters));
+		assertEquals(2, clusters.size());
+		assertEquals("Name1", clusters.get(0).getName());
+		assertEquals("Name2", clusters.get(1).getName());
+
+		assertEquals(0, clusterer.getClusters(12, 10, 10, 20, 20, clusters));
+		assertTrue(clusters.isEmpty());
+	}
+
+	public void testCrossing180thMeridian() {
+
+		LocationClusterer clusterer = new LocationClusterer(null,
+				new double[] { -17, -17, 0 },
+				new double[] { 179, -179, 0 },
+				new String[] { "Name1", "Name2", "Name3" });
+
+		assertEquals(2, clusterer.getClusters(10, -18, 178, -16, -178, clusters));
+		assertEquals(2, clusters.size());
+		assertEquals("Name1", clusters.get(0).getName());
+		assertEquals("Name2", clusters.get(1).getName());
+	}
+
+	public void testSameClusterReturned() {
+
+		LocationClusterer clusterer = new LocationClusterer(null,
+				new double[] { 50.0001, 50.0002 },
+				new double[] { 3.0001, 3.0002 },
+				new String[] { "Name1", "Name2" });
+
+		clusterer.getClusters(10, 49, 2, 51, 4, clusters);
+		Cluster cluster = clusters.get(0);
+
+		clusterer.getClusters(10, 49.9, 2.9, 50.1, 3.1, clusters);
+
+		assertSame(cluster, clusters.get(0));
+	}
+
+	public void testOnlyRecentLevelsKept() {
+
+		LocationClusterer clusterer = new LocationClusterer(null,
+				new double[] { 50.0001, 50.0002 },
+				new double[] { 3.0001, 3.0002 },
+				new String[] { "Name1", "Name2" });
+
+		clusterer.getClusters(10, 49, 2, 51, 4, clusters);
+		Cluster cluster = clusters.get(0);
+
+		for(int zoom = 11; zoom < 11 + LocationClusterer.MAX_LEVELS - 1; zoom++) {
+			clusterer.getClusters(zoom, 49, 2, 51, 4, clusters);
+		}
+		assertEquals(LocationClusterer.MAX_LEVELS, clusterer.getLevelCount());
+
+		// Zoom level 10 is still kept
+		clusterer.getClusters(10, 49, 2, 51, 4, clusters);
+		assertSame(cluster, clusters.get(0));
+
+		// Zoom level 11 was shown least recently and is dropped
+		clusterer.getClusters(5, 49, 2, 51, 4, clusters);
+		clusterer.getClusters(10, 49, 2, 51, 4, clusters);
+		assertSame(cluster, clusters.get(0));
+		assertEquals(LocationClusterer.MAX_LEVELS, clusterer.getLevelCount());
+
+		// Zoom level 10 is dropped after showing MAX_LEVELS others
+		for(int zoom = 0; zoom < LocationClusterer.MAX_LEVELS; zoom++) {
+			clusterer.getClusters(zoom, 49, 2, 51, 4, clusters);
+		}
+		clusterer.getClusters(10, 49, 2, 51, 4, clusters);
+		assertNotSame(cluster, clusters.get(0));
+		assertEquals(2, clusters.get(0).getCount());
+		assertEquals(LocationClusterer.MAX_LEVELS, clusterer.getLevelCount());
+	}
+
+	public void testManyLocations() {
+
+		int size = 50000;
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		String[] names = new String[size];
+		for(int i = 0; i < size; i++) {
+			lats[i] = 45 + (i % 500) * 0.01;
+			lons[i] = 5 + (i / 500) * 0.01;
+			names[i] = "Name" + i;
+		}
+
+		LocationClusterer clusterer = new LocationClusterer(null, lats, lons, names);
+
+		assertEquals(size, clusterer.getClusters(0, -90, -180, 90, 180, clusters));
+
+		int count = clusterer.getClusters(14, 47, 5.5, 47.05, 5.6, clusters);
+		assertTrue(count > 0);
+		assertTrue(count < size);
+		for(Cluster cluster : clusters) {
+			assertTrue(cluster.getLatitude() >= 47 - LocationClusterer.getCellDeg(14));
+			assertTrue(cluster.getLatitude() <= 47.05 + LocationClusterer.getCellDeg(14));
+		}
+	}
+
+	public void testSource() {
+
+		Object source = new Object();
+		LocationClusterer clusterer = new LocationClusterer(source, new double[0], new double[0], new String[0]);
+
+		assertTrue(clusterer.isFrom(source));
+		assertFalse(clusterer.isFrom(new Object()));
+		assertFalse(clusterer.isFrom(null));
+		assertFalse(new LocationClusterer(null, new double[0], new double[0], new String[0]).isFrom(null));
+	}
+
+}
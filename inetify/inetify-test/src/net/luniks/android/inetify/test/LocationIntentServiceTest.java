@@ -19,6 +19,7 @@ import net.luniks.android.inetify.DatabaseAdapter;
 import net.luniks.android.inetify.Locater;
 import net.luniks.android.inetify.LocationIntentService;
 import net.luniks.android.inetify.Settings;
+import net.luniks.android.inetify.WakeLockStats;
 import net.luniks.android.interfaces.IConnectivityManager;
 import net.luniks.android.interfaces.ILocationManager;
 import net.luniks.android.test.mock.ConnectivityManagerMock;
@@ -46,6 +47,7 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		super.setUp();
 		
 		sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this.getContext());
+		WakeLockStats.getInstance(this.getContext()).clear();
 	}
 	
 	public void testProviderEnabledHasLocationsNullIntent() throws Exception {
@@ -185,22 +187,19 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		
 		new ServiceStarter(serviceIntent).start();
 		
-		// Service should start the locater twice with 100 millisecond timeout each
+		// Service should start the locater once for both fine and coarse accuracy
 		Thread.sleep(500);
 		
 		// After the timeout, the locater should have been stopped
 		assertFalse(locater.isRunning());
 		
-		assertEquals(2, locater.getCallsToStart().size());
+		assertEquals(1, locater.getCallsToStart().size());
 		
 		assertEquals(60 * 1000, locater.getCallsToStart().get(0).getMaxAge());
 		assertEquals(100, locater.getCallsToStart().get(0).getMinAccuracy());
+		assertEquals(5000, locater.getCallsToStart().get(0).getCoarseAccuracy());
 		assertEquals(false, locater.getCallsToStart().get(0).isUseGPS());
 		
-		assertEquals(60 * 1000, locater.getCallsToStart().get(1).getMaxAge());
-		assertEquals(5000, locater.getCallsToStart().get(1).getMinAccuracy());
-		assertEquals(false, locater.getCallsToStart().get(1).isUseGPS());
-		
 		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 1000);
 		
 		assertFalse(this.getService().stopService(serviceIntent));
@@ -276,27 +275,22 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		
 		new ServiceStarter(serviceIntent).start();
 		
-		// Service should start the locater twice with 100 millisecond timeout each
+		// Service should start the locater once, using GPS and the network at the same time
 		Thread.sleep(500);
 		
 		// After the timeout, the locater should have been stopped
 		assertFalse(locater.isRunning());
 		
-		assertEquals(2, locater.getCallsToStart().size());
-		
-		// Even if GPS is enabled, the service should first see if it can get
-		// an accurate location from the network (probably succeeds only if Wifi is enabled)
-		assertEquals(60 * 1000, locater.getCallsToStart().get(0).getMaxAge());
-		assertEquals(100, locater.getCallsToStart().get(0).getMinAccuracy());
-		assertEquals(false, locater.getCallsToStart().get(0).isUseGPS());
+		assertEquals(1, locater.getCallsToStart().size());
 		
 		// If GPS is used, the service should not accept locations with coarse accuracy
 		// from the network when GPS does not find a location because if it does, 
 		// it might consider a Wifi location as near that it didn't when it found 
 		// accurate locations using GPS 
-		assertEquals(60 * 1000, locater.getCallsToStart().get(1).getMaxAge());
-		assertEquals(100, locater.getCallsToStart().get(1).getMinAccuracy());
-		assertEquals(true, locater.getCallsToStart().get(1).isUseGPS());
+		assertEquals(60 * 1000, locater.getCallsToStart().get(0).getMaxAge());
+		assertEquals(100, locater.getCallsToStart().get(0).getMinAccuracy());
+		assertEquals(100, locater.getCallsToStart().get(0).getCoarseAccuracy());
+		assertEquals(true, locater.getCallsToStart().get(0).isUseGPS());
 		
 		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 1000);
 		
@@ -344,7 +338,7 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		location.setAccuracy(33);
 		serviceToTest.onLocationChanged(location);
 		
-		// Service should stop the locater and not start it for the second run
+		// Service should stop the locater and not wait for the timeout
 		Thread.sleep(500);
 		
 		// After the timeout, the locater should have been stopped
@@ -358,6 +352,10 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		
 		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 1000);
 		
+		WakeLockStats.Stats stats = WakeLockStats.getInstance(this.getContext()).getStats(WakeLockStats.CAUSE_LOCATION_ALARM);
+		assertEquals(1, stats.getCount());
+		assertEquals(0, stats.getOverBudget());
+		
 		assertFalse(this.getService().stopService(serviceIntent));
 	}
 	
@@ -390,28 +388,126 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		
 		new ServiceStarter(serviceIntent).start();
 		
-		// Service should start the locater twice with 100 millisecond timeout each
+		// Service should start the locater once for both fine and coarse accuracy
 		Thread.sleep(500);
 		
 		// After the timeout, the locater should have been stopped
 		assertFalse(locater.isRunning());
 		
-		assertEquals(2, locater.getCallsToStart().size());
+		assertEquals(1, locater.getCallsToStart().size());
 		
 		assertEquals(60 * 1000, locater.getCallsToStart().get(0).getMaxAge());
 		assertEquals(100, locater.getCallsToStart().get(0).getMinAccuracy());
+		assertEquals(5000, locater.getCallsToStart().get(0).getCoarseAccuracy());
 		assertEquals(false, locater.getCallsToStart().get(0).isUseGPS());
 		
-		assertEquals(60 * 1000, locater.getCallsToStart().get(1).getMaxAge());
-		assertEquals(5000, locater.getCallsToStart().get(1).getMinAccuracy());
-		assertEquals(false, locater.getCallsToStart().get(1).isUseGPS());
-		
 		// Send a second intent to the service - it should be ignored
 		serviceToTest.onStartCommand(serviceIntent, 0, 0);
 		
 		assertFalse(locater.isRunning());
 		
-		assertEquals(2, locater.getCallsToStart().size());
+		assertEquals(1, locater.getCallsToStart().size());
+		
+		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 1000);
+		
+		assertFalse(this.getService().stopService(serviceIntent));
+	}
+	
+	public void testCoarseLocationAcceptedAtDeadline() throws Exception {
+		
+		sharedPreferences.edit().putBoolean(Settings.LOCATION_USE_GPS, false).commit();
+		
+		Intent serviceIntent = new Intent(this.getContext(), LocationIntentService.class);
+		
+		this.setupService();
+		LocationIntentService serviceToTest = getService();
+		
+		// At least one location provider enabled
+		TestLocationManager locationManager = new TestLocationManager();
+		locationManager.setAllProvidersEnabled(true);
+		
+		// Wifi not connected
+		IConnectivityManager connectivityManager = getConnectivityManager(false);
+		
+		// At least one location in the database
+		TestDatabaseAdapter databaseAdapter = new TestDatabaseAdapter();
+		databaseAdapter.addLocation("TestBSSID", "TestSSID", "TestName", new Location(Locater.PROVIDER_DATABASE));
+		databaseAdapter.setNearestLocation(null);
+		
+		final TestLocater locater = new TestLocater();
+		
+		setDependencies(serviceToTest, locationManager, connectivityManager, databaseAdapter, locater);
+		setGetLocationTimeout(300, 60 * 1000);
+		
+		acquireWakeLock();
+		
+		new ServiceStarter(serviceIntent).start();
+		
+		// Wait for the locater to be started
+		while(! locater.wasStarted()) {
+			Thread.sleep(10);
+		}
+		
+		// Pass a location with coarse accuracy - should be kept until the deadline
+		Location location = new Location("network");
+		location.setAccuracy(1000);
+		serviceToTest.onLocationChanged(location);
+		
+		assertTrue(locater.isRunning());
+		
+		// Should accept the location at the deadline and not wait for the timeout
+		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 2000);
+		
+		assertFalse(locater.isRunning());
+		assertEquals(1, locater.getCallsToStart().size());
+		
+		assertFalse(this.getService().stopService(serviceIntent));
+	}
+	
+	public void testFirstLocationAcceptedAfterDeadline() throws Exception {
+		
+		sharedPreferences.edit().putBoolean(Settings.LOCATION_USE_GPS, false).commit();
+		
+		Intent serviceIntent = new Intent(this.getContext(), LocationIntentService.class);
+		
+		this.setupService();
+		LocationIntentService serviceToTest = getService();
+		
+		// At least one location provider enabled
+		TestLocationManager locationManager = new TestLocationManager();
+		locationManager.setAllProvidersEnabled(true);
+		
+		// Wifi not connected
+		IConnectivityManager connectivityManager = getConnectivityManager(false);
+		
+		// At least one location in the database
+		TestDatabaseAdapter databaseAdapter = new TestDatabaseAdapter();
+		databaseAdapter.addLocation("TestBSSID", "TestSSID", "TestName", new Location(Locater.PROVIDER_DATABASE));
+		databaseAdapter.setNearestLocation(null);
+		
+		final TestLocater locater = new TestLocater();
+		
+		setDependencies(serviceToTest, locationManager, connectivityManager, databaseAdapter, locater);
+		setGetLocationTimeout(100, 60 * 1000);
+		
+		acquireWakeLock();
+		
+		new ServiceStarter(serviceIntent).start();
+		
+		// Wait until after the deadline, without any location
+		while(! locater.wasStarted()) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(300);
+		
+		assertTrue(locater.isRunning());
+		
+		// Pass a location with coarse accuracy - should be accepted right away now
+		Location location = new Location("network");
+		location.setAccuracy(1000);
+		serviceToTest.onLocationChanged(location);
+		
+		assertFalse(locater.isRunning());
 		
 		TestUtils.waitForStaticFieldNull(LocationIntentService.class, "wakeLock", 1000);
 		
@@ -423,6 +519,8 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, 
 				LocationIntentService.WAKE_LOCK_TAG);
 		wakeLock.acquire();
+		WakeLockStats.getInstance(this.getContext()).acquired(LocationIntentService.WAKE_LOCK_TAG, 
+				WakeLockStats.CAUSE_LOCATION_ALARM);
 		TestUtils.setStaticFieldValue(LocationIntentService.class, "wakeLock", wakeLock);
 	}
 	
@@ -442,11 +540,16 @@ public class LocationIntentServiceTest extends ServiceTestCase<LocationIntentSer
 		TestUtils.setFieldValue(service, "connectivityManager", connectivityManager);
 		TestUtils.setFieldValue(service, "databaseAdapter", databaseAdapter);
 		TestUtils.setFieldValue(service, "locater", locater);
+		TestUtils.setFieldValue(service, "alarm", new TestAlarm());
 	}
 	
 	private void setGetLocationTimeout(final long timeout) throws Exception {
+		setGetLocationTimeout(timeout, timeout);
+	}
+	
+	private void setGetLocationTimeout(final long fineTimeout, final long timeout) throws Exception {
+		TestUtils.setStaticFieldValue(LocationIntentService.class, "GET_FINE_LOCATION_TIMEOUT", fineTimeout);
 		TestUtils.setStaticFieldValue(LocationIntentService.class, "GET_LOCATION_TIMEOUT", timeout);
-		TestUtils.setStaticFieldValue(LocationIntentService.class, "GET_LOCATION_TIMEOUT_GPS", timeout);
 	}
 	
 	/*
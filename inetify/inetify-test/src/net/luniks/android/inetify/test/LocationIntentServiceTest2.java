@@ -17,6 +17,7 @@ package net.luniks.android.inetify.test;
 
 import net.luniks.android.inetify.DatabaseAdapter;
 import net.luniks.android.inetify.LocationIntentService;
+import net.luniks.android.inetify.LocationSchedule;
 import net.luniks.android.inetify.Notifier;
 import net.luniks.android.inetify.Settings;
 import net.luniks.android.inetify.WifiLocation;
@@ -186,6 +187,45 @@ public class LocationIntentServiceTest2 extends AndroidTestCase {
 		assertEquals(WifiManager.WIFI_STATE_DISABLED, wifiManager.getWifiState());
 	}
 	
+	public void testLocationFarSchedulesNextCheck() throws Exception {
+		
+		sharedPreferences.edit().putBoolean(Settings.LOCATION_AUTO_WIFI, false).commit();
+		sharedPreferences.edit().putBoolean(Settings.LOCATION_CHECK, true).commit();
+		sharedPreferences.edit().putString(Settings.LOCATION_MAX_DISTANCE, "500").commit();
+
+		LocationIntentService service = new LocationIntentService();
+		
+		WifiLocation nearestLocation = new WifiLocation();
+		nearestLocation.setBSSID("TestBSSID");
+		nearestLocation.setDistance(50000);
+		
+		TestDatabaseAdapter databaseAdapter = new TestDatabaseAdapter();
+		databaseAdapter.setNearestLocation(nearestLocation);
+		
+		TestNotifier notifier = new TestNotifier();
+		
+		TestWifiManager wifiManager = new TestWifiManager();
+		wifiManager.setWifiState(WifiManager.WIFI_STATE_DISABLED);
+		
+		setDependencies(service, sharedPreferences, databaseAdapter, notifier, wifiManager, null);
+		
+		TestAlarm alarm = new TestAlarm();
+		TestClock clock = new TestClock();
+		clock.setNow(1000);
+		LocationSchedule schedule = new LocationSchedule(sharedPreferences, clock);
+		TestUtils.setFieldValue(service, "alarm", alarm);
+		TestUtils.setFieldValue(service, "schedule", schedule);
+		
+		Location location = new Location("network");
+		location.setAccuracy(500);
+		service.onLocationChanged(location);
+		
+		assertEquals(1, alarm.getResetCalledCount());
+		assertEquals(1000 + (long)(49000 / LocationSchedule.MAX_SPEED * 1000), schedule.getNextCheck());
+		
+		schedule.clear();
+	}
+	
 	public void testLocationFarBothEnabledWifiEnabling() throws Exception {
 		
 		sharedPreferences.edit().putBoolean(Settings.LOCATION_AUTO_WIFI, true).commit();
@@ -517,6 +557,8 @@ public class LocationIntentServiceTest2 extends AndroidTestCase {
 		TestUtils.setFieldValue(service, "wifiManager", wifiManager);
 		TestUtils.setFieldValue(service, "connectivityManager", connectivityManager);
 		TestUtils.setFieldValue(service, "locater", new TestLocater());
+		TestUtils.setFieldValue(service, "alarm", new TestAlarm());
+		TestUtils.setFieldValue(service, "schedule", new LocationSchedule(sharedPreferences, new TestClock()));
 	}
 
 }
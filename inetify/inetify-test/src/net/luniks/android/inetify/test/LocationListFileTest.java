@@ -0,0 +1,220 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.LocationListFile;
+import net.luniks.android.inetify.WifiLocation;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class LocationListFileTest extends AndroidTestCase {
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+	}
+
+	public void testExportImport() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(-33, 151, 20));
+		adapter.addIgnoredWifi("BSSID3", "SSID3");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(3, new LocationListFile(adapter).exportTo(out, true));
+
+		adapter.close();
+		TestUtils.deleteDatabase(this.getContext());
+		adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertEquals(3, new LocationListFile(adapter).importFrom(new ByteArrayInputStream(out.toByteArray())));
+
+		Cursor cursor = adapter.fetchLocations();
+		assertEquals(2, cursor.getCount());
+		cursor.moveToFirst();
+		assertEquals("BSSID1", cursor.getString(1));
+		assertEquals("SSID1", cursor.getString(2));
+		assertEquals("Name1", cursor.getString(3));
+		assertEquals(50.0, cursor.getDouble(4));
+		assertEquals(3.0, cursor.getDouble(5));
+		assertEquals(10.0f, cursor.getFloat(6));
+		cursor.close();
+
+		assertTrue(adapter.isIgnoredWifi("SSID3"));
+		assertEquals("Name2", adapter.getNearestLocationTo(TestUtils.createLocation(-33, 151, 10)).getName());
+
+		adapter.close();
+	}
+
+	public void testExportWithoutIgnoreList() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.addIgnoredWifi("BSSID2", "SSID2");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1, new LocationListFile(adapter).exportTo(out, false));
+
+		adapter.deleteIgnoredWifi("SSID2");
+
+		assertEquals(1, new LocationListFile(adapter).importFrom(new ByteArrayInputStream(out.toByteArray())));
+		assertFalse(adapter.isIgnoredWifi("SSID2"));
+
+		adapter.close();
+	}
+
+	public void testImportReplacesByBSSID() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+
+		WifiLocation wifiLocation = new WifiLocation();
+		wifiLocation.setBSSID("BSSID1");
+		wifiLocation.setSSID("Other");
+		wifiLocation.setName("Imported");
+		wifiLocation.setLocation(TestUtils.createLocation(-33, 151, 10));
+
+		assertEquals(1, adapter.addLocations(new WifiLocation[] {wifiLocation}, 1));
+
+		Cursor cursor = adapter.fetchLocations();
+		assertEquals(1, cursor.getCount());
+		cursor.moveToFirst();
+		assertEquals("Other", cursor.getString(2));
+		assertEquals("Imported", cursor.getString(3));
+		cursor.close();
+
+		// Snapshot discarded and loaded again
+		assertEquals("Imported", adapter.getNearestLocationTo(TestUtils.createLocation(-33, 151, 10)).getName());
+
+		adapter.close();
+	}
+
+	public void testImportNotALocationListFile() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		try {
+			new LocationListFile(adapter).importFrom(new ByteArrayInputStream("Not a location list".getBytes()));
+			fail("Expected IOException");
+		} catch(IOException e) {
+			// Expected
+		}
+
+		assertFalse(adapter.hasLocations());
+
+		adapter.close();
+	}
+
+	public void testImportTruncatedKeepsBatches() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		int count = LocationListFile.BATCH_SIZE + 10;
+		byte[] bytes = createFile(count);
+		byte[] truncated = new byte[bytes.length - 10];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+		try {
+			new LocationListFile(adapter).importFrom(new ByteArrayInputStream(truncated));
+			fail("Expected IOException");
+		} catch(IOException e) {
+			// Expected
+		}
+
+		Cursor cursor = adapter.fetchLocations();
+		assertEquals(LocationListFile.BATCH_SIZE, cursor.getCount());
+		cursor.close();
+
+		adapter.close();
+	}
+
+	public void testExportToFile() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+
+		File file = new File(this.getContext().getFilesDir(), LocationListFile.FILE_NAME);
+		LocationListFile locationListFile = new LocationListFile(adapter);
+
+		assertEquals(1, locationListFile.exportTo(file, true));
+		assertTrue(file.exists());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		adapter.deleteLocation("BSSID1");
+
+		assertEquals(1, locationListFile.importFrom(file));
+		assertTrue(adapter.hasLocations());
+
+		file.delete();
+		adapter.close();
+	}
+
+	public void testBenchmarkImport() throws Exception {
+
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		int count = 100000;
+		byte[] bytes = createFile(count);
+
+		long start = System.currentTimeMillis();
+		assertEquals(count, new LocationListFile(adapter).importFrom(new ByteArrayInputStream(bytes)));
+		long time = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(count, new LocationListFile(adapter).exportTo(out, true));
+		long exportTime = System.currentTimeMillis() - start;
+
+		Log.d("LocationListFileTest", String.format("Imported %s locations (%s bytes) in %s ms, exported in %s ms",
+				count, bytes.length, time, exportTime));
+
+		adapter.close();
+	}
+
+	private byte[] createFile(final int count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x494E4C46);
+		out.writeInt(1);
+		for(int i = 0; i < count; i++) {
+			out.writeByte(1);
+			out.writeUTF(String.valueOf(i));
+			out.writeUTF("SSID" + i);
+			out.writeUTF("Name" + i);
+			out.writeDouble(36 + (i % 1000) * 0.03);
+			out.writeDouble(-10 + (i / 1000) * 0.4);
+			out.writeFloat(10);
+		}
+		out.writeByte(0);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+}
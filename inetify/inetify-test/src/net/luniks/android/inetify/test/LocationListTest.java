@@ -44,8 +44,7 @@ public class LocationListTest extends ActivityInstrumentationTestCase2<LocationL
 	
 	public void setUp() throws Exception {
 		super.setUp();
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb");
-		this.getInstrumentation().getTargetContext().deleteDatabase("inetifydb-journal");
+		TestUtils.deleteDatabase(this.getInstrumentation().getTargetContext());
 	}
 	
 	public void testListEmptyWifiDisconnected() throws Exception {
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.LocationSchedule;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class LocationScheduleTest extends AndroidTestCase {
+
+	private static final long INTERVAL = 15 * 60 * 1000;
+	private static final int MAX_DISTANCE = 1500;
+
+	private TestClock clock;
+	private LocationSchedule schedule;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		SharedPreferences sharedPreferences = this.getContext().getSharedPreferences("LocationScheduleTest", Context.MODE_PRIVATE);
+		clock = new TestClock();
+		clock.setNow(1000);
+		schedule = new LocationSchedule(sharedPreferences, clock);
+		schedule.clear();
+	}
+
+	public void testNoCheck() {
+		assertEquals(INTERVAL, schedule.getDelay(INTERVAL));
+		assertEquals(-1, schedule.getNextCheck());
+	}
+
+	public void testNear() {
+		assertEquals(0, schedule.update(MAX_DISTANCE, 10, MAX_DISTANCE));
+		assertEquals(INTERVAL, schedule.getDelay(INTERVAL));
+		assertEquals(-1, schedule.getNextCheck());
+	}
+
+	public void testFar() {
+		long delay = schedule.update(50000, 0, MAX_DISTANCE);
+
+		assertEquals((long)((50000 - MAX_DISTANCE) / LocationSchedule.MAX_SPEED * 1000), delay);
+		assertEquals(delay, schedule.getDelay(INTERVAL));
+		assertEquals(1000 + delay, schedule.getNextCheck());
+	}
+
+	public void testAccuracyMakesDelayShorter() {
+		long accurate = schedule.update(50000, 0, MAX_DISTANCE);
+		schedule.clear();
+		long inaccurate = schedule.update(50000, 5000, MAX_DISTANCE);
+
+		assertEquals((long)((50000 - 5000 - MAX_DISTANCE) / LocationSchedule.MAX_SPEED * 1000), inaccurate);
+		assertTrue(inaccurate < accurate);
+	}
+
+	public void testMinDelay() {
+		assertEquals(LocationSchedule.MIN_DELAY, schedule.update(MAX_DISTANCE + 1, 0, MAX_DISTANCE));
+		schedule.clear();
+		assertEquals(LocationSchedule.MIN_DELAY, schedule.update(3000, 2000, MAX_DISTANCE));
+	}
+
+	public void testMaxDelay() {
+		assertEquals(LocationSchedule.MAX_DELAY, schedule.update(10000000, 0, MAX_DISTANCE));
+	}
+
+	public void testApproaching() {
+		long delay = schedule.update(100000, 0, MAX_DISTANCE);
+
+		// Travelling towards the Wifi location at 100 km/h
+		float distance = 100000;
+		while(distance > MAX_DISTANCE) {
+			clock.advance(delay);
+			distance -= 100 / 3.6f * delay / 1000;
+			long next = schedule.update(distance, 0, MAX_DISTANCE);
+			if(next > 0) {
+				assertTrue(next < delay || next == LocationSchedule.MIN_DELAY);
+
+				// Would not get within the max. distance before the next check
+				assertTrue(distance - 100 / 3.6f * next / 1000 > MAX_DISTANCE - 100 / 3.6f * LocationSchedule.MIN_DELAY / 1000);
+			}
+			delay = next;
+		}
+
+		assertEquals(0, delay);
+	}
+
+	public void testStationaryBacksOff() {
+		long first = schedule.update(10000, 0, MAX_DISTANCE);
+
+		clock.advance(first);
+		long second = schedule.update(10100, 0, MAX_DISTANCE);
+		assertEquals(first * LocationSchedule.BACKOFF_FACTOR, second);
+
+		clock.advance(second);
+		long third = schedule.update(10000, 0, MAX_DISTANCE);
+		assertEquals(second * LocationSchedule.BACKOFF_FACTOR, third);
+
+		long delay = third;
+		for(int i = 0; i < 10; i++) {
+			clock.advance(delay);
+			delay = schedule.update(10000, 0, MAX_DISTANCE);
+		}
+		assertEquals(LocationSchedule.MAX_DELAY, delay);
+
+		// Moving again
+		clock.advance(delay);
+		float distance = 10000 - LocationSchedule.STATIONARY_DISTANCE - 1;
+		assertEquals((long)((distance - MAX_DISTANCE) / LocationSchedule.MAX_SPEED * 1000),
+				schedule.update(distance, 0, MAX_DISTANCE));
+	}
+
+	public void testNotBackingOffFromNear() {
+		schedule.update(1000, 0, MAX_DISTANCE);
+
+		clock.advance(INTERVAL);
+		long delay = schedule.update(MAX_DISTANCE + 100, 0, MAX_DISTANCE);
+
+		assertEquals(LocationSchedule.MIN_DELAY, delay);
+	}
+
+	public void testInvalidAfterReboot() {
+		clock.setNow(100000);
+		schedule.update(50000, 0, MAX_DISTANCE);
+
+		clock.setNow(1000);
+
+		assertEquals(INTERVAL, schedule.getDelay(INTERVAL));
+		assertEquals(-1, schedule.getNextCheck());
+	}
+
+	public void testInvalidWhenOverdue() {
+		long delay = schedule.update(50000, 0, MAX_DISTANCE);
+
+		clock.advance(delay + LocationSchedule.MAX_DELAY);
+		assertEquals(delay, schedule.getDelay(INTERVAL));
+
+		clock.advance(1);
+		assertEquals(INTERVAL, schedule.getDelay(INTERVAL));
+
+		// No back off from an overdue check
+		long next = schedule.update(50000, 0, MAX_DISTANCE);
+		assertEquals(delay, next);
+	}
+
+	public void testFewerChecksThanFixedInterval() {
+		// Stays far from any Wifi location for a day
+		int checks = 0;
+		long day = 24 * 60 * 60 * 1000;
+		long start = clock.now();
+		while(clock.now() - start < day) {
+			schedule.update(30000, 100, MAX_DISTANCE);
+			clock.advance(schedule.getDelay(INTERVAL));
+			checks++;
+		}
+
+		long fixed = day / INTERVAL;
+
+		Log.d("LocationScheduleTest", String.format("%s checks instead of %s with a fixed interval", checks, fixed));
+
+		assertTrue(checks < fixed / 2);
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.luniks.android.inetify.DatabaseAdapterImpl;
+import net.luniks.android.inetify.LocationSnapshot;
+import net.luniks.android.inetify.WifiLocation;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class LocationSnapshotTest extends AndroidTestCase {
+
+	public void setUp() throws Exception {
+		super.setUp();
+		TestUtils.deleteDatabase(this.getContext());
+		LocationSnapshot.getInstance().invalidate();
+	}
+
+	public void testNotLoaded() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+
+		assertTrue(adapter.hasLocations());
+		assertNull(LocationSnapshot.getInstance().peek());
+
+		adapter.close();
+	}
+
+	public void testLoadedByNearest() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(50.5, 3.5, 20));
+
+		WifiLocation wifiLocation = adapter.getNearestLocationTo(TestUtils.createLocation(50.4, 3.4, 10));
+
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().peek();
+
+		assertNotNull(data);
+		assertEquals(2, data.size());
+		assertEquals("BSSID2", wifiLocation.getBSSID());
+		assertEquals("SSID2", wifiLocation.getSSID());
+		assertEquals("Name2", wifiLocation.getName());
+		assertEquals(50.5, wifiLocation.getLocation().getLatitude());
+		assertEquals(3.5, wifiLocation.getLocation().getLongitude());
+		assertEquals(20.0f, wifiLocation.getLocation().getAccuracy());
+		assertEquals(TestUtils.createLocation(50.4, 3.4, 10).distanceTo(wifiLocation.getLocation()), wifiLocation.getDistance(), 0.1);
+
+		adapter.close();
+	}
+
+	public void testEmpty() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertNull(adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10)));
+
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().peek();
+
+		assertNotNull(data);
+		assertEquals(0, data.size());
+		assertFalse(adapter.hasLocations());
+		assertEquals(0, data.nearest(50, 3, new int[3], new float[3]));
+		assertEquals(0, data.within(50, 3, 1000, new int[3], new float[3]));
+
+		adapter.close();
+	}
+
+	public void testUpdatesWithoutReload() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+		LocationSnapshot.Data before = LocationSnapshot.getInstance().peek();
+
+		adapter.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(-33, 151, 10));
+
+		assertEquals(2, LocationSnapshot.getInstance().peek().size());
+		// Published as a copy, the previous one is unchanged
+		assertNotSame(before, LocationSnapshot.getInstance().peek());
+		assertEquals(1, before.size());
+		assertEquals("Name2", adapter.getNearestLocationTo(TestUtils.createLocation(-33.1, 151.1, 10)).getName());
+
+		adapter.renameLocation("BSSID2", "Renamed");
+
+		assertEquals("Renamed", adapter.getNearestLocationTo(TestUtils.createLocation(-33.1, 151.1, 10)).getName());
+
+		// Moves BSSID1 but keeps its SSID and name like the database does
+		adapter.addLocation("BSSID1", "Other", "Other", TestUtils.createLocation(-33.2, 151.2, 10));
+
+		WifiLocation wifiLocation = adapter.getNearestLocationTo(TestUtils.createLocation(-33.21, 151.21, 10));
+		assertEquals("SSID1", wifiLocation.getSSID());
+		assertEquals("Name1", wifiLocation.getName());
+		assertEquals(2, LocationSnapshot.getInstance().peek().size());
+
+		adapter.deleteLocation("BSSID1");
+
+		assertEquals(1, LocationSnapshot.getInstance().peek().size());
+		assertEquals("Renamed", adapter.getNearestLocationTo(TestUtils.createLocation(-33.21, 151.21, 10)).getName());
+
+		adapter.deleteLocation("BSSID2");
+
+		assertFalse(adapter.hasLocations());
+		assertNull(adapter.getNearestLocationTo(TestUtils.createLocation(-33.21, 151.21, 10)));
+
+		adapter.close();
+	}
+
+	public void testUpdatesSeenByOtherAdapter() {
+		DatabaseAdapterImpl adapter1 = new DatabaseAdapterImpl(this.getContext());
+		DatabaseAdapterImpl adapter2 = new DatabaseAdapterImpl(this.getContext());
+
+		adapter1.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter2.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+
+		adapter1.addLocation("BSSID2", "SSID2", "Name2", TestUtils.createLocation(51, 4, 10));
+
+		assertEquals("Name2", adapter2.getNearestLocationTo(TestUtils.createLocation(51, 4, 10)).getName());
+
+		adapter1.close();
+		adapter2.close();
+	}
+
+	public void testInvalidatedWhenDatabaseCreated() throws Exception {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		adapter.addLocation("BSSID1", "SSID1", "Name1", TestUtils.createLocation(50, 3, 10));
+		adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10));
+		adapter.close();
+
+		TestUtils.deleteDatabase(this.getContext());
+
+		adapter = new DatabaseAdapterImpl(this.getContext());
+
+		assertNull(adapter.getNearestLocationTo(TestUtils.createLocation(50, 3, 10)));
+
+		adapter.close();
+	}
+
+	public void testNearestAndWithinSameAsScan() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		Random random = new Random(1);
+		int count = 500;
+		double[] lats = new double[count];
+		double[] lons = new double[count];
+		for(int i = 0; i < count; i++) {
+			lats[i] = 50 + random.nextGaussian() * 0.5;
+			lons[i] = 3 + random.nextGaussian() * 0.5;
+			adapter.addLocation(String.valueOf(i), "SSID", "Name", TestUtils.createLocation(lats[i], lons[i], 10));
+		}
+
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().get(adapter);
+		assertEquals(count, data.size());
+
+		int k = 5;
+		int[] indexes = new int[k];
+		float[] distances = new float[k];
+		float[] results = new float[1];
+		float[] expected = new float[count];
+
+		for(int q = 0; q < 100; q++) {
+			double lat = 50 + random.nextGaussian();
+			double lon = 3 + random.nextGaussian();
+
+			for(int i = 0; i < count; i++) {
+				Location.distanceBetween(lats[i], lons[i], lat, lon, results);
+				expected[i] = results[0];
+			}
+			Arrays.sort(expected);
+
+			assertEquals(k, data.nearest(lat, lon, indexes, distances));
+			for(int i = 0; i < k; i++) {
+				assertEquals(expected[i], distances[i], 0.1);
+				Location.distanceBetween(data.getLatitude(indexes[i]), data.getLongitude(indexes[i]), lat, lon, results);
+				assertEquals(distances[i], results[0], 0.1);
+			}
+
+			int nearest = data.nearest(lat, lon, results);
+			assertEquals(expected[0], results[0], 0.1);
+			assertEquals(indexes[0], nearest);
+
+			float radius = 5000;
+			int within = 0;
+			while(within < count && expected[within] <= radius) {
+				within++;
+			}
+			int[] withinIndexes = new int[count];
+			float[] withinDistances = new float[count];
+			assertEquals(within, data.within(lat, lon, radius, withinIndexes, withinDistances));
+			for(int i = 0; i < within; i++) {
+				assertEquals(expected[i], withinDistances[i], 0.1);
+			}
+		}
+
+		adapter.close();
+	}
+
+	public void testTooLarge() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		for(int i = 0; i <= LocationSnapshot.MAX_LOCATIONS; i++) {
+			adapter.addLocation(String.valueOf(i), "SSID", "Name" + i, TestUtils.createLocation(50 + i * 0.0001, 3, 10));
+		}
+
+		assertNull(LocationSnapshot.getInstance().get(adapter));
+		assertEquals("Name0", adapter.getNearestLocationTo(TestUtils.createLocation(49.9, 3, 10)).getName());
+
+		adapter.deleteLocation("0");
+
+		assertNotNull(LocationSnapshot.getInstance().get(adapter));
+		assertEquals("Name1", adapter.getNearestLocationTo(TestUtils.createLocation(49.9, 3, 10)).getName());
+
+		adapter.close();
+	}
+
+	public void testBenchmark() {
+		DatabaseAdapterImpl adapter = new DatabaseAdapterImpl(this.getContext());
+
+		Random random = new Random(1);
+		for(int i = 0; i < 1000; i++) {
+			adapter.addLocation(String.valueOf(i), "SSID", "Name",
+					TestUtils.createLocation(50 + random.nextGaussian() * 10, 10 + random.nextGaussian() * 10, 10));
+		}
+
+		LocationSnapshot.Data data = LocationSnapshot.getInstance().get(adapter);
+
+		int queries = 10000;
+		float[] distance = new float[1];
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < queries; i++) {
+			assertTrue(data.nearest(50 + random.nextGaussian() * 10, 10 + random.nextGaussian() * 10, distance) != -1);
+		}
+		long time = System.currentTimeMillis() - start;
+
+		Log.d("LocationSnapshotTest", String.format("%s queries on %s locations: %s ms", queries, data.size(), time));
+
+		adapter.close();
+	}
+
+}
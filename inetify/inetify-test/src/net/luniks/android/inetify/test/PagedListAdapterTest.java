@@ -0,0 +1,344 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.luniks.android.inetify.PagedListAdapter;
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.test.InstrumentationTestCase;
+
+public class PagedListAdapterTest extends InstrumentationTestCase {
+
+	public void testContains() {
+
+		assertTrue(PagedListAdapter.contains("TestSSID", ""));
+		assertTrue(PagedListAdapter.contains("TestSSID", "Test"));
+		assertTrue(PagedListAdapter.contains("TestSSID", "ssid"));
+		assertTrue(PagedListAdapter.contains("TestSSID", "TESTSSID"));
+		assertTrue(PagedListAdapter.contains("100%_free", "%_"));
+
+		assertFalse(PagedListAdapter.contains(null, ""));
+		assertFalse(PagedListAdapter.contains("TestSSID", "TestSSID1"));
+		assertFalse(PagedListAdapter.contains("TestSSID", "ST S"));
+	}
+
+	public void testContainsLikeSQLite() {
+
+		// SQLite LIKE ignores the case of ASCII letters only
+		assertTrue(PagedListAdapter.contains("Ärger", "Ä"));
+		assertFalse(PagedListAdapter.contains("Ärger", "ä"));
+	}
+
+	public void testLoadPages() throws Exception {
+
+		TestAdapter adapter = createAdapter(rows(500));
+		waitForCount(adapter, 500, 1000);
+
+		assertEquals("Row000", getItem(adapter, 0));
+		waitForItem(adapter, 50, "Row050", 1000);
+		waitForItem(adapter, 120, "Row120", 1000);
+		waitForItem(adapter, 499, "Row499", 1000);
+
+		// Pages following one in memory are loaded following its last row
+		assertEquals(Arrays.asList("offset 0", "after Row049", "after Row099", "offset 450"), adapter.fetches);
+		assertEquals(1, adapter.counts.get());
+	}
+
+	public void testStaleLoadDropped() throws Exception {
+
+		final TestAdapter adapter = createAdapter(rows(200));
+		waitForCount(adapter, 200, 1000);
+
+		final AtomicInteger changes = new AtomicInteger();
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.registerDataSetObserver(new DataSetObserver() {
+					@Override
+					public void onChanged() {
+						changes.incrementAndGet();
+					}
+				});
+			}
+		});
+
+		adapter.fetched = new CountDownLatch(1);
+		adapter.block = new CountDownLatch(1);
+		assertNull(getItem(adapter, 60));
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.close();
+			}
+		});
+		adapter.block.countDown();
+
+		assertTrue(adapter.fetched.await(1000, TimeUnit.MILLISECONDS));
+		Thread.sleep(100);
+		getInstrumentation().waitForIdleSync();
+
+		// The page loaded before close() is not put in memory
+		assertNull(find(adapter, "Row060"));
+		assertEquals(0, changes.get());
+	}
+
+	public void testPutRemoveComplete() throws Exception {
+
+		final TestAdapter adapter = createAdapter(rows(10));
+		waitForCount(adapter, 10, 1000);
+		int fetches = adapter.fetches.size();
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.put("Row005a");
+				adapter.put("Row003");
+			}
+		});
+
+		assertEquals(11, getCount(adapter));
+		assertEquals("Row005", getItem(adapter, 5));
+		assertEquals("Row005a", getItem(adapter, 6));
+		assertEquals("Row006", getItem(adapter, 7));
+
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.remove("Row000");
+			}
+		});
+
+		assertEquals(10, getCount(adapter));
+		assertEquals("Row001", getItem(adapter, 0));
+
+		// Put and removed in memory
+		assertEquals(fetches, adapter.fetches.size());
+		assertEquals(1, adapter.counts.get());
+	}
+
+	public void testPutIncompleteReloads() throws Exception {
+
+		final TestAdapter adapter = createAdapter(rows(500));
+		waitForCount(adapter, 500, 1000);
+
+		adapter.rows.add(1, "Row000a");
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.put("Row000a");
+			}
+		});
+
+		waitForCount(adapter, 501, 1000);
+		assertEquals(2, adapter.counts.get());
+		waitForItem(adapter, 1, "Row000a", 1000);
+	}
+
+	public void testFilterNarrowing() throws Exception {
+
+		final TestAdapter adapter = createAdapter(rows(30));
+		waitForCount(adapter, 30, 1000);
+		int fetches = adapter.fetches.size();
+
+		setFilter(adapter, "Row01");
+
+		// Filtered in memory
+		assertEquals(10, getCount(adapter));
+		assertEquals("Row010", getItem(adapter, 0));
+
+		setFilter(adapter, "row012");
+
+		assertEquals(1, getCount(adapter));
+		assertEquals("Row012", getItem(adapter, 0));
+		assertEquals(fetches, adapter.fetches.size());
+		assertEquals(1, adapter.counts.get());
+
+		setFilter(adapter, "Row0");
+
+		// Queried again since the filter is less strict
+		assertEquals(1, getCount(adapter));
+		waitForCount(adapter, 30, 1000);
+		assertEquals(2, adapter.counts.get());
+		assertEquals("Row000", getItem(adapter, 0));
+	}
+
+	private TestAdapter createAdapter(final List<String> rows) {
+		final Context context = getInstrumentation().getTargetContext();
+		final TestAdapter[] adapter = new TestAdapter[1];
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter[0] = new TestAdapter(context, rows);
+				adapter[0].reload();
+			}
+		});
+		return adapter[0];
+	}
+
+	private String getItem(final TestAdapter adapter, final int position) {
+		final String[] item = new String[1];
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				item[0] = adapter.getItem(position);
+			}
+		});
+		return item[0];
+	}
+
+	private String find(final TestAdapter adapter, final String key) {
+		final String[] item = new String[1];
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				item[0] = adapter.find(key);
+			}
+		});
+		return item[0];
+	}
+
+	private int getCount(final TestAdapter adapter) {
+		final int[] count = new int[1];
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				count[0] = adapter.getCount();
+			}
+		});
+		return count[0];
+	}
+
+	private void setFilter(final TestAdapter adapter, final String filter) {
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				adapter.setFilter(filter);
+			}
+		});
+	}
+
+	private void waitForCount(final TestAdapter adapter, final int expectedCount, final long timeout) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while(getCount(adapter) != expectedCount) {
+			Thread.sleep(50);
+			long now = System.currentTimeMillis();
+			if(now - start > timeout) {
+				throw new InterruptedException(String.format("Timeout exceeded while waiting for a count of %s", expectedCount));
+			}
+		}
+	}
+
+	private void waitForItem(final TestAdapter adapter, final int position, final String expected, final long timeout) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while(! expected.equals(getItem(adapter, position))) {
+			Thread.sleep(50);
+			long now = System.currentTimeMillis();
+			if(now - start > timeout) {
+				throw new InterruptedException(String.format("Timeout exceeded while waiting for item %s", expected));
+			}
+		}
+	}
+
+	private static List<String> rows(final int size) {
+		List<String> rows = new ArrayList<String>(size);
+		for(int i = 0; i < size; i++) {
+			rows.add(String.format("Row%03d", i));
+		}
+		return rows;
+	}
+
+	private static class TestAdapter extends PagedListAdapter<String> {
+
+		private final List<String> rows;
+		private final List<String> fetches = Collections.synchronizedList(new ArrayList<String>());
+		private final AtomicInteger counts = new AtomicInteger();
+		private volatile CountDownLatch block;
+		private volatile CountDownLatch fetched = new CountDownLatch(1);
+
+		public TestAdapter(final Context context, final List<String> rows) {
+			super(context);
+			this.rows = Collections.synchronizedList(new ArrayList<String>(rows));
+		}
+
+		@Override
+		protected int count(final String filter) {
+			counts.incrementAndGet();
+			return matching(filter).size();
+		}
+
+		@Override
+		protected List<String> fetch(final String filter, final String after, final int offset, final int limit) {
+			CountDownLatch block = this.block;
+			if(block != null) {
+				try {
+					block.await(1000, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+			fetches.add(after == null ? "offset " + offset : "after " + after);
+			List<String> matching = matching(filter);
+			int from = offset;
+			if(after != null) {
+				from = 0;
+				while(from < matching.size() && matching.get(from).compareTo(after) <= 0) {
+					from++;
+				}
+			}
+			from = Math.min(from, matching.size());
+			List<String> page = new ArrayList<String>(matching.subList(from, Math.min(from + limit, matching.size())));
+			fetched.countDown();
+			return page;
+		}
+
+		@Override
+		protected boolean matches(final String row, final String filter) {
+			return contains(row, filter);
+		}
+
+		@Override
+		protected String getKey(final String row) {
+			return row;
+		}
+
+		@Override
+		protected String getSortKey(final String row) {
+			return row;
+		}
+
+		@Override
+		protected String getText1(final String row) {
+			return row;
+		}
+
+		@Override
+		protected String getText2(final String row) {
+			return row;
+		}
+
+		private List<String> matching(final String filter) {
+			List<String> matching = new ArrayList<String>();
+			synchronized(rows) {
+				for(String row : rows) {
+					if(contains(row, filter)) {
+						matching.add(row);
+					}
+				}
+			}
+			return matching;
+		}
+	}
+
+}
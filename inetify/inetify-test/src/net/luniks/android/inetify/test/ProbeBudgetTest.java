@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.ProbeBudget;
+import android.test.AndroidTestCase;
+
+public class ProbeBudgetTest extends AndroidTestCase {
+
+	private TestClock clock;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		clock = new TestClock();
+		clock.setNow(1000);
+	}
+
+	public void testRemaining() {
+
+		ProbeBudget budget = new ProbeBudget(clock, 3000, 5000, 10000);
+
+		assertEquals(10000, budget.getRemaining());
+		assertFalse(budget.isExpired());
+
+		clock.advance(4000);
+		assertEquals(6000, budget.getRemaining());
+
+		clock.advance(7000);
+		assertEquals(0, budget.getRemaining());
+		assertTrue(budget.isExpired());
+	}
+
+	public void testTimeoutsLimitedToRemaining() {
+
+		ProbeBudget budget = new ProbeBudget(clock, 3000, 5000, 10000);
+
+		assertEquals(3000, budget.getConnectTimeout());
+		assertEquals(5000, budget.getReadTimeout());
+
+		clock.advance(6000);
+		assertEquals(3000, budget.getConnectTimeout());
+		assertEquals(4000, budget.getReadTimeout());
+
+		clock.advance(3000);
+		assertEquals(1000, budget.getConnectTimeout());
+		assertEquals(1000, budget.getReadTimeout());
+
+		// Never 0 since that would mean no timeout
+		clock.advance(5000);
+		assertEquals(1, budget.getConnectTimeout());
+		assertEquals(1, budget.getReadTimeout());
+	}
+
+	public void testCheck() throws Exception {
+
+		ProbeBudget budget = new ProbeBudget(clock, 3000, 5000, 10000);
+
+		budget.check();
+
+		clock.advance(10000);
+		try {
+			budget.check();
+			fail("Expected DeadlineExceededException");
+		} catch(ProbeBudget.DeadlineExceededException e) {
+			assertEquals("Deadline exceeded", e.getMessage());
+		}
+	}
+
+	public void testCancel() throws Exception {
+
+		ProbeBudget budget = new ProbeBudget(clock, 3000, 5000, 10000);
+		assertFalse(budget.isCancelled());
+
+		budget.cancel();
+		assertTrue(budget.isCancelled());
+		assertFalse(budget.isExpired());
+
+		try {
+			budget.check();
+			fail("Expected CancelledException");
+		} catch(ProbeBudget.CancelledException e) {
+			assertEquals("Probe cancelled", e.getMessage());
+		}
+	}
+
+	public void testCurrent() {
+
+		ProbeBudget budget = new ProbeBudget(clock, 3000, 5000, 10000);
+
+		ProbeBudget.enter(budget);
+		try {
+			assertSame(budget, ProbeBudget.current());
+		} finally {
+			ProbeBudget.exit();
+		}
+
+		ProbeBudget current = ProbeBudget.current();
+		assertNotSame(budget, current);
+		assertEquals(ProbeBudget.DEFAULT_CONNECT_TIMEOUT, current.getConnectTimeout());
+		assertEquals(ProbeBudget.DEFAULT_READ_TIMEOUT, current.getReadTimeout());
+	}
+
+}
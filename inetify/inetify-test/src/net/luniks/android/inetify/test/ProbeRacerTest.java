@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.luniks.android.inetify.ProbeRacer;
+import net.luniks.android.inetify.ProbeResult;
+import net.luniks.android.inetify.TitleVerifier;
+import android.test.AndroidTestCase;
+
+public class ProbeRacerTest extends AndroidTestCase {
+
+	public void testParseServers() {
+
+		assertEquals(Arrays.asList("www.google.com"), ProbeRacer.parseServers("www.google.com"));
+		assertEquals(Arrays.asList("www.google.com", "www.bing.com", "www.yahoo.com"),
+				ProbeRacer.parseServers(" www.google.com, www.bing.com\twww.yahoo.com ,"));
+		assertEquals(Arrays.asList(""), ProbeRacer.parseServers(""));
+		assertEquals(Arrays.asList((String)null), ProbeRacer.parseServers(null));
+	}
+
+	public void testSingleServerOnCallingThread() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("fast", 0, "Google", null);
+
+		ProbeResult result = new ProbeRacer().race(verifier, Arrays.asList("fast"), "Google");
+
+		assertEquals("fast", result.getServer());
+		assertTrue(result.isExpectedTitle());
+		assertEquals(Thread.currentThread().getName(), verifier.getThreadName("fast"));
+	}
+
+	public void testFastServerWins() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("slow", 5000, "Google", null);
+		verifier.setResponse("fast", 100, "Google", null);
+
+		long start = System.currentTimeMillis();
+		ProbeResult result = new ProbeRacer().race(verifier, Arrays.asList("slow", "fast"), "Google");
+		long time = System.currentTimeMillis() - start;
+
+		assertEquals("fast", result.getServer());
+		assertTrue(result.isExpectedTitle());
+		assertTrue(time < 2000);
+
+		// The slow probe is cancelled
+		Thread.sleep(200);
+		assertEquals(1, verifier.getInterruptCount());
+	}
+
+	public void testExpectedTitleBeatsFasterUnexpected() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("portal", 0, "Login", null);
+		verifier.setResponse("google", 300, "Google", null);
+
+		ProbeResult result = new ProbeRacer().race(verifier, Arrays.asList("portal", "google"), "Google");
+
+		assertEquals("google", result.getServer());
+		assertTrue(result.isExpectedTitle());
+	}
+
+	public void testUnexpectedTitleBeatsException() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("down", 0, null, new Exception("Down"));
+		verifier.setResponse("portal", 200, "Login", null);
+
+		ProbeResult result = new ProbeRacer().race(verifier, Arrays.asList("down", "portal"), "Google");
+
+		assertEquals("portal", result.getServer());
+		assertEquals("Login", result.getPageTitle());
+		assertFalse(result.isExpectedTitle());
+	}
+
+	public void testAllFail() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("down1", 0, null, new Exception("Down1"));
+		verifier.setResponse("down2", 200, null, new Exception("Down2"));
+
+		try {
+			new ProbeRacer().race(verifier, Arrays.asList("down1", "down2"), "Google");
+			fail("Expected Exception");
+		} catch(Exception e) {
+			assertEquals("Down1", e.getMessage());
+		}
+	}
+
+	public void testBoundedThreads() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		List<String> servers = Arrays.asList("s1", "s2", "s3", "s4", "s5", "s6");
+		for(String server : servers) {
+			verifier.setResponse(server, 100, "Login", null);
+		}
+
+		ProbeResult result = new ProbeRacer().race(verifier, servers, "Google");
+
+		assertFalse(result.isExpectedTitle());
+		assertEquals(ProbeRacer.MAX_THREADS, verifier.getMaxConcurrent());
+	}
+
+	public void testCancel() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("slow1", 5000, "Google", null);
+		verifier.setResponse("slow2", 5000, "Google", null);
+
+		final ProbeRacer racer = new ProbeRacer();
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+				racer.cancel();
+			}
+		}.start();
+
+		long start = System.currentTimeMillis();
+		try {
+			racer.race(verifier, Arrays.asList("slow1", "slow2"), "Google");
+			fail("Expected CancellationException");
+		} catch(CancellationException e) {
+			// Expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+	}
+
+	public void testCancelBeforeRace() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("s1", 0, "Google", null);
+		verifier.setResponse("s2", 0, "Google", null);
+
+		ProbeRacer racer = new ProbeRacer();
+		racer.cancel();
+
+		try {
+			racer.race(verifier, Arrays.asList("s1", "s2"), "Google");
+			fail("Expected CancellationException");
+		} catch(CancellationException e) {
+			// Expected
+		}
+		try {
+			racer.race(verifier, Arrays.asList("s1"), "Google");
+			fail("Expected CancellationException");
+		} catch(CancellationException e) {
+			// Expected
+		}
+		assertNull(verifier.getThreadName("s1"));
+		assertNull(verifier.getThreadName("s2"));
+
+		racer.reset();
+
+		ProbeResult result = racer.race(verifier, Arrays.asList("s1", "s2"), "Google");
+
+		assertTrue(result.isExpectedTitle());
+	}
+
+	public void testRacesShareThreads() throws Exception {
+
+		RaceVerifier verifier = new RaceVerifier();
+		verifier.setResponse("s1", 0, "Google", null);
+		verifier.setResponse("s2", 0, "Google", null);
+
+		ProbeRacer racer = new ProbeRacer();
+		for(int i = 0; i < 10; i++) {
+			racer.race(verifier, Arrays.asList("s1", "s2"), "Google");
+		}
+		int threads = Thread.activeCount();
+		for(int i = 0; i < 10; i++) {
+			racer.race(verifier, Arrays.asList("s1", "s2"), "Google");
+		}
+
+		assertEquals(threads, Thread.activeCount());
+	}
+
+	private static class RaceVerifier implements TitleVerifier {
+
+		private final Map<String, Object[]> responses = new ConcurrentHashMap<String, Object[]>();
+		private final Map<String, String> threadNames = new ConcurrentHashMap<String, String>();
+		private final AtomicInteger interruptCount = new AtomicInteger(0);
+		private final AtomicInteger concurrent = new AtomicInteger(0);
+		private final AtomicInteger maxConcurrent = new AtomicInteger(0);
+
+		public void setResponse(final String server, final long delay, final String pageTitle, final Exception exception) {
+			responses.put(server, new Object[] {delay, pageTitle, exception});
+		}
+
+		public String getThreadName(final String server) {
+			return threadNames.get(server);
+		}
+
+		public int getInterruptCount() {
+			return interruptCount.get();
+		}
+
+		public int getMaxConcurrent() {
+			return maxConcurrent.get();
+		}
+
+		public boolean isExpectedTitle(final String title, final String pageTitle) {
+			return title.equals(pageTitle);
+		}
+
+		public String getPageTitle(final String server) throws Exception {
+			threadNames.put(server, Thread.currentThread().getName());
+			int current = concurrent.incrementAndGet();
+			synchronized(maxConcurrent) {
+				maxConcurrent.set(Math.max(maxConcurrent.get(), current));
+			}
+			try {
+				Object[] response = responses.get(server);
+				try {
+					Thread.sleep((Long)response[0]);
+				} catch(InterruptedException e) {
+					interruptCount.incrementAndGet();
+					throw e;
+				}
+				if(response[2] != null) {
+					throw (Exception)response[2];
+				}
+				return (String)response[1];
+			} finally {
+				concurrent.decrementAndGet();
+			}
+		}
+
+	}
+
+}
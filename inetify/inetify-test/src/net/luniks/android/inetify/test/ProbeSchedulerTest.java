@@ -0,0 +1,304 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.luniks.android.inetify.ProbeScheduler;
+import net.luniks.android.inetify.TestInfo;
+import android.test.AndroidTestCase;
+
+public class ProbeSchedulerTest extends AndroidTestCase {
+
+	private ProbeScheduler scheduler;
+	private TestDatabaseAdapter databaseAdapter;
+	private List<String> order;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		scheduler = new ProbeScheduler(getContext());
+		databaseAdapter = new TestDatabaseAdapter();
+		order = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	public void testManualRecorded() throws Exception {
+
+		TestTester tester = new TestTester();
+		TestInfo info = new TestInfo();
+		info.setExtra("testManualRecorded()");
+		tester.setInfo(info);
+
+		TestInfo result = scheduler.submitManual(tester, databaseAdapter).get(1000, TimeUnit.MILLISECONDS);
+
+		assertSame(info, result);
+		assertEquals("testManualRecorded()", databaseAdapter.fetchTestResult().getExtra());
+		assertEquals(1, databaseAdapter.getTestHistoryCount());
+	}
+
+	public void testNullResultNotRecorded() throws Exception {
+
+		TestTester tester = new TestTester();
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> result = scheduler.submitBackground(generation, tester, test("A", tester), databaseAdapter);
+		TestUtils.waitForTestCount(tester, 1, 1000);
+		tester.done();
+
+		assertNull(result.get(1000, TimeUnit.MILLISECONDS));
+		assertEquals(0, databaseAdapter.getTestHistoryCount());
+	}
+
+	public void testManualAheadOfBackground() throws Exception {
+
+		TestTester testerA = new TestTester();
+		TestTester testerB = new TestTester();
+		TestTester testerManual = new TestTester() {
+			@Override
+			public TestInfo testSimple() {
+				order.add("Manual");
+				return super.testSimple();
+			}
+		};
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> resultA = scheduler.submitBackground(generation, testerA, test("A", testerA), databaseAdapter);
+		TestUtils.waitForTestCount(testerA, 1, 1000);
+
+		Future<TestInfo> resultB = scheduler.submitBackground(generation, testerB, test("B", testerB), databaseAdapter);
+		Future<TestInfo> resultManual = scheduler.submitManual(testerManual, databaseAdapter);
+
+		// The running background test is pre-empted and runs again after the manual test
+		assertTrue(testerA.cancelled());
+		resultManual.get(1000, TimeUnit.MILLISECONDS);
+		assertFalse(resultA.isDone());
+
+		TestUtils.waitForTestCount(testerA, 2, 1000);
+		testerA.done();
+		resultA.get(1000, TimeUnit.MILLISECONDS);
+
+		TestUtils.waitForTestCount(testerB, 1, 1000);
+		testerB.done();
+		resultB.get(1000, TimeUnit.MILLISECONDS);
+
+		assertEquals(1, testerA.cancelCount());
+		assertEquals(Arrays.asList("A", "Manual", "A", "B"), order);
+	}
+
+	public void testPreemptedResultNotRecorded() throws Exception {
+
+		TestTester testerA = new TestTester();
+		TestInfo infoA = new TestInfo();
+		infoA.setExtra("A");
+		testerA.setInfo(infoA);
+		TestTester testerManual = new TestTester();
+		TestInfo infoManual = new TestInfo();
+		infoManual.setExtra("Manual");
+		testerManual.setInfo(infoManual);
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> resultA = scheduler.submitBackground(generation, testerA, test("A", testerA), databaseAdapter);
+		TestUtils.waitForTestCount(testerA, 1, 1000);
+
+		scheduler.submitManual(testerManual, databaseAdapter).get(1000, TimeUnit.MILLISECONDS);
+
+		// Only the manual result so far, the cancelled run of A is discarded
+		assertEquals(1, databaseAdapter.getTestHistoryCount());
+		assertEquals("Manual", databaseAdapter.fetchTestResult().getExtra());
+
+		TestUtils.waitForTestCount(testerA, 2, 1000);
+		testerA.done();
+
+		assertSame(infoA, resultA.get(1000, TimeUnit.MILLISECONDS));
+		assertEquals(2, databaseAdapter.getTestHistoryCount());
+		assertEquals("A", databaseAdapter.fetchTestResult().getExtra());
+	}
+
+	public void testPreemptedStaleTestNotQueuedAgain() throws Exception {
+
+		TestTester testerA = new TestTester();
+		final CountDownLatch latch = new CountDownLatch(1);
+		TestTester testerManual = new TestTester() {
+			@Override
+			public TestInfo testSimple() {
+				TestInfo info = super.testSimple();
+				try {
+					latch.await(1000, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+				return info;
+			}
+		};
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> resultA = scheduler.submitBackground(generation, testerA, test("A", testerA), databaseAdapter);
+		TestUtils.waitForTestCount(testerA, 1, 1000);
+
+		// A is queued again while the manual test runs, and dropped by the new generation
+		Future<TestInfo> resultManual = scheduler.submitManual(testerManual, databaseAdapter);
+		TestUtils.waitForTestCount(testerManual, 1, 1000);
+		scheduler.newGeneration();
+		latch.countDown();
+		resultManual.get(1000, TimeUnit.MILLISECONDS);
+
+		try {
+			resultA.get(1000, TimeUnit.MILLISECONDS);
+			fail("Expected CancellationException");
+		} catch(CancellationException e) {
+			// Expected
+		}
+		// Manual test kept
+		assertEquals(1, testerA.testCount());
+		assertEquals(1, testerManual.testCount());
+		assertEquals(0, testerManual.cancelCount());
+	}
+
+	public void testCancelPreemptedTest() throws Exception {
+
+		TestTester testerA = new TestTester();
+		final CountDownLatch latch = new CountDownLatch(1);
+		TestTester testerManual = new TestTester() {
+			@Override
+			public TestInfo testSimple() {
+				TestInfo info = super.testSimple();
+				try {
+					latch.await(1000, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+				return info;
+			}
+		};
+		testerManual.setInfo(new TestInfo());
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> resultA = scheduler.submitBackground(generation, testerA, test("A", testerA), databaseAdapter);
+		TestUtils.waitForTestCount(testerA, 1, 1000);
+
+		// A is queued again while the manual test runs, and cancelled there
+		Future<TestInfo> resultManual = scheduler.submitManual(testerManual, databaseAdapter);
+		TestUtils.waitForTestCount(testerManual, 1, 1000);
+		assertTrue(resultA.cancel(true));
+		latch.countDown();
+		resultManual.get(1000, TimeUnit.MILLISECONDS);
+		Thread.sleep(200);
+
+		assertTrue(resultA.isCancelled());
+		assertEquals(1, testerA.testCount());
+		assertEquals(1, databaseAdapter.getTestHistoryCount());
+	}
+
+	public void testCancelRunningTest() throws Exception {
+
+		TestTester tester = new TestTester();
+		tester.setInfo(new TestInfo());
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> result = scheduler.submitBackground(generation, tester, test("A", tester), databaseAdapter);
+		TestUtils.waitForTestCount(tester, 1, 1000);
+		assertTrue(result.cancel(true));
+		Thread.sleep(200);
+
+		// The tester is cancelled and the result of the cancelled test not recorded
+		assertTrue(tester.cancelled());
+		assertEquals(0, databaseAdapter.getTestHistoryCount());
+
+		// The tester is reset for the next test
+		Future<TestInfo> next = scheduler.submitBackground(generation, tester, test("B", tester), databaseAdapter);
+		TestUtils.waitForTestCount(tester, 2, 1000);
+		assertFalse(tester.cancelled());
+		tester.done();
+		assertNotNull(next.get(1000, TimeUnit.MILLISECONDS));
+	}
+
+	public void testRunsOnDaemonThread() throws Exception {
+
+		Future<TestInfo> result = scheduler.submitBackground(scheduler.getGeneration(), new TestTester(), new Callable<TestInfo>() {
+			public TestInfo call() throws Exception {
+				return Thread.currentThread().isDaemon() ? new TestInfo() : null;
+			}
+		}, databaseAdapter);
+
+		assertNotNull(result.get(1000, TimeUnit.MILLISECONDS));
+	}
+
+	public void testNewGenerationDropsStaleTests() throws Exception {
+
+		TestTester testerA = new TestTester();
+		TestTester testerB = new TestTester();
+		long generation = scheduler.newGeneration();
+
+		Future<TestInfo> resultA = scheduler.submitBackground(generation, testerA, test("A", testerA), databaseAdapter);
+		TestUtils.waitForTestCount(testerA, 1, 1000);
+
+		Future<TestInfo> resultB = scheduler.submitBackground(generation, testerB, test("B", testerB), databaseAdapter);
+
+		assertEquals(generation + 1, scheduler.newGeneration());
+
+		// Running test cancelled, queued one dropped
+		assertTrue(testerA.cancelled());
+		assertNull(resultA.get(1000, TimeUnit.MILLISECONDS));
+		assertTrue(resultB.isCancelled());
+
+		assertEquals(0, testerB.testCount());
+		assertEquals(Arrays.asList("A"), order);
+	}
+
+	public void testStaleTestNotQueued() throws Exception {
+
+		TestTester tester = new TestTester();
+		long generation = scheduler.newGeneration();
+		scheduler.newGeneration();
+
+		Future<TestInfo> result = scheduler.submitBackground(generation, tester, test("A", tester), databaseAdapter);
+
+		assertTrue(result.isCancelled());
+		Thread.sleep(100);
+		assertEquals(0, tester.testCount());
+	}
+
+	public void testNewerGenerationBecomesCurrent() throws Exception {
+
+		TestTester tester = new TestTester();
+		long generation = scheduler.getGeneration() + 5;
+
+		Future<TestInfo> result = scheduler.submitBackground(generation, tester, test("A", tester), databaseAdapter);
+		TestUtils.waitForTestCount(tester, 1, 1000);
+		tester.done();
+		result.get(1000, TimeUnit.MILLISECONDS);
+
+		assertEquals(generation, scheduler.getGeneration());
+		assertEquals(generation + 1, scheduler.newGeneration());
+	}
+
+	private Callable<TestInfo> test(final String name, final TestTester tester) {
+		return new Callable<TestInfo>() {
+			public TestInfo call() throws Exception {
+				order.add(name);
+				return tester.testWifi(null);
+			}
+		};
+	}
+
+}
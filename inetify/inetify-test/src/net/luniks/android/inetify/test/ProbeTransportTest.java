@@ -0,0 +1,538 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.luniks.android.inetify.ClockImpl;
+import net.luniks.android.inetify.ProbeBudget;
+import net.luniks.android.inetify.ProbeResponse;
+import net.luniks.android.inetify.ProbeTimings;
+import net.luniks.android.inetify.ProbeTransport;
+import net.luniks.android.inetify.TitleScanner;
+import net.luniks.android.inetify.TitleVerifier;
+import net.luniks.android.inetify.TitleVerifierImpl;
+import android.test.AndroidTestCase;
+
+public class ProbeTransportTest extends AndroidTestCase {
+
+	private static final String PAGE = "<html><head><title>Google</title></head><body></body></html>";
+
+	private TestHttpServer server;
+	private ProbeTransport transport;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new TestHttpServer(TestHttpServer.response("200 OK", null, PAGE));
+		transport = new ProbeTransport();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		super.tearDown();
+	}
+
+	public void testReuseConnection() throws Exception {
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(200, response.getStatus());
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		response = transport.get(url("/"), false);
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		assertEquals(2, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	public void testReuseConnectionSmallRestDrained() throws Exception {
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals('<', response.getInputStream().read());
+		response.close();
+
+		response = transport.get(url("/"), false);
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	public void testLargeRestNotReused() throws Exception {
+
+		StringBuilder page = new StringBuilder(PAGE);
+		for(int i = 0; i < 1000; i++) {
+			page.append("<p>Lorem ipsum dolor sit amet</p>");
+		}
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals('<', response.getInputStream().read());
+		response.close();
+
+		response = transport.get(url("/"), false);
+		assertEquals('<', response.getInputStream().read());
+		response.close();
+
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	public void testConnectionCloseNotReused() throws Exception {
+
+		server.setResponse(TestHttpServer.response("200 OK", "Connection: close\r\n", PAGE));
+
+		for(int i = 0; i < 3; i++) {
+			ProbeResponse response = transport.get(url("/"), false);
+			assertEquals(PAGE, read(response.getInputStream()));
+			response.close();
+		}
+
+		assertEquals(3, server.getConnectionCount());
+	}
+
+	public void testStaleConnectionRetried() throws Exception {
+
+		server.setCloseConnections(true);
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		// Server closed the connection in the meantime
+		Thread.sleep(100);
+
+		response = transport.get(url("/"), false);
+		assertEquals(200, response.getStatus());
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	public void testFlushClosesPooledConnection() throws Exception {
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		transport.flush();
+
+		// Pooled before the flush, closed after this request
+		for(int i = 0; i < 3; i++) {
+			response = transport.get(url("/"), false);
+			assertEquals(PAGE, read(response.getInputStream()));
+			response.close();
+		}
+
+		assertEquals(4, server.getRequestCount());
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	public void testResponseAcrossFlushNotReused() throws Exception {
+
+		ProbeResponse response = transport.get(url("/"), false);
+		transport.flush();
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		response = transport.get(url("/"), false);
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	public void testChunked() throws Exception {
+
+		server.setResponse("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+				"a\r\n<html><hea\r\n" +
+				"2;ext=1\r\nd>\r\n" +
+				"0\r\nX-Trailer: 1\r\n\r\n");
+
+		for(int i = 0; i < 2; i++) {
+			ProbeResponse response = transport.get(url("/"), false);
+			assertEquals("<html><head>", read(response.getInputStream()));
+			response.close();
+		}
+
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	public void testRedirect() throws Exception {
+
+		server.setResponse("/", TestHttpServer.response("302 Found", "Location: /login\r\n", null));
+		server.setResponse("/login", TestHttpServer.response("200 OK", null, PAGE));
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(302, response.getStatus());
+		assertEquals("/login", response.getHeader("location"));
+		response.close();
+
+		response = transport.get(url("/"), true);
+		assertEquals(200, response.getStatus());
+		assertEquals(PAGE, read(response.getInputStream()));
+		response.close();
+
+		assertEquals(3, server.getRequestCount());
+	}
+
+	public void testRedirectToOtherProtocolFollowed() throws Exception {
+
+		server.setResponse("/", TestHttpServer.response("302 Found",
+				String.format("Location: https://%s/login\r\n", server.getServer()), null));
+
+		// The server doesn't speak TLS, but connecting to it again shows the redirect was followed
+		try {
+			transport.get(url("/"), true);
+			fail("Expected IOException");
+		} catch(IOException e) {
+			// Expected
+		}
+
+		assertEquals(1, server.getRequestCount());
+		assertEquals(2, server.getConnectionCount());
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(302, response.getStatus());
+		response.close();
+	}
+
+	public void testTooManyRedirects() throws Exception {
+
+		server.setResponse(TestHttpServer.response("302 Found", "Location: /\r\n", null));
+
+		try {
+			transport.get(url("/"), true);
+			fail("Expected IOException");
+		} catch(IOException e) {
+			// Expected
+		}
+	}
+
+	public void testInvalidProtocol() throws Exception {
+
+		try {
+			transport.get("invalid://www.google.de", false);
+			fail("Expected IllegalArgumentException");
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public void testTitleVerifierReusesConnection() throws Exception {
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		for(int i = 0; i < 3; i++) {
+			assertEquals("Google", titleVerifier.getPageTitle(server.getServer()));
+		}
+
+		assertEquals(3, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	public void testTitleVerifierParsesLateTitleWithoutLoadingAgain() throws Exception {
+
+		StringBuilder page = new StringBuilder("<html><head>");
+		while(page.length() < TitleScanner.DEFAULT_MAX_BYTES) {
+			page.append("<meta name=\"description\" content=\"Lorem ipsum dolor sit amet\">");
+		}
+		page.append("<title>Late</title></head><body></body></html>");
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		assertEquals("Late", titleVerifier.getPageTitle(server.getServer()));
+		assertEquals(1, server.getRequestCount());
+
+		server.setResponse(TestHttpServer.response("200 OK", null, "<html><body></body></html>"));
+
+		assertEquals("", titleVerifier.getPageTitle(server.getServer()));
+		assertEquals(2, server.getRequestCount());
+	}
+
+	public void testTitleVerifierReadsRestUpToMaxBytes() throws Exception {
+
+		StringBuilder page = new StringBuilder("<html><head>");
+		while(page.length() < TitleScanner.DEFAULT_MAX_BYTES * 3) {
+			page.append("<meta name=\"description\" content=\"Lorem ipsum dolor sit amet\">");
+		}
+		page.append("<title>Too late</title></head><body></body></html>");
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		assertEquals("", titleVerifier.getPageTitle(server.getServer()));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testTitleVerifierRecordsPhaseTimes() throws Exception {
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		ProbeTimings timings = ProbeTimings.start();
+		try {
+			assertEquals("Google", titleVerifier.getPageTitle(server.getServer()));
+		} finally {
+			ProbeTimings.finish();
+		}
+
+		assertTrue(timings.get(ProbeTimings.PHASE_CONNECT) >= 0);
+		assertTrue(timings.get(ProbeTimings.PHASE_FIRST_BYTE) >= 0);
+		assertTrue(timings.get(ProbeTimings.PHASE_PARSE) >= 0);
+	}
+
+	public void testDeadlineAbortsTricklingResponse() throws Exception {
+
+		server.setTrickleDelay(50);
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		// Read timeout is never reached, but the whole response takes several seconds
+		ProbeBudget.enter(new ProbeBudget(new ClockImpl(), 1000, 1000, 1500));
+		long start = System.currentTimeMillis();
+		try {
+			titleVerifier.getPageTitle(server.getServer());
+			fail("Expected DeadlineExceededException");
+		} catch(ProbeBudget.DeadlineExceededException e) {
+			// Expected
+		} finally {
+			ProbeBudget.exit();
+		}
+		long time = System.currentTimeMillis() - start;
+
+		assertTrue(time >= 1500);
+		assertTrue(time < 2500);
+	}
+
+	public void testDeadlineAbortsTricklingRest() throws Exception {
+
+		StringBuilder page = new StringBuilder(PAGE);
+		for(int i = 0; i < 10; i++) {
+			page.append("<p>Lorem ipsum dolor sit amet</p>");
+		}
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+		server.setTrickleDelay(5);
+
+		// Small enough to be drained, but that would take a few seconds
+		ProbeBudget.enter(new ProbeBudget(new ClockImpl(), 1000, 1000, 1500));
+		long start = System.currentTimeMillis();
+		try {
+			ProbeResponse response = transport.get(url("/"), false);
+			assertEquals('<', response.getInputStream().read());
+			response.close();
+		} finally {
+			ProbeBudget.exit();
+		}
+		long time = System.currentTimeMillis() - start;
+
+		assertTrue(time < 2000);
+	}
+
+	public void testDeadlineCloseNotDrained() throws Exception {
+
+		StringBuilder page = new StringBuilder(PAGE);
+		for(int i = 0; i < 10; i++) {
+			page.append("<p>Lorem ipsum dolor sit amet</p>");
+		}
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+
+		TestClock clock = new TestClock();
+		ProbeBudget.enter(new ProbeBudget(clock, 1000, 1000, 1000));
+		try {
+			ProbeResponse response = transport.get(url("/"), false);
+			assertEquals('<', response.getInputStream().read());
+			// Too little time left to read the rest
+			clock.advance(900);
+			response.close();
+		} finally {
+			ProbeBudget.exit();
+		}
+
+		ProbeResponse response = transport.get(url("/"), false);
+		assertEquals(page.toString(), read(response.getInputStream()));
+		response.close();
+
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	public void testCancelStalledProbe() throws Exception {
+
+		server.setStalled(true);
+
+		TitleVerifier titleVerifier = new TitleVerifierImpl(transport, false);
+
+		// Timeouts and deadline are far away, only the cancel ends the probe
+		final ProbeBudget budget = new ProbeBudget(new ClockImpl(), 10000, 10000, 60000);
+		Thread cancelThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+					budget.cancel();
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+		};
+		cancelThread.start();
+
+		ProbeBudget.enter(budget);
+		long start = System.currentTimeMillis();
+		try {
+			titleVerifier.getPageTitle(server.getServer());
+			fail("Expected CancelledException");
+		} catch(ProbeBudget.CancelledException e) {
+			// Expected
+		} finally {
+			ProbeBudget.exit();
+		}
+		long time = System.currentTimeMillis() - start;
+
+		assertTrue(time >= 500);
+		assertTrue(time < 1000);
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testCancelDrainingProbe() throws Exception {
+
+		StringBuilder page = new StringBuilder(PAGE);
+		for(int i = 0; i < 10; i++) {
+			page.append("<p>Lorem ipsum dolor sit amet</p>");
+		}
+		server.setResponse(TestHttpServer.response("200 OK", null, page.toString()));
+		server.setTrickleDelay(5);
+
+		// Timeouts and deadline are far away, only the cancel ends reading the rest
+		final ProbeBudget budget = new ProbeBudget(new ClockImpl(), 10000, 10000, 60000);
+		Thread cancelThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(1000);
+					budget.cancel();
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+		};
+		cancelThread.start();
+
+		ProbeBudget.enter(budget);
+		long start = System.currentTimeMillis();
+		try {
+			ProbeResponse response = transport.get(url("/"), false);
+			assertEquals('<', response.getInputStream().read());
+			response.close();
+		} finally {
+			ProbeBudget.exit();
+		}
+		long time = System.currentTimeMillis() - start;
+
+		assertTrue(time >= 1000);
+		assertTrue(time < 1500);
+	}
+
+	public void testCancelledNoRequest() throws Exception {
+
+		ProbeBudget budget = new ProbeBudget(new ClockImpl(), 1000, 1000, 10000);
+		budget.cancel();
+
+		ProbeBudget.enter(budget);
+		try {
+			transport.get(url("/"), false);
+			fail("Expected CancelledException");
+		} catch(ProbeBudget.CancelledException e) {
+			// Expected
+		} finally {
+			ProbeBudget.exit();
+		}
+
+		assertEquals(0, server.getRequestCount());
+	}
+
+	public void testCancelReusedConnectionNotRetried() throws Exception {
+
+		ProbeResponse response = transport.get(url("/"), false);
+		read(response.getInputStream());
+		response.close();
+
+		server.setStalled(true);
+
+		final ProbeBudget budget = new ProbeBudget(new ClockImpl(), 10000, 10000, 60000);
+		Thread cancelThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+					budget.cancel();
+				} catch(InterruptedException e) {
+					// Ignore
+				}
+			}
+		};
+		cancelThread.start();
+
+		ProbeBudget.enter(budget);
+		try {
+			transport.get(url("/"), false);
+			fail("Expected CancelledException");
+		} catch(ProbeBudget.CancelledException e) {
+			// Expected
+		} finally {
+			ProbeBudget.exit();
+		}
+
+		// Not sent again on a new connection as if the reused one was stale
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	public void testDeadlinePassedNoRequest() throws Exception {
+
+		ProbeBudget.enter(new ProbeBudget(new ClockImpl(), 1000, 1000, 0));
+		try {
+			transport.get(url("/"), false);
+			fail("Expected DeadlineExceededException");
+		} catch(ProbeBudget.DeadlineExceededException e) {
+			// Expected
+		} finally {
+			ProbeBudget.exit();
+		}
+
+		assertEquals(0, server.getRequestCount());
+	}
+
+	private String url(final String path) {
+		return String.format("http://%s%s", server.getServer(), path);
+	}
+
+	private static String read(final InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64];
+		int count;
+		while((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toString("UTF-8");
+	}
+
+}
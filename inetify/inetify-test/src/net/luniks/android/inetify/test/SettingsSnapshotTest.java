@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.Arrays;
+
+import net.luniks.android.inetify.ProbeBudget;
+import net.luniks.android.inetify.Settings;
+import net.luniks.android.inetify.SettingsSnapshot;
+import net.luniks.android.inetify.StatusVerifierImpl;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class SettingsSnapshotTest extends AndroidTestCase {
+
+	private SharedPreferences sharedPreferences;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		sharedPreferences = this.getContext().getSharedPreferences("SettingsSnapshotTest", Context.MODE_PRIVATE);
+		sharedPreferences.edit().clear().commit();
+	}
+
+	public void testDefaults() {
+
+		SettingsSnapshot settings = new SettingsSnapshot(sharedPreferences);
+
+		assertFalse(settings.isInternetCheck());
+		assertFalse(settings.isStatusProbe());
+		assertEquals(Settings.INTERNET_PROBE_TITLE, settings.getProbe());
+		assertEquals(SettingsSnapshot.DEFAULT_STATUS_SERVER, settings.getStatusServer());
+		assertEquals(5 * 60 * 1000, settings.getCacheTTL());
+		assertEquals(ProbeBudget.DEFAULT_CONNECT_TIMEOUT, settings.getConnectTimeout());
+		assertEquals(ProbeBudget.DEFAULT_READ_TIMEOUT, settings.getReadTimeout());
+		assertEquals(ProbeBudget.DEFAULT_DEADLINE, settings.getDeadline());
+		assertEquals(SettingsSnapshot.DEFAULT_FIRST_DELAY, settings.getFirstDelay());
+		assertEquals(SettingsSnapshot.DEFAULT_RETRY_DELAY, settings.getRetryDelay());
+		assertEquals(SettingsSnapshot.DEFAULT_MAX_RETRY_DELAY, settings.getMaxRetryDelay());
+		assertEquals(0.3, settings.getRetryJitter(), 0.0001);
+		assertEquals(SettingsSnapshot.DEFAULT_MAX_TRIES, settings.getMaxTries());
+		assertEquals(SettingsSnapshot.DEFAULT_MAX_DISTANCE, settings.getMaxDistance());
+		assertEquals(SettingsSnapshot.DEFAULT_CHECK_INTERVAL, settings.getCheckInterval());
+		assertEquals("", settings.getTone());
+		assertTrue(settings.isLight());
+	}
+
+	public void testParsed() {
+
+		sharedPreferences.edit()
+			.putString(Settings.INTERNET_SERVER, "www.google.com, www.google.de")
+			.putString(Settings.INTERNET_TITLE, "Google")
+			.putString(Settings.INTERNET_CACHE_TTL, "10")
+			.putString(Settings.INTERNET_CONNECT_TIMEOUT, "5")
+			.putString(Settings.INTERNET_READ_TIMEOUT, "invalid")
+			.putString(Settings.INTERNET_DEADLINE, "0")
+			.putString(Settings.LOCATION_MAX_DISTANCE, "2500")
+			.putString(Settings.LOCATION_CHECK_INTERVAL, "30")
+			.commit();
+
+		SettingsSnapshot settings = new SettingsSnapshot(sharedPreferences);
+
+		assertEquals("www.google.com, www.google.de", settings.getProbeServer());
+		assertEquals(Arrays.asList("www.google.com", "www.google.de"), settings.getProbeServers());
+		assertEquals("Google", settings.getProbeTitle());
+		assertEquals(10 * 60 * 1000, settings.getCacheTTL());
+		assertEquals(5000, settings.getConnectTimeout());
+		assertEquals(ProbeBudget.DEFAULT_READ_TIMEOUT, settings.getReadTimeout());
+		assertEquals(ProbeBudget.DEFAULT_DEADLINE, settings.getDeadline());
+		assertEquals(2500, settings.getMaxDistance());
+		assertEquals(30, settings.getCheckInterval());
+	}
+
+	public void testRetrySettings() {
+
+		sharedPreferences.edit()
+			.putString(Settings.INTERNET_FIRST_DELAY, "2")
+			.putString(Settings.INTERNET_RETRY_DELAY, "20")
+			.putString(Settings.INTERNET_MAX_RETRY_DELAY, "10")
+			.putString(Settings.INTERNET_RETRY_JITTER, "150")
+			.putString(Settings.INTERNET_MAX_TRIES, "0")
+			.commit();
+
+		SettingsSnapshot settings = new SettingsSnapshot(sharedPreferences);
+
+		assertEquals(2000, settings.getFirstDelay());
+		assertEquals(20000, settings.getRetryDelay());
+		// Not less than the retry delay
+		assertEquals(20000, settings.getMaxRetryDelay());
+		assertEquals(1.0, settings.getRetryJitter(), 0.0001);
+		assertEquals(SettingsSnapshot.DEFAULT_MAX_TRIES, settings.getMaxTries());
+	}
+
+	public void testStatusProbe() {
+
+		sharedPreferences.edit()
+			.putString(Settings.INTERNET_PROBE, Settings.INTERNET_PROBE_STATUS)
+			.putString(Settings.INTERNET_SERVER, "www.google.com")
+			.putString(Settings.INTERNET_STATUS_SERVER, "clients3.google.com/generate_204")
+			.commit();
+
+		SettingsSnapshot settings = new SettingsSnapshot(sharedPreferences);
+
+		assertTrue(settings.isStatusProbe());
+		assertEquals("clients3.google.com/generate_204", settings.getProbeServer());
+		assertEquals(StatusVerifierImpl.SUMMARY_NO_CONTENT, settings.getProbeTitle());
+	}
+
+	public void testStatusProbeServerNotSet() {
+
+		sharedPreferences.edit()
+			.putString(Settings.INTERNET_PROBE, Settings.INTERNET_PROBE_STATUS)
+			.commit();
+
+		SettingsSnapshot settings = new SettingsSnapshot(sharedPreferences);
+
+		assertEquals(Arrays.asList(SettingsSnapshot.DEFAULT_STATUS_SERVER), settings.getProbeServers());
+	}
+
+	public void testInvalidCacheTTLTurnsCachingOff() {
+
+		sharedPreferences.edit().putString(Settings.INTERNET_CACHE_TTL, "invalid").commit();
+
+		assertEquals(0, new SettingsSnapshot(sharedPreferences).getCacheTTL());
+	}
+
+	public void testReplacedOnChange() {
+
+		SettingsSnapshot settings = SettingsSnapshot.getInstance(sharedPreferences);
+		assertSame(settings, SettingsSnapshot.getInstance(sharedPreferences));
+		assertFalse(settings.isInternetCheck());
+
+		sharedPreferences.edit().putBoolean(Settings.INTERNET_CHECK, true).commit();
+
+		SettingsSnapshot changed = SettingsSnapshot.getInstance(sharedPreferences);
+		assertNotSame(settings, changed);
+		assertTrue(changed.isInternetCheck());
+
+		// Not a setting in the snapshot
+		sharedPreferences.edit().putInt(Settings.ZOOMLEVEL, 12).commit();
+
+		assertSame(changed, SettingsSnapshot.getInstance(sharedPreferences));
+	}
+
+}
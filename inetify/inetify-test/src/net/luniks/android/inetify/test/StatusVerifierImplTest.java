@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.StatusVerifierImpl;
+import net.luniks.android.inetify.TitleVerifier;
+import net.luniks.android.inetify.TitleVerifierImpl;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class StatusVerifierImplTest extends AndroidTestCase {
+
+	private TestHttpServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new TestHttpServer(TestHttpServer.response("204 No Content", null, null));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		super.tearDown();
+	}
+
+	public void testNoContent() throws Exception {
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals(StatusVerifierImpl.SUMMARY_NO_CONTENT, pageTitle);
+		assertTrue(verifier.isExpectedTitle(null, pageTitle));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testEmptyPage() throws Exception {
+
+		server.setResponse(TestHttpServer.response("200 OK", null, ""));
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals(StatusVerifierImpl.SUMMARY_EMPTY, pageTitle);
+		assertTrue(verifier.isExpectedTitle("Google", pageTitle));
+	}
+
+	public void testEmptyPageUnknownLength() throws Exception {
+
+		server.setResponse("HTTP/1.0 200 OK\r\nConnection: close\r\n\r\n");
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals(StatusVerifierImpl.SUMMARY_EMPTY, pageTitle);
+		assertTrue(verifier.isExpectedTitle("Google", pageTitle));
+	}
+
+	public void testCaptivePortalRedirect() throws Exception {
+
+		server.setResponse(TestHttpServer.response("302 Found", "Location: http://portal.hotspot/login\r\n", null));
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals("HTTP 302, http://portal.hotspot/login", pageTitle);
+		assertFalse(verifier.isExpectedTitle(null, pageTitle));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	public void testCaptivePortalPage() throws Exception {
+
+		server.setResponse(TestHttpServer.response("200 OK", null, "<html><head><title>Login</title></head></html>"));
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals("HTTP 200, 46 bytes", pageTitle);
+		assertFalse(verifier.isExpectedTitle(null, pageTitle));
+	}
+
+	public void testServerError() throws Exception {
+
+		server.setResponse(TestHttpServer.response("503 Service Unavailable", null, ""));
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		String pageTitle = verifier.getPageTitle(server.getServer());
+
+		assertEquals("HTTP 503, 0 bytes", pageTitle);
+		assertFalse(verifier.isExpectedTitle(null, pageTitle));
+	}
+
+	public void testInvalidProtocol() throws Exception {
+
+		TitleVerifier verifier = new StatusVerifierImpl();
+
+		try {
+			verifier.getPageTitle("invalid://www.google.de");
+			fail("Expected IllegalArgumentException");
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public void testBytesAndLatency() throws Exception {
+
+		StringBuilder body = new StringBuilder("<html><head><title>Google</title>");
+		for(int i = 0; i < 500; i++) {
+			body.append("<script>var x = 'Lorem ipsum dolor sit amet';</script>\n");
+		}
+		body.append("</head><body></body></html>");
+
+		int runs = 20;
+
+		server.setResponse(TestHttpServer.response("200 OK", null, body.toString()));
+		TitleVerifier titleVerifier = new TitleVerifierImpl(true);
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < runs; i++) {
+			assertEquals("Google", titleVerifier.getPageTitle(server.getServer()));
+		}
+		long titleTime = System.currentTimeMillis() - start;
+		int titleBytes = server.getBytesWritten();
+
+		server.resetCounts();
+		server.setResponse(TestHttpServer.response("204 No Content", null, null));
+		TitleVerifier statusVerifier = new StatusVerifierImpl();
+		start = System.currentTimeMillis();
+		for(int i = 0; i < runs; i++) {
+			assertEquals(StatusVerifierImpl.SUMMARY_NO_CONTENT, statusVerifier.getPageTitle(server.getServer()));
+		}
+		long statusTime = System.currentTimeMillis() - start;
+		int statusBytes = server.getBytesWritten();
+
+		Log.d("StatusVerifierImplTest", String.format("Title: %s ms, %s bytes; Status: %s ms, %s bytes",
+				titleTime, titleBytes, statusTime, statusBytes));
+
+		assertTrue(statusBytes * 10 < titleBytes);
+	}
+
+}
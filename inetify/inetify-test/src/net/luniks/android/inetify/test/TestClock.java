@@ -0,0 +1,38 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.luniks.android.inetify.Clock;
+
+public class TestClock implements Clock {
+	
+	private final AtomicLong now = new AtomicLong(0);
+	
+	public long now() {
+		return now.get();
+	}
+	
+	public void setNow(final long now) {
+		this.now.set(now);
+	}
+	
+	public void advance(final long millis) {
+		now.addAndGet(millis);
+	}
+
+}
@@ -18,10 +18,16 @@ package net.luniks.android.inetify.test;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.luniks.android.inetify.DatabaseAdapter;
+import net.luniks.android.inetify.DatabaseWriter;
+import net.luniks.android.inetify.ProbeTimings;
 import net.luniks.android.inetify.TestInfo;
 import net.luniks.android.inetify.WifiLocation;
 import android.database.Cursor;
@@ -31,10 +37,12 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 	
 	private final Map<String, String> ignoredWifis = new ConcurrentHashMap<String, String>();
 	private final Map<String, String> wifiLocations = new ConcurrentHashMap<String, String>();
+	private final Map<String, TestInfo> cachedTestResults = new ConcurrentHashMap<String, TestInfo>();
 	private final AtomicBoolean isOpen = new AtomicBoolean(false);
 	
 	private WifiLocation nearestLocation;
 	private TestInfo lastTestResult;
+	private final AtomicInteger testHistoryCount = new AtomicInteger(0);
 	
 	public void setNearestLocation(final WifiLocation nearestLocation) {
 		this.nearestLocation = nearestLocation;
@@ -44,6 +52,11 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 	public void clearLocations() {
 		wifiLocations.clear();
 	}
+	
+	// Non interface method
+	public int getTestHistoryCount() {
+		return testHistoryCount.get();
+	}
 
 	public boolean addIgnoredWifi(String bssid, String ssid) {
 		isOpen.set(true);
@@ -51,6 +64,13 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 		return true;
 	}
 
+	public int addIgnoredWifis(String[] bssids, String[] ssids, int count) {
+		for(int i = 0; i < count; i++) {
+			addIgnoredWifi(bssids[i], ssids[i]);
+		}
+		return count;
+	}
+
 	public boolean isIgnoredWifi(String ssid) {
 		isOpen.set(true);
 		return ignoredWifis.containsValue(ssid);
@@ -74,12 +94,36 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 		return null;
 	}
 
+	// TODO Implement when needed
+	public Cursor fetchIgnoredWifis(String filter, int offset, int limit) {
+		isOpen.set(true);
+		return null;
+	}
+
+	// TODO Implement when needed
+	public Cursor fetchIgnoredWifis(String filter, String afterSSID, String afterBSSID, int limit) {
+		isOpen.set(true);
+		return null;
+	}
+
+	public int countIgnoredWifis(String filter) {
+		isOpen.set(true);
+		return ignoredWifis.size();
+	}
+
 	public boolean addLocation(String bssid, String ssid, String name, Location location) {
 		isOpen.set(true);
 		wifiLocations.put(bssid, ssid);
 		return true;
 	}
 
+	public int addLocations(WifiLocation[] locations, int count) {
+		for(int i = 0; i < count; i++) {
+			addLocation(locations[i].getBSSID(), locations[i].getSSID(), locations[i].getName(), locations[i].getLocation());
+		}
+		return count;
+	}
+
 	public boolean deleteLocation(String bssid) {
 		isOpen.set(true);
 		return false;
@@ -94,6 +138,21 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 		isOpen.set(true);
 		return null;
 	}
+
+	public Cursor fetchLocations(String filter, int offset, int limit) {
+		isOpen.set(true);
+		return null;
+	}
+
+	public Cursor fetchLocations(String filter, String afterName, String afterBSSID, int limit) {
+		isOpen.set(true);
+		return null;
+	}
+
+	public int countLocations(String filter) {
+		isOpen.set(true);
+		return wifiLocations.size();
+	}
 	
 	public boolean hasLocations() {
 		isOpen.set(true);
@@ -121,11 +180,68 @@ public class TestDatabaseAdapter implements DatabaseAdapter {
 		return lastTestResult;
 	}
 
+	public boolean addTestHistory(long timestamp, int type, String subtype, String bssid, boolean status, long latency) {
+		return addTestHistory(timestamp, type, subtype, bssid, status, latency, null);
+	}
+	
+	public boolean addTestHistory(long timestamp, int type, String subtype, String bssid, boolean status, long latency, long[] phaseTimes) {
+		isOpen.set(true);
+		testHistoryCount.incrementAndGet();
+		return true;
+	}
+	
+	// TODO Implement when needed
+	public long[] fetchPhasePercentiles(int percentile) {
+		isOpen.set(true);
+		return new ProbeTimings().toArray();
+	}
+	
+	// TODO Implement when needed
+	public Cursor fetchTestHistory(long from, long to) {
+		isOpen.set(true);
+		return null;
+	}
+	
+	// TODO Implement when needed
+	public Cursor fetchTestHistory(String bssid, long from, long to) {
+		isOpen.set(true);
+		return null;
+	}
+	
+	public boolean updateCachedTestResult(String key, TestInfo info) {
+		isOpen.set(true);
+		cachedTestResults.put(key, info);
+		return true;
+	}
+	
+	public TestInfo fetchCachedTestResult(String key) {
+		isOpen.set(true);
+		return cachedTestResults.get(key);
+	}
+	
+	public boolean deleteCachedTestResult(String key) {
+		isOpen.set(true);
+		return cachedTestResults.remove(key) != null;
+	}
+
 	public int getDatabaseVersion() {
 		// TODO Auto-generated method stub
 		return 0;
 	}
 	
+	public <T> Future<T> submit(final Callable<T> write, final DatabaseWriter.Listener<T> listener) {
+		FutureTask<T> future = new FutureTask<T>(write);
+		future.run();
+		if(listener != null) {
+			try {
+				listener.onWritten(future.get());
+			} catch(Exception e) {
+				listener.onWritten(null);
+			}
+		}
+		return future;
+	}
+	
 	public void close() {
 		isOpen.set(false);
 	}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP server on localhost answering each request with a canned response,
+ * so probes can be tested without internet connectivity. Connections are kept open
+ * for further requests unless the response contains "Connection: close".
+ */
+public class TestHttpServer {
+
+	private final ServerSocket serverSocket;
+
+	private volatile byte[] response;
+	private volatile boolean closeConnections = false;
+	private volatile long trickleDelay = 0;
+	private volatile boolean stalled = false;
+	private final Map<String, byte[]> responses = new ConcurrentHashMap<String, byte[]>();
+	private final AtomicInteger requestCount = new AtomicInteger(0);
+	private final AtomicInteger connectionCount = new AtomicInteger(0);
+	private final AtomicInteger bytesWritten = new AtomicInteger(0);
+
+	public TestHttpServer(final String response) throws IOException {
+		this.response = response.getBytes("UTF-8");
+		this.serverSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public static String response(final String status, final String headers, final String body) {
+		StringBuilder response = new StringBuilder();
+		response.append(String.format("HTTP/1.1 %s\r\n", status));
+		if(headers != null) {
+			response.append(headers);
+		}
+		if(body != null) {
+			response.append("Content-Type: text/html; charset=UTF-8\r\n");
+		}
+		response.append(String.format("Content-Length: %s\r\n\r\n", body == null ? 0 : body.length()));
+		if(body != null) {
+			response.append(body);
+		}
+		return response.toString();
+	}
+
+	public void setResponse(final String response) throws IOException {
+		this.response = response.getBytes("UTF-8");
+	}
+
+	public void setResponse(final String path, final String response) throws IOException {
+		this.responses.put(path, response.getBytes("UTF-8"));
+	}
+
+	public void setCloseConnections(final boolean closeConnections) {
+		this.closeConnections = closeConnections;
+	}
+
+	// Writes the responses byte by byte with the given delay between the bytes
+	public void setTrickleDelay(final long trickleDelay) {
+		this.trickleDelay = trickleDelay;
+	}
+
+	// Reads the requests but never answers them, until the client goes away
+	public void setStalled(final boolean stalled) {
+		this.stalled = stalled;
+	}
+
+	public String getServer() {
+		return String.format("127.0.0.1:%s", serverSocket.getLocalPort());
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	public int getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public void resetCounts() {
+		requestCount.set(0);
+		connectionCount.set(0);
+		bytesWritten.set(0);
+	}
+
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch(IOException e) {
+			// Ignore
+		}
+	}
+
+	private void accept() {
+		while(! serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connectionCount.incrementAndGet();
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						serve(socket);
+					}
+				});
+				thread.setDaemon(true);
+				thread.start();
+			} catch(IOException e) {
+				// Server closed
+			}
+		}
+	}
+
+	private void serve(final Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			String path;
+			while(! serverSocket.isClosed() && (path = readRequest(in)) != null) {
+				requestCount.incrementAndGet();
+				if(stalled) {
+					while(in.read() != -1) {
+						// Ignore
+					}
+					break;
+				}
+				byte[] bytes = responses.get(path);
+				if(bytes == null) {
+					bytes = response;
+				}
+				if(trickleDelay > 0) {
+					trickle(out, bytes);
+				} else {
+					out.write(bytes);
+					out.flush();
+				}
+				bytesWritten.addAndGet(bytes.length);
+				if(closeConnections || new String(bytes, "UTF-8").toLowerCase(Locale.US).contains("connection: close")) {
+					break;
+				}
+			}
+		} catch(IOException e) {
+			// Client went away
+		} finally {
+			try {
+				socket.close();
+			} catch(IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	private void trickle(final OutputStream out, final byte[] bytes) throws IOException {
+		for(byte b : bytes) {
+			out.write(b);
+			out.flush();
+			try {
+				Thread.sleep(trickleDelay);
+			} catch(InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+		}
+	}
+
+	private static String readRequest(final InputStream in) throws IOException {
+		StringBuilder requestLine = new StringBuilder();
+		boolean firstLine = true;
+		int matched = 0;
+		int b;
+		while(matched < 4 && (b = in.read()) != -1) {
+			if(b == '\n') {
+				firstLine = false;
+			}
+			if(firstLine && b != '\r') {
+				requestLine.append((char)b);
+			}
+			if(b == (matched % 2 == 0 ? '\r' : '\n')) {
+				matched++;
+			} else {
+				matched = b == '\r' ? 1 : 0;
+			}
+		}
+		if(matched < 4) {
+			return null;
+		}
+		String[] parts = requestLine.toString().split(" ");
+		return parts.length > 1 ? parts[1] : "/";
+	}
+
+}
@@ -17,6 +17,7 @@ package net.luniks.android.inetify.test;
 
 import java.util.Date;
 
+import net.luniks.android.inetify.ProbeTimings;
 import net.luniks.android.inetify.TestInfo;
 import android.net.ConnectivityManager;
 import android.os.Parcel;
@@ -46,6 +47,12 @@ public class TestInfoTest extends AndroidTestCase {
 		assertTrue(string.contains("title = TestTitle"));
 		assertTrue(string.contains("type = 0"));
 		assertTrue(string.contains("typeName = TestTypeName"));
+		assertTrue(string.contains("latency = 123"));
+		assertTrue(string.contains("dns = 1"));
+		assertTrue(string.contains("connect = 2"));
+		assertTrue(string.contains("tls = -1"));
+		assertTrue(string.contains("firstByte = 4"));
+		assertTrue(string.contains("parse = 5"));
 		
 	}
 	
@@ -88,6 +95,20 @@ public class TestInfoTest extends AndroidTestCase {
 		assertAllGet(fromParcel);
 	}
 	
+	public void testNoPhaseTimes() {
+		
+		TestInfo info = new TestInfo();
+		
+		assertFalse(info.hasPhaseTimes());
+		for(int i = 0; i < ProbeTimings.PHASES; i++) {
+			assertEquals(-1, info.getPhaseTime(i));
+		}
+		
+		info.setPhaseTime(ProbeTimings.PHASE_PARSE, 0);
+		
+		assertTrue(info.hasPhaseTimes());
+	}
+	
 	public void testDescribeContents() {
 		
 		TestInfo info = new TestInfo();
@@ -106,6 +127,11 @@ public class TestInfoTest extends AndroidTestCase {
 		assertEquals("TestTitle", info.getTitle());
 		assertEquals(0, info.getType());
 		assertEquals("TestTypeName", info.getTypeName());
+		assertEquals(123, info.getLatency());
+		assertEquals(2, info.getPhaseTime(ProbeTimings.PHASE_CONNECT));
+		assertEquals(4, info.getPhaseTime(ProbeTimings.PHASE_FIRST_BYTE));
+		assertEquals(5, info.getPhaseTime(ProbeTimings.PHASE_PARSE));
+		assertTrue(info.hasPhaseTimes());
 	}
 	
 	private TestInfo getTestInfoAllSet() {
@@ -122,6 +148,8 @@ public class TestInfoTest extends AndroidTestCase {
 		info.setTitle("TestTitle");
 		info.setType(0);
 		info.setTypeName("TestTypeName");
+		info.setLatency(123);
+		info.setPhaseTimes(new long[] {2, 4, 5});
 		
 		return info;
 	}
@@ -49,9 +49,14 @@ public class TestLocater implements Locater {
 	}
 
 	public void start(final LocaterLocationListener listener, final long maxAge, final int minAccuracy, boolean useGPS) {
+		start(listener, maxAge, minAccuracy, minAccuracy, useGPS);
+	}
+
+	public void start(final LocaterLocationListener listener, final long maxAge, 
+			final int fineAccuracy, final int coarseAccuracy, boolean useGPS) {
 		running.set(true);
 		started.set(true);
-		callsToStart.add(new CallToStart(maxAge, minAccuracy, useGPS));
+		callsToStart.add(new CallToStart(maxAge, fineAccuracy, coarseAccuracy, useGPS));
 		this.listener = listener;
 	}
 
@@ -65,9 +70,11 @@ public class TestLocater implements Locater {
 		return null;
 	}
 
-	// TODO Implement when needed
 	public boolean isAccurateEnough(final Location location, final int meters) {
-		return true;
+		if(location == null) {
+			return false;
+		}
+		return ! location.hasAccuracy() || location.getAccuracy() <= meters;
 	}
 
 	// TODO Implement when needed
@@ -79,11 +86,13 @@ public class TestLocater implements Locater {
 		
 		private long maxAge;
 		private int minAccuracy;
+		private int coarseAccuracy;
 		private boolean useGPS;
 		
-		public CallToStart(final long maxAge, final int minAccuracy, final boolean useGPS) {
+		public CallToStart(final long maxAge, final int minAccuracy, final int coarseAccuracy, final boolean useGPS) {
 			this.maxAge = maxAge;
 			this.minAccuracy = minAccuracy;
+			this.coarseAccuracy = coarseAccuracy;
 			this.useGPS = useGPS;
 		}
 
@@ -95,6 +104,10 @@ public class TestLocater implements Locater {
 			return minAccuracy;
 		}
 
+		public int getCoarseAccuracy() {
+			return coarseAccuracy;
+		}
+
 		public boolean isUseGPS() {
 			return useGPS;
 		}
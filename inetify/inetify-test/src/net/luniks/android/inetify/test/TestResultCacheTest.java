@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.ProbeTimings;
+import net.luniks.android.inetify.TestInfo;
+import net.luniks.android.inetify.TestResultCache;
+import android.test.AndroidTestCase;
+
+public class TestResultCacheTest extends AndroidTestCase {
+	
+	private static final long TTL = 5 * 60 * 1000;
+	
+	private static final String KEY = TestResultCache.getKey("00:21:29:A2:48:80", "title", "www.google.com", "Google");
+	
+	private TestDatabaseAdapter databaseAdapter;
+	private TestResultCache cache;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		TestResultCache.clear();
+		databaseAdapter = new TestDatabaseAdapter();
+		cache = new TestResultCache(databaseAdapter);
+	}
+	
+	public void testGetKey() {
+		
+		assertNull(TestResultCache.getKey(null, "title", "www.google.com", "Google"));
+		
+		assertFalse(KEY.equals(TestResultCache.getKey("00:21:29:A2:48:81", "title", "www.google.com", "Google")));
+		assertFalse(KEY.equals(TestResultCache.getKey("00:21:29:A2:48:80", "status", "www.google.com", "Google")));
+		assertFalse(KEY.equals(TestResultCache.getKey("00:21:29:A2:48:80", "title", "www.bing.com", "Google")));
+		assertFalse(KEY.equals(TestResultCache.getKey("00:21:29:A2:48:80", "title", "www.google.com", "Bing")));
+	}
+	
+	public void testHit() {
+		
+		cache.put(KEY, createInfo(1000, true));
+		
+		TestInfo info = cache.get(KEY, TTL, 1000 + TTL);
+		
+		assertNotNull(info);
+		assertEquals("Sputnik", info.getExtra());
+		assertTrue(info.getIsExpectedTitle());
+		assertEquals(1, TestResultCache.getHitCount());
+		assertEquals(0, TestResultCache.getMissCount());
+		
+		// Not the timings of the cached test, no server was probed
+		assertEquals(1000 + TTL, info.getTimestamp());
+		assertEquals(-1, info.getLatency());
+		assertFalse(info.hasPhaseTimes());
+		
+		// Modifying the returned instance does not modify the cached one
+		info.setTimestamp(0);
+		assertNotNull(cache.get(KEY, TTL, 1000 + TTL));
+	}
+	
+	public void testExpired() {
+		
+		cache.put(KEY, createInfo(1000, true));
+		
+		assertNull(cache.get(KEY, TTL, 1000 + TTL + 1));
+		assertNull(cache.get(KEY, TTL, 999));
+		assertNull(cache.get("OtherKey", TTL, 1000));
+		assertEquals(0, TestResultCache.getHitCount());
+		assertEquals(3, TestResultCache.getMissCount());
+	}
+	
+	public void testDisabled() {
+		
+		cache.put(KEY, createInfo(1000, true));
+		
+		assertNull(cache.get(KEY, 0, 1000));
+		assertNull(cache.get(null, TTL, 1000));
+		assertEquals(0, TestResultCache.getMissCount());
+	}
+	
+	public void testNotOKNotCached() {
+		
+		cache.put(KEY, createInfo(1000, false));
+		
+		assertNull(cache.get(KEY, TTL, 1000));
+		assertNull(databaseAdapter.fetchCachedTestResult(KEY));
+	}
+	
+	public void testNotOKRemoves() {
+		
+		cache.put(KEY, createInfo(1000, true));
+		cache.put(KEY, createInfo(2000, false));
+		
+		assertNull(cache.get(KEY, TTL, 2000));
+		assertNull(databaseAdapter.fetchCachedTestResult(KEY));
+	}
+	
+	public void testSurvivesProcessDeath() {
+		
+		cache.put(KEY, createInfo(1000, true));
+		
+		// Memory is gone, but the database still has the entry
+		TestResultCache.clear();
+		
+		TestInfo info = new TestResultCache(databaseAdapter).get(KEY, TTL, 2000);
+		
+		assertNotNull(info);
+		assertEquals("Sputnik", info.getExtra());
+		assertEquals(1, TestResultCache.getHitCount());
+	}
+	
+	private static TestInfo createInfo(final long timestamp, final boolean isExpectedTitle) {
+		TestInfo info = new TestInfo();
+		info.setTimestamp(timestamp);
+		info.setExtra("Sputnik");
+		info.setExtra2("00:21:29:A2:48:80");
+		info.setIsExpectedTitle(isExpectedTitle);
+		info.setLatency(100);
+		info.setPhaseTime(ProbeTimings.PHASE_CONNECT, 50);
+		return info;
+	}
+	
+}
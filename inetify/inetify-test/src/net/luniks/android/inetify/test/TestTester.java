@@ -18,6 +18,7 @@ package net.luniks.android.inetify.test;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.luniks.android.inetify.RetryPolicy;
 import net.luniks.android.inetify.TestInfo;
 import net.luniks.android.inetify.Tester;
 import net.luniks.android.interfaces.IWifiInfo;
@@ -51,9 +52,16 @@ public class TestTester implements Tester {
 	}
 
 	public TestInfo testWifi(int retries, int delay) {
+		return testWifi();
+	}
+	
+	public TestInfo testWifi(RetryPolicy retryPolicy) {
+		return testWifi();
+	}
+	
+	private TestInfo testWifi() {
 		done.set(false);
 		testCount.incrementAndGet();
-		cancelled.set(false);
 		while(! done.get() && ! cancelled.get()) {
 			if(throwException.get()) {
 				try {
@@ -97,6 +105,10 @@ public class TestTester implements Tester {
 		}
 	}
 	
+	public void reset() {
+		cancelled.set(false);
+	}
+	
 	public void done() {
 		this.done.set(true);
 		try {
@@ -19,9 +19,11 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 
 import net.luniks.android.inetify.DatabaseAdapter;
+import net.luniks.android.inetify.DatabaseAdapterImpl;
 import android.app.Activity;
 import android.app.Dialog;
 import android.app.Instrumentation.ActivityMonitor;
+import android.content.Context;
 import android.location.Location;
 import android.net.NetworkInfo;
 import android.view.View;
@@ -187,6 +189,19 @@ public class TestUtils {
 		return networkInfo;
 	}
 	
+	public static void deleteDatabase(final Context context) throws Exception {
+		Object instance = getStaticFieldValue(DatabaseAdapterImpl.class, "instance");
+		if(instance != null) {
+			setFieldValue(instance, "shared", false);
+			((DatabaseAdapterImpl)instance).close();
+			setStaticFieldValue(DatabaseAdapterImpl.class, "instance", null);
+		}
+		context.deleteDatabase(DatabaseAdapterImpl.DATABASE_NAME);
+		context.deleteDatabase(DatabaseAdapterImpl.DATABASE_NAME + "-journal");
+		context.deleteDatabase(DatabaseAdapterImpl.DATABASE_NAME + "-wal");
+		context.deleteDatabase(DatabaseAdapterImpl.DATABASE_NAME + "-shm");
+	}
+	
 	public static void setFieldValue(final Object object, final String name, final Object value) throws Exception {
 		Field field = object.getClass().getDeclaredField(name);
 		field.setAccessible(true);
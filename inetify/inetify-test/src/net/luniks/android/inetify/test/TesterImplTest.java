@@ -15,6 +15,12 @@
  */
 package net.luniks.android.inetify.test;
 
+import java.util.Random;
+
+import net.luniks.android.inetify.BackoffRetryPolicy;
+import net.luniks.android.inetify.RetryPolicy;
+import net.luniks.android.inetify.Settings;
+import net.luniks.android.inetify.StatusVerifierImpl;
 import net.luniks.android.inetify.TestInfo;
 import net.luniks.android.inetify.Tester;
 import net.luniks.android.inetify.TesterImpl;
@@ -25,7 +31,9 @@ import net.luniks.android.test.mock.ConnectivityManagerMock;
 import net.luniks.android.test.mock.NetworkInfoMock;
 import net.luniks.android.test.mock.WifiInfoMock;
 import net.luniks.android.test.mock.WifiManagerMock;
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
+import android.preference.PreferenceManager;
 import android.test.AndroidTestCase;
 
 public class TesterImplTest extends AndroidTestCase {
@@ -313,6 +321,7 @@ public class TesterImplTest extends AndroidTestCase {
 		assertEquals("MockBSSID", info.getExtra2());
 		assertNull(info.getException());
 		assertNotNull(info.getTimestamp());
+		assertTrue(info.getLatency() >= 0);
 		
 		assertEquals(1, titleVerifier.getTestCount());
 	}
@@ -500,6 +509,131 @@ public class TesterImplTest extends AndroidTestCase {
 		
 	}
 	
+	public void testTestWifiCancelDuringStalledProbe() throws Exception {
+		
+		TestHttpServer server = new TestHttpServer(TestHttpServer.response("200 OK", null, "<title>Google</title>"));
+		server.setStalled(true);
+		
+		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
+		sharedPreferences.edit().putString(Settings.INTERNET_SERVER, server.getServer()).commit();
+		
+		try {
+			NetworkInfoMock networkInfo = new NetworkInfoMock();
+			networkInfo.setType(ConnectivityManager.TYPE_WIFI);
+			networkInfo.setTypeName("MockWifi");
+			networkInfo.setConnected(true);
+			
+			WifiInfoMock wifiInfo = new WifiInfoMock();
+			wifiInfo.setSSID("MockSSID");
+			wifiInfo.setBSSID("MockBSSID");
+			
+			final Tester tester = new TesterImpl(getContext(),
+					new ConnectivityManagerMock(networkInfo), 
+					new WifiManagerMock(wifiInfo), 
+					new TitleVerifierImpl());
+			
+			Thread cancelThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(500);
+						tester.cancel();
+					} catch (InterruptedException e) {
+						fail("Cancel thread should have not been interrupted");
+					}
+				}
+			};
+			cancelThread.start();
+			
+			RetryPolicy retryPolicy = new BackoffRetryPolicy(new TestClock(), new Random(), 0, 10, 40, 0, 60000, 1);
+			
+			long start = System.currentTimeMillis();
+			TestInfo info = tester.testWifi(retryPolicy);
+			long time = System.currentTimeMillis() - start;
+			
+			assertNull(info);
+			
+			// Not waiting for the read timeout
+			assertTrue(time < 1000);
+			assertEquals(1, server.getRequestCount());
+		} finally {
+			sharedPreferences.edit().remove(Settings.INTERNET_SERVER).commit();
+			server.close();
+		}
+	}
+	
+	public void testTestWifiRetryPolicy() {
+		
+		NetworkInfoMock networkInfo = new NetworkInfoMock();
+		networkInfo.setType(ConnectivityManager.TYPE_WIFI);
+		networkInfo.setTypeName("MockWifi");
+		networkInfo.setConnected(true);
+		
+		WifiInfoMock wifiInfo = new WifiInfoMock();
+		wifiInfo.setSSID("MockSSID");
+		wifiInfo.setBSSID("MockBSSID");
+		
+		TitleVerifierMock titleVerifier = new TitleVerifierMock(false, "MockTitle", null);
+		
+		Tester tester = new TesterImpl(getContext(),
+				new ConnectivityManagerMock(networkInfo), 
+				new WifiManagerMock(wifiInfo), 
+				titleVerifier);
+		
+		TestClock clock = new TestClock();
+		RetryPolicy retryPolicy = new BackoffRetryPolicy(clock, new Random(), 0, 10, 40, 0, 1000, 4);
+		
+		long start = System.currentTimeMillis();
+		TestInfo info = tester.testWifi(retryPolicy);
+		long time = System.currentTimeMillis() - start;
+		
+		assertFalse(info.getIsExpectedTitle());
+		assertEquals("MockTitle", info.getPageTitle());
+		assertEquals(4, titleVerifier.getTestCount());
+		
+		// 0 + 10 + 20 + 40 ms
+		assertTrue(time >= 70);
+		assertTrue(time < 3000);
+	}
+	
+	public void testTestSimpleStatusProbe() {
+		
+		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
+		sharedPreferences.edit().putString(Settings.INTERNET_PROBE, Settings.INTERNET_PROBE_STATUS).commit();
+		sharedPreferences.edit().putString(Settings.INTERNET_STATUS_SERVER, "MockStatusServer").commit();
+		
+		try {
+			NetworkInfoMock networkInfo = new NetworkInfoMock();
+			networkInfo.setType(ConnectivityManager.TYPE_WIFI);
+			networkInfo.setTypeName("MockWifi");
+			networkInfo.setConnected(true);
+			
+			WifiInfoMock wifiInfo = new WifiInfoMock();
+			wifiInfo.setSSID("MockSSID");
+			
+			TitleVerifierMock titleVerifier = new TitleVerifierMock(false, "MockTitle", null);
+			TitleVerifierMock statusVerifier = new TitleVerifierMock(true, StatusVerifierImpl.SUMMARY_NO_CONTENT, null);
+			
+			Tester tester = new TesterImpl(getContext(),
+					new ConnectivityManagerMock(networkInfo), 
+					new WifiManagerMock(wifiInfo), 
+					titleVerifier, statusVerifier);
+			
+			TestInfo info = tester.testSimple();
+			
+			assertTrue(info.getIsExpectedTitle());
+			assertEquals(StatusVerifierImpl.SUMMARY_NO_CONTENT, info.getPageTitle());
+			assertEquals(StatusVerifierImpl.SUMMARY_NO_CONTENT, info.getTitle());
+			assertEquals("MockStatusServer", info.getSite());
+			
+			assertEquals(0, titleVerifier.getTestCount());
+			assertEquals(1, statusVerifier.getTestCount());
+		} finally {
+			sharedPreferences.edit().remove(Settings.INTERNET_PROBE).commit();
+			sharedPreferences.edit().remove(Settings.INTERNET_STATUS_SERVER).commit();
+		}
+	}
+	
 	private class TitleVerifierMock implements TitleVerifier {
 		
 		private boolean expectedTitle;
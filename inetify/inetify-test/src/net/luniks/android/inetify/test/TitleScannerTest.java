@@ -0,0 +1,306 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import net.luniks.android.inetify.TitleScanner;
+
+import org.jsoup.Jsoup;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TitleScannerTest extends AndroidTestCase {
+
+	private static final String GOOGLE =
+		"<!doctype html><html itemscope=\"itemscope\" itemtype=\"http://schema.org/WebPage\">" +
+		"<head><meta content=\"Search the world's information\" name=\"description\">" +
+		"<meta content=\"noodp\" name=\"robots\"><title>Google</title>" +
+		"<script>(function(){window.google={kEI:'abc',kEXPI:'1,2,3'};})();</script></head>" +
+		"<body>%s</body></html>";
+
+	private static final String HOTSPOT_PORTAL =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" " +
+		"\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">\n" +
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\">\n" +
+		"<HEAD>\n" +
+		"  <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />\n" +
+		"  <TITLE lang=\"de\">\n    Hotspot &amp; Café &#8211; Anmeldung\n  </TITLE>\n" +
+		"</HEAD>\n<body>%s</body></html>";
+
+	private static final String HOTEL_PORTAL =
+		"<html><head><titlebar>Not the title</titlebar>" +
+		"<title></title>" +
+		"</head><body>%s</body></html>";
+
+	private static final String NO_TITLE =
+		"<html><head><meta name=\"title\" content=\"title\"></head><body>%s</body></html>";
+
+	private static final String[] TITLES = {"Google", "Hotspot & Café – Anmeldung", ""};
+
+	// Captive portal pages: a WISPr redirect, inline style and script before the title,
+	// an inline logo pushing the title beyond the maximum bytes and one in ISO-8859-1
+
+	private static final String WISPR_PORTAL =
+		"<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\r\n" +
+		"<HTML>\r\n" +
+		"<!--\r\n" +
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n" +
+		"<WISPAccessGatewayParam xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+		"xsi:noNamespaceSchemaLocation=\"http://www.acmewisp.com/WISPAccessGatewayParam.xsd\">\r\n" +
+		"<Redirect>\r\n" +
+		"<AccessProcedure>1.0</AccessProcedure>\r\n" +
+		"<AccessLocation>isocc=de,cc=49,ac=40,network=Hotspot</AccessLocation>\r\n" +
+		"<LocationName>Hotspot</LocationName>\r\n" +
+		"<LoginURL>https://10.1.0.1:4990/www/login.chi?res=notyet&amp;uamip=10.1.0.1&amp;uamport=3990&amp;" +
+		"challenge=8a7f2b6c1d0e9f3a5b4c7d6e8f9a0b1c&amp;called=00-0D-B9-1A-2B-3C&amp;mac=00-21-29-A2-48-80&amp;" +
+		"ip=10.1.0.23&amp;nasid=hotspot01&amp;userurl=http%%3a%%2f%%2fwww.google.com%%2f</LoginURL>\r\n" +
+		"<AbortLoginURL>http://10.1.0.1:3990/logoff</AbortLoginURL>\r\n" +
+		"<MessageType>100</MessageType>\r\n" +
+		"<ResponseCode>0</ResponseCode>\r\n" +
+		"</Redirect>\r\n" +
+		"</WISPAccessGatewayParam>\r\n" +
+		"-->\r\n" +
+		"<HEAD>\r\n" +
+		"  <TITLE>Hotspot Login</TITLE>\r\n" +
+		"  <META HTTP-EQUIV=\"Refresh\" CONTENT=\"0;url=https://10.1.0.1:4990/www/login.chi?res=notyet\">\r\n" +
+		"</HEAD>\r\n" +
+		"<BODY>%s</BODY>\r\n" +
+		"</HTML>\r\n";
+
+	private static final String GUEST_PORTAL =
+		"<!DOCTYPE html>\n" +
+		"<html lang=\"en\">\n" +
+		"<head>\n" +
+		"<meta charset=\"utf-8\">\n" +
+		"<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n" +
+		"<style type=\"text/css\">\n%s</style>\n" +
+		"<script type=\"text/javascript\">\n" +
+		"var portal = {site: 'lobby', ap: '00:18:0a:33:44:55', client: '00:21:29:a2:48:80', " +
+		"continueUrl: 'http://www.google.com/', loginUrl: '/splash/grant?continue_url=' + " +
+		"encodeURIComponent('http://www.google.com/')};\n" +
+		"function accept(form) { if(! form.terms.checked) { alert('Please accept the terms of use'); " +
+		"return false; } return true; }\n" +
+		"</script>\n" +
+		"<title>\n  Welcome to the Guest Wi&#8209;Fi &#8211; Terms &amp; Conditions\n</title>\n" +
+		"</head>\n" +
+		"<body>%s</body>\n" +
+		"</html>\n";
+
+	private static final String LOGO_PORTAL =
+		"<html>\n" +
+		"<head>\n" +
+		"<meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">\n" +
+		"<style>.logo { background: url(data:image/png;base64,%s) no-repeat; }</style>\n" +
+		"<title>Free WiFi | Login</title>\n" +
+		"</head>\n" +
+		"<body>%s</body>\n" +
+		"</html>\n";
+
+	private static final String LATIN1_PORTAL =
+		"<html>\n" +
+		"<head>\n" +
+		"<meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-1\">\n" +
+		"<title>WLAN-Zugang f\u00FCr G\u00E4ste &#8211; Stadtbibliothek M\u00FCnchen</title>\n" +
+		"</head>\n" +
+		"<body>%s</body>\n" +
+		"</html>\n";
+
+	private static final String[] PAGES = {GOOGLE, HOTSPOT_PORTAL, HOTEL_PORTAL};
+
+	public void testScan() throws Exception {
+
+		for(int i = 0; i < PAGES.length; i++) {
+			assertEquals(TITLES[i], scan(page(PAGES[i], 100), "UTF-8"));
+		}
+	}
+
+	public void testScanBufferSizes() throws Exception {
+
+		// Tags spanning buffer boundaries at every possible offset
+		for(int i = 0; i < PAGES.length; i++) {
+			byte[] page = page(PAGES[i], 10).getBytes("UTF-8");
+			for(int bufferSize = 1; bufferSize <= 64; bufferSize++) {
+				TitleScanner scanner = new TitleScanner(bufferSize, TitleScanner.DEFAULT_MAX_BYTES);
+				assertEquals(TITLES[i], scanner.scan(new ByteArrayInputStream(page), "UTF-8"));
+			}
+		}
+	}
+
+	public void testScanStopsAfterTitle() throws Exception {
+
+		byte[] page = page(GOOGLE, 10000).getBytes("UTF-8");
+		TitleScanner scanner = new TitleScanner();
+
+		assertEquals("Google", scanner.scan(new ByteArrayInputStream(page), "UTF-8"));
+		assertTrue(scanner.getBytesRead() <= TitleScanner.DEFAULT_BUFFER_SIZE);
+		assertTrue(scanner.getBytesRead() < page.length);
+	}
+
+	public void testScanNoTitle() throws Exception {
+
+		assertNull(scan(page(NO_TITLE, 100), "UTF-8"));
+		assertNull(scan("", "UTF-8"));
+		assertNull(scan("<title>Unterminated", "UTF-8"));
+	}
+
+	public void testScanMaxBytes() throws Exception {
+
+		String page = String.format("<html><head>%s<title>Late</title></head></html>", body(1000));
+		byte[] bytes = page.getBytes("UTF-8");
+
+		TitleScanner scanner = new TitleScanner(512, 1024);
+		assertNull(scanner.scan(new ByteArrayInputStream(bytes), "UTF-8"));
+		assertEquals(1024, scanner.getBytesRead());
+
+		scanner = new TitleScanner(512, bytes.length);
+		assertEquals("Late", scanner.scan(new ByteArrayInputStream(bytes), "UTF-8"));
+	}
+
+	public void testScanCharset() throws Exception {
+
+		String page = "<html><head><title>München</title></head></html>";
+
+		TitleScanner scanner = new TitleScanner();
+
+		assertEquals("München", scanner.scan(new ByteArrayInputStream(page.getBytes("ISO-8859-1")), "ISO-8859-1"));
+		assertEquals("München", scanner.scan(new ByteArrayInputStream(page.getBytes("UTF-8")), null));
+		assertEquals("München", scanner.scan(new ByteArrayInputStream(page.getBytes("UTF-8")), "invalid"));
+	}
+
+	public void testScanSameAsJsoup() throws Exception {
+
+		for(int i = 0; i < PAGES.length; i++) {
+			String page = page(PAGES[i], 100);
+			assertEquals(Jsoup.parse(page).title(), scan(page, "UTF-8"));
+		}
+	}
+
+	public void testScanPortalPages() throws Exception {
+
+		String wispr = page(WISPR_PORTAL, 200);
+		assertPortalPage("Hotspot Login", wispr, "UTF-8", "</TITLE>");
+
+		String guest = String.format(GUEST_PORTAL, style(150), body(200));
+		assertPortalPage("Welcome to the Guest Wi\u2011Fi \u2013 Terms & Conditions", guest, "UTF-8", "</title>");
+
+		String latin1 = page(LATIN1_PORTAL, 200);
+		assertPortalPage("WLAN-Zugang f\u00FCr G\u00E4ste \u2013 Stadtbibliothek M\u00FCnchen", latin1, "ISO-8859-1", "</title>");
+	}
+
+	public void testScanPortalPageTitleBeyondMaxBytes() throws Exception {
+
+		String page = String.format(LOGO_PORTAL, logo(40 * 1024), body(100));
+		byte[] bytes = page.getBytes("UTF-8");
+		TitleScanner scanner = new TitleScanner();
+
+		// Left to jsoup, with the bytes read so far
+		assertNull(scanner.scan(new ByteArrayInputStream(bytes), "UTF-8"));
+		assertEquals(TitleScanner.DEFAULT_MAX_BYTES, scanner.getBytesRead());
+		assertEquals(TitleScanner.DEFAULT_MAX_BYTES, scanner.getBytes().length);
+		assertEquals("Free WiFi | Login", Jsoup.parse(page).title());
+	}
+
+	public void testScanBenchmark() throws Exception {
+
+		String[] pages = {page(WISPR_PORTAL, 200), String.format(GUEST_PORTAL, style(150), body(200)),
+				page(LATIN1_PORTAL, 200), page(GOOGLE, 5000)};
+		int runs = 100;
+
+		long scanTime = 0;
+		long jsoupTime = 0;
+		long bytesScanned = 0;
+		long bytesParsed = 0;
+		for(String page : pages) {
+			byte[] bytes = page.getBytes("UTF-8");
+			String title = Jsoup.parse(page).title();
+
+			long start = System.currentTimeMillis();
+			for(int i = 0; i < runs; i++) {
+				TitleScanner scanner = new TitleScanner();
+				assertEquals(title, scanner.scan(new ByteArrayInputStream(bytes), "UTF-8"));
+				assertTrue(scanner.getBytesRead() < bytes.length);
+				bytesScanned += scanner.getBytesRead();
+			}
+			scanTime += System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for(int i = 0; i < runs; i++) {
+				assertEquals(title, Jsoup.parse(page).title());
+				bytesParsed += bytes.length;
+			}
+			jsoupTime += System.currentTimeMillis() - start;
+		}
+
+		Log.d("TitleScannerTest", String.format("TitleScanner: %s ms, %s bytes; jsoup: %s ms, %s bytes",
+				scanTime, bytesScanned, jsoupTime, bytesParsed));
+
+		// Not even a tenth of the pages read
+		assertTrue(bytesScanned * 10 < bytesParsed);
+	}
+
+	private static void assertPortalPage(final String title, final String page, final String charset,
+			final String endTag) throws Exception {
+		byte[] bytes = page.getBytes(charset);
+		int end = page.indexOf(endTag) + endTag.length();
+		int buffers = (end + TitleScanner.DEFAULT_BUFFER_SIZE - 1) / TitleScanner.DEFAULT_BUFFER_SIZE;
+
+		TitleScanner scanner = new TitleScanner();
+
+		assertEquals(Jsoup.parse(page).title(), scanner.scan(new ByteArrayInputStream(bytes), charset));
+		assertEquals(title, scanner.scan(new ByteArrayInputStream(bytes), charset));
+		assertEquals(buffers * TitleScanner.DEFAULT_BUFFER_SIZE, scanner.getBytesRead());
+		assertTrue(scanner.getBytesRead() < bytes.length);
+	}
+
+	private static String scan(final String page, final String charset) throws Exception {
+		InputStream in = new ByteArrayInputStream(page.getBytes(charset));
+		return new TitleScanner().scan(in, charset);
+	}
+
+	private static String page(final String page, final int lines) {
+		return String.format(page, body(lines));
+	}
+
+	private static String style(final int rules) {
+		StringBuilder style = new StringBuilder();
+		for(int i = 0; i < rules; i++) {
+			style.append(".portal-").append(i).append(" { margin: 0 auto; padding: 4px 8px; color: #333; }\n");
+		}
+		return style.toString();
+	}
+
+	private static String logo(final int length) {
+		String base64 = "iVBORw0KGgoAAAANSUhEUgAAAEAAAABACAYAAACqaXHeAAAABHNCSVQICAgIfAhkiAAAAAlwSFlz";
+		StringBuilder logo = new StringBuilder(length);
+		while(logo.length() < length) {
+			logo.append(base64);
+		}
+		return logo.substring(0, length);
+	}
+
+	private static String body(final int lines) {
+		StringBuilder body = new StringBuilder();
+		for(int i = 0; i < lines; i++) {
+			body.append("<p>Lorem ipsum dolor sit amet, consectetur adipisici elit</p>\n");
+		}
+		return body.toString();
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 Torsten Römer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.luniks.android.inetify.test;
+
+import net.luniks.android.inetify.InetifyIntentService;
+import net.luniks.android.inetify.ProbeBudget;
+import net.luniks.android.inetify.Settings;
+import net.luniks.android.inetify.WakeLockStats;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class WakeLockStatsTest extends AndroidTestCase {
+
+	private SharedPreferences sharedPreferences;
+	private SharedPreferences settings;
+	private TestClock clock;
+	private WakeLockStats stats;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		sharedPreferences = this.getContext().getSharedPreferences("WakeLockStatsTest", Context.MODE_PRIVATE);
+		settings = this.getContext().getSharedPreferences("WakeLockStatsTestSettings", Context.MODE_PRIVATE);
+		settings.edit().clear().commit();
+		clock = new TestClock();
+		stats = new WakeLockStats(sharedPreferences, settings, clock);
+		stats.clear();
+	}
+
+	public void testNothingCounted() {
+
+		WakeLockStats.Stats total = stats.getTotal();
+
+		assertEquals(0, total.getCount());
+		assertEquals(0, total.getTotal());
+		assertEquals(0, total.getMax());
+		assertEquals(0, total.getAverage());
+		assertEquals(-1, stats.getSince());
+	}
+
+	public void testCountedPerCause() {
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(1000);
+		stats.released("Tag1");
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(3000);
+		stats.released("Tag1");
+
+		stats.acquired("Tag2", WakeLockStats.CAUSE_LOCATION_ALARM);
+		clock.advance(5000);
+		stats.released("Tag2");
+
+		WakeLockStats.Stats connected = stats.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED);
+		assertEquals(2, connected.getCount());
+		assertEquals(4000, connected.getTotal());
+		assertEquals(3000, connected.getMax());
+		assertEquals(2000, connected.getAverage());
+
+		WakeLockStats.Stats location = stats.getStats(WakeLockStats.CAUSE_LOCATION_ALARM);
+		assertEquals(1, location.getCount());
+		assertEquals(5000, location.getTotal());
+
+		assertEquals(0, stats.getStats(WakeLockStats.CAUSE_WIFI_DISCONNECTED).getCount());
+
+		WakeLockStats.Stats total = stats.getTotal();
+		assertEquals(3, total.getCount());
+		assertEquals(9000, total.getTotal());
+		assertEquals(5000, total.getMax());
+
+		assertTrue(stats.getSince() > 0);
+	}
+
+	public void testOverBudget() {
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_DISCONNECTED);
+		clock.advance(WakeLockStats.BUDGET_WIFI_DISCONNECTED);
+		stats.released("Tag1");
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_DISCONNECTED);
+		clock.advance(WakeLockStats.BUDGET_WIFI_DISCONNECTED + 1);
+		stats.released("Tag1");
+
+		stats.acquired("Tag2", WakeLockStats.CAUSE_LOCATION_ALARM);
+		clock.advance(WakeLockStats.BUDGET_WIFI_DISCONNECTED + 1);
+		stats.released("Tag2");
+
+		stats.acquired("Tag2", WakeLockStats.CAUSE_LOCATION_ALARM);
+		clock.advance(WakeLockStats.BUDGET_LOCATION_ALARM + 1);
+		stats.released("Tag2");
+
+		assertEquals(1, stats.getStats(WakeLockStats.CAUSE_WIFI_DISCONNECTED).getOverBudget());
+		assertEquals(1, stats.getStats(WakeLockStats.CAUSE_LOCATION_ALARM).getOverBudget());
+		assertEquals(0, stats.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getOverBudget());
+		assertEquals(2, stats.getTotal().getOverBudget());
+
+		stats.clear();
+
+		assertEquals(0, stats.getTotal().getOverBudget());
+	}
+
+	public void testTestBudgetFollowsDeadline() {
+
+		long budget = InetifyIntentService.EVENT_MAX_WAIT + ProbeBudget.DEFAULT_DEADLINE + WakeLockStats.BUDGET_TEST_MARGIN;
+		assertEquals(budget, WakeLockStats.getBudget(WakeLockStats.CAUSE_WIFI_CONNECTED, ProbeBudget.DEFAULT_DEADLINE));
+		assertEquals(budget, WakeLockStats.getBudget(WakeLockStats.CAUSE_REDELIVERY, ProbeBudget.DEFAULT_DEADLINE));
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(budget + 1);
+		stats.released("Tag1");
+
+		assertEquals(1, stats.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getOverBudget());
+
+		// Within the budget with a deadline of 120 s
+		SharedPreferences deadlineSettings = this.getContext().getSharedPreferences("WakeLockStatsTestDeadline", Context.MODE_PRIVATE);
+		deadlineSettings.edit().clear().putString(Settings.INTERNET_DEADLINE, "120").commit();
+		WakeLockStats other = new WakeLockStats(sharedPreferences, deadlineSettings, clock);
+
+		other.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(budget + 1);
+		other.released("Tag1");
+
+		assertEquals(1, other.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getOverBudget());
+		assertEquals(2, other.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getCount());
+	}
+
+	public void testOverlappingLocks() {
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(1000);
+		stats.acquired("Tag2", WakeLockStats.CAUSE_LOCATION_ALARM);
+		clock.advance(1000);
+		stats.released("Tag1");
+		clock.advance(1000);
+		stats.released("Tag2");
+
+		assertEquals(2000, stats.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getTotal());
+		assertEquals(2000, stats.getStats(WakeLockStats.CAUSE_LOCATION_ALARM).getTotal());
+	}
+
+	public void testReleasedNotAcquired() {
+
+		stats.released("Tag1");
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_REDELIVERY);
+		clock.advance(1000);
+		stats.released("Tag1");
+		stats.released("Tag1");
+
+		assertEquals(1, stats.getStats(WakeLockStats.CAUSE_REDELIVERY).getCount());
+	}
+
+	public void testPersisted() {
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_DISCONNECTED);
+		clock.advance(1000);
+		stats.released("Tag1");
+
+		WakeLockStats other = new WakeLockStats(sharedPreferences, settings, new TestClock());
+
+		assertEquals(1, other.getStats(WakeLockStats.CAUSE_WIFI_DISCONNECTED).getCount());
+		assertEquals(1000, other.getStats(WakeLockStats.CAUSE_WIFI_DISCONNECTED).getTotal());
+	}
+
+	public void testClear() {
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		clock.advance(1000);
+		stats.released("Tag1");
+
+		stats.acquired("Tag1", WakeLockStats.CAUSE_WIFI_CONNECTED);
+		stats.clear();
+
+		assertEquals(0, stats.getTotal().getCount());
+		assertEquals(-1, stats.getSince());
+
+		// Wake lock held while cleared is still counted
+		clock.advance(1000);
+		stats.released("Tag1");
+
+		assertEquals(1, stats.getStats(WakeLockStats.CAUSE_WIFI_CONNECTED).getCount());
+	}
+
+}